@@ -1,7 +1,6 @@
 package edu.iastate.labels.core;
 
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.awt.Color;
 import java.io.BufferedWriter;
@@ -10,9 +9,6 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 
 import com.ensoftcorp.atlas.core.db.graph.Graph;
@@ -30,11 +26,16 @@ import com.ensoftcorp.atlas.core.script.CommonQueries;
 import com.ensoftcorp.atlas.core.xcsg.XCSG;
 import com.ensoftcorp.atlas.ui.viewer.graph.DisplayUtil;
 import com.ensoftcorp.atlas.ui.viewer.graph.SaveUtil;
-import com.ensoftcorp.open.pcg.common.PCGFactory;
 
 import edu.iastate.labels.core.VerificationProperties;
 
 import edu.iastate.labels.viewer.log.Log;
+import edu.iastate.structured.core.FunctionCatalog;
+import edu.iastate.structured.core.FunctionGraphContext;
+import edu.iastate.structured.core.LoopRecovery;
+import edu.iastate.structured.core.Structured;
+import edu.iastate.structured.core.UniverseLock;
+import edu.iastate.structured.graph.CFGSnapshot;
 
 /**
 * This program checks if a given function or all functions in mapped workspace are structured
@@ -44,8 +45,6 @@ import edu.iastate.labels.viewer.log.Log;
 * @author Le Zhang
 */
 public class LabelAnalyzer {
-	private static Map<Node, List<AtlasSet<Node>>> map_subgraphs = new HashMap<Node, List<AtlasSet<Node>>>(); // format: <Node controlFlowCondition, List<Q entry, Q body, Q exit> >
-	private static Map<Node, Node> map_parent = new HashMap<Node, Node>(); // format: <ChildNode, ParentNode>
 
 	
 	/**
@@ -86,13 +85,8 @@ public class LabelAnalyzer {
             DisplayUtil.displayGraph(markup, cfgGraph);
         }
             
-        try{
-//            String cfgFileName = String.format(CFG_GRAPH_FILE_NAME_PATTERN, num, sourceFile, methodName, VerificationProperties.getGraphImageFileNameExtension());
-            // getQualifiedName() already have the package@file@function as name, so methodName is not used here
-        	String cfgFileName = String.format(CFG_GRAPH_FILE_NAME_PATTERN, num, sourceFile, VerificationProperties.getGraphImageFileNameExtension());
-            SaveUtil.saveGraph(new File(currentgotoGraphsOutputDirectory, cfgFileName), cfgGraph, markup).join();
-        } catch (InterruptedException e) {}
-            
+        // getQualifiedName() already have the package@file@function as name, so methodName is not used here
+        saveGraph(currentgotoGraphsOutputDirectory, CFG_GRAPH_FILE_NAME_PATTERN, num, sourceFile, cfgGraph, markup);
     }	
 	
 	private static void saveDisplayPCG(Graph pcgGraph, int num, String sourceFile, String methodName, Markup markup, boolean displayGraphs) { 
@@ -100,15 +94,32 @@ public class LabelAnalyzer {
             DisplayUtil.displayGraph(markup, pcgGraph);
         }
             
-        try{
-//            String pcgFileName = String.format(PCG_GRAPH_FILE_NAME_PATTERN, num, sourceFile, methodName, VerificationProperties.getGraphImageFileNameExtension());
-        	// getQualifiedName() already have the package@file@function as name, so methodName is not used here
-        	String pcgFileName = String.format(PCG_GRAPH_FILE_NAME_PATTERN, num, sourceFile, VerificationProperties.getGraphImageFileNameExtension());
-            SaveUtil.saveGraph(new File(currentgotoGraphsOutputDirectory, pcgFileName), pcgGraph, markup).join();
-        } catch (InterruptedException e) {}
-            
+        // getQualifiedName() already have the package@file@function as name, so methodName is not used here
+        saveGraph(currentgotoGraphsOutputDirectory, PCG_GRAPH_FILE_NAME_PATTERN, num, sourceFile, pcgGraph, markup);
     }
 	
+	/**
+	 * Saves a graph image as num-CFG@sourceFile or num-PCG@sourceFile in the given directory.
+	 * The directory is passed in so reports of one pipeline run can save into their own directories.
+	 */
+	static void saveGraph(File directory, String fileNamePattern, int num, String sourceFile, Graph graph, Markup markup) {
+		try{
+			String fileName = String.format(fileNamePattern, num, sourceFile, VerificationProperties.getGraphImageFileNameExtension());
+			SaveUtil.saveGraph(new File(directory, fileName), graph, markup).join();
+		} catch (InterruptedException e) {}
+	}
+	
+	/**
+	 * @return the directory of the given name under the graphs output directory, created if needed
+	 */
+	static File graphsDirectory(String name) {
+		File directory = VerificationProperties.getGraphsOutputDirectory().resolve(name).toFile();
+		if(!directory.exists() && !directory.mkdirs()) {
+			Log.info("Cannot create directory:" + directory.getAbsolutePath());
+		}
+		return directory;
+	}
+	
 	private void createDirectory(){
         String containingDirectoryName = String.format(GOTO_GRAPH_DIRECTORY_NAME_PATTERN);
         currentgotoGraphsOutputDirectory = this.graphsOutputDirectory.resolve(containingDirectoryName).toFile();
@@ -215,16 +226,11 @@ public class LabelAnalyzer {
 	 * @return none
 	 */
 	public static void preprocess(Q function) {
-		// clear memory for previous functions
-		map_subgraphs.clear();
-		map_parent.clear();
-		
-		// run DLI to tag all loops
-		com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.recoverLoops();
-		
-
 		// initialize necessary variables
 		Q cfg = CommonQueries.cfg(function);
+		
+		// recover the loops of this function only, once per session
+		LoopRecovery.recover(cfg.eval());
 		Q cfbe=cfg.edges(XCSG.ControlFlowBackEdge).retainEdges(); //Control flow back edge
 		Q dag=cfg.differenceEdges(cfbe); // Control flow back edges removed
 		
@@ -249,11 +255,11 @@ public class LabelAnalyzer {
 	public static void analyzeAll(File file) throws IOException {
 		// get saving directory
 		new LabelAnalyzer().createDirectory();
-		// run DLI to tag all loops
-		com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.recoverLoops();
+		// run DLI to tag all loops, once per session
+		Structured.recoverLoops();
 		
 		//		get all functions with labels
-		AtlasSet<Node> function_w_label = Common.universe().nodesTaggedWithAll("isLabel").parent().nodes(XCSG.Function).eval().nodes();
+		List<Node> function_w_label = FunctionCatalog.get().functions(FunctionCatalog.WITH_LABELS);
 		
 		int num = 0;
 		FileWriter writer = new FileWriter(file);
@@ -299,7 +305,7 @@ public class LabelAnalyzer {
 		new LabelAnalyzer().createDirectory();
 		
 		//		get all functions with labels
-		AtlasSet<Node> function_w_label = Common.universe().nodesTaggedWithAll("isLabel").parent().nodes(XCSG.Function).eval().nodes();
+		List<Node> function_w_label = FunctionCatalog.get().functions(FunctionCatalog.WITH_LABELS);
 		
 		int num = 0;
 		for(Node function: function_w_label) {
@@ -327,7 +333,7 @@ public class LabelAnalyzer {
 	
 	public static void calcGoto() {
 		
-		AtlasSet<Node> function_w_label = Common.universe().nodesTaggedWithAll("isLabel").parent().nodes(XCSG.Function).eval().nodes();
+		List<Node> function_w_label = FunctionCatalog.get().functions(FunctionCatalog.WITH_LABELS);
 		
 		for(Node function: function_w_label) {
 			Q cfg = CommonQueries.cfg(Common.toQ(function));
@@ -343,104 +349,54 @@ public class LabelAnalyzer {
 	}
 
 	public static void calcGoto(String filePath) throws IOException  {
-		FileWriter writer = new FileWriter(new File(filePath));
-		writer.write("function_name, label_node, goto_count, predecessor_count\n");
-		BufferedWriter br = new BufferedWriter(writer);
-		
-		AtlasSet<Node> function_w_label = Common.universe().nodesTaggedWithAll("isLabel").parent().nodes(XCSG.Function).eval().nodes();
-		
-		for(Node function: function_w_label) {
-			Q cfg = CommonQueries.cfg(Common.toQ(function));
-			AtlasSet<Node> label_set = cfg.nodesTaggedWithAll("isLabel").eval().nodes();
-			
-			String function_name = function.getAttr(XCSG.name).toString();
-			
-			for(Node labelNode : label_set) {
-				AtlasSet<Node> predSet = cfg.predecessors(Common.toQ(labelNode)).eval().nodes();
-				AtlasSet<Node> predGotoSet = Common.toQ(predSet).nodes(XCSG.GotoStatement).eval().nodes();
-//				labelNode.tag("GotoCount_"+predGotoSet.size());
-
-				br.write(function_name + "," + labelNode.getAttr(XCSG.name).toString() + "," + predGotoSet.size() + "," + predSet.size() + "\n");
-				
-				br.flush();
-			}
-			
-		}
-		writer.close();
+		writeReports(gotoCountReport(filePath));
 		Log.info("Done With Goto Count");
 	}
 	
+	/**
+	 * @return a report of the goto and predecessor count of every label, see {@link #calcGoto(String)}
+	 */
+	public static LabelReport<String> gotoCountReport(String filePath) {
+		return new LabelReport.Csv(filePath, false, "function_name, label_node, goto_count, predecessor_count\n") {
+			@Override
+			public String visit(LabelFunction function) {
+				Q cfg = function.cfgQ();
+				String function_name = function.name();
+				StringBuilder rows = new StringBuilder();
+				for(Node labelNode : function.labels()) {
+					AtlasSet<Node> predSet = cfg.predecessors(Common.toQ(labelNode)).eval().nodes();
+					AtlasSet<Node> predGotoSet = Common.toQ(predSet).nodes(XCSG.GotoStatement).eval().nodes();
+					rows.append(function_name + "," + labelNode.getAttr(XCSG.name).toString() + "," + predGotoSet.size() + "," + predSet.size() + "\n");
+				}
+				return rows.toString();
+			}
+		};
+	}
+	
 	public static void writeLabelPCG() throws IOException {
-		GOTO_GRAPH_DIRECTORY_NAME_PATTERN = "writeLabelPCG";
-		
-		// get saving directory
-		new LabelAnalyzer().createDirectory();
-		
-		//		get all functions with labels
-		AtlasSet<Node> labelFunctionSet = Common.universe().nodesTaggedWithAll("isLabel").parent().nodes(XCSG.Function).eval().nodes();
-
-		// make a list so we can sort it
-		List<Node> labelFunctionList = new ArrayList<Node>();
-		
-		for(Node function: labelFunctionSet) {
-			labelFunctionList.add(function);
-		}
-		
-		// custom sort
-		Collections.sort(labelFunctionList,new Comparator<Node>() {
-            @Override
-            public int compare(Node n1, Node n2) {
-            	// sort with name first, then number of nodes, then edges
-                int value1 = n1.getAttr(XCSG.name).toString().compareTo(n2.getAttr(XCSG.name).toString());
-                if (value1 == 0) {
-                	Q cfgQ1 = CommonQueries.cfg(Common.toQ(n1));
-                	Q cfgQ2 = CommonQueries.cfg(Common.toQ(n2));
-                	int i1 = (int) cfgQ1.eval().nodes().size();
-                	int i2 = (int) cfgQ2.eval().nodes().size();
-                    int value2 = i2 - i1;
-                    if (value2 == 0) {
-                    	int i11 = (int) cfgQ1.eval().edges().size();
-                    	int i22 = (int) cfgQ2.eval().edges().size();
-                        return i22 - i11;
-                    } else {
-                        return value2;
-                    }
-                }
-                return value1;
-            }
-        });
-		
-		int num = 0;
-		for(Node function: labelFunctionList) {
-			num++;
-			Q cfg = CommonQueries.cfg(Common.toQ(function));
-			
-			AtlasSet<Node> label_set = cfg.nodesTaggedWithAll("isLabel").eval().nodes();
-			AtlasSet<Node> goto_set = cfg.nodesTaggedWithAll(XCSG.GotoStatement).eval().nodes();
-			AtlasSet<Node> return_set = cfg.nodesTaggedWithAll(XCSG.controlFlowExitPoint).eval().nodes();
-			
-			Markup markup = new Markup();
-			markup.set(Common.toQ(label_set), MarkupProperty.NODE_BACKGROUND_COLOR, Color.RED);
-			markup.set(Common.toQ(goto_set), MarkupProperty.NODE_BACKGROUND_COLOR, Color.YELLOW);
-			markup.set(Common.toQ(return_set), MarkupProperty.NODE_BACKGROUND_COLOR, Color.MAGENTA);
-			
-			// set file name
-			String sourceFile = getQualifiedFunctionName(function);
-			String methodName =  function.getAttr(XCSG.name).toString();
-			
-			// output CFG
-			saveDisplayCFG(cfg.eval(), num, sourceFile, methodName, markup, false);
-			
+		writeReports(labelPCGReport());
+	}
+	
+	/**
+	 * @return a report saving the CFG and the PCG of labels, gotos and exits of every function, see {@link #writeLabelPCG()}
+	 */
+	public static LabelReport<Void> labelPCGReport() {
+		return new LabelReport<Void>() {
+			private File directory;
 			
-			// output PCG
-			Q nodeOfInterestQ = Common.toQ(label_set).union(Common.toQ(goto_set)).union(Common.toQ(return_set));
-			AtlasSet<Node> pcg_seed = nodeOfInterestQ.eval().nodes(); //just interested in label and goto and return nodes
+			@Override
+			public void begin() {
+				directory = graphsDirectory("writeLabelPCG");
+			}
 			
-			Q pcg = PCGFactory.create(cfg, Common.toQ(pcg_seed)).getPCG();
-			saveDisplayPCG(pcg.eval(), num, sourceFile, methodName, markup, false);
-
-		}
-		
+			@Override
+			public Void visit(LabelFunction function) {
+				Markup markup = function.labelMarkup();
+				saveGraph(directory, CFG_GRAPH_FILE_NAME_PATTERN, function.number(), function.qualifiedName(), function.cfg(), markup);
+				saveGraph(directory, PCG_GRAPH_FILE_NAME_PATTERN, function.number(), function.qualifiedName(), function.pcg().eval(), markup);
+				return null;
+			}
+		};
 	}
 	
 	public static void writeAllCFG() throws IOException {
@@ -449,39 +405,8 @@ public class LabelAnalyzer {
 		// get saving directory
 		new LabelAnalyzer().createDirectory();
 		
-		//		get all functions with labels
-		AtlasSet<Node> functionSet = Common.universe().nodes(XCSG.Function).eval().nodes();
-		
-		// make a list so we can sort it
-		List<Node> functionList = new ArrayList<Node>();
-		
-		for(Node function: functionSet) {
-			functionList.add(function);
-		}
-		
-		// custom sort
-		Collections.sort(functionList,new Comparator<Node>() {
-            @Override
-            public int compare(Node n1, Node n2) {
-            	// sort with name first, then number of nodes, then edges
-                int value1 = n1.getAttr(XCSG.name).toString().compareTo(n2.getAttr(XCSG.name).toString());
-                if (value1 == 0) {
-                	Q cfgQ1 = CommonQueries.cfg(Common.toQ(n1));
-                	Q cfgQ2 = CommonQueries.cfg(Common.toQ(n2));
-                	int i1 = (int) cfgQ1.eval().nodes().size();
-                	int i2 = (int) cfgQ2.eval().nodes().size();
-                    int value2 = i2 - i1;
-                    if (value2 == 0) {
-                    	int i11 = (int) cfgQ1.eval().edges().size();
-                    	int i22 = (int) cfgQ2.eval().edges().size();
-                        return i22 - i11;
-                    } else {
-                        return value2;
-                    }
-                }
-                return value1;
-            }
-        });
+		// all functions, sorted with name first, then number of nodes, then edges
+		List<Node> functionList = FunctionCatalog.get().functions(FunctionCatalog.ALL);
 		
 		int num = 0;
 		for(Node function: functionList) {
@@ -535,7 +460,7 @@ public class LabelAnalyzer {
 //		BufferedWriter br = new BufferedWriter(writer);
 //		
 //		//		get all functions with labels
-//		AtlasSet<Node> function_w_label = Common.universe().nodesTaggedWithAll("isLabel").parent().nodes(XCSG.Function).eval().nodes();
+//		List<Node> function_w_label = FunctionCatalog.get().functions(FunctionCatalog.WITH_LABELS);
 //		
 //		int num = 0;
 //		for(Node function: function_w_label) {
@@ -602,7 +527,9 @@ public class LabelAnalyzer {
 //		writer.close();
 //	}
 	
-	private static void tagLabelCategoryNewHelper(int flag, Q cfgQ, Q dagQ, Node labelNode, AtlasSet<Node> predSetDag, AtlasSet <Node> loopChildNodeSet) {
+	private static void tagLabelCategoryNewHelper(int flag, FunctionGraphContext context, Node labelNode, AtlasSet<Node> predSetDag, AtlasSet <Node> loopChildNodeSet) {
+		Q cfgQ = context.cfgQ();
+		Q dagQ = context.dag();
 		// input label flag: -2, -1 (miscellaneous), 0 (no entry), 1 (single entry), 2 (multiple entry)
 		// Tags:
 		final String MISC = "CATEGORY_Misc";
@@ -656,7 +583,8 @@ public class LabelAnalyzer {
 			}
 			
 			// redundant check
-			AtlasSet<Node> labelBodySet = dagQ.forward(Common.toQ(labelNode)).eval().nodes();
+			CFGSnapshot snapshot = context.snapshot();
+			AtlasSet<Node> labelBodySet = snapshot.toAtlasSet(context.reachability().forward(snapshot.id(labelNode)));
 			AtlasSet<Node> labelBodyEntryPredSet = dagQ.predecessors(Common.toQ(labelBodySet)).difference(Common.toQ(labelBodySet)).eval().nodes();
 			if(labelBodyEntryPredSet.size()<2 && !labelNode.taggedWith(LOOPEXIT)) {
 				// if no other entry to the label module, AND not loop exit, it is redundant. 
@@ -690,70 +618,87 @@ public class LabelAnalyzer {
 		return;
 	}
 	
+	/**
+	 * The tags set by {@link #tagLabelCategory()}.
+	 */
+	static final String[] CATEGORIES = {"CATEGORY_Misc", "CATEGORY_Unreachable", "CATEGORY_LoopCreation", "CATEGORY_FlexMerge", "CATEGORY_FlexLoopExit", "CATEGORY_Redundant"};
+	
 	public static void tagLabelCategory() {
 		
 		// run DLI
-		if(Common.universe().nodes("NATURAL_LOOP").eval().nodes().size()<1) {
-			com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.recoverLoops();
-			Log.info("DLI Done");
-		}else {
-			Log.info("No need for DLI");
-		}
+		// NATURAL_LOOP tags alone do not tell, the smart views recover the loops of single functions
+		Structured.recoverLoops();
 		
 		// get all functions with labels
-		AtlasSet<Node> labelFunctionSet = Common.universe().nodesTaggedWithAll("isLabel").parent().nodes(XCSG.Function).eval().nodes();
+		List<Node> labelFunctionSet = FunctionCatalog.get().functions(FunctionCatalog.WITH_LABELS);
 		
+		int[] count = new int[4];
+		for(Node function: labelFunctionSet) {
+			int[] functionCount = tagLabelCategories(new FunctionGraphContext(CommonQueries.cfg(Common.toQ(function))));
+			for(int i = 0; i < count.length; i++) {
+				count[i] += functionCount[i];
+			}
+		}
+		Log.info("NoEntry " + count[0] + "; SingleEntry " + count[1] + "; MultiEntry " + count[2] + "; misc " + count[3]);
 		
-		AtlasSet<Node> unreachableSet = new AtlasHashSet<Node>();
-		AtlasSet<Node> singleEntryLabelSet = new AtlasHashSet<Node>();
-		AtlasSet<Node> multiEntryLabelSet = new AtlasHashSet<Node>();
-		AtlasSet<Node> miscLabelSet = new AtlasHashSet<Node>();
+	}
+	
+	/**
+	 * Tags the category of every label of one function, the loops must have been recovered.
+	 * @return the number of labels with no entry, a single entry, multiple entries and the others
+	 */
+	static int[] tagLabelCategories(FunctionGraphContext context) {
+		//CFG/DAG
+		Q cfgQ = context.cfgQ();
+		Q dagQ = context.dag(); // Control flow back edges removed
 		
-		for(Node function: labelFunctionSet) {
-			
-			//CFG/DAG
-			Q cfgQ = CommonQueries.cfg(Common.toQ(function));
-			Q cfbeQ=cfgQ.edges(XCSG.ControlFlowBackEdge).retainEdges(); //Control flow back edge
-			Q dagQ=cfgQ.differenceEdges(cfbeQ); // Control flow back edges removed
-			
-			//get map for loop children				
-			AtlasSet <Node> loopNodeSet = cfgQ.nodes(XCSG.Loop).eval().nodes();
-						
-			AtlasSet <Node> loopChildNodeSet = Common.universe().edges(XCSG.LoopChild).
-		        forward(Common.toQ(loopNodeSet)).retainNodes().eval().nodes();
-			
-			//go through all labels
-			AtlasSet<Node> labelSet = cfgQ.nodesTaggedWithAll("isLabel").eval().nodes();
-			
-			int flag;
-			for(Node labelNode : labelSet) {
-				flag = -2;
-				AtlasSet<Node> predSetDag = dagQ.predecessors(Common.toQ(labelNode)).eval().nodes();
-				AtlasSet<Node> predSetCfg = cfgQ.predecessors(Common.toQ(labelNode)).eval().nodes();
-				if(predSetCfg.size() == 0) {
-					unreachableSet.add(labelNode);
-					flag = 0;
-				}else if(predSetCfg.size() == 1) {
-					singleEntryLabelSet.add(labelNode);
-					flag = 1;
-				}else if(predSetCfg.size() > 1){
-					multiEntryLabelSet.add(labelNode);
-					flag = 2;
-				}else {
-					miscLabelSet.add(labelNode);
-					flag = -1;
-				}
-				
-				tagLabelCategoryNewHelper(flag, cfgQ, dagQ, labelNode, predSetDag, loopChildNodeSet);
+		//get map for loop children				
+		AtlasSet <Node> loopNodeSet = cfgQ.nodes(XCSG.Loop).eval().nodes();
+					
+		AtlasSet <Node> loopChildNodeSet = Common.universe().edges(XCSG.LoopChild).
+	        forward(Common.toQ(loopNodeSet)).retainNodes().eval().nodes();
+		
+		//go through all labels
+		AtlasSet<Node> labelSet = cfgQ.nodesTaggedWithAll("isLabel").eval().nodes();
+		
+		int[] count = new int[4];
+		int flag;
+		for(Node labelNode : labelSet) {
+			flag = -2;
+			AtlasSet<Node> predSetDag = dagQ.predecessors(Common.toQ(labelNode)).eval().nodes();
+			AtlasSet<Node> predSetCfg = cfgQ.predecessors(Common.toQ(labelNode)).eval().nodes();
+			if(predSetCfg.size() == 0) {
+				count[0]++;
+				flag = 0;
+			}else if(predSetCfg.size() == 1) {
+				count[1]++;
+				flag = 1;
+			}else if(predSetCfg.size() > 1){
+				count[2]++;
+				flag = 2;
+			}else {
+				count[3]++;
+				flag = -1;
+			}
 			
+			// the label reports visit functions on several threads
+			synchronized(UniverseLock.WRITE) {
+				tagLabelCategoryNewHelper(flag, context, labelNode, predSetDag, loopChildNodeSet);
 			}
-		}
-		Log.info("NoEntry " + unreachableSet.size() + "; SingleEntry " + singleEntryLabelSet.size() + "; MultiEntry " + multiEntryLabelSet.size() + "; misc " + miscLabelSet.size());
 		
+		}
+		return count;
 	}
 	
 	
 	public static void writeLabelCategoryByFunc(String filePath) throws IOException {
+		writeReports(labelCategoryByFuncReport(filePath));
+	}
+	
+	/**
+	 * @return a report of the label category counts of every function, see {@link #writeLabelCategoryByFunc(String)}
+	 */
+	public static LabelReport<String> labelCategoryByFuncReport(String filePath) {
 		
 		final String MISC = "CATEGORY_Misc";
 		final String UNREACH = "CATEGORY_Unreachable";
@@ -762,102 +707,63 @@ public class LabelAnalyzer {
 		final String LOOPEXIT = "CATEGORY_FlexLoopExit";
 		final String REDUND = "CATEGORY_Redundant";
 		
-		// create directory
-		new LabelAnalyzer().createDirectory();
-		
-		if(Common.universe().nodes(MISC, UNREACH, LOOP, FLEXMERGE, LOOPEXIT, REDUND).eval().nodes().size()<1) {
-			Log.info("Start Tagging...");
-			tagLabelCategory();
-			Log.info("Tagging Done.");
-		}else {
-			Log.info("Already Categorized.");
-		}
-		
-		FileWriter writer = new FileWriter(new File(filePath), true);
-		writer.write("Function_number, Function_name, Total_labels, Flex_Merge, Loop_creation, Flex_Loop_Exit, Redundant, Unreachable, Misc\n");
-		BufferedWriter br = new BufferedWriter(writer);
-		
-//		get all functions with labels
-		AtlasSet<Node> labelFunctionSet = Common.universe().nodesTaggedWithAll("isLabel").parent().nodes(XCSG.Function).eval().nodes();
-		
-		// make a list so we can sort it
-		List<Node> labelFunctionList = new ArrayList<Node>();
-		
-		for(Node function: labelFunctionSet) {
-			labelFunctionList.add(function);
-		}
-		
-		// custom sort
-		Collections.sort(labelFunctionList,new Comparator<Node>() {
-            @Override
-            public int compare(Node n1, Node n2) {
-            	// sort with name first, then number of nodes, then edges
-                int value1 = n1.getAttr(XCSG.name).toString().compareTo(n2.getAttr(XCSG.name).toString());
-                if (value1 == 0) {
-                	Q cfgQ1 = CommonQueries.cfg(Common.toQ(n1));
-                	Q cfgQ2 = CommonQueries.cfg(Common.toQ(n2));
-                	int i1 = (int) cfgQ1.eval().nodes().size();
-                	int i2 = (int) cfgQ2.eval().nodes().size();
-                    int value2 = i2 - i1;
-                    if (value2 == 0) {
-                    	int i11 = (int) cfgQ1.eval().edges().size();
-                    	int i22 = (int) cfgQ2.eval().edges().size();
-                        return i22 - i11;
-                    } else {
-                        return value2;
-                    }
-                }
-                return value1;
-            }
-        });
-		
-		int num = 0;
-		for(Node function: labelFunctionList) { //the order is now sorted
-			num++;
-			//CFG/DAG
-			Q cfgQ = CommonQueries.cfg(Common.toQ(function));
-			
-			//go through all labels
-			AtlasSet<Node> labelSet = cfgQ.nodesTaggedWithAll("isLabel").eval().nodes();
-			
-			// count
-			int flexMerge = 0;
-			int loopCreate = 0;
-			int flexLoopExit = 0;
-			int redundant = 0;
-			int unreachable = 0;
-			int misc = 0;
+		return new LabelReport.Csv(filePath, true, "Function_number, Function_name, Total_labels, Flex_Merge, Loop_creation, Flex_Loop_Exit, Redundant, Unreachable, Misc\n") {
+			@Override
+			public boolean needsLoops() {
+				return true;
+			}
 			
-			for(Node labelNode : labelSet) {
-				if(labelNode.taggedWith(FLEXMERGE)) {
-					flexMerge++;
-				}
-				if(labelNode.taggedWith(LOOP)) {
-					loopCreate++;
-				}
-				if(labelNode.taggedWith(LOOPEXIT)) {
-					flexLoopExit++;
-				}
-				if(labelNode.taggedWith(REDUND)) {
-					redundant++;
-				}
-				if(labelNode.taggedWith(UNREACH)) {
-					unreachable++;
-				}
-				if(labelNode.taggedWith(MISC)){
-					misc++;
+			@Override
+			public String visit(LabelFunction function) {
+				// tagged once per function, whichever category report comes first
+				function.categorize();
+				
+				//go through all labels
+				AtlasSet<Node> labelSet = function.labels();
+
+				// count
+				int flexMerge = 0;
+				int loopCreate = 0;
+				int flexLoopExit = 0;
+				int redundant = 0;
+				int unreachable = 0;
+				int misc = 0;
+
+				for(Node labelNode : labelSet) {
+					if(labelNode.taggedWith(FLEXMERGE)) {
+						flexMerge++;
+					}
+					if(labelNode.taggedWith(LOOP)) {
+						loopCreate++;
+					}
+					if(labelNode.taggedWith(LOOPEXIT)) {
+						flexLoopExit++;
+					}
+					if(labelNode.taggedWith(REDUND)) {
+						redundant++;
+					}
+					if(labelNode.taggedWith(UNREACH)) {
+						unreachable++;
+					}
+					if(labelNode.taggedWith(MISC)){
+						misc++;
+					}
 				}
+
+				// output
+				return function.number() + "," + function.name() + "," + labelSet.size() + "," + flexMerge + "," + loopCreate + "," + flexLoopExit + "," + redundant + "," + unreachable + "," + misc + "\n";
 			}
-			
-			// output
-			br.write(num + "," + function.getAttr(XCSG.name).toString() + "," + labelSet.size() + "," + flexMerge + "," + loopCreate + "," + flexLoopExit + "," + redundant + "," + unreachable + "," + misc + "\n");
-			br.flush();
-		}
-		writer.close();
-		
+		};
 	}
 	
-public static void writeLabelCategoryByLabel(String filePath) throws IOException {
+	public static void writeLabelCategoryByLabel(String filePath) throws IOException {
+		writeReports(labelCategoryByLabelReport(filePath));
+	}
+	
+	/**
+	 * @return a report of the category of every label, see {@link #writeLabelCategoryByLabel(String)}
+	 */
+	public static LabelReport<String> labelCategoryByLabelReport(String filePath) {
 		
 		final String MISC = "CATEGORY_Misc";
 		final String UNREACH = "CATEGORY_Unreachable";
@@ -866,338 +772,232 @@ public static void writeLabelCategoryByLabel(String filePath) throws IOException
 		final String LOOPEXIT = "CATEGORY_FlexLoopExit";
 		final String REDUND = "CATEGORY_Redundant";
 		
-		// create directory
-		new LabelAnalyzer().createDirectory();
-		
-		if(Common.universe().nodes(MISC, UNREACH, LOOP, FLEXMERGE, LOOPEXIT, REDUND).eval().nodes().size()<1) {
-			Log.info("Start Tagging...");
-			tagLabelCategory();
-			Log.info("Tagging Done.");
-		}else {
-			Log.info("Already Categorized.");
-		}
-		
-		FileWriter writer = new FileWriter(new File(filePath), true);
-		writer.write("Function_number, Function_name, Total_labels, Label_number, Label_name, Flex_Merge, Loop_creation, Flex_Loop_Exit, Redundant, Unreachable, Misc\n");
-		BufferedWriter br = new BufferedWriter(writer);
-		
-		//	get all functions with labels
-		AtlasSet<Node> labelFunctionSet = Common.universe().nodesTaggedWithAll("isLabel").parent().nodes(XCSG.Function).eval().nodes();
-		
-		// make a list so we can sort it
-		List<Node> labelFunctionList = new ArrayList<Node>();
-		
-		for(Node function: labelFunctionSet) {
-			labelFunctionList.add(function);
-		}
-		
-		// custom sort
-		Collections.sort(labelFunctionList,new Comparator<Node>() {
-            @Override
-            public int compare(Node n1, Node n2) {
-            	// sort with name first, then number of nodes, then edges
-                int value1 = n1.getAttr(XCSG.name).toString().compareTo(n2.getAttr(XCSG.name).toString());
-                if (value1 == 0) {
-                	Q cfgQ1 = CommonQueries.cfg(Common.toQ(n1));
-                	Q cfgQ2 = CommonQueries.cfg(Common.toQ(n2));
-                	int i1 = (int) cfgQ1.eval().nodes().size();
-                	int i2 = (int) cfgQ2.eval().nodes().size();
-                    int value2 = i2 - i1;
-                    if (value2 == 0) {
-                    	int i11 = (int) cfgQ1.eval().edges().size();
-                    	int i22 = (int) cfgQ2.eval().edges().size();
-                        return i22 - i11;
-                    } else {
-                        return value2;
-                    }
-                }
-                return value1;
-            }
-        });
-		
-		int numFunc = 0;
-		for(Node function: labelFunctionList) {
-			numFunc++;
-			//CFG/DAG
-			Q cfgQ = CommonQueries.cfg(Common.toQ(function));
-			
-			//go through all labels
-			AtlasSet<Node> labelSet = cfgQ.nodesTaggedWithAll("isLabel").eval().nodes();
-			
+		return new LabelReport.Csv(filePath, true, "Function_number, Function_name, Total_labels, Label_number, Label_name, Flex_Merge, Loop_creation, Flex_Loop_Exit, Redundant, Unreachable, Misc\n") {
+			@Override
+			public boolean needsLoops() {
+				return true;
+			}
 			
-			int numLabel = 0;
-			for(Node labelNode : labelSet) {
-				numLabel++;
-				// count
-				int flexMerge = 0;
-				int loopCreate = 0;
-				int flexLoopExit = 0;
-				int redundant = 0;
-				int unreachable = 0;
-				int misc = 0;
+			@Override
+			public String visit(LabelFunction function) {
+				// tagged once per function, whichever category report comes first
+				function.categorize();
 				
-				if(labelNode.taggedWith(FLEXMERGE)) {
-					flexMerge++;
-				}
-				if(labelNode.taggedWith(LOOP)) {
-					loopCreate++;
-				}
-				if(labelNode.taggedWith(LOOPEXIT)) {
-					flexLoopExit++;
-				}
-				if(labelNode.taggedWith(REDUND)) {
-					redundant++;
-				}
-				if(labelNode.taggedWith(UNREACH)) {
-					unreachable++;
-				}
-				if(labelNode.taggedWith(MISC)){
-					misc++;
+				int numFunc = function.number();
+				//go through all labels
+				AtlasSet<Node> labelSet = function.labels();
+
+				StringBuilder rows = new StringBuilder();
+				int numLabel = 0;
+				for(Node labelNode : labelSet) {
+					numLabel++;
+					// count
+					int flexMerge = 0;
+					int loopCreate = 0;
+					int flexLoopExit = 0;
+					int redundant = 0;
+					int unreachable = 0;
+					int misc = 0;
+
+					if(labelNode.taggedWith(FLEXMERGE)) {
+						flexMerge++;
+					}
+					if(labelNode.taggedWith(LOOP)) {
+						loopCreate++;
+					}
+					if(labelNode.taggedWith(LOOPEXIT)) {
+						flexLoopExit++;
+					}
+					if(labelNode.taggedWith(REDUND)) {
+						redundant++;
+					}
+					if(labelNode.taggedWith(UNREACH)) {
+						unreachable++;
+					}
+					if(labelNode.taggedWith(MISC)){
+						misc++;
+					}
+
+					String labelNumber = "" + numFunc + "_" + numLabel;
+					// output
+					rows.append(numFunc + "," + function.name() + "," + labelSet.size() + "," + labelNumber + "," + labelNode.getAttr(XCSG.name).toString() + "," + flexMerge + "," + loopCreate + "," + flexLoopExit + "," + redundant + "," + unreachable + "," + misc + "\n");
 				}
-				
-				String labelNumber = "" + numFunc + "_" + numLabel;
-				// output
-				br.write(numFunc + "," + function.getAttr(XCSG.name).toString() + "," + labelSet.size() + "," + labelNumber + "," + labelNode.getAttr(XCSG.name).toString() + "," + flexMerge + "," + loopCreate + "," + flexLoopExit + "," + redundant + "," + unreachable + "," + misc + "\n");
+				return rows.toString();
 			}
-			br.flush();
-		}
-		writer.close();
-		
+		};
 	}
 	
 	public static void writeBasicStats(String filePath) throws IOException {
 		// Write statistics for different categories of labels
+		writeReports(basicStatsReport(filePath));
+	}
+	
+	/**
+	 * @return a report of the CFG and PCG sizes of every function, see {@link #writeBasicStats(String)}
+	 */
+	public static LabelReport<String> basicStatsReport(String filePath) {
+		return new LabelReport.Csv(filePath, true, "Function_number, Function_name, nodes_CFG, edges_CFG, CtrlBlks_CFG, gotos, labels, nodes_PCG, edges_PCG, CtrlBlks_PCG\n") {
+			@Override
+			public boolean needsLoops() {
+				// NATURAL_LOOP tags alone do not tell, the smart views recover the loops of single functions
+				return true;
+			}
 			
-		// get saving directory
-		new LabelAnalyzer().createDirectory();
-		
-		if(Common.universe().nodes("NATURAL_LOOP").eval().nodes().size()<1) {
-			com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.recoverLoops();
-			Log.info("DLI Done");
-		}else {
-			Log.info("No need for DLI");
-		}
-		
-		FileWriter writer = new FileWriter(new File(filePath), true);
-		writer.write("Function_number, Function_name, nodes_CFG, edges_CFG, CtrlBlks_CFG, gotos, labels, nodes_PCG, edges_PCG, CtrlBlks_PCG\n");
-		BufferedWriter br = new BufferedWriter(writer);
-		
-		//		get all functions with labels
-		AtlasSet<Node> function_w_label = Common.universe().nodes("isLabel").parent().nodes(XCSG.Function).eval().nodes();
-		
-		// make a list so we can sort it
-		List<Node> labelFunctionList = new ArrayList<Node>();
-		
-		for(Node function: function_w_label) {
-			labelFunctionList.add(function);
-		}
-		
-		// custom sort
-		Collections.sort(labelFunctionList,new Comparator<Node>() {
-            @Override
-            public int compare(Node n1, Node n2) {
-            	// sort with name first, then number of nodes, then edges
-                int value1 = n1.getAttr(XCSG.name).toString().compareTo(n2.getAttr(XCSG.name).toString());
-                if (value1 == 0) {
-                	Q cfgQ1 = CommonQueries.cfg(Common.toQ(n1));
-                	Q cfgQ2 = CommonQueries.cfg(Common.toQ(n2));
-                	int i1 = (int) cfgQ1.eval().nodes().size();
-                	int i2 = (int) cfgQ2.eval().nodes().size();
-                    int value2 = i2 - i1;
-                    if (value2 == 0) {
-                    	int i11 = (int) cfgQ1.eval().edges().size();
-                    	int i22 = (int) cfgQ2.eval().edges().size();
-                        return i22 - i11;
-                    } else {
-                        return value2;
-                    }
-                }
-                return value1;
-            }
-        });
-		
-		int num = 0;
-		for(Node function: labelFunctionList) {
-			num++;
-			
-			//CFG/DAG
-			Q cfgQ = CommonQueries.cfg(Common.toQ(function));
-//			Q cfbeQ=cfgQ.edges(XCSG.ControlFlowBackEdge).retainEdges(); //Control flow back edge
-//			Q dagQ=cfgQ.differenceEdges(cfbeQ); // Control flow back edges removed
-			
-			//PCG
-			AtlasSet<Node> label_set = cfgQ.nodes("isLabel").eval().nodes();
-			AtlasSet<Node> goto_set = cfgQ.nodes(XCSG.GotoStatement).eval().nodes();
-			AtlasSet<Node> return_set = cfgQ.nodes(XCSG.controlFlowExitPoint).eval().nodes();
-			
-			Q nodeOfInterestQ = Common.toQ(label_set).union(Common.toQ(goto_set)).union(Common.toQ(return_set));
-			AtlasSet<Node> pcg_seed = nodeOfInterestQ.eval().nodes();
-			Q pcgQ = PCGFactory.create(cfgQ, Common.toQ(pcg_seed)).getPCG();
-			
-			AtlasSet<Node> gotoSet = cfgQ.nodes(XCSG.GotoStatement).eval().nodes();
-			AtlasSet<Node> labelSet = cfgQ.nodes("isLabel").eval().nodes();
-			AtlasSet<Node> cbEntrySet = cfgQ.nodesTaggedWithAny(XCSG.ControlFlowCondition, XCSG.Loop).eval().nodes();
-			AtlasSet<Node> cbEntrySetPCG = pcgQ.nodesTaggedWithAny(XCSG.ControlFlowCondition, XCSG.Loop).eval().nodes();
-			
-			long nodes_CFG = cfgQ.eval().nodes().size();
-			long edges_CFG = cfgQ.eval().edges().size();
-			long CtrlBlks_CFG = cbEntrySet.size();
-			long gotos = gotoSet.size();
-			long labels = labelSet.size();
-			long nodes_PCG = pcgQ.eval().nodes().size();
-			long edges_PCG = pcgQ.eval().edges().size();
-			long CtrlBlks_PCG = cbEntrySetPCG.size();
-			
-			br.write(num + "," + function.getAttr(XCSG.name).toString() + "," + nodes_CFG + "," + edges_CFG + "," + CtrlBlks_CFG + "," + gotos + "," + labels + "," + nodes_PCG + "," + edges_PCG + "," + CtrlBlks_PCG + "\n");
-			br.flush();	
-			
-		}
-		writer.close();
+			@Override
+			public String visit(LabelFunction function) {
+				Q cfgQ = function.cfgQ();
+				Graph cfg = function.cfg();
+				
+				//PCG
+				Graph pcg = function.pcg().eval();
+
+				AtlasSet<Node> cbEntrySet = cfgQ.nodesTaggedWithAny(XCSG.ControlFlowCondition, XCSG.Loop).eval().nodes();
+				AtlasSet<Node> cbEntrySetPCG = Common.toQ(pcg).nodesTaggedWithAny(XCSG.ControlFlowCondition, XCSG.Loop).eval().nodes();
+
+				long nodes_CFG = cfg.nodes().size();
+				long edges_CFG = cfg.edges().size();
+				long CtrlBlks_CFG = cbEntrySet.size();
+				long gotos = function.gotos().size();
+				long labels = function.labels().size();
+				long nodes_PCG = pcg.nodes().size();
+				long edges_PCG = pcg.edges().size();
+				long CtrlBlks_PCG = cbEntrySetPCG.size();
+
+				return function.number() + "," + function.name() + "," + nodes_CFG + "," + edges_CFG + "," + CtrlBlks_CFG + "," + gotos + "," + labels + "," + nodes_PCG + "," + edges_PCG + "," + CtrlBlks_PCG + "\n";
+			}
+		};
 	}
 	
 	public static void writeSpaghetti() throws IOException {
 		//write spaghetti code defined by 2015 paper, both CFG and PCG
-		GOTO_GRAPH_DIRECTORY_NAME_PATTERN = "writeSpaghetti";
-		
-		// get saving directory
-		new LabelAnalyzer().createDirectory();
-		
-		//		get all functions with labels
-		AtlasSet<Node> function_w_label = Common.universe().nodesTaggedWithAll("isLabel").parent().nodes(XCSG.Function).eval().nodes();
-
-		// make a list so we can sort it
-		List<Node> labelFunctionList = new ArrayList<Node>();
-		
-		for(Node function: function_w_label) {
-			labelFunctionList.add(function);
-		}
-		
-		// custom sort
-		Collections.sort(labelFunctionList,new Comparator<Node>() {
-            @Override
-            public int compare(Node n1, Node n2) {
-            	// sort with name first, then number of nodes, then edges
-                int value1 = n1.getAttr(XCSG.name).toString().compareTo(n2.getAttr(XCSG.name).toString());
-                if (value1 == 0) {
-                	Q cfgQ1 = CommonQueries.cfg(Common.toQ(n1));
-                	Q cfgQ2 = CommonQueries.cfg(Common.toQ(n2));
-                	int i1 = (int) cfgQ1.eval().nodes().size();
-                	int i2 = (int) cfgQ2.eval().nodes().size();
-                    int value2 = i2 - i1;
-                    if (value2 == 0) {
-                    	int i11 = (int) cfgQ1.eval().edges().size();
-                    	int i22 = (int) cfgQ2.eval().edges().size();
-                        return i22 - i11;
-                    } else {
-                        return value2;
-                    }
-                }
-                return value1;
-            }
-        });
-		
-		int num = 0;
-		for(Node function: labelFunctionList) {
-			num++;
-			Q cfgQ = CommonQueries.cfg(Common.toQ(function));
-			Q cfbeQ=cfgQ.edges(XCSG.ControlFlowBackEdge).retainEdges(); //Control flow back edge
-			Q dagQ=cfgQ.differenceEdges(cfbeQ); // Control flow back edges removed
-			
-			AtlasSet<Node> labelSet = cfgQ.nodes("isLabel").eval().nodes();
-			
-			boolean flag = false;
+		writeReports(spaghettiReport());
+	}
+	
+	/**
+	 * @return a report saving the CFG and PCG of every function with a goto in the body of one of its labels,
+	 * see {@link #writeSpaghetti()}
+	 */
+	public static LabelReport<Void> spaghettiReport() {
+		return new LabelReport<Void>() {
+			private File directory;
 			
-			for(Node labelNode : labelSet) {
-				AtlasSet<Node> labelBodyNodeSet = dagQ.forward(Common.toQ(labelNode)).eval().nodes();
-				AtlasSet<Node> labelPred = cfgQ.predecessors(Common.toQ(labelNode)).eval().nodes();
-				if(Common.toQ(labelBodyNodeSet).difference(Common.toQ(labelPred)).nodes(XCSG.GotoStatement).eval().nodes().size() > 0) {
-					// if found at least one label body with goto, print it
-					flag = true;
-					break;
-				}
+			@Override
+			public void begin() {
+				directory = graphsDirectory("writeSpaghetti");
 			}
 			
-			if(!flag) {
-				continue;
+			@Override
+			public Void visit(LabelFunction function) {
+				Q cfgQ = function.cfgQ();
+				Q dagQ = function.dag(); // Control flow back edges removed
+				
+				boolean flag = false;
+				
+				for(Node labelNode : function.labels()) {
+					AtlasSet<Node> labelBodyNodeSet = dagQ.forward(Common.toQ(labelNode)).eval().nodes();
+					AtlasSet<Node> labelPred = cfgQ.predecessors(Common.toQ(labelNode)).eval().nodes();
+					if(Common.toQ(labelBodyNodeSet).difference(Common.toQ(labelPred)).nodes(XCSG.GotoStatement).eval().nodes().size() > 0) {
+						// if found at least one label body with goto, print it
+						flag = true;
+						break;
+					}
+				}
+				
+				if(!flag) {
+					return null;
+				}
+				
+				// files keep the number of the function among all label functions
+				Markup markup = function.labelMarkup();
+				saveGraph(directory, CFG_GRAPH_FILE_NAME_PATTERN, function.number(), function.qualifiedName(), function.cfg(), markup);
+				saveGraph(directory, PCG_GRAPH_FILE_NAME_PATTERN, function.number(), function.qualifiedName(), function.pcgWithConditions().eval(), markup);
+				return null;
 			}
-			
-			AtlasSet<Node> gotoSet = cfgQ.nodesTaggedWithAll(XCSG.GotoStatement).eval().nodes();
-			AtlasSet<Node> returnSet = cfgQ.nodesTaggedWithAll(XCSG.controlFlowExitPoint).eval().nodes();
-			
-			Markup markup = new Markup();
-			markup.set(Common.toQ(labelSet), MarkupProperty.NODE_BACKGROUND_COLOR, Color.RED);
-			markup.set(Common.toQ(gotoSet), MarkupProperty.NODE_BACKGROUND_COLOR, Color.YELLOW);
-			markup.set(Common.toQ(returnSet), MarkupProperty.NODE_BACKGROUND_COLOR, Color.MAGENTA);
-			
-			
-			// set file name
-			String sourceFile = getQualifiedFunctionName(function);
-			String methodName =  function.getAttr(XCSG.name).toString();
-			
-			// output CFG
-			saveDisplayCFG(cfgQ.eval(), num, sourceFile, methodName, markup, false);
-			
-			
-			// output PCG
-			Q nodeOfInterestQ = Common.toQ(labelSet).union(Common.toQ(gotoSet)).union(Common.toQ(returnSet));
-			AtlasSet<Node> pcg_seed = cfgQ.nodes(XCSG.ControlFlowCondition).union(nodeOfInterestQ).eval().nodes();
-			
-			Q pcg = PCGFactory.create(cfgQ, Common.toQ(pcg_seed)).getPCG();
-			saveDisplayPCG(pcg.eval(), num, sourceFile, methodName, markup, false);
-			
-			
-		}
-		
+		};
 	}
 	
 	public static void writeSpecialLoopAndHalf() {
 		// This is an algorithm retrieving all non-entry While, do-while, for loops caused by label-in-the-loop use of goto
-		
-		GOTO_GRAPH_DIRECTORY_NAME_PATTERN = "writeSpecialLoopAndHalf";
-		
-		// get saving directory
-		new LabelAnalyzer().createDirectory();
-		
-		// run DLI
-		if(Common.universe().nodes("NATURAL_LOOP").eval().nodes().size()<1) {
-			com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.recoverLoops();
-			Log.info("DLI Done");
-		}else {
-			Log.info("No need for DLI");
+		try {
+			writeReports(specialLoopAndHalfReport());
+		}catch (IOException e) {
+			Log.error("Cannot write the special loop and half graphs", e);
 		}
-		
-		// get all functions with label-entry loops
-		AtlasSet<Node> labelFunctionSet = Common.universe().nodesTaggedWithAll("isLabel", XCSG.Loop).parent().nodes(XCSG.Function).eval().nodes();
-		
-		int num=0;
-		for(Node function: labelFunctionSet) {
+	}
+	
+	/**
+	 * @return a report saving the CFG of every function with a label-entry loop and a do node with a single
+	 * predecessor, see {@link #writeSpecialLoopAndHalf()}
+	 */
+	public static LabelReport<Markup> specialLoopAndHalfReport() {
+		return new LabelReport<Markup>() {
+			private File directory;
+			private int num;
+			
+			@Override
+			public boolean needsLoops() {
+				// NATURAL_LOOP tags alone do not tell, the smart views recover the loops of single functions
+				return true;
+			}
 			
-			//CFG/DAG
-			Q cfgQ = CommonQueries.cfg(Common.toQ(function));
-
-			// Do node set
-			Q doNodeQ = cfgQ.nodes(XCSG.DoWhileLoop);
+			@Override
+			public void begin() {
+				directory = graphsDirectory("writeSpecialLoopAndHalf");
+				num = 0;
+			}
 			
-			for(Node doNode : doNodeQ.eval().nodes()) {
-				// we need to check if there is a Do node which has only one incoming edge
-				if(cfgQ.predecessors(Common.toQ(doNode)).eval().nodes().size() == 1) {
-					num++;
-					Markup markup = new Markup();
-					markup.set(cfgQ.predecessors(cfgQ.nodes("isLabel", XCSG.Loop)).nodes(XCSG.GotoStatement), MarkupProperty.NODE_BACKGROUND_COLOR, Color.RED);
-					markup.set(cfgQ.nodes("isLabel", XCSG.Loop), MarkupProperty.NODE_BACKGROUND_COLOR, Color.YELLOW);
-					markup.set(cfgQ.nodes(XCSG.controlFlowExitPoint), MarkupProperty.NODE_BACKGROUND_COLOR, Color.MAGENTA);
-					markup.set(Common.toQ(doNode), MarkupProperty.NODE_BACKGROUND_COLOR, Color.ORANGE);
-					// set file name
-					String sourceFile = getQualifiedFunctionName(function);
-					String methodName =  function.getAttr(XCSG.name).toString();
-					
-					// output CFG
-					saveDisplayCFG(cfgQ.eval(), num, sourceFile, methodName, markup, false);
-					break;
+			@Override
+			public Markup visit(LabelFunction function) {
+				Q cfgQ = function.cfgQ();
+				// only functions with label-entry loops
+				if(cfgQ.nodesTaggedWithAll("isLabel", XCSG.Loop).eval().nodes().isEmpty()) {
+					return null;
 				}
+
+				// Do node set
+				Q doNodeQ = cfgQ.nodes(XCSG.DoWhileLoop);
+				
+				for(Node doNode : doNodeQ.eval().nodes()) {
+					// we need to check if there is a Do node which has only one incoming edge
+					if(cfgQ.predecessors(Common.toQ(doNode)).eval().nodes().size() == 1) {
+						Markup markup = new Markup();
+						markup.set(cfgQ.predecessors(cfgQ.nodes("isLabel", XCSG.Loop)).nodes(XCSG.GotoStatement), MarkupProperty.NODE_BACKGROUND_COLOR, Color.RED);
+						markup.set(cfgQ.nodes("isLabel", XCSG.Loop), MarkupProperty.NODE_BACKGROUND_COLOR, Color.YELLOW);
+						markup.set(cfgQ.nodes(XCSG.controlFlowExitPoint), MarkupProperty.NODE_BACKGROUND_COLOR, Color.MAGENTA);
+						markup.set(Common.toQ(doNode), MarkupProperty.NODE_BACKGROUND_COLOR, Color.ORANGE);
+						return markup;
+					}
+				}
+				return null;
 			}
-		
-		}		
+			
+			@Override
+			public void write(int index, Node function, Markup markup) {
+				// numbered by match, in the report order
+				num++;
+				saveGraph(directory, CFG_GRAPH_FILE_NAME_PATTERN, num, getQualifiedFunctionName(function), CommonQueries.cfg(Common.toQ(function)).eval(), markup);
+			}
+		};
+	}
+	
+	/**
+	 * Writes the given reports in one pass over the functions with labels, each function's CFG, DAG and
+	 * PCGs are built once and shared by all of them.
+	 *
+	 * Example Atlas Shell Usage:
+	 * edu.iastate.labels.core.LabelAnalyzer.writeReports(
+	 *     edu.iastate.labels.core.LabelAnalyzer.basicStatsReport("stats.csv"),
+	 *     edu.iastate.labels.core.LabelAnalyzer.labelCategoryByFuncReport("categories.csv"),
+	 *     edu.iastate.labels.core.LabelAnalyzer.spaghettiReport())
+	 */
+	public static void writeReports(LabelReport<?>... reports) throws IOException {
+		long startTime = System.currentTimeMillis();
+		LabelReportPipeline pipeline = new LabelReportPipeline();
+		for(LabelReport<?> report : reports) {
+			pipeline.add(report);
+		}
+		int failed = pipeline.run();
+		Log.info(reports.length + " label reports written, " + failed + " functions failed, " + (System.currentTimeMillis() - startTime) / 1000.0 + " s");
 	}
 
 }
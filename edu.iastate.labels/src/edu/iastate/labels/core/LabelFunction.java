@@ -0,0 +1,180 @@
+package edu.iastate.labels.core;
+
+import java.awt.Color;
+
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.markup.Markup;
+import com.ensoftcorp.atlas.core.markup.MarkupProperty;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+
+import edu.iastate.structured.core.FunctionGraphContext;
+import edu.iastate.structured.core.PCGCache;
+
+/**
+* What the label reports need to know about one function, shared by every report of a
+* {@link LabelReportPipeline} run. Everything is computed on first use and kept, so the CFG, the DAG,
+* the label, goto and exit sets and the PCGs are built once per function however many reports read them.
+* The PCGs come from the {@link PCGCache}, so later runs over the same index do not build them again.
+* <p>
+* One instance is used by one pool thread at a time, it is not thread safe.
+*
+* @author Le Zhang
+*/
+public final class LabelFunction {
+	private final int index;
+	private final Node function;
+	private final Q cfgQ;
+
+	private Graph cfg;
+	private FunctionGraphContext context;
+	private String qualifiedName;
+	private AtlasSet<Node> labels;
+	private AtlasSet<Node> gotos;
+	private AtlasSet<Node> exits;
+	private Q pcg;
+	private Q pcgWithConditions;
+	private boolean categorized = false;
+
+	LabelFunction(int index, Node function, Q cfgQ) {
+		this.index = index;
+		this.function = function;
+		this.cfgQ = cfgQ;
+	}
+
+	/**
+	 * @return the position of the function in the reports, from 0
+	 */
+	public int index() {
+		return index;
+	}
+
+	/**
+	 * @return the function number written in the reports and graph file names, from 1
+	 */
+	public int number() {
+		return index + 1;
+	}
+
+	public Node function() {
+		return function;
+	}
+
+	public String name() {
+		return function.getAttr(XCSG.name).toString();
+	}
+
+	/**
+	 * @return the package@file@function name used for the graph files
+	 */
+	public String qualifiedName() {
+		if(qualifiedName == null) {
+			qualifiedName = LabelAnalyzer.getQualifiedFunctionName(function);
+		}
+		return qualifiedName;
+	}
+
+	public Q cfgQ() {
+		return cfgQ;
+	}
+
+	public Graph cfg() {
+		if(cfg == null) {
+			cfg = cfgQ.eval();
+		}
+		return cfg;
+	}
+
+	/**
+	 * @return the derived graphs of the function, the DAG among them
+	 */
+	public FunctionGraphContext graphs() {
+		if(context == null) {
+			context = new FunctionGraphContext(cfg());
+		}
+		return context;
+	}
+
+	/**
+	 * @return the CFG without back edges
+	 */
+	public Q dag() {
+		return graphs().dag();
+	}
+
+	public AtlasSet<Node> labels() {
+		if(labels == null) {
+			labels = cfgQ.nodesTaggedWithAll("isLabel").eval().nodes();
+		}
+		return labels;
+	}
+
+	public AtlasSet<Node> gotos() {
+		if(gotos == null) {
+			gotos = cfgQ.nodesTaggedWithAll(XCSG.GotoStatement).eval().nodes();
+		}
+		return gotos;
+	}
+
+	public AtlasSet<Node> exits() {
+		if(exits == null) {
+			exits = cfgQ.nodesTaggedWithAll(XCSG.controlFlowExitPoint).eval().nodes();
+		}
+		return exits;
+	}
+
+	/**
+	 * @return the PCG of the labels, gotos and exits
+	 */
+	public Q pcg() {
+		if(pcg == null) {
+			Q seeds = Common.toQ(labels()).union(Common.toQ(gotos())).union(Common.toQ(exits()));
+			pcg = PCGCache.shared().pcg(function, cfgQ, seeds.eval().nodes());
+		}
+		return pcg;
+	}
+
+	/**
+	 * @return the PCG of the control flow conditions, labels, gotos and exits
+	 */
+	public Q pcgWithConditions() {
+		if(pcgWithConditions == null) {
+			Q seeds = Common.toQ(labels()).union(Common.toQ(gotos())).union(Common.toQ(exits()));
+			pcgWithConditions = PCGCache.shared().pcg(function, cfgQ, cfgQ.nodes(XCSG.ControlFlowCondition).union(seeds).eval().nodes());
+		}
+		return pcgWithConditions;
+	}
+
+	/**
+	 * @return labels in red, gotos in yellow, exits in magenta
+	 */
+	public Markup labelMarkup() {
+		Markup markup = new Markup();
+		markup.set(Common.toQ(labels()), MarkupProperty.NODE_BACKGROUND_COLOR, Color.RED);
+		markup.set(Common.toQ(gotos()), MarkupProperty.NODE_BACKGROUND_COLOR, Color.YELLOW);
+		markup.set(Common.toQ(exits()), MarkupProperty.NODE_BACKGROUND_COLOR, Color.MAGENTA);
+		return markup;
+	}
+
+	/**
+	 * Tags the category of every label of the function, unless a label already has one.
+	 * Loops must have been recovered, see {@link LabelReport#needsLoops()}.
+	 */
+	public void categorize() {
+		if(categorized) {
+			return;
+		}
+		categorized = true;
+		for(Node label : labels()) {
+			for(String category : LabelAnalyzer.CATEGORIES) {
+				if(label.taggedWith(category)) {
+					return;
+				}
+			}
+		}
+		LabelAnalyzer.tagLabelCategories(graphs());
+	}
+}
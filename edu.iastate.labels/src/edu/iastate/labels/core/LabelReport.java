@@ -0,0 +1,87 @@
+package edu.iastate.labels.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+
+/**
+* One report of a {@link LabelReportPipeline} run, a visitor over the label functions.
+* <p>
+* {@link #visit(LabelFunction)} is called for every function on the pool threads and should only read
+* the function, {@link #write(int, Node, Object)} gets the results one at a time in the report order.
+*
+* @author Le Zhang
+*/
+public abstract class LabelReport<R> {
+
+	/**
+	 * Called once before the traversal, e.g. to open the output and write a header.
+	 */
+	public void begin() throws IOException {}
+
+	/**
+	 * @return the output of the function, null if it has none
+	 */
+	public abstract R visit(LabelFunction function) throws Exception;
+
+	/**
+	 * Called in report order for every function with an output.
+	 * @param index the position of the function, from 0
+	 */
+	public void write(int index, Node function, R result) throws IOException {}
+
+	/**
+	 * Called once after the traversal, also when it failed.
+	 */
+	public void end() throws IOException {}
+
+	/**
+	 * @return true if the report reads the loops of DLI, they are then recovered before the traversal
+	 */
+	public boolean needsLoops() {
+		return false;
+	}
+
+	/**
+	 * A report writing one or more CSV rows per function.
+	 */
+	public abstract static class Csv extends LabelReport<String> {
+		private final String filePath;
+		private final boolean append;
+		private final String header;
+		private BufferedWriter writer;
+
+		/**
+		 * @param filePath the CSV file
+		 * @param append true to add to an existing file
+		 * @param header the first line, with its line break
+		 */
+		protected Csv(String filePath, boolean append, String header) {
+			this.filePath = filePath;
+			this.append = append;
+			this.header = header;
+		}
+
+		@Override
+		public void begin() throws IOException {
+			writer = new BufferedWriter(new FileWriter(new File(filePath), append));
+			writer.write(header);
+		}
+
+		@Override
+		public void write(int index, Node function, String rows) throws IOException {
+			writer.write(rows);
+		}
+
+		@Override
+		public void end() throws IOException {
+			if(writer != null) {
+				writer.close();
+				writer = null;
+			}
+		}
+	}
+}
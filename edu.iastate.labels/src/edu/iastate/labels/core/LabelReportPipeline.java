@@ -0,0 +1,112 @@
+package edu.iastate.labels.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.query.Q;
+
+import edu.iastate.labels.viewer.log.Log;
+import edu.iastate.structured.core.BatchAnalyzer;
+import edu.iastate.structured.core.FunctionCatalog;
+import edu.iastate.structured.core.Structured;
+
+/**
+* Runs several label reports in one traversal of the functions with labels.
+* <p>
+* Every function is visited once on a {@link BatchAnalyzer} pool, all reports share its
+* {@link LabelFunction}, so the CFG, DAG and PCGs are built once per function instead of once per report.
+* The results are written in the order of the reports, name then CFG size, whatever thread finished first.
+* A report failing on a function is logged and skips that function, the other reports still get it.
+*
+* Example Atlas Shell Usage:
+* edu.iastate.labels.core.LabelAnalyzer.writeReports(
+*     edu.iastate.labels.core.LabelAnalyzer.basicStatsReport("stats.csv"),
+*     edu.iastate.labels.core.LabelAnalyzer.spaghettiReport())
+*
+* @author Le Zhang
+*/
+public class LabelReportPipeline {
+	private final List<LabelReport<?>> reports = new ArrayList<LabelReport<?>>();
+
+	public LabelReportPipeline add(LabelReport<?> report) {
+		reports.add(report);
+		return this;
+	}
+
+	/**
+	 * Visits every function with labels once and writes all reports.
+	 * @return the number of functions some report failed on
+	 */
+	public int run() throws IOException {
+		boolean loops = false;
+		for(LabelReport<?> report : reports) {
+			loops |= report.needsLoops();
+		}
+		if(loops) {
+			Structured.recoverLoops();
+		}
+
+		final int count = reports.size();
+		final int[] failed = new int[1];
+		int begun = 0;
+		try {
+			for(LabelReport<?> report : reports) {
+				report.begin();
+				begun++;
+			}
+			new BatchAnalyzer().run(FunctionCatalog.WITH_LABELS, new BatchAnalyzer.Analysis<Object[]>() {
+				@Override
+				public Object[] analyze(int index, Node function, Q cfgQ) {
+					LabelFunction labelFunction = new LabelFunction(index, function, cfgQ);
+					Object[] results = new Object[count];
+					boolean ok = true;
+					for(int r = 0; r < count; r++) {
+						try {
+							results[r] = reports.get(r).visit(labelFunction);
+						}catch (Throwable t) {
+							Log.error("Report " + reports.get(r).getClass().getSimpleName() + " failed on " + labelFunction.name(), t);
+							ok = false;
+						}
+					}
+					if(!ok) {
+						synchronized(failed) {
+							failed[0]++;
+						}
+					}
+					return results;
+				}
+			}, new BatchAnalyzer.Consumer<Object[]>() {
+				@Override
+				public void accept(int index, Node function, Object[] results) throws IOException {
+					for(int r = 0; r < count; r++) {
+						if(results[r] != null) {
+							write(reports.get(r), index, function, results[r]);
+						}
+					}
+				}
+			});
+		}finally {
+			IOException error = null;
+			for(int r = 0; r < begun; r++) {
+				try {
+					reports.get(r).end();
+				}catch (IOException e) {
+					error = error == null ? e : error;
+				}
+			}
+			if(error != null) {
+				throw error;
+			}
+		}
+		synchronized(failed) {
+			return failed[0];
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <R> void write(LabelReport<R> report, int index, Node function, Object result) throws IOException {
+		report.write(index, function, (R) result);
+	}
+}
@@ -29,6 +29,9 @@ import com.ensoftcorp.atlas.ui.viewer.graph.SaveUtil;
 
 import edu.iastate.parenthood.VerificationProperties;
 import edu.iastate.parenthood.log.Log;
+import edu.iastate.structured.core.FunctionCatalog;
+import edu.iastate.structured.core.LoopRecovery;
+import edu.iastate.structured.core.StructureResult;
 
 /**
 * This program checks if a given function or all functions in mapped workspace are structured
@@ -38,8 +41,9 @@ import edu.iastate.parenthood.log.Log;
 * @author Le Zhang
 */
 public class GraphAnalyzer {
-	private static Map<Node, List<AtlasSet<Node>>> map_subgraphs = new HashMap<Node, List<AtlasSet<Node>>>(); // format: <Node controlFlowCondition, List<Q entry, Q body, Q exit> >
-	private static Map<Node, Node> map_parent = new HashMap<Node, Node>(); // format: <ChildNode, ParentNode>
+	// per analyze() call, one analyzer per function so concurrent calls do not share state
+	private final Map<Node, List<AtlasSet<Node>>> map_subgraphs = new HashMap<Node, List<AtlasSet<Node>>>(); // format: <Node controlFlowCondition, List<Q entry, Q body, Q exit> >
+	private final Map<Node, Node> map_parent = new HashMap<Node, Node>(); // format: <ChildNode, ParentNode>
 
 	
 	/**
@@ -507,7 +511,7 @@ public class GraphAnalyzer {
 	 * @param Node parent, dag
 	 * @return none
 	 */
-	private static void updateParentMap(Node parent_node, Q dag) {  // input: graph root and graph list [entry, body, exit]
+	private void updateParentMap(Node parent_node, Q dag) {  // input: graph root and graph list [entry, body, exit]
 
 		// get body nodes of this block
 		Q subgraph_body_q = Common.toQ(map_subgraphs.get(parent_node).get(1));
@@ -570,7 +574,7 @@ public class GraphAnalyzer {
 	 * @param Node child, Q dag, Q cfg
 	 * @return none
 	 */
-	private static void updateChildExits(int cnt, Node child, Q dag, Q cfg) {
+	private void updateChildExits(int cnt, Node child, Q dag, Q cfg) {
 		Log.info("updateChildExits()" + child.getAttr(XCSG.name));
 		
 		//avoid deadlock
@@ -661,7 +665,7 @@ public class GraphAnalyzer {
 	 * @param Node child
 	 * @return none
 	 */
-	private static void updateParent(Node child) {
+	private void updateParent(Node child) {
 		// We assume that this child need a new parent
 		Node parent = map_parent.get(child);
 		if(!map_parent.containsKey(parent)) { // if no grand parents
@@ -691,13 +695,17 @@ public class GraphAnalyzer {
 	/**
 	* Analyze the given CFG and parse out the code blocks
 	 * @param Q cfg
-	 * @return none
+	 * @return the blocks and parent map of the function
 	 */
-	public static void analyze(Q cfg) {
+	public static StructureResult analyze(Q cfg) {
+		return new GraphAnalyzer().analyzeFunction(cfg);
+	}
+	
+	private StructureResult analyzeFunction(Q cfg) {
 		//1. get selectable nodes (DLI loop entry, control nodes, labels) and tag them
 		
-		// run DLI
-		com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.recoverLoops();
+		// recover the loops of this function only, once per session
+		LoopRecovery.recover(cfg.eval());
 
 		// initialize a set with label nodes, DLI loop entry nodes, control statement nodes
 		AtlasSet<Node> selectable = cfg.nodesTaggedWithAny("isLabel", XCSG.Loop, XCSG.ControlFlowCondition).eval().nodes();
@@ -773,14 +781,8 @@ public class GraphAnalyzer {
 
 			count++;
 		}
-	}
-	
-	public static Map<Node, List<AtlasSet<Node>>> getMap(){
-		return map_subgraphs;
-	}
-	
-	public static Map<Node, Node> getParentMap(){
-		return map_parent;
+		
+		return new StructureResult(map_subgraphs, map_parent);
 	}
 
 	public static AtlasSet<Node> getSelectable(Q cfg){
@@ -830,22 +832,22 @@ public class GraphAnalyzer {
 		// run DLI to tag all loops
 //		com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.recoverLoops();
 		
-		//		get all functions with labels
-		AtlasSet<Node> function_w_label = Common.universe().nodesTaggedWithAll("isLabel").containers().nodes(XCSG.Function).eval().nodes();
+		//		get all functions with labels, in report order
+		FunctionCatalog catalog = FunctionCatalog.get();
+		int[] function_w_label = catalog.select(FunctionCatalog.WITH_LABELS);
 		
 		int num = 0;
 		FileWriter writer = new FileWriter(file);
-		for(Node function: function_w_label) {
+		for(int id : function_w_label) {
+			Node function = catalog.function(id);
 			Q cfg = CommonQueries.cfg(Common.toQ(function));
 			
 			
-			map_subgraphs.clear();
-			map_parent.clear();
-			analyze(cfg);
+			StructureResult result = analyze(cfg);
 			
 			
-			for(Node label : map_subgraphs.keySet()) {
-				List<AtlasSet<Node>> l = map_subgraphs.get(label);
+			for(Node label : result.blocks().keySet()) {
+				List<AtlasSet<Node>> l = result.block(label);
 				
 				if(l.get(0).size() > 1) {
 					writer.write(function.getAttr(XCSG.name) + ", " + label.getAttr(XCSG.name) + " || " + l.get(0).size() + "\n");
@@ -856,8 +858,8 @@ public class GraphAnalyzer {
 					markup.set(Common.toQ(l.get(0)), MarkupProperty.NODE_BACKGROUND_COLOR, Color.MAGENTA);
 					
 					// set file name
-					String sourceFile = getQualifiedFunctionName(function);
-					String methodName =  function.getAttr(XCSG.name).toString();
+					String sourceFile = catalog.qualifiedName(id);
+					String methodName =  catalog.name(id);
 					
 					// output CFG
 					saveDisplayCFG(cfg.eval(), num, sourceFile, methodName, markup, false);
@@ -47,10 +47,7 @@ public class Visualizer extends FilteringAtlasSmartViewScript {
 			Log.info("Function selected");
 			Q cfg = CommonQueries.cfg(functions);
 			
-			GraphAnalyzer ga = new GraphAnalyzer();
-			ga.analyze(cfg);
-			
-			Map<Node, Node> map_parent = ga.getParentMap();
+			Map<Node, Node> map_parent = GraphAnalyzer.analyze(cfg).parents();
 			
 			AtlasSet<Node> allSelectable = cfg.nodesTaggedWithAny("STRUCT_SELECTABLE").eval().nodes();
 			
@@ -13,7 +13,8 @@ import com.ensoftcorp.atlas.core.query.Q;
 import com.ensoftcorp.atlas.core.script.Common;
 import com.ensoftcorp.atlas.core.script.CommonQueries;
 import com.ensoftcorp.atlas.core.xcsg.XCSG;
-import com.ensoftcorp.open.pcg.common.PCGFactory;
+
+import edu.iastate.structured.core.PCGCache;
 
 public class ProcessGoto {
 	
@@ -40,7 +41,7 @@ public class ProcessGoto {
 		for(Node gotoOrLabel : gotoAndLabels) {
 			events.remove(gotoOrLabel);
 		}
-		Q transformedCFG = PCGFactory.create(cfg, Common.toQ(events)).getPCG();
+		Q transformedCFG = PCGCache.shared().pcg(function, cfg, events);
 		
 		return transformedCFG;
 	}
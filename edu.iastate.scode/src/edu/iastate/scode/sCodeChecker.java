@@ -7,11 +7,13 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.ensoftcorp.atlas.core.db.graph.Graph;
 import com.ensoftcorp.atlas.core.db.graph.Node;
-import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
 import com.ensoftcorp.atlas.core.db.set.AtlasSet;
 import com.ensoftcorp.atlas.core.query.Q;
 import com.ensoftcorp.atlas.core.script.Common;
@@ -19,6 +21,16 @@ import com.ensoftcorp.atlas.core.script.CommonQueries;
 import com.ensoftcorp.atlas.core.xcsg.XCSG;
 
 import edu.iastate.scode.log.Log;
+import edu.iastate.structured.core.BatchAnalyzer;
+import edu.iastate.structured.core.FunctionCatalog;
+import edu.iastate.structured.core.FunctionGraphContext;
+import edu.iastate.structured.core.StructureResult;
+import edu.iastate.structured.core.LoopRecovery;
+import edu.iastate.structured.graph.Block;
+import edu.iastate.structured.graph.BlockBoundary;
+import edu.iastate.structured.graph.CFGSnapshot;
+import edu.iastate.structured.graph.ExitPropagation;
+import edu.iastate.structured.graph.ReducibilityOracle;
 
 /**
 * This program checks if a given function or all functions in mapped workspace are structured
@@ -28,8 +40,9 @@ import edu.iastate.scode.log.Log;
 * @author Le Zhang
 */
 public class sCodeChecker {
-	private static Map<Node, List<AtlasSet<Node>>> map_subgraphs = new HashMap<Node, List<AtlasSet<Node>>>(); // format: <Node controlFlowCondition, List<Q entry, Q body, Q exit> >
-	private static Map<Node, Node> map_parent = new HashMap<Node, Node>(); // format: <ChildNode, ParentNode>
+	// per preprocess() call, one checker per function so concurrent calls do not share state
+	private final Map<Node, List<AtlasSet<Node>>> map_subgraphs = new HashMap<Node, List<AtlasSet<Node>>>(); // format: <Node controlFlowCondition, List<Q entry, Q body, Q exit> >
+	private final Map<Node, Node> map_parent = new HashMap<Node, Node>(); // format: <ChildNode, ParentNode>
 
 	/**
 	 * Given a file, create a CSV with names of all functions and whether or not
@@ -56,22 +69,56 @@ public class sCodeChecker {
 	 * @throws IOException
 	 */
 	public static void parseAllFunctions(File file) throws IOException {
-		FileWriter writer = new FileWriter(file);
-		Q functions = Common.universe().nodesTaggedWithAny(XCSG.Function);
-		for(Node function: functions.eval().nodes()) {
-			Log.info("Processing " + function.getAttr(XCSG.name));
+		parseAllFunctions(file, false);
+	}
 
-			// parse the function
-			boolean result = fun_isStructured(Common.toQ(function));
+	/**
+	 * Given a file, create a CSV with names of all functions and whether or not
+	 * it is structured within the function
+	 *
+	 * Example Atlas Shell Usage:
+	 * edu.iastate.scode.sCodeChecker.parseAllFunctions(new java.io.File("C:\Users\TA\Desktop\structured-list.csv"), true)
+	 *
+	 * @param File filepath
+	 * @param fast true to ask the {@link ReducibilityOracle} first, false to run the full analysis on every function as {@link #parseAllFunctions(File)} does
+	 * @throws IOException
+	 */
+	public static void parseAllFunctions(File file, final boolean fast) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		final AtomicLong decided = new AtomicLong();
+		try {
+			// functions are parsed in parallel, rows are written in a fixed order
+			new BatchAnalyzer().run(FunctionCatalog.ALL, new BatchAnalyzer.Analysis<String>() {
+				@Override
+				public String analyze(int index, Node function, Q cfg) {
+					Log.info("Processing " + function.getAttr(XCSG.name));
+
+					// parse the function
+					boolean result;
+					if(fast) {
+						Verdict verdict = check(cfg.eval());
+						if(verdict.isDecided()) {
+							decided.incrementAndGet();
+						}
+						result = verdict.isStructured();
+					}else {
+						result = fun_isStructured(Common.toQ(function));
+					}
 
-			writer.write(function.getAttr(XCSG.name) + "," + (result? "true":"false") + "\n");
-			Log.info("Done with " + function.getAttr(XCSG.name));
+					Log.info("Done with " + function.getAttr(XCSG.name));
+					return function.getAttr(XCSG.name) + "," + (result? "true":"false") + "\n";
+				}
+			}, BatchAnalyzer.rows(writer));
+			// add Excel False counter in the last line
+			long count = FunctionCatalog.get().size();
+			String formula = "=COUNTIF(B1:B" + count + ", \"\"FALSE\"\")";
+			writer.write(",\""+ formula +"\"\n");
+			if(fast) {
+				Log.info(decided.get() + " of " + count + " functions decided without the full analysis");
+			}
+		}finally {
+			writer.close();
 		}
-		// add Excel False counter in the last line
-		long count = functions.eval().nodes().size();
-		String formula = "=COUNTIF(B1:B" + count + ", \"\"FALSE\"\")";
-		writer.write(",\""+ formula +"\"\n");
-		writer.close();
 	}
 
 	/**
@@ -81,8 +128,7 @@ public class sCodeChecker {
 	 * @return boolean
 	 */
 	public static boolean fun_isStructured(Q function) {
-		preprocess(function);
-		return parse();
+		return parse(preprocess(function));
 
 	}
 
@@ -97,284 +143,135 @@ public class sCodeChecker {
 	 */
 	public static boolean fun_isStructured(String fun) {
 		Q function = com.ensoftcorp.open.c.commons.analysis.CommonQueries.functions(fun);
-		preprocess(function);
-		return parse();
+		return parse(preprocess(function));
 
 	}
 
 	/**
-	* Goes through all the subgraphs to see if there are two entries in one subgraph
-	 * @param none
-	 * @return boolean
+	* Checks if a given function is structured, and where it is not
+	*
+	 * Example Atlas Shell Usage:
+	 * edu.iastate.scode.sCodeChecker.fun_checkStructured("function_name")
+	 *
+	 * @param String fun
+	 * @return the verdict with the first offending node
 	 */
-	public static boolean parse() {
-
-		for(Node current : map_subgraphs.keySet()) {
-			if(map_subgraphs.get(current).get(0).size()>1) {
-				// if more than one entry to a subgraph, return false
-				return false;
-			}
-		}
-		return true;
+	public static Verdict fun_checkStructured(String fun) {
+		Q function = com.ensoftcorp.open.c.commons.analysis.CommonQueries.functions(fun);
+		return check(CommonQueries.cfg(function).eval());
 	}
 
 	/**
-	* Pre-process the whole graph and store the child-parent relationships and subgraphs for each control flow condition node
-	 * @param Q function
-	 * @return none
+	* Asks the {@link ReducibilityOracle}, and checks the subgraphs only if it cannot decide.
+	* The subgraphs are checked as soon as their entries are final and the check stops at the first one with
+	* more than one entry, use {@link #fun_isStructured(Q)} for the complete result.
+	 * @param cfg the control flow graph of one function
+	 * @return the verdict with the first offending node
 	 */
-	private static void preprocess(Q function) {
-		// clear memory for previous functions
-		map_subgraphs.clear();
-		map_parent.clear();
-
-		// initialize necessary variables
-		Q cfg = CommonQueries.cfg(function);
-		Q cfbe=cfg.edges(XCSG.ControlFlowBackEdge).retainEdges(); //Control flow back edge
-		Q dag=cfg.differenceEdges(cfbe); // Control flow back edges removed
-
-		Map<Node, Long> subgraph_size = new HashMap<Node, Long>();
-		List<Node> sorted_by_size = new ArrayList<Node>();
-
-		// initiate all the initial subgraphs
-		for(Node node : cfg.nodesTaggedWithAny(XCSG.ControlFlowCondition).eval().nodes()) {
-			// get subgraph information
-			List<AtlasSet<Node>> list = getSubgraph(Common.toQ(node), cfg);
-			
-			// update subgraph list
-			map_subgraphs.put(node, list);
-			
-			// update parenthood map
-			updateParentMap(node, dag);
-
-			// get subgraph size
-			subgraph_size.put(node, list.get(0).size()+list.get(1).size());
-
-			// initialize sort by size list
-			sorted_by_size.add(node);
-		}
-
-		// update subgraphs based on parents' exits
-		// start with nodes with no parents
-		Set<Node> no_parents = new HashSet<Node>();
-		Set<Node> previous_no_parents = new HashSet<Node>();
-		
-		// initialize node set with node has no parents (find out ancestor nodes)
-		no_parents.addAll(map_subgraphs.keySet()); // add all selectable nodes
-		no_parents.removeAll(map_parent.keySet()); // remove nodes that have parents
-
-		// update all nested subgraphs
-		// while set of no parent subgraphs changes
-		int count = 0;
-		while(!(previous_no_parents.size() == no_parents.size() && previous_no_parents.containsAll(no_parents))) {
-			// for each subgraph with no parent
-			for(Node node : no_parents) {
-				// get children
-				AtlasSet<Node> children = new AtlasHashSet<Node>();
-				children.addAll(Common.toQ(map_subgraphs.get(node).get(1)).nodesTaggedWithAny(XCSG.ControlFlowCondition).eval().nodes());
-
-				// if no child, skip
-				if(children.size() < 1) {
-					continue;
-				}
-
-				// update child subgraph
-				for(Node child : children) {
-					updateChildExits(100, child, dag, cfg); //update child max 100 iterations
-				}
-
-			}
-
-			// update parenthood map
-			map_parent.clear();
-			for(Node node : map_subgraphs.keySet()) {
-				// map_parent is updated in function updateParent()
-				updateParentMap(node, dag);
-			}
-
-			// update the two sets for comparison
-			previous_no_parents.clear();
-			previous_no_parents.addAll(no_parents);
-			no_parents.clear();
-			no_parents.addAll(map_subgraphs.keySet());
-			no_parents.removeAll(map_parent.keySet());
-
-			count++;
-			if(count>100) {
-				Log.info("Update child subgraph exceeds max iterations for FUNCTION: " + function.eval().nodes().one().getAttr(XCSG.name));
-				break;
-			}
-
+	public static Verdict check(Graph cfg) {
+		// the oracle reads the back edges, recover the loops first
+		LoopRecovery.recover(cfg);
+		FunctionGraphContext context = new FunctionGraphContext(cfg);
+		CFGSnapshot snapshot = context.snapshot();
+		ReducibilityOracle oracle = ReducibilityOracle.decide(snapshot, context.reachability());
+		if(oracle.isDecided()) {
+			Node offender = oracle.offender() < 0 ? null : snapshot.node(oracle.offender());
+			return new Verdict(oracle.verdict() == ReducibilityOracle.STRUCTURED, offender, true);
 		}
+		Node offender = new sCodeChecker().firstOffender(context);
+		return new Verdict(offender == null, offender, false);
+	}
 
+	/**
+	* Goes through all the subgraphs to see if there are two entries in one subgraph
+	 * @param StructureResult result
+	 * @return boolean
+	 */
+	public static boolean parse(StructureResult result) {
+		return offender(result) == null;
 	}
 
 	/**
-	* Update parent map
-	 * @param Node parent, dag
-	 * @return none
+	 * @return an entry of the first subgraph with more than one entry, other than its condition, null if there is none
 	 */
-	private static void updateParentMap(Node parent_node, Q dag) {  // input: graph root and graph list [entry, body, exit]
-
-		Q subgraph_body_q = Common.toQ(map_subgraphs.get(parent_node).get(1));
-
-		// update exits of nested nodes
-		for(Node child : subgraph_body_q.nodesTaggedWithAny(XCSG.ControlFlowCondition).eval().nodes()) {
-			if(map_parent.containsKey(child)) {
-				Node prev_parent = map_parent.get(child);
-				// compare previous parent with current parent
-				// pick the smaller sized father to be the actual parent
-//				if(dag.between(Common.toQ(parent_node), Common.toQ(child)).eval().nodes().size()
-//						< dag.between(Common.toQ(prev_parent), Common.toQ(child)).eval().nodes().size()) {
-				if(getDistance(parent_node, child, dag) < getDistance(prev_parent, child, dag)) {
-
-					// if smaller, update parenthood
-					map_parent.put(child, parent_node);
+	private static Node offender(StructureResult result) {
+		for(Map.Entry<Node, List<AtlasSet<Node>>> subgraph : result.blocks().entrySet()) {
+			AtlasSet<Node> entries = subgraph.getValue().get(0);
+			if(entries.size()>1) {
+				// more than one entry to a subgraph
+				for(Node entry : entries) {
+					if(!entry.equals(subgraph.getKey())) {
+						return entry;
+					}
 				}
-			}else {
-				// no record, just update value
-				map_parent.put(child, parent_node);
 			}
 		}
+		return null;
 	}
 
 	/**
-	* Get shortest distance from node1 to node2 using BFS
-	 * @param node1, node2
-	 * @return int distance
+	* Pre-process the whole graph and store the child-parent relationships and subgraphs for each control flow condition node
+	 * @param Q function
+	 * @return the subgraphs and parent map of the function
 	 */
-	private static int getDistance(Node node1, Node node2, Q dag) {
-		AtlasSet<Node> current = new AtlasHashSet<Node>();
-		current.add(node1);
-		int steps = 0;
-		if(dag.forward(Common.toQ(node1)).eval().nodes().contains(node2)) {
-			int count = 0;
-			while(!current.isEmpty()) {
-				steps += 1;
-				AtlasSet<Node> tmp = new AtlasHashSet<Node>();
-				for(Node node : current) {
-					AtlasSet<Node> tmp_nxt = dag.successors(Common.toQ(node)).eval().nodes();
-					if(tmp_nxt.contains(node2)) {
-						return steps;
-					}
-					tmp.addAll(tmp_nxt);
-				}
-				current.clear();
-				current.addAll(tmp);
+	private static StructureResult preprocess(Q function) {
+		return new sCodeChecker().preprocessFunction(new FunctionGraphContext(CommonQueries.cfg(function)));
+	}
 
-				count++;
-				if(count>1000) {
-					Log.info("GetDistance() exceeds max iterations 1000 at node " + node1.getAttr(XCSG.name) + " | and node | " + node2.getAttr(XCSG.name));
-					return steps;
-				}
-			}
+	private StructureResult preprocessFunction(FunctionGraphContext context) {
+		extractSubgraphs(context);
+
+		// update subgraphs based on parents' exits
+		// a subgraph is processed again only when the exits of its parent or its parent changed
+		// among the subgraphs containing a node, the innermost one is its parent (see NestingTree)
+		ExitPropagation propagation = context.propagateExits(map_subgraphs, map_parent, true);
+
+		if(!propagation.converged()) {
+			Log.info("Update child subgraph exceeds max iterations for FUNCTION: " + context.cfgQ().containers().nodes(XCSG.Function).eval().nodes().one().getAttr(XCSG.name));
 		}
-		return -1;
+
+		return new StructureResult(map_subgraphs, map_parent, propagation.steps(), propagation.converged());
 	}
 
 	/**
-	* Update child subgraph based on the parent's exits
-	 * @param Node child, Q dag, Q cfg
-	 * @return none
+	* Like preprocessFunction(), but each subgraph is checked once its parents are done with it, from the outermost
+	* subgraphs in, and the exit propagation stops at the first subgraph with more than one entry
+	 * @param context the graphs of the function
+	 * @return an entry of that subgraph other than its condition, null if the function is structured
 	 */
-	private static void updateChildExits(int cnt, Node child, Q dag, Q cfg) {
-		//avoid deadlock
-		if(cnt == 0) {
-			Log.info("updateExits() exceeds max recursion");
-			return;
+	private Node firstOffender(final FunctionGraphContext context) {
+		extractSubgraphs(context);
+		ExitPropagation propagation = context.exitPropagation(map_subgraphs, true);
+		int k = propagation.run(ExitPropagation.defaultMaxSteps(map_subgraphs.size()), new ExitPropagation.Check() {
+			@Override
+			public boolean reject(int k, Block block) {
+				return block.entry().cardinality() > 1;
+			}
+		});
+		if(k < 0) {
+			return null;
 		}
+		BitSet entries = (BitSet) propagation.block(k).entry().clone();
+		entries.clear(propagation.key(k));
+		return context.snapshot().node(entries.nextSetBit(0));
+	}
 
-		// cast to Q
-		Q cf_condition = Common.toQ(child);
-
-		// list [entry, subgraph, exits]
-		List<AtlasSet<Node>> subgraph = map_subgraphs.get(child);
-
-		// terminate subgraph based on exits of parent subgraph
-		// if it has a parent
-		if(map_parent.containsKey(child)) {
-
-			// get parent exits
-			AtlasSet<Node> parent_exits = map_subgraphs.get(map_parent.get(child)).get(2);
-			// get paths starting from parent's exits
-			Q extra_portion = dag.forward(Common.toQ(parent_exits)).retainEdges();
-
-			// get subgraph body nodes
-			// need to include entries because at this point some body nodes may be treated as entries
-			Q subgraph_body_q = Common.toQ(subgraph.get(1)).union(Common.toQ(subgraph.get(0)));
-
-			// if there is an intersection
-			if(extra_portion.intersection(subgraph_body_q).eval().nodes().size() > 0) {
-				//==============debugging === 05-03-2018
-//				Log.info("======UpdateExit====== "+current.getAttr(XCSG.name).toString());
-//				Log.info("===Before===");
-//				String str="";
-//				for(Node n : subgraph.get(2)) {
-//					str+=n.getAttr(XCSG.name).toString()+" || ";
-//				}
-//				Log.info(str);
-				//=============== === 05-03-2018
-
-				// update the subgraph body
-				AtlasSet<Node> temp = new AtlasHashSet<Node>();
-
-				temp.addAll(subgraph.get(1));
-				temp = Common.toQ(temp).difference(extra_portion).eval().nodes();
-
-				subgraph.set(1, temp);
-
-				// update exits
-				AtlasSet<Node> temp2 = Common.toQ(subgraph.get(1)).union(cf_condition).union(Common.toQ(parent_exits)).induce(cfg).retainEdges().leaves().eval().nodes();
-
-				subgraph.set(2, temp2);
-
-				// update the entries
-				AtlasSet<Node> temp3 = new AtlasHashSet<Node>();
-				// pick up entry nodes
-				AtlasSet<Node> subgraph_body_set = Common.toQ(subgraph.get(1)).union(cf_condition).eval().nodes();
-				for(Node n : subgraph_body_set) {
-					for(Node ent : cfg.predecessors(Common.toQ(n)).eval().nodes()) {
-						if(!subgraph_body_set.contains(ent)) {
-							temp3.add(n);
-						}
-					}
-				}
-				subgraph.set(0, temp3);
-
-				// update new subgraph
-				map_subgraphs.put(child, subgraph);
-
-				//=============== debugging === 05-03-2018
-//						Log.info("===After===");
-//						str="";
-//						for(Node n : subgraph.get(2)) {
-//							str+=n.getAttr(XCSG.name).toString()+" || ";
-//						}
-//						Log.info(str);
-
-				// update its children === 05-03-2018
-				AtlasSet<Node> its_children = Common.toQ(subgraph.get(1)).nodesTaggedWithAny(XCSG.ControlFlowCondition).eval().nodes();
-				if(its_children.size()>0) {
-					for(Node forward_child : its_children) {
-						Log.info("Parent:: " + child.getAttr(XCSG.name) + " ||Child:: " + forward_child.getAttr(XCSG.name));
-						updateChildExits(cnt--, forward_child, dag, cfg);
-					}
-				}
-				//================
-			}
+	private void extractSubgraphs(FunctionGraphContext context) {
+		// initiate all the initial subgraphs
+		for(Node node : context.cfgQ().nodesTaggedWithAny(XCSG.ControlFlowCondition).eval().nodes()) {
+			// get subgraph information
+			map_subgraphs.put(node, getSubgraph(Common.toQ(node), context));
 		}
 	}
 
 	/**
 	* Given a control flow condition node, returns the subgraph in the form of a list [entries, body, exits]
-	 * @param cf_condition, cfg
+	 * @param cf_condition, context
 	 * @return List<Q> [entries, body, exits]
 	 */
-	private static List<AtlasSet<Node>> getSubgraph(Q cf_condition, Q cfg) {
-
-		Q cfbe=cfg.edges(XCSG.ControlFlowBackEdge).retainEdges(); //Control flow back edge
-
-		Q dag=cfg.differenceEdges(cfbe); // Control flow back edges removed
+	private static List<AtlasSet<Node>> getSubgraph(Q cf_condition, FunctionGraphContext context) {
+		Q cfg = context.cfgQ();
+		Q dag = context.dag(); // Control flow back edges removed
 
 		// Initialize the subgraph queries
 		Q subgraph_q = Common.empty();
@@ -405,42 +302,13 @@ public class sCodeChecker {
 			// use induce(cfg) to add missing edges from CFG so we have complete subgraph
 			subgraph_q = subgraph_q.induce(cfg).retainEdges();
 
-			// get exit nodes
-			subgraph_exit_q = subgraph_q.leaves();
-
-			// get legal entry nodes
-			subgraph_entry_q = cf_condition;
-
-//**** Long Query Issue Start ***
-//			// pick up other illegal entry nodes
-//			for(Node n : subgraph_q.difference(subgraph_exit_q).eval().nodes()) {
-//				for(Node ent : cfg.predecessors(Common.toQ(n)).eval().nodes()) {
-//					if(!subgraph_q.eval().nodes().contains(ent)) {
-//						subgraph_entry_q = subgraph_entry_q.union(Common.toQ(n));
-//					}
-//				}
-//			}
-//**** Long Query Issue End ***
-
-// FIX ===
-			// pick up other illegal entry nodes
-			AtlasSet<Node> illegal_entry_set = new AtlasHashSet<Node>();
-
-			for(Node n : subgraph_q.difference(subgraph_exit_q).eval().nodes()) {
-				for(Node ent : cfg.predecessors(Common.toQ(n)).eval().nodes()) {
-					if(!subgraph_q.eval().nodes().contains(ent)) {
-						illegal_entry_set.add(n);
-					}
-				}
-			}
-			subgraph_entry_q = subgraph_entry_q.union(Common.toQ(illegal_entry_set));
-// FIX END ===
+			// get exit nodes and the legal entry plus other illegal entry nodes
+			BlockBoundary boundary = context.boundary(subgraph_q.eval().nodes());
+			subgraph_exit_q = context.toQ(boundary.exit());
+			subgraph_entry_q = cf_condition.union(context.toQ(boundary.entry()));
 
 		}else{
 			// Non-loop conditions (IF and SWITCH)
-			// collect branch nodes
-			AtlasSet<Node> branchNodes = cfg.successors(cf_condition).eval().nodes();
-
 			// check if the false leave is a control flow back edge
 			Q CFBE_false_edge = cfg.forwardStep(cf_condition).selectEdge(XCSG.conditionValue, "false", false).retainEdges()
 					.edgesTaggedWithAny(XCSG.ControlFlowBackEdge);
@@ -454,60 +322,9 @@ public class sCodeChecker {
 				return return_list;
 			}
 
-			// collect the paths from each branch node to DAG leaves
-			List<Q> list_paths = new ArrayList<Q>();
-			for(Node branch_root : branchNodes) {
-				list_paths.add(dag.between(Common.toQ(branch_root), dag.leaves()));
-			}
-
-//**** Long Query Issue Start ***
-			// For every two branch paths, find if there is an intersection
-			// save the common intersection to this query
-//			Q joint_paths = null;
-//
-//			for(int i = 0; i<list_paths.size()-1; i++) {
-//				for(int j = i+1; j<list_paths.size(); j++) {
-//					// get intersections of two branches
-//					Q tmp_joint_paths = list_paths.get(i).intersection(list_paths.get(j));
-//					if(tmp_joint_paths.eval().nodes().size()>0) {
-//						 //if it has an intersection, join it with previous ones
-//						if(joint_paths == null) {
-//							joint_paths = tmp_joint_paths; // if first intersection found, initialize it
-//						}else {
-//							joint_paths = joint_paths.intersection(tmp_joint_paths);
-//						}
-//					}
-//				}
-//			}
-//**** Long Query Issue End
-
-//FIX ===
-			// For every two branch paths, find if there is an intersection
-			// save the common intersection to this query
-			Q joint_paths = null;
-			AtlasSet<Node> joint_paths_node_set = new AtlasHashSet<Node>();
-
-			for(int i = 0; i<list_paths.size()-1; i++) {
-				for(int j = i+1; j<list_paths.size(); j++) {
-					// get intersections of two branches
-					AtlasSet<Node> tmp_joint_paths_node_set = list_paths.get(i).intersection(list_paths.get(j)).eval().nodes();
-					if(tmp_joint_paths_node_set.size()>0) {
-						joint_paths_node_set.addAll(tmp_joint_paths_node_set);
-					}
-				}
-			}
-			joint_paths = Common.toQ(joint_paths_node_set);
-//FIX END ===
-
-			subgraph_q = Common.empty();
-
-			// get subgraph nodes
-			if(joint_paths == null) {
-				subgraph_q = dag.between(Common.toQ(branchNodes), dag.leaves());
-			}else {
-				subgraph_q = dag.between(Common.toQ(branchNodes), dag.leaves()).
-						difference(joint_paths).union(joint_paths.induce(dag).roots());
-			}
+			// the paths below the branches, without the part where two or more branches meet (only the merge points are kept)
+			CFGSnapshot snapshot = context.snapshot();
+			subgraph_q = Common.toQ(snapshot.toAtlasSet(context.extractor().branchRegion(snapshot.id(cf_condition.eval().nodes().one()))));
 
 			// complete the subgraph with edges
 			subgraph_q = subgraph_q.union(cf_condition).induce(cfg).retainEdges();
@@ -540,36 +357,10 @@ public class sCodeChecker {
 			// complete the subgraph with edges again
 			subgraph_q = subgraph_q.union(cf_condition).induce(cfg).retainEdges();
 
-			// update subgraph exits
-			subgraph_exit_q = subgraph_q.leaves();
-
-			// get legal entry nodes
-			subgraph_entry_q = cf_condition;
-
-//**** Long Query Issue Start ***
-//			// pick up other illegal entry nodes
-//			for(Node n : subgraph_q.difference(subgraph_exit_q).eval().nodes()) {
-//				for(Node ent : cfg.predecessors(Common.toQ(n)).eval().nodes()) {
-//					if(!subgraph_q.eval().nodes().contains(ent)) {
-//						subgraph_entry_q = subgraph_entry_q.union(Common.toQ(n));
-//					}
-//				}
-//			}
-//**** Long Query Issue End ***
-
-// FIX ===
-			// pick up other illegal entry nodes
-			AtlasSet<Node> illegal_entry_set = new AtlasHashSet<Node>();
-
-			for(Node n : subgraph_q.difference(subgraph_exit_q).eval().nodes()) {
-				for(Node ent : cfg.predecessors(Common.toQ(n)).eval().nodes()) {
-					if(!subgraph_q.eval().nodes().contains(ent)) {
-						illegal_entry_set.add(n); // add illegal entry node to the set
-					}
-				}
-			}
-			subgraph_entry_q = subgraph_entry_q.union(Common.toQ(illegal_entry_set));
-//FIX END ===
+			// update subgraph exits, get the legal entry plus other illegal entry nodes
+			BlockBoundary boundary = context.boundary(subgraph_q.eval().nodes());
+			subgraph_exit_q = context.toQ(boundary.exit());
+			subgraph_entry_q = cf_condition.union(context.toQ(boundary.entry()));
 
 			// if the selected condition is not switch, it probably have a case node as entry due to case fall-through
 			if(!cf_condition.eval().nodes().one().taggedWith(XCSG.ControlFlowSwitchCondition)) {
@@ -584,37 +375,10 @@ public class sCodeChecker {
 							// keep the previous exits
 							union(subgraph_exit_q).induce(cfg).retainEdges();
 
-					// update subgraph exits
-					subgraph_exit_q = subgraph_q.leaves();
-
-					// update legal entry nodes
-					subgraph_entry_q = cf_condition;
-
-//**** Long Query Issue Start ***
-					// pick up other illegal entry nodes
-
-//					for(Node n : subgraph_q.difference(subgraph_exit_q).eval().nodes()) {
-//						for(Node ent : cfg.predecessors(Common.toQ(n)).eval().nodes()) {
-//							if(!subgraph_q.eval().nodes().contains(ent)) {
-//								subgraph_entry_q = subgraph_entry_q.union(Common.toQ(n));
-//							}
-//						}
-//					}
-//**** Long Query Issue End ***
-
-// === FIX ===
-					// pick up other illegal entry nodes
-					illegal_entry_set.clear();
-
-					for(Node n : subgraph_q.difference(subgraph_exit_q).eval().nodes()) {
-						for(Node ent : cfg.predecessors(Common.toQ(n)).eval().nodes()) {
-							if(!subgraph_q.eval().nodes().contains(ent)) {
-								illegal_entry_set.add(n);
-							}
-						}
-					}
-					subgraph_entry_q = subgraph_entry_q.union(Common.toQ(illegal_entry_set));
-// === FIX END ===
+					// update subgraph exits, legal entry and other illegal entry nodes
+					boundary = context.boundary(subgraph_q.eval().nodes());
+					subgraph_exit_q = context.toQ(boundary.exit());
+					subgraph_entry_q = cf_condition.union(context.toQ(boundary.entry()));
 				}
 			}
 
@@ -632,4 +396,43 @@ public class sCodeChecker {
 
 		return return_list;
 	}
+
+	/**
+	 * Whether a function is structured, with the first node entering a subgraph a second time
+	 */
+	public static final class Verdict {
+		private final boolean structured;
+		private final Node offender;
+		private final boolean decided;
+
+		Verdict(boolean structured, Node offender, boolean decided) {
+			this.structured = structured;
+			this.offender = offender;
+			this.decided = decided;
+		}
+
+		public boolean isStructured() {
+			return structured;
+		}
+
+		/**
+		 * @return the offending node, null if the function is structured
+		 */
+		public Node offender() {
+			return offender;
+		}
+
+		/**
+		 * @return true if the oracle decided without checking the subgraphs
+		 */
+		public boolean isDecided() {
+			return decided;
+		}
+
+		@Override
+		public String toString() {
+			return (structured ? "structured" : "unstructured") + (offender == null ? "" : " at " + offender.getAttr(XCSG.name))
+					+ (decided ? "" : " (subgraph check)");
+		}
+	}
 }
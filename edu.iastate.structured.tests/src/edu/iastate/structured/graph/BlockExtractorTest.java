@@ -0,0 +1,120 @@
+package edu.iastate.structured.graph;
+
+import static edu.iastate.structured.graph.CFGSnapshot.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+* The blocks of {@link BlockExtractor} are the ones of the Atlas query extractors it replaced, see
+* {@link Naive}, and do not depend on how its {@link ReachabilityIndex} answers.
+*
+* @author Le Zhang
+*/
+public class BlockExtractorTest {
+
+	@Test
+	public void blocksOfStructuredFunctions() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			compareWithBaseline(RandomCFG.structured(seed), "seed " + seed);
+		}
+	}
+
+	@Test
+	public void blocksOfFunctionsWithGotos() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			compareWithBaseline(RandomCFG.withGotos(seed), "seed " + seed);
+		}
+	}
+
+	@Test
+	public void onDemandReachabilityGivesTheSameBlocks() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			CFGSnapshot g = RandomCFG.withGotos(seed);
+			List<Block> precomputed = new ArrayList<Block>();
+			int[] keys = extract(new BlockExtractor(g), precomputed);
+			List<Block> onDemand = new ArrayList<Block>();
+			assertArrayEquals("seed " + seed, keys, extract(new BlockExtractor(g, 1), onDemand));
+			for(int k = 0; k < keys.length; k++) {
+				assertSame("seed " + seed + ", block of " + keys[k], precomputed.get(k), onDemand.get(k));
+			}
+		}
+	}
+
+	/**
+	 * Extracts the block of every selectable node of the snapshot, by kind as the analyzers do.
+	 * @param blocks receives the blocks
+	 * @return the selectable nodes with a block, in id order
+	 */
+	static int[] extract(BlockExtractor extractor, List<Block> blocks) {
+		CFGSnapshot g = extractor.snapshot();
+		BitSet selectable = g.tagged(TAG_LABEL | TAG_DO_WHILE | TAG_IF | TAG_LOOP_CONDITION | TAG_SWITCH);
+		List<Integer> keys = new ArrayList<Integer>();
+		for(int v = selectable.nextSetBit(0); v >= 0; v = selectable.nextSetBit(v + 1)) {
+			Block block;
+			if(g.has(v, TAG_LABEL) && !g.has(v, TAG_LOOP)) {
+				block = extractor.labelModule(v);
+			}else if(g.has(v, TAG_LABEL)) {
+				block = extractor.labelLoop(v);
+			}else if(g.has(v, TAG_DO_WHILE)) {
+				block = extractor.doWhile(v);
+			}else if(g.has(v, TAG_IF)) {
+				block = extractor.ifBlock(v);
+			}else if(g.has(v, TAG_LOOP_CONDITION)) {
+				block = extractor.loopBlock(v);
+			}else {
+				block = extractor.switchBlock(v);
+			}
+			if(block != null) {
+				keys.add(v);
+				blocks.add(block);
+			}
+		}
+		int[] array = new int[keys.size()];
+		for(int k = 0; k < array.length; k++) {
+			array[k] = keys.get(k);
+		}
+		return array;
+	}
+
+	private static void compareWithBaseline(CFGSnapshot g, String what) {
+		BlockExtractor extractor = new BlockExtractor(g);
+		List<Block> blocks = new ArrayList<Block>();
+		int[] keys = extract(extractor, blocks);
+		int k = 0;
+		BitSet selectable = g.tagged(TAG_LABEL | TAG_DO_WHILE | TAG_IF | TAG_LOOP_CONDITION | TAG_SWITCH);
+		for(int v = selectable.nextSetBit(0); v >= 0; v = selectable.nextSetBit(v + 1)) {
+			Block expected;
+			if(g.has(v, TAG_LABEL) && !g.has(v, TAG_LOOP)) {
+				expected = Naive.labelModule(g, v);
+			}else if(g.has(v, TAG_LABEL)) {
+				expected = Naive.labelLoop(g, v);
+			}else if(g.has(v, TAG_DO_WHILE)) {
+				expected = Naive.doWhile(g, v);
+			}else if(g.has(v, TAG_IF)) {
+				expected = Naive.ifBlock(g, v);
+			}else if(g.has(v, TAG_LOOP_CONDITION)) {
+				expected = Naive.loopBlock(g, v);
+			}else {
+				expected = Naive.switchBlock(g, v);
+			}
+			if(expected == null) {
+				assertTrue(what + ", no block for " + v, k == keys.length || keys[k] != v);
+				continue;
+			}
+			assertEquals(what + ", block of " + v, v, keys[k]);
+			assertSame(what + ", block of " + v, expected, blocks.get(k++));
+		}
+		assertEquals(what, keys.length, k);
+	}
+
+	static void assertSame(String what, Block expected, Block actual) {
+		assertEquals(what + ", entry", expected.entry(), actual.entry());
+		assertEquals(what + ", body", expected.body(), actual.body());
+		assertEquals(what + ", exit", expected.exit(), actual.exit());
+	}
+}
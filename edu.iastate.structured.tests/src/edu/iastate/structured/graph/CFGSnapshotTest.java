@@ -0,0 +1,65 @@
+package edu.iastate.structured.graph;
+
+import static edu.iastate.structured.graph.CFGSnapshot.*;
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+/**
+* The layout of {@link CFGSnapshot} on generated functions.
+*
+* @author Le Zhang
+*/
+public class CFGSnapshotTest {
+
+	@Test
+	public void idsAreTopological() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			CFGSnapshot g = RandomCFG.withGotos(seed);
+			assertTrue("seed " + seed, g.isTopological());
+			for(int v = 0; v < g.size(); v++) {
+				for(int i = g.succBegin(v); i < g.succEnd(v); i++) {
+					if((g.succFlags(i) & EDGE_BACK) == 0) {
+						assertTrue("seed " + seed + ", edge " + v + " -> " + g.succTarget(i), v < g.succTarget(i));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void predecessorsMirrorSuccessors() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			CFGSnapshot g = RandomCFG.withGotos(seed);
+			int[] out = new int[g.size() * g.size()];
+			int[] in = new int[out.length];
+			for(int v = 0; v < g.size(); v++) {
+				for(int i = g.succBegin(v); i < g.succEnd(v); i++) {
+					out[v * g.size() + g.succTarget(i)] += 1 + g.succFlags(i);
+				}
+				for(int i = g.predBegin(v); i < g.predEnd(v); i++) {
+					in[g.predSource(i) * g.size() + v] += 1 + g.predFlags(i);
+				}
+			}
+			assertArrayEquals("seed " + seed, out, in);
+			assertEquals("seed " + seed, g.edgeCount(), g.predEnd(g.size() - 1));
+		}
+	}
+
+	@Test
+	public void forwardMatchesSearch() {
+		int[] views = { VIEW_CFG, VIEW_DAG, VIEW_DAG_NO_BREAK, VIEW_DAG_NO_GOTO, VIEW_CFG_NO_GOTO };
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			CFGSnapshot g = RandomCFG.withGotos(seed);
+			for(int view : views) {
+				for(int v = 0; v < g.size(); v++) {
+					BitSet seed1 = new BitSet();
+					seed1.set(v);
+					assertEquals("seed " + seed + ", node " + v + ", view " + view, Naive.forward(g, seed1, view), g.forward(seed1, view));
+				}
+			}
+		}
+	}
+}
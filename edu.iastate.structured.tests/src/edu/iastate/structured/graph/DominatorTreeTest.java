@@ -0,0 +1,51 @@
+package edu.iastate.structured.graph;
+
+import static edu.iastate.structured.graph.CFGSnapshot.*;
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+/**
+* {@link DominatorTree} (Lengauer-Tarjan) against the iterative data flow dominators.
+*
+* @author Le Zhang
+*/
+public class DominatorTreeTest {
+
+	@Test
+	public void dominatorsOfStructuredFunctions() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			compare(RandomCFG.structured(seed), seed);
+		}
+	}
+
+	@Test
+	public void dominatorsOfFunctionsWithGotos() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			compare(RandomCFG.withGotos(seed), seed);
+		}
+	}
+
+	private static void compare(CFGSnapshot g, int seed) {
+		int[] views = { VIEW_CFG, VIEW_DAG, VIEW_DAG_NO_GOTO };
+		for(int view : views) {
+			compare(g, DominatorTree.dominators(g, view), Naive.dominators(g, view, false), "seed " + seed + ", view " + view);
+			compare(g, DominatorTree.postDominators(g, view), Naive.dominators(g, view, true), "seed " + seed + ", post view " + view);
+		}
+	}
+
+	private static void compare(CFGSnapshot g, DominatorTree tree, BitSet[] dom, String what) {
+		for(int v = 0; v < g.size(); v++) {
+			assertEquals(what + ", node " + v, dom[v] != null, tree.isReachable(v));
+			if(dom[v] == null) {
+				continue;
+			}
+			assertEquals(what + ", idom of " + v, Naive.idom(dom, v), tree.idom(v));
+			for(int a = 0; a < g.size(); a++) {
+				assertEquals(what + ", " + a + " dominates " + v, dom[v].get(a), tree.dominates(a, v));
+			}
+		}
+	}
+}
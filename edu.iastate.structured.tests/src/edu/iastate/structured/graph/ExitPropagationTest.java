@@ -0,0 +1,128 @@
+package edu.iastate.structured.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+* {@link ExitPropagation} converges with every block in the body of its parent, and gives the same
+* blocks and parents whether it runs sequentially, in parallel or stopped by a check and resumed.
+*
+* @author Le Zhang
+*/
+public class ExitPropagationTest {
+
+	@Test
+	public void convergesWithParentsContainingTheirBlocks() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			CFGSnapshot g = RandomCFG.withGotos(seed);
+			ExitPropagation propagation = propagation(g, false);
+			int n = propagation.tree().size();
+			assertTrue("seed " + seed, propagation.run(ExitPropagation.defaultMaxSteps(n)));
+			int[] index = new int[g.size()];
+			for(int k = 0; k < n; k++) {
+				index[propagation.key(k)] = k;
+			}
+			for(int k = 0; k < n; k++) {
+				int parent = propagation.parent(k);
+				if(parent >= 0) {
+					assertTrue("seed " + seed + ", parent of " + propagation.key(k), propagation.block(index[parent]).body().get(propagation.key(k)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void parallelMatchesSequential() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			for(boolean retainEdges : new boolean[] { false, true }) {
+				CFGSnapshot g = RandomCFG.withGotos(seed);
+				ExitPropagation sequential = propagation(g, retainEdges);
+				ExitPropagation parallel = propagation(g, retainEdges);
+				long maxSteps = ExitPropagation.defaultMaxSteps(sequential.tree().size());
+				sequential.run(maxSteps);
+				parallel.runParallel(maxSteps);
+				compare(sequential, parallel, "seed " + seed);
+				assertEquals("seed " + seed, sequential.steps(), parallel.steps());
+			}
+		}
+	}
+
+	@Test
+	public void checkedBlocksAreFinal() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			CFGSnapshot g = RandomCFG.withGotos(seed);
+			ExitPropagation complete = propagation(g, false);
+			final long maxSteps = ExitPropagation.defaultMaxSteps(complete.tree().size());
+			complete.run(maxSteps);
+
+			final List<Block> seen = new ArrayList<Block>();
+			final List<Integer> seenKeys = new ArrayList<Integer>();
+			ExitPropagation streamed = propagation(g, false);
+			assertEquals("seed " + seed, -1, streamed.run(maxSteps, new ExitPropagation.Check() {
+				@Override
+				public boolean reject(int k, Block block) {
+					seenKeys.add(k);
+					// owned by the propagation, copied to compare with the end result
+					seen.add(new Block((BitSet) block.entry().clone(), (BitSet) block.body().clone(), (BitSet) block.exit().clone()));
+					return false;
+				}
+			}));
+			assertEquals("seed " + seed, complete.tree().size(), seen.size());
+			for(int i = 0; i < seen.size(); i++) {
+				BlockExtractorTest.assertSame("seed " + seed + ", checked block " + seenKeys.get(i), complete.block(seenKeys.get(i)), seen.get(i));
+			}
+			compare(complete, streamed, "seed " + seed);
+		}
+	}
+
+	@Test
+	public void rejectedRunResumes() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			CFGSnapshot g = RandomCFG.withGotos(seed);
+			ExitPropagation complete = propagation(g, false);
+			int n = complete.tree().size();
+			if(n == 0) {
+				continue;
+			}
+			long maxSteps = ExitPropagation.defaultMaxSteps(n);
+			complete.run(maxSteps);
+
+			final int stop = new Random(seed).nextInt(n);
+			ExitPropagation resumed = propagation(g, false);
+			int rejected = resumed.run(maxSteps, new ExitPropagation.Check() {
+				@Override
+				public boolean reject(int k, Block block) {
+					return k == stop;
+				}
+			});
+			assertEquals("seed " + seed, stop, rejected);
+			resumed.run(maxSteps);
+			compare(complete, resumed, "seed " + seed);
+		}
+	}
+
+	private static ExitPropagation propagation(CFGSnapshot g, boolean retainEdges) {
+		BlockExtractor extractor = new BlockExtractor(g);
+		List<Block> blocks = new ArrayList<Block>();
+		int[] keys = BlockExtractorTest.extract(extractor, blocks);
+		return new ExitPropagation(extractor, keys, blocks.toArray(new Block[keys.length]), retainEdges);
+	}
+
+	private static void compare(ExitPropagation expected, ExitPropagation actual, String what) {
+		int n = expected.tree().size();
+		assertEquals(what, n, actual.tree().size());
+		assertEquals(what, expected.converged(), actual.converged());
+		assertEquals(what, expected.changed(), actual.changed());
+		for(int k = 0; k < n; k++) {
+			assertEquals(what, expected.key(k), actual.key(k));
+			BlockExtractorTest.assertSame(what + ", block of " + expected.key(k), expected.block(k), actual.block(k));
+			assertEquals(what + ", parent of " + expected.key(k), expected.parent(k), actual.parent(k));
+		}
+	}
+}
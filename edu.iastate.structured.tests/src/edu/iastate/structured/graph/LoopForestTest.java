@@ -0,0 +1,77 @@
+package edu.iastate.structured.graph;
+
+import static edu.iastate.structured.graph.CFGSnapshot.*;
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+/**
+* {@link LoopForest} against natural loops on reducible functions and the T1/T2 reduction on the rest.
+*
+* @author Le Zhang
+*/
+public class LoopForestTest {
+
+	@Test
+	public void naturalLoopsOfReducibleFunctions() {
+		int checked = 0;
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			for(CFGSnapshot g : new CFGSnapshot[] { RandomCFG.structured(seed), RandomCFG.withGotos(seed) }) {
+				if(!Naive.isReducible(g)) {
+					continue;
+				}
+				checked++;
+				LoopForest forest = LoopForest.of(g, VIEW_CFG);
+				BitSet[] dom = Naive.dominators(g, VIEW_CFG, false);
+
+				// a back edge goes to a node dominating its source, its target is a header
+				BitSet headers = new BitSet(g.size());
+				BitSet[] latches = new BitSet[g.size()];
+				BitSet back = new BitSet(g.edgeCount());
+				for(int v = 0; v < g.size(); v++) {
+					for(int i = g.succBegin(v); i < g.succEnd(v); i++) {
+						int h = g.succTarget(i);
+						if(dom[v] != null && dom[v].get(h)) {
+							headers.set(h);
+							if(latches[h] == null) {
+								latches[h] = new BitSet(g.size());
+							}
+							latches[h].set(v);
+							back.set(i);
+						}
+					}
+				}
+				assertEquals("seed " + seed, headers, forest.headers());
+				assertEquals("seed " + seed, back, forest.backEdges());
+				for(int h = headers.nextSetBit(0); h >= 0; h = headers.nextSetBit(h + 1)) {
+					assertEquals("seed " + seed + ", loop of " + h, Naive.naturalLoop(g, h, latches[h]), forest.loop(h));
+					assertTrue("seed " + seed + ", type of " + h, forest.type(h) == LoopForest.REDUCIBLE || forest.type(h) == LoopForest.SELF);
+				}
+			}
+		}
+		assertTrue(checked > RandomCFG.COUNT);
+	}
+
+	@Test
+	public void irreducibleLoopsAreFound() {
+		int irreducible = 0;
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			CFGSnapshot g = RandomCFG.withGotos(seed);
+			LoopForest forest = LoopForest.of(g, VIEW_CFG);
+			boolean found = false;
+			BitSet headers = forest.headers();
+			for(int h = headers.nextSetBit(0); h >= 0; h = headers.nextSetBit(h + 1)) {
+				found |= forest.type(h) == LoopForest.IRREDUCIBLE;
+			}
+			boolean reducible = Naive.isReducible(g);
+			assertEquals("seed " + seed, !reducible, found);
+			if(!reducible) {
+				irreducible++;
+			}
+		}
+		// the generator has to exercise both cases
+		assertTrue(irreducible > 0 && irreducible < RandomCFG.COUNT);
+	}
+}
@@ -0,0 +1,66 @@
+package edu.iastate.structured.graph;
+
+import static edu.iastate.structured.graph.CFGSnapshot.*;
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+/**
+* {@link MergePoints} against the intersection of the DAG paths of every pair of branches, the way
+* the extractors found the merge points before.
+*
+* @author Le Zhang
+*/
+public class MergePointsTest {
+
+	@Test
+	public void branchRegionsOfStructuredFunctions() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			compare(RandomCFG.structured(seed), seed);
+		}
+	}
+
+	@Test
+	public void branchRegionsOfFunctionsWithGotos() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			compare(RandomCFG.withGotos(seed), seed);
+		}
+	}
+
+	private static void compare(CFGSnapshot g, int seed) {
+		MergePoints merge = new MergePoints(g, DominatorTree.postDominators(g, VIEW_DAG));
+		BitSet conditions = g.tagged(TAG_IF | TAG_SWITCH);
+		for(int c = conditions.nextSetBit(0); c >= 0; c = conditions.nextSetBit(c + 1)) {
+			assertEquals("seed " + seed + ", condition " + c, pairwise(g, c), merge.branchRegion(c));
+		}
+	}
+
+	/**
+	 * The nodes under any branch, without the ones under two or more branches except their first.
+	 */
+	private static BitSet pairwise(CFGSnapshot g, int c) {
+		BitSet branches = Naive.successors(g, c, VIEW_CFG);
+		BitSet once = new BitSet(g.size());
+		BitSet twice = new BitSet(g.size());
+		for(int b = branches.nextSetBit(0); b >= 0; b = branches.nextSetBit(b + 1)) {
+			BitSet single = new BitSet(g.size());
+			single.set(b);
+			BitSet path = Naive.forward(g, single, VIEW_DAG);
+			BitSet shared = (BitSet) once.clone();
+			shared.and(path);
+			twice.or(shared);
+			once.or(path);
+		}
+		BitSet region = (BitSet) once.clone();
+		region.andNot(twice);
+		for(int v = twice.nextSetBit(0); v >= 0; v = twice.nextSetBit(v + 1)) {
+			BitSet in = Naive.predecessors(g, v, VIEW_DAG);
+			if(!in.intersects(twice)) {
+				region.set(v);
+			}
+		}
+		return region;
+	}
+}
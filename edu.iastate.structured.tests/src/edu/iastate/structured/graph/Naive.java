@@ -0,0 +1,674 @@
+package edu.iastate.structured.graph;
+
+import static edu.iastate.structured.graph.CFGSnapshot.*;
+
+import java.util.BitSet;
+
+/**
+* The textbook versions of the snapshot algorithms, quadratic or worse, for the tests to compare with.
+* <p>
+* The block extractors are the Atlas query versions of the baseline Structured class, written set by
+* set on adjacency sets. A graph is an array of successor sets, as an Atlas graph its nodes are the ones
+* with an edge, except for the CFG which keeps all of them. Edge flags are only read where the queries
+* select edges by attribute, the DAG without breaks and the goto edges are derived from the node tags.
+*
+* @author Le Zhang
+*/
+final class Naive {
+
+	private Naive() {}
+
+	/**
+	 * @return the nodes reached from the seeds over the edges of the view, seeds included
+	 */
+	static BitSet forward(CFGSnapshot g, BitSet seeds, int view) {
+		BitSet seen = (BitSet) seeds.clone();
+		BitSet frontier = (BitSet) seeds.clone();
+		while(!frontier.isEmpty()) {
+			BitSet next = new BitSet(g.size());
+			for(int v = frontier.nextSetBit(0); v >= 0; v = frontier.nextSetBit(v + 1)) {
+				for(int i = g.succBegin(v); i < g.succEnd(v); i++) {
+					int w = g.succTarget(i);
+					if((g.succFlags(i) & view) == 0 && !seen.get(w)) {
+						seen.set(w);
+						next.set(w);
+					}
+				}
+			}
+			frontier = next;
+		}
+		return seen;
+	}
+
+	/**
+	 * Iterative data flow: dom(v) is v plus the intersection of dom(p) over the predecessors p of v.
+	 * The nodes without a predecessor in the view (for post-dominators: without a successor) hang under
+	 * a virtual root, as in {@link DominatorTree}.
+	 * @return the dominators of every node, null for the nodes the virtual root does not reach
+	 */
+	static BitSet[] dominators(CFGSnapshot g, int view, boolean post) {
+		int n = g.size();
+		BitSet roots = new BitSet(n);
+		for(int v = 0; v < n; v++) {
+			if(post ? successors(g, v, view).isEmpty() : predecessors(g, v, view).isEmpty()) {
+				roots.set(v);
+			}
+		}
+		BitSet reachable = post ? backward(g, roots, view) : forward(g, roots, view);
+		BitSet[] dom = new BitSet[n];
+		for(int v = reachable.nextSetBit(0); v >= 0; v = reachable.nextSetBit(v + 1)) {
+			dom[v] = new BitSet(n);
+			if(roots.get(v)) {
+				dom[v].set(v);
+			}else {
+				dom[v].or(reachable);
+			}
+		}
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			for(int v = reachable.nextSetBit(0); v >= 0; v = reachable.nextSetBit(v + 1)) {
+				if(roots.get(v)) {
+					continue;
+				}
+				BitSet meet = null;
+				BitSet in = post ? successors(g, v, view) : predecessors(g, v, view);
+				for(int p = in.nextSetBit(0); p >= 0; p = in.nextSetBit(p + 1)) {
+					if(dom[p] == null) {
+						continue;
+					}
+					if(meet == null) {
+						meet = (BitSet) dom[p].clone();
+					}else {
+						meet.and(dom[p]);
+					}
+				}
+				meet.set(v);
+				if(!meet.equals(dom[v])) {
+					dom[v] = meet;
+					changed = true;
+				}
+			}
+		}
+		return dom;
+	}
+
+	/**
+	 * @param dom the dominators of every node, see {@link #dominators(CFGSnapshot, int, boolean)}
+	 * @return the immediate dominator of v, the strict dominator with the most dominators, -1 for none
+	 */
+	static int idom(BitSet[] dom, int v) {
+		int idom = -1;
+		for(int d = dom[v].nextSetBit(0); d >= 0; d = dom[v].nextSetBit(d + 1)) {
+			if(d != v && (idom < 0 || dom[d].cardinality() > dom[idom].cardinality())) {
+				idom = d;
+			}
+		}
+		return idom;
+	}
+
+	/**
+	 * T1/T2 reduction: removes self loops and merges every node with a single predecessor into it,
+	 * the nodes without a predecessor hang under a virtual entry.
+	 * @return true if the CFG reduces to the virtual entry
+	 */
+	static boolean isReducible(CFGSnapshot g) {
+		int n = g.size();
+		int root = n;
+		BitSet[] preds = new BitSet[n + 1];
+		BitSet[] succs = new BitSet[n + 1];
+		for(int v = 0; v <= n; v++) {
+			preds[v] = new BitSet(n + 1);
+			succs[v] = new BitSet(n + 1);
+		}
+		for(int v = 0; v < n; v++) {
+			for(int i = g.succBegin(v); i < g.succEnd(v); i++) {
+				succs[v].set(g.succTarget(i));
+				preds[g.succTarget(i)].set(v);
+			}
+		}
+		for(int v = 0; v < n; v++) {
+			if(preds[v].isEmpty()) {
+				preds[v].set(root);
+				succs[root].set(v);
+			}
+		}
+		BitSet alive = new BitSet(n + 1);
+		alive.set(0, n + 1);
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			for(int v = alive.nextSetBit(0); v >= 0; v = alive.nextSetBit(v + 1)) {
+				// T1
+				if(succs[v].get(v)) {
+					succs[v].clear(v);
+					preds[v].clear(v);
+					changed = true;
+				}
+				// T2
+				if(v != root && preds[v].cardinality() == 1) {
+					int p = preds[v].nextSetBit(0);
+					for(int w = succs[v].nextSetBit(0); w >= 0; w = succs[v].nextSetBit(w + 1)) {
+						preds[w].clear(v);
+						preds[w].set(p);
+						succs[p].set(w);
+					}
+					succs[p].clear(v);
+					alive.clear(v);
+					changed = true;
+				}
+			}
+		}
+		return alive.cardinality() == 1;
+	}
+
+	/**
+	 * @return the natural loop of the back edges to h: h and every node reaching one of their sources without passing h
+	 */
+	static BitSet naturalLoop(CFGSnapshot g, int h, BitSet latches) {
+		BitSet loop = new BitSet(g.size());
+		loop.set(h);
+		BitSet frontier = new BitSet(g.size());
+		for(int l = latches.nextSetBit(0); l >= 0; l = latches.nextSetBit(l + 1)) {
+			if(!loop.get(l)) {
+				loop.set(l);
+				frontier.set(l);
+			}
+		}
+		while(!frontier.isEmpty()) {
+			BitSet next = new BitSet(g.size());
+			for(int v = frontier.nextSetBit(0); v >= 0; v = frontier.nextSetBit(v + 1)) {
+				for(int i = g.predBegin(v); i < g.predEnd(v); i++) {
+					int p = g.predSource(i);
+					if(!loop.get(p)) {
+						loop.set(p);
+						next.set(p);
+					}
+				}
+			}
+			frontier = next;
+		}
+		return loop;
+	}
+
+	static BitSet successors(CFGSnapshot g, int v, int view) {
+		BitSet s = new BitSet(g.size());
+		for(int i = g.succBegin(v); i < g.succEnd(v); i++) {
+			if((g.succFlags(i) & view) == 0) {
+				s.set(g.succTarget(i));
+			}
+		}
+		return s;
+	}
+
+	static BitSet predecessors(CFGSnapshot g, int v, int view) {
+		BitSet s = new BitSet(g.size());
+		for(int i = g.predBegin(v); i < g.predEnd(v); i++) {
+			if((g.predFlags(i) & view) == 0) {
+				s.set(g.predSource(i));
+			}
+		}
+		return s;
+	}
+
+	private static BitSet backward(CFGSnapshot g, BitSet seeds, int view) {
+		BitSet seen = (BitSet) seeds.clone();
+		BitSet frontier = (BitSet) seeds.clone();
+		while(!frontier.isEmpty()) {
+			BitSet next = new BitSet(g.size());
+			for(int v = frontier.nextSetBit(0); v >= 0; v = frontier.nextSetBit(v + 1)) {
+				BitSet in = predecessors(g, v, view);
+				in.andNot(seen);
+				seen.or(in);
+				next.or(in);
+			}
+			frontier = next;
+		}
+		return seen;
+	}
+
+	/**
+	 * getIfBlock: the branch paths without their joint part, then the nodes not dominated by the
+	 * condition on removeGotoEdge(dag) cut away, the first of them kept as exits.
+	 */
+	static Block ifBlock(CFGSnapshot g, int c) {
+		BitSet[] cfg = graph(g, VIEW_CFG, false);
+		BitSet[] dag = graph(g, VIEW_DAG, false);
+		// a false branch that is a back edge leaves the loop
+		BitSet backFalse = new BitSet(g.size());
+		for(int i = g.succBegin(c); i < g.succEnd(c); i++) {
+			if((g.succFlags(i) & EDGE_FALSE) != 0 && (g.succFlags(i) & EDGE_BACK) != 0) {
+				backFalse.set(g.succTarget(i));
+			}
+		}
+		if(!backFalse.isEmpty()) {
+			BitSet body = reach(dag, single(g, c), true);
+			body.clear(c);
+			return new Block(single(g, c), body, backFalse);
+		}
+		BitSet s = dominated(g, c, branchPaths(dag, cfg[c]), withoutGotoEdges(g, dag, dag, members(dag)), members(dag), cfg);
+		BitSet exit = leaves(cfg, s);
+		BitSet body = (BitSet) s.clone();
+		body.clear(c);
+		body.andNot(exit);
+		return new Block(single(g, c), body, exit);
+	}
+
+	/**
+	 * getSwitchBlock: as getIfBlock with the dominators of removeGotoEdge(cfg), then, if a case
+	 * label is an exit, everything from where case and non case exits meet cut away.
+	 */
+	static Block switchBlock(CFGSnapshot g, int c) {
+		BitSet[] cfg = graph(g, VIEW_CFG, false);
+		BitSet[] dag = graph(g, VIEW_DAG, false);
+		BitSet s = dominated(g, c, branchPaths(dag, cfg[c]), withoutGotoEdges(g, cfg, dag, all(g.size())), all(g.size()), cfg);
+		BitSet exit = leaves(cfg, s);
+		BitSet caseExit = (BitSet) exit.clone();
+		caseExit.and(g.tagged(TAG_CASE));
+		if(!caseExit.isEmpty()) {
+			BitSet nonCaseExit = (BitSet) exit.clone();
+			nonCaseExit.andNot(caseExit);
+			BitSet joint = reach(dag, caseExit, true);
+			joint.and(reach(dag, nonCaseExit, true));
+			// the roots of the joint part come back without an edge, retainEdges drops them again
+			s = reach(dag, single(g, c), true);
+			s.andNot(reach(dag, roots(dag, joint), true));
+			s = retainEdges(dag, s);
+			exit = leaves(dag, s);
+		}
+		BitSet body = (BitSet) s.clone();
+		body.clear(c);
+		body.andNot(exit);
+		return new Block(single(g, c), body, exit);
+	}
+
+	/**
+	 * getLoopBlock: the DAG under the true branch but not under the false one, with the condition and the false node.
+	 * @return null if the condition lacks a true or false edge
+	 */
+	static Block loopBlock(CFGSnapshot g, int c) {
+		BitSet[] cfg = graph(g, VIEW_CFG, false);
+		BitSet[] dag = graph(g, VIEW_DAG, false);
+		int trueNode = -1, falseNode = -1;
+		for(int i = g.succBegin(c); i < g.succEnd(c); i++) {
+			if((g.succFlags(i) & EDGE_TRUE) != 0 && trueNode < 0) {
+				trueNode = g.succTarget(i);
+			}else if((g.succFlags(i) & EDGE_FALSE) != 0 && falseNode < 0) {
+				falseNode = g.succTarget(i);
+			}
+		}
+		if(trueNode < 0 || falseNode < 0) {
+			return null;
+		}
+		BitSet s = reach(dag, single(g, trueNode), true);
+		s.andNot(reach(dag, single(g, falseNode), true));
+		s.set(c);
+		s.set(falseNode);
+		// induced without retainEdges, an isolated member is a leaf
+		BitSet exit = leaves(cfg, s);
+		BitSet entry = single(g, c);
+		BitSet[] preds = reverse(cfg);
+		for(int v = s.nextSetBit(0); v >= 0; v = s.nextSetBit(v + 1)) {
+			if(!exit.get(v) && !isSubset(preds[v], s)) {
+				entry.set(v);
+			}
+		}
+		BitSet body = retainEdges(cfg, s);
+		body.andNot(entry);
+		body.andNot(exit);
+		return new Block(entry, body, exit);
+	}
+
+	/**
+	 * getLabelModule: the DAG without breaks under the label, stopped at the next label or control statement.
+	 */
+	static Block labelModule(CFGSnapshot g, int label) {
+		BitSet[] dagNoBreak = graph(g, VIEW_DAG, true);
+		BitSet s = reach(dagNoBreak, single(g, label), true);
+		BitSet labels = g.tagged(TAG_LABEL);
+		labels.and(s);
+		BitSet controls = g.tagged(TAG_CONDITION);
+		controls.and(s);
+		if(labels.cardinality() > 1 || !controls.isEmpty()) {
+			labels.clear(label);
+			BitSet stop = reach(dagNoBreak, labels, true);
+			stop.or(reach(dagNoBreak, controls, true));
+			BitSet stopRoots = roots(dagNoBreak, stop);
+			s.andNot(stop);
+			s.or(stopRoots);
+			s = retainEdges(dagNoBreak, s);
+		}
+		return module(g, dagNoBreak, label, s);
+	}
+
+	/**
+	 * getLabelLoop: the DAG under the loop children of the label, without what the other labels reach.
+	 */
+	static Block labelLoop(CFGSnapshot g, int label) {
+		BitSet[] cfg = graph(g, VIEW_CFG, false);
+		BitSet[] dag = graph(g, VIEW_DAG, false);
+		BitSet children = single(g, label);
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			for(int v = children.nextSetBit(0); v >= 0; v = children.nextSetBit(v + 1)) {
+				for(int i = g.loopChildBegin(v); i < g.loopChildEnd(v); i++) {
+					if(!children.get(g.loopChild(i))) {
+						children.set(g.loopChild(i));
+						changed = true;
+					}
+				}
+			}
+		}
+		BitSet otherLabels = g.tagged(TAG_LABEL);
+		otherLabels.clear(label);
+		BitSet s = reach(dag, children, true);
+		s.andNot(reach(dag, otherLabels, true));
+		s.or(otherLabels);
+		return module(g, cfg, label, retainEdges(cfg, s));
+	}
+
+	/**
+	 * getDoWhile: the DAG under the entry up to the condition closing the loop and the node after it.
+	 * Atlas iterates the back edges in no particular order, the first one in predecessor order is taken.
+	 * @return null if no back edge leads to the entry
+	 */
+	static Block doWhile(CFGSnapshot g, int node) {
+		BitSet[] cfg = graph(g, VIEW_CFG, false);
+		BitSet[] dag = graph(g, VIEW_DAG, false);
+		BitSet exitNode = null;
+		for(int i = g.predBegin(node); i < g.predEnd(node) && exitNode == null; i++) {
+			if((g.predFlags(i) & EDGE_BACK) != 0) {
+				exitNode = (BitSet) dag[g.predSource(i)].clone();
+				exitNode.set(g.predSource(i));
+			}
+		}
+		if(exitNode == null) {
+			return null;
+		}
+		BitSet moduleLabels = g.tagged(TAG_LABEL);
+		moduleLabels.andNot(g.tagged(TAG_LOOP));
+		BitSet s = reach(dag, single(g, node), true);
+		s.andNot(reach(dag, exitNode, true));
+		s.andNot(reach(dag, moduleLabels, true));
+		s.or(exitNode);
+		return module(g, cfg, node, retainEdges(cfg, s));
+	}
+
+	/**
+	 * The entry, body and exit of a module: the exits are its leaves, every other member with a
+	 * predecessor outside of the module is an entry.
+	 */
+	private static Block module(CFGSnapshot g, BitSet[] graph, int entryNode, BitSet s) {
+		BitSet exit = leaves(graph, s);
+		BitSet entry = single(g, entryNode);
+		BitSet[] preds = reverse(graph);
+		for(int v = s.nextSetBit(0); v >= 0; v = s.nextSetBit(v + 1)) {
+			if(exit.get(v)) {
+				continue;
+			}
+			for(int p = preds[v].nextSetBit(0); p >= 0; p = preds[v].nextSetBit(p + 1)) {
+				if(!entry.get(p) && !s.get(p)) {
+					entry.set(v);
+				}
+			}
+		}
+		BitSet body = (BitSet) s.clone();
+		body.andNot(exit);
+		body.andNot(entry);
+		return new Block(entry, body, exit);
+	}
+
+	/**
+	 * The DAG between each branch and the leaves, without the nodes shared by two branches except for
+	 * the roots of the shared part.
+	 */
+	private static BitSet branchPaths(BitSet[] dag, BitSet branches) {
+		BitSet all = reach(dag, branches, true);
+		BitSet intersection = new BitSet();
+		for(int a = branches.nextSetBit(0); a >= 0; a = branches.nextSetBit(a + 1)) {
+			for(int b = branches.nextSetBit(a + 1); b >= 0; b = branches.nextSetBit(b + 1)) {
+				BitSet both = reach(dag, single(dag.length, a), true);
+				both.and(reach(dag, single(dag.length, b), true));
+				intersection.or(both);
+			}
+		}
+		if(intersection.isEmpty()) {
+			return all;
+		}
+		BitSet s = (BitSet) all.clone();
+		s.andNot(intersection);
+		s.or(roots(dag, intersection));
+		return s;
+	}
+
+	/**
+	 * Drops the nodes the condition does not dominate in the dominance tree of the graph, a node
+	 * missing from the tree included, and keeps the roots of the dropped nodes.
+	 * The result is induced in the CFG and only the nodes with an edge are kept.
+	 */
+	private static BitSet dominated(CFGSnapshot g, int c, BitSet sub, BitSet[] domGraph, BitSet domNodes, BitSet[] cfg) {
+		BitSet s = (BitSet) sub.clone();
+		BitSet[] dom = dominanceTree(domGraph, domNodes);
+		if(dom != null) {
+			BitSet redundant = new BitSet(g.size());
+			for(int v = sub.nextSetBit(0); v >= 0; v = sub.nextSetBit(v + 1)) {
+				if(dom[v] == null || !dom[v].get(c)) {
+					redundant.set(v);
+				}
+			}
+			s.andNot(redundant);
+			s.or(roots(cfg, redundant));
+		}
+		s.set(c);
+		return retainEdges(cfg, s);
+	}
+
+	/**
+	 * computeDominanceTree: the dominators under one entry before every root, the exit after every
+	 * leaf does not change them.
+	 * @param nodes the nodes of the graph, with or without an edge
+	 * @return the dominators of every node, null for the nodes no root reaches, null if the graph has no root or no leaf
+	 */
+	private static BitSet[] dominanceTree(BitSet[] graph, BitSet nodes) {
+		int n = graph.length;
+		BitSet[] preds = reverse(graph);
+		BitSet roots = new BitSet(n);
+		boolean hasLeaf = false;
+		for(int v = nodes.nextSetBit(0); v >= 0; v = nodes.nextSetBit(v + 1)) {
+			if(preds[v].isEmpty()) {
+				roots.set(v);
+			}
+			hasLeaf |= graph[v].isEmpty();
+		}
+		if(roots.isEmpty() || !hasLeaf) {
+			return null;
+		}
+		BitSet reachable = reach(graph, roots, false);
+		BitSet[] dom = new BitSet[n];
+		for(int v = reachable.nextSetBit(0); v >= 0; v = reachable.nextSetBit(v + 1)) {
+			dom[v] = new BitSet(n);
+			if(roots.get(v)) {
+				dom[v].set(v);
+			}else {
+				dom[v].or(reachable);
+			}
+		}
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			for(int v = reachable.nextSetBit(0); v >= 0; v = reachable.nextSetBit(v + 1)) {
+				if(roots.get(v)) {
+					continue;
+				}
+				BitSet meet = null;
+				for(int p = preds[v].nextSetBit(0); p >= 0; p = preds[v].nextSetBit(p + 1)) {
+					if(dom[p] == null) {
+						continue;
+					}
+					if(meet == null) {
+						meet = (BitSet) dom[p].clone();
+					}else {
+						meet.and(dom[p]);
+					}
+				}
+				meet.set(v);
+				if(!meet.equals(dom[v])) {
+					dom[v] = meet;
+					changed = true;
+				}
+			}
+		}
+		return dom;
+	}
+
+	/**
+	 * removeGotoEdge: the graph without the DAG edges between a goto and a label with more than one
+	 * predecessor in the graph.
+	 * @param graph the graph to remove the edges from
+	 * @param dag the DAG of the graph
+	 * @param nodes the nodes of the graph
+	 */
+	private static BitSet[] withoutGotoEdges(CFGSnapshot g, BitSet[] graph, BitSet[] dag, BitSet nodes) {
+		BitSet[] preds = reverse(graph);
+		BitSet labels = g.tagged(TAG_LABEL);
+		labels.and(nodes);
+		BitSet multiEntryLabels = new BitSet(graph.length);
+		for(int v = labels.nextSetBit(0); v >= 0; v = labels.nextSetBit(v + 1)) {
+			if(preds[v].cardinality() > 1) {
+				multiEntryLabels.set(v);
+			}
+		}
+		BitSet[] result = new BitSet[graph.length];
+		for(int v = 0; v < graph.length; v++) {
+			result[v] = (BitSet) graph[v].clone();
+		}
+		if(multiEntryLabels.isEmpty()) {
+			return result;
+		}
+		BitSet fromGoto = reach(dag, g.tagged(TAG_GOTO), true);
+		BitSet toLabel = reach(reverse(dag), multiEntryLabels, true);
+		for(int v = fromGoto.nextSetBit(0); v >= 0; v = fromGoto.nextSetBit(v + 1)) {
+			BitSet cut = (BitSet) dag[v].clone();
+			cut.and(toLabel);
+			result[v].andNot(cut);
+		}
+		return result;
+	}
+
+	/**
+	 * @param breaks true to leave out the edges of the break statements
+	 * @return the successors of every node over the edges of the view
+	 */
+	private static BitSet[] graph(CFGSnapshot g, int view, boolean breaks) {
+		BitSet[] succs = new BitSet[g.size()];
+		for(int v = 0; v < g.size(); v++) {
+			succs[v] = (breaks && g.has(v, TAG_BREAK)) ? new BitSet(g.size()) : successors(g, v, view);
+		}
+		return succs;
+	}
+
+	private static BitSet[] reverse(BitSet[] graph) {
+		BitSet[] preds = new BitSet[graph.length];
+		for(int v = 0; v < graph.length; v++) {
+			preds[v] = new BitSet(graph.length);
+		}
+		for(int v = 0; v < graph.length; v++) {
+			for(int w = graph[v].nextSetBit(0); w >= 0; w = graph[v].nextSetBit(w + 1)) {
+				preds[w].set(v);
+			}
+		}
+		return preds;
+	}
+
+	/**
+	 * @param membersOnly true to leave out the seeds without an edge, as a forward on a graph without them
+	 * @return the nodes reached from the seeds, seeds included
+	 */
+	private static BitSet reach(BitSet[] graph, BitSet seeds, boolean membersOnly) {
+		BitSet seen = (BitSet) seeds.clone();
+		if(membersOnly) {
+			seen.and(members(graph));
+		}
+		BitSet frontier = (BitSet) seen.clone();
+		while(!frontier.isEmpty()) {
+			BitSet next = new BitSet(graph.length);
+			for(int v = frontier.nextSetBit(0); v >= 0; v = frontier.nextSetBit(v + 1)) {
+				next.or(graph[v]);
+			}
+			next.andNot(seen);
+			seen.or(next);
+			frontier = next;
+		}
+		return seen;
+	}
+
+	/**
+	 * @return the nodes with an edge
+	 */
+	private static BitSet members(BitSet[] graph) {
+		BitSet members = new BitSet(graph.length);
+		for(int v = 0; v < graph.length; v++) {
+			if(!graph[v].isEmpty()) {
+				members.set(v);
+				members.or(graph[v]);
+			}
+		}
+		return members;
+	}
+
+	private static BitSet leaves(BitSet[] graph, BitSet s) {
+		BitSet leaves = new BitSet(graph.length);
+		for(int v = s.nextSetBit(0); v >= 0; v = s.nextSetBit(v + 1)) {
+			if(!graph[v].intersects(s)) {
+				leaves.set(v);
+			}
+		}
+		return leaves;
+	}
+
+	private static BitSet roots(BitSet[] graph, BitSet s) {
+		BitSet roots = (BitSet) s.clone();
+		for(int v = s.nextSetBit(0); v >= 0; v = s.nextSetBit(v + 1)) {
+			BitSet in = (BitSet) graph[v].clone();
+			in.and(s);
+			roots.andNot(in);
+		}
+		return roots;
+	}
+
+	private static BitSet retainEdges(BitSet[] graph, BitSet s) {
+		BitSet result = new BitSet(graph.length);
+		for(int v = s.nextSetBit(0); v >= 0; v = s.nextSetBit(v + 1)) {
+			BitSet out = (BitSet) graph[v].clone();
+			out.and(s);
+			if(!out.isEmpty()) {
+				result.set(v);
+				result.or(out);
+			}
+		}
+		return result;
+	}
+
+	private static boolean isSubset(BitSet a, BitSet b) {
+		BitSet rest = (BitSet) a.clone();
+		rest.andNot(b);
+		return rest.isEmpty();
+	}
+
+	private static BitSet all(int n) {
+		BitSet all = new BitSet(n);
+		all.set(0, n);
+		return all;
+	}
+
+	private static BitSet single(CFGSnapshot g, int v) {
+		return single(g.size(), v);
+	}
+
+	private static BitSet single(int n, int v) {
+		BitSet s = new BitSet(n);
+		s.set(v);
+		return s;
+	}
+}
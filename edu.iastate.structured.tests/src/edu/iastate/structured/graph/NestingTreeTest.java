@@ -0,0 +1,56 @@
+package edu.iastate.structured.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+* {@link NestingTree} against a quadratic search for the innermost containing block.
+*
+* @author Le Zhang
+*/
+public class NestingTreeTest {
+
+	@Test
+	public void parentsOfExtractedBlocks() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			CFGSnapshot g = RandomCFG.withGotos(seed);
+			List<Block> blocks = new ArrayList<Block>();
+			int[] keys = BlockExtractorTest.extract(new BlockExtractor(g), blocks);
+			BitSet[] bodies = new BitSet[keys.length];
+			for(int k = 0; k < keys.length; k++) {
+				bodies[k] = blocks.get(k).body();
+			}
+			compare(g.size(), keys, bodies, new NestingTree(g.size(), keys, bodies), seed);
+		}
+	}
+
+	private static void compare(int size, int[] keys, BitSet[] bodies, NestingTree tree, int seed) {
+		int n = keys.length;
+		int[] order = tree.order();
+		for(int r = 1; r < n; r++) {
+			// largest body first, ties by index
+			int a = bodies[order[r - 1]].cardinality();
+			int b = bodies[order[r]].cardinality();
+			assertTrue("seed " + seed + ", rank " + r, a > b || (a == b && order[r - 1] < order[r]));
+		}
+		for(int k = 0; k < n; k++) {
+			// the last block ranked before k whose body holds the node of k
+			int parent = -1;
+			for(int j = 0; j < n; j++) {
+				if(j != k && tree.rank(j) < tree.rank(k) && bodies[j].get(keys[k]) && (parent < 0 || tree.rank(j) > tree.rank(parent))) {
+					parent = j;
+				}
+			}
+			assertEquals("seed " + seed + ", parent of " + keys[k], parent, tree.parent(k));
+			assertEquals("seed " + seed + ", depth of " + keys[k], parent < 0 ? 0 : tree.depth(parent) + 1, tree.depth(k));
+			for(int child : tree.children(k)) {
+				assertEquals("seed " + seed + ", child of " + keys[k], k, tree.parent(child));
+			}
+		}
+	}
+}
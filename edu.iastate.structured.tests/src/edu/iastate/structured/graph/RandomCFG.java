@@ -0,0 +1,249 @@
+package edu.iastate.structured.graph;
+
+import static edu.iastate.structured.graph.CFGSnapshot.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+* Generates control flow graphs of random functions as {@link CFGSnapshot}s, without Atlas.
+* <p>
+* A function is a nested sequence of statements, ifs (with or without else), while and do-while loops,
+* switches with case fall-through, breaks and returns, tagged and flagged the way the indexer and
+* {@link CFGSnapshot#of(com.ensoftcorp.atlas.core.db.graph.Graph)} do: conditions carry their true and
+* false edges, the edges closing a loop are back edges and every loop header has a LoopChild edge to
+* each node created directly in its loop. With gotos, some statements jump to a random label. A jump
+* to a node created before the goto is flagged as back edge, so the DAG stays acyclic, and a jump into
+* a loop from outside makes the loop irreducible. The same seed always gives the same graph.
+*
+* @author Le Zhang
+*/
+final class RandomCFG {
+	/** Number of graphs each test generates, seeds 0 to COUNT - 1. */
+	static final int COUNT = 3000;
+
+	private final Random random;
+	private final int maxDepth;
+	private final boolean gotos;
+
+	private final List<Integer> tags = new ArrayList<Integer>();
+	private final List<int[]> edges = new ArrayList<int[]>(); // from, to, flags
+	private final List<int[]> loopChildren = new ArrayList<int[]>();
+	private final List<Integer> gotoNodes = new ArrayList<Integer>();
+	private final List<Loop> loops = new ArrayList<Loop>(); // innermost last
+
+	private static final class Loop {
+		final int header;
+		final List<int[]> breaks = new ArrayList<int[]>();
+
+		Loop(int header) {
+			this.header = header;
+		}
+	}
+
+	private RandomCFG(long seed, int maxDepth, boolean gotos) {
+		this.random = new Random(seed);
+		this.maxDepth = maxDepth;
+		this.gotos = gotos;
+	}
+
+	/**
+	 * @return a structured function: no goto, no label, reducible
+	 */
+	static CFGSnapshot structured(long seed) {
+		return new RandomCFG(seed, 4, false).generate();
+	}
+
+	/**
+	 * @return a function with gotos to random labels, possibly irreducible
+	 */
+	static CFGSnapshot withGotos(long seed) {
+		return new RandomCFG(seed, 4, true).generate();
+	}
+
+	private CFGSnapshot generate() {
+		int entry = node(0);
+		List<int[]> pending = sequence(single(entry, 0), 0);
+		int exit = node(TAG_EXIT);
+		connect(pending, exit, 0);
+
+		for(int s : gotoNodes) {
+			// any node but the entry and the goto itself can be labeled
+			int label = 1 + random.nextInt(tags.size() - 1);
+			if(label == s) {
+				label = exit;
+			}
+			tags.set(label, tags.get(label) | TAG_LABEL);
+			edges.add(new int[] { s, label, label < s ? EDGE_BACK : 0 });
+		}
+
+		int n = tags.size();
+		int[] nodeTags = new int[n];
+		for(int v = 0; v < n; v++) {
+			nodeTags[v] = tags.get(v);
+		}
+		int m = edges.size();
+		int[] from = new int[m];
+		int[] to = new int[m];
+		int[] flags = new int[m];
+		for(int e = 0; e < m; e++) {
+			from[e] = edges.get(e)[0];
+			to[e] = edges.get(e)[1];
+			flags[e] = edges.get(e)[2];
+		}
+		int[] childFrom = new int[loopChildren.size()];
+		int[] childTo = new int[loopChildren.size()];
+		for(int e = 0; e < childFrom.length; e++) {
+			childFrom[e] = loopChildren.get(e)[0];
+			childTo[e] = loopChildren.get(e)[1];
+		}
+		return CFGSnapshot.of(nodeTags, from, to, flags, childFrom, childTo);
+	}
+
+	/**
+	 * @param pending the edges waiting for the next node: source and flags
+	 * @return the edges leaving the sequence, empty if it ends with a jump
+	 */
+	private List<int[]> sequence(List<int[]> pending, int depth) {
+		int count = 1 + random.nextInt(4);
+		for(int i = 0; i < count && !pending.isEmpty(); i++) {
+			pending = statement(pending, depth);
+		}
+		return pending;
+	}
+
+	private List<int[]> statement(List<int[]> pending, int depth) {
+		int kind = depth >= maxDepth ? 0 : random.nextInt(12);
+		switch(kind) {
+		case 1:
+		case 2:
+			return ifStatement(pending, depth);
+		case 3:
+			return whileLoop(pending, depth);
+		case 4:
+			return doWhileLoop(pending, depth);
+		case 5:
+			return switchStatement(pending, depth);
+		case 6:
+			return jump(pending);
+		default:
+			int v = node(0);
+			connect(pending, v, 0);
+			return single(v, 0);
+		}
+	}
+
+	private List<int[]> ifStatement(List<int[]> pending, int depth) {
+		int c = node(TAG_IF | TAG_CONDITION);
+		connect(pending, c, 0);
+		List<int[]> exits = new ArrayList<int[]>(sequence(single(c, EDGE_TRUE), depth + 1));
+		if(random.nextBoolean()) {
+			exits.addAll(sequence(single(c, EDGE_FALSE), depth + 1));
+		}else {
+			exits.add(new int[] { c, EDGE_FALSE });
+		}
+		return exits;
+	}
+
+	private List<int[]> whileLoop(List<int[]> pending, int depth) {
+		int h = node(TAG_LOOP | TAG_LOOP_CONDITION | TAG_CONDITION);
+		connect(pending, h, 0);
+		Loop loop = new Loop(h);
+		loops.add(loop);
+		List<int[]> body = sequence(single(h, EDGE_TRUE), depth + 1);
+		connect(body, h, EDGE_BACK);
+		loops.remove(loops.size() - 1);
+		List<int[]> exits = new ArrayList<int[]>(loop.breaks);
+		exits.add(new int[] { h, EDGE_FALSE });
+		return exits;
+	}
+
+	private List<int[]> doWhileLoop(List<int[]> pending, int depth) {
+		int h = node(TAG_LOOP | TAG_DO_WHILE);
+		connect(pending, h, 0);
+		Loop loop = new Loop(h);
+		loops.add(loop);
+		List<int[]> body = sequence(single(h, 0), depth + 1);
+		List<int[]> exits = new ArrayList<int[]>(loop.breaks);
+		if(!body.isEmpty()) {
+			int c = node(TAG_CONDITION);
+			connect(body, c, 0);
+			edges.add(new int[] { c, h, EDGE_TRUE | EDGE_BACK });
+			exits.add(new int[] { c, EDGE_FALSE });
+		}
+		loops.remove(loops.size() - 1);
+		return exits;
+	}
+
+	private List<int[]> switchStatement(List<int[]> pending, int depth) {
+		int s = node(TAG_SWITCH | TAG_CONDITION);
+		connect(pending, s, 0);
+		List<int[]> exits = new ArrayList<int[]>();
+		List<int[]> fallThrough = new ArrayList<int[]>();
+		int cases = 2 + random.nextInt(3);
+		for(int i = 0; i < cases; i++) {
+			int label = node(TAG_CASE);
+			edges.add(new int[] { s, label, 0 });
+			connect(fallThrough, label, 0);
+			List<int[]> body = sequence(single(label, 0), depth + 1);
+			fallThrough = new ArrayList<int[]>();
+			if(body.isEmpty()) {
+				continue;
+			}
+			if(i == cases - 1 || random.nextInt(4) > 0) {
+				int b = node(TAG_BREAK);
+				connect(body, b, 0);
+				exits.add(new int[] { b, EDGE_BREAK });
+			}else {
+				fallThrough = body;
+			}
+		}
+		if(random.nextBoolean()) {
+			// no default
+			exits.add(new int[] { s, 0 });
+		}
+		return exits;
+	}
+
+	/**
+	 * A break out of the innermost loop, a return or a goto, the sequence ends after it.
+	 */
+	private List<int[]> jump(List<int[]> pending) {
+		int kind = random.nextInt(3);
+		if(kind == 0 && !loops.isEmpty()) {
+			int b = node(TAG_BREAK);
+			connect(pending, b, 0);
+			loops.get(loops.size() - 1).breaks.add(new int[] { b, EDGE_BREAK });
+		}else if(kind == 1 && gotos) {
+			int g = node(TAG_GOTO);
+			connect(pending, g, 0);
+			gotoNodes.add(g);
+		}else {
+			int r = node(TAG_EXIT);
+			connect(pending, r, 0);
+		}
+		return new ArrayList<int[]>();
+	}
+
+	private int node(int nodeTags) {
+		int v = tags.size();
+		tags.add(nodeTags);
+		if(!loops.isEmpty()) {
+			loopChildren.add(new int[] { loops.get(loops.size() - 1).header, v });
+		}
+		return v;
+	}
+
+	private void connect(List<int[]> pending, int to, int flags) {
+		for(int[] p : pending) {
+			edges.add(new int[] { p[0], to, p[1] | flags });
+		}
+	}
+
+	private static List<int[]> single(int from, int flags) {
+		List<int[]> list = new ArrayList<int[]>();
+		list.add(new int[] { from, flags });
+		return list;
+	}
+}
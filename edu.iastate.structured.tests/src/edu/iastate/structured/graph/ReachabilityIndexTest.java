@@ -0,0 +1,67 @@
+package edu.iastate.structured.graph;
+
+import static edu.iastate.structured.graph.CFGSnapshot.*;
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+* {@link ReachabilityIndex}, precomputed and on demand, against a search of the DAG.
+*
+* @author Le Zhang
+*/
+public class ReachabilityIndexTest {
+
+	@Test
+	public void precomputedRows() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			CFGSnapshot g = RandomCFG.withGotos(seed);
+			ReachabilityIndex index = new ReachabilityIndex(g);
+			assertTrue("seed " + seed, index.isPrecomputed());
+			compare(g, index, seed);
+		}
+	}
+
+	@Test
+	public void onDemandRows() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			CFGSnapshot g = RandomCFG.withGotos(seed);
+			// a tiny memo, rows are evicted all along
+			ReachabilityIndex index = new ReachabilityIndex(g, 1);
+			assertFalse("seed " + seed, index.isPrecomputed() && g.size() > 1);
+			compare(g, index, seed);
+		}
+	}
+
+	private static void compare(CFGSnapshot g, ReachabilityIndex index, int seed) {
+		BitSet[] rows = new BitSet[g.size()];
+		for(int v = 0; v < g.size(); v++) {
+			rows[v] = Naive.forward(g, single(v), VIEW_DAG);
+			assertEquals("seed " + seed + ", node " + v, rows[v], index.forward(v));
+		}
+		for(int a = 0; a < g.size(); a++) {
+			for(int b = 0; b < g.size(); b++) {
+				assertEquals("seed " + seed + ", " + a + " reaches " + b, rows[a].get(b), index.reaches(a, b));
+			}
+		}
+		Random random = new Random(seed);
+		for(int i = 0; i < 10; i++) {
+			BitSet seeds = new BitSet();
+			for(int v = 0; v < g.size(); v++) {
+				if(random.nextInt(8) == 0) {
+					seeds.set(v);
+				}
+			}
+			assertEquals("seed " + seed + ", seeds " + seeds, Naive.forward(g, seeds, VIEW_DAG), index.forward(seeds));
+		}
+	}
+
+	private static BitSet single(int v) {
+		BitSet s = new BitSet();
+		s.set(v);
+		return s;
+	}
+}
@@ -0,0 +1,45 @@
+package edu.iastate.structured.graph;
+
+import static edu.iastate.structured.graph.CFGSnapshot.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+* The verdicts of {@link ReducibilityOracle} that follow from the shape of the CFG alone.
+*
+* @author Le Zhang
+*/
+public class ReducibilityOracleTest {
+
+	@Test
+	public void structuredFunctions() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			CFGSnapshot g = RandomCFG.structured(seed);
+			ReducibilityOracle oracle = ReducibilityOracle.decide(g, new ReachabilityIndex(g));
+			assertEquals("seed " + seed, ReducibilityOracle.STRUCTURED, oracle.verdict());
+			assertEquals("seed " + seed, -1, oracle.offender());
+		}
+	}
+
+	@Test
+	public void functionsWithGotos() {
+		for(int seed = 0; seed < RandomCFG.COUNT; seed++) {
+			CFGSnapshot g = RandomCFG.withGotos(seed);
+			ReducibilityOracle oracle = ReducibilityOracle.decide(g, new ReachabilityIndex(g));
+			if(!Naive.isReducible(g)) {
+				// the offender is the header of an irreducible loop
+				assertEquals("seed " + seed, ReducibilityOracle.UNSTRUCTURED, oracle.verdict());
+				assertEquals("seed " + seed, LoopForest.IRREDUCIBLE, LoopForest.of(g, VIEW_CFG).type(oracle.offender()));
+			}else if(g.tagged(TAG_GOTO).isEmpty()) {
+				assertEquals("seed " + seed, ReducibilityOracle.STRUCTURED, oracle.verdict());
+			}else {
+				// a reducible function with gotos is never structured by the oracle alone
+				assertTrue("seed " + seed, oracle.verdict() != ReducibilityOracle.STRUCTURED);
+				if(oracle.verdict() == ReducibilityOracle.UNSTRUCTURED) {
+					assertTrue("seed " + seed, g.has(oracle.offender(), TAG_LABEL));
+				}
+			}
+		}
+	}
+}
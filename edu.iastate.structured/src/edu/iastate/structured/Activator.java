@@ -3,6 +3,15 @@ package edu.iastate.structured;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
 
+import com.ensoftcorp.atlas.core.indexing.IIndexListener;
+import com.ensoftcorp.atlas.core.indexing.IndexingUtil;
+
+import edu.iastate.structured.core.FunctionCatalog;
+import edu.iastate.structured.core.LoopRecovery;
+import edu.iastate.structured.core.PCGCache;
+import edu.iastate.structured.core.ViewCache;
+import edu.iastate.structured.core.WarmUp;
+
 /**
  * The activator class controls the plug-in life cycle
  */
@@ -14,6 +23,40 @@ public class Activator extends AbstractUIPlugin {
 	// The shared instance
 	private static Activator plugin;
 	
+	// milliseconds before the warm-up of an index restored at start up
+	private static final long WARM_UP_DELAY = 30000;
+	
+	// drops what was computed from the previous index
+	private final IIndexListener indexListener = new IIndexListener() {
+		@Override
+		public void indexOperationStarted(IndexOperation op) {
+			invalidate();
+		}
+
+		@Override
+		public void indexOperationComplete(IndexOperation op) {
+			invalidate();
+			WarmUp.schedule(0);
+		}
+
+		@Override
+		public void indexOperationCancelled(IndexOperation op) {}
+
+		@Override
+		public void indexOperationError(IndexOperation op, Throwable error) {}
+
+		@Override
+		public void indexOperationScheduled(IndexOperation op) {}
+
+		private void invalidate() {
+			WarmUp.cancel();
+			PCGCache.shared().clear();
+			ViewCache.shared().clear();
+			FunctionCatalog.invalidate();
+			LoopRecovery.invalidate();
+		}
+	};
+	
 	/**
 	 * The constructor
 	 */
@@ -27,6 +70,9 @@ public class Activator extends AbstractUIPlugin {
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+		IndexingUtil.addListener(indexListener);
+		// an index restored with the workspace does not complete an operation
+		WarmUp.schedule(WARM_UP_DELAY);
 	}
 
 	/*
@@ -34,6 +80,8 @@ public class Activator extends AbstractUIPlugin {
 	 * @see org.eclipse.ui.plugin.AbstractUIPlugin#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(BundleContext context) throws Exception {
+		IndexingUtil.removeListener(indexListener);
+		WarmUp.cancel();
 		plugin = null;
 		super.stop(context);
 	}
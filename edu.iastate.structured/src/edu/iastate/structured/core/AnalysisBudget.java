@@ -0,0 +1,119 @@
+package edu.iastate.structured.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+* The time and memory one analysis of a function may take, see the analysis_deadline_ms and
+* analysis_max_allocated_mb properties.
+* <p>
+* The deadline runs from the creation of the budget and can be checked from any thread. The
+* allocation is the number of bytes allocated by the thread that created the budget, as reported by
+* the HotSpot thread bean, and is only checked on that thread. Pool workers are shared between
+* functions, so their allocation cannot be charged to one analysis: while the budget limits the
+* allocation ({@link #limitsAllocation()}), the analysis runs {@link BlockExtraction} and the exit
+* propagation on its own thread instead of forking them. On a JVM without the bean only the
+* deadline is checked.
+* Once a check fails the budget stays exceeded, the analysis stops at its next block and returns the
+* blocks so far as a partial {@link StructureResult}.
+*
+* @author Le Zhang
+*/
+public final class AnalysisBudget {
+	private static final Method ALLOCATED_BYTES = allocatedBytesMethod();
+
+	private final long start = System.nanoTime();
+	private final long deadlineNanos;
+	private final long maxAllocated;
+	private final Thread owner = Thread.currentThread();
+	private final long allocatedAtStart;
+	private volatile String exceeded;
+
+	/**
+	 * @param deadlineMillis milliseconds the analysis may run, 0 for no limit
+	 * @param maxAllocatedBytes bytes the analysis may allocate on the calling thread, 0 for no limit
+	 */
+	public AnalysisBudget(long deadlineMillis, long maxAllocatedBytes) {
+		this.deadlineNanos = deadlineMillis > 0 ? deadlineMillis * 1000000L : 0;
+		this.maxAllocated = maxAllocatedBytes > 0 && ALLOCATED_BYTES != null ? maxAllocatedBytes : 0;
+		this.allocatedAtStart = maxAllocated > 0 ? allocatedBytes() : 0;
+	}
+
+	/**
+	 * @return a budget starting now with the limits of the properties, null if both are off
+	 */
+	public static AnalysisBudget start() {
+		long deadline = VerificationProperties.getAnalysisDeadlineMillis();
+		long maxAllocated = VerificationProperties.getAnalysisMaxAllocatedBytes();
+		if(deadline <= 0 && maxAllocated <= 0) {
+			return null;
+		}
+		return new AnalysisBudget(deadline, maxAllocated);
+	}
+
+	/**
+	 * @return true if the allocation is limited, the whole analysis must then run on the thread that created the budget
+	 */
+	public boolean limitsAllocation() {
+		return maxAllocated > 0;
+	}
+
+	/**
+	 * Checks the deadline, and the allocation when called on the thread that created the budget.
+	 * @return true if a limit was exceeded, now or by an earlier check
+	 */
+	public boolean isExceeded() {
+		if(exceeded != null) {
+			return true;
+		}
+		if(deadlineNanos > 0 && System.nanoTime() - start > deadlineNanos) {
+			exceeded = "deadline of " + deadlineNanos / 1000000L + " ms";
+		}else if(maxAllocated > 0 && Thread.currentThread() == owner && allocatedBytes() - allocatedAtStart > maxAllocated) {
+			exceeded = "allocation of " + maxAllocated / (1024 * 1024) + " MB";
+		}
+		return exceeded != null;
+	}
+
+	/**
+	 * @return the limit that was exceeded, null while the analysis is within its budget
+	 */
+	public String exceeded() {
+		return exceeded;
+	}
+
+	/**
+	 * @return milliseconds since the budget was created
+	 */
+	public long elapsedMillis() {
+		return (System.nanoTime() - start) / 1000000L;
+	}
+
+	private static long allocatedBytes() {
+		try {
+			return (Long) ALLOCATED_BYTES.invoke(ManagementFactory.getThreadMXBean(), Thread.currentThread().getId());
+		} catch (Exception e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * The HotSpot extension of the thread bean is looked up by name, the bundle does not import com.sun packages.
+	 */
+	private static Method allocatedBytesMethod() {
+		try {
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			Class<?> hotspot = Class.forName("com.sun.management.ThreadMXBean");
+			if(!hotspot.isInstance(bean)) {
+				return null;
+			}
+			Method method = hotspot.getMethod("getThreadAllocatedBytes", long.class);
+			if(!(Boolean) hotspot.getMethod("isThreadAllocatedMemoryEnabled").invoke(bean)) {
+				return null;
+			}
+			return method;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package edu.iastate.structured.core;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+
+import edu.iastate.structured.log.Log;
+
+/**
+* Runs the analysis behind a smart view as a background job, so a large function does not hold the
+* selection event for the whole analysis.
+* <p>
+* Every view has its own instance. Selecting another function cancels the job still running for the
+* previous one, which stops at its next block. Selecting the function already being analyzed keeps
+* the running job instead of starting a second one. {@link #request} never waits for the job, the
+* selection event returns at once: a function not analyzed yet is shown as its raw CFG while the job
+* reports its progress in the Progress view. Atlas has no call to run a smart view again, so the view is
+* not upgraded when the job is done, the job logs that the function can be selected again instead.
+* The finished result goes to the {@link ViewCache}, so the next selection of the function shows it
+* without waiting. Once a function is analyzed, its call graph neighbours are analyzed ahead of time by
+* the {@link Prefetcher} of the view, if it has one.
+*
+* @author Le Zhang
+*/
+public final class BackgroundAnalysis {
+
+	/**
+	 * The analysis of one function, run on the job thread.
+	 */
+	public interface Analysis {
+		/**
+		 * @param monitor the monitor of the job, checked between two blocks
+		 * @throws OperationCanceledException if the monitor was canceled
+		 */
+		StructureResult analyze(IProgressMonitor monitor);
+	}
+
+	/**
+	 * The family of the analysis jobs of the views, see {@link Job#belongsTo(Object)}.
+	 */
+	public static final Object FAMILY = BackgroundAnalysis.class;
+
+	private final String name;
+	private AnalysisJob job;
+	private AnalysisJob last; // the last job done, for when the cache does not keep its result
+	private Prefetcher prefetcher;
+
+	/**
+	 * @param name the analysis, the key of its results in the {@link ViewCache}
+	 */
+	public BackgroundAnalysis(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @param prefetcher analyzes the neighbours of the functions shown, null for none
+	 */
+	public synchronized void setPrefetcher(Prefetcher prefetcher) {
+		this.prefetcher = prefetcher;
+	}
+
+	/**
+	 * @param function the selected function
+	 * @param analysis the analysis of the function, run only if its result is not cached
+	 * @return the cached entry of the function, null if the analysis was started or is still running
+	 */
+	public ViewCache.Entry request(Node function, Analysis analysis) {
+		ViewCache.Entry entry = ViewCache.shared().peek(name, function);
+		if(entry != null) {
+			shown(function);
+			return entry;
+		}
+		synchronized(this) {
+			if(last != null && last.function.equals(function)) {
+				shown(function);
+				return last.entry;
+			}
+			if(prefetcher != null) {
+				// moved elsewhere, the function itself comes first
+				prefetcher.cancel();
+			}
+			if(job != null && !job.function.equals(function)) {
+				// a stale selection, its result is not wanted anymore
+				Log.info("Analysis of " + job.function.getAttr(XCSG.name) + " canceled");
+				job.cancel();
+				job = null;
+			}
+			if(job == null) {
+				job = new AnalysisJob(function, analysis);
+				job.schedule();
+			}
+		}
+		// shown on the next selection, the view is not held for the job
+		return null;
+	}
+
+	/**
+	 * Cancels the running job and the prefetching, if any.
+	 */
+	public synchronized void cancel() {
+		last = null;
+		if(job != null) {
+			job.cancel();
+			job = null;
+		}
+		if(prefetcher != null) {
+			prefetcher.cancel();
+		}
+	}
+
+	private synchronized void shown(Node function) {
+		if(prefetcher != null) {
+			prefetcher.shown(function);
+		}
+	}
+
+	private synchronized void finished(AnalysisJob finished) {
+		if(job == finished) {
+			job = null;
+			if(finished.entry != null) {
+				shown(finished.function);
+			}
+		}
+		if(finished.entry != null) {
+			last = finished;
+		}
+	}
+
+	/**
+	 * Analyzes one function into the view cache.
+	 */
+	private final class AnalysisJob extends Job {
+		private final Node function;
+		private final Analysis analysis;
+		private volatile ViewCache.Entry entry;
+
+		AnalysisJob(Node function, Analysis analysis) {
+			super("Analyzing " + function.getAttr(XCSG.name));
+			this.function = function;
+			this.analysis = analysis;
+			setPriority(Job.LONG);
+		}
+
+		@Override
+		public boolean belongsTo(Object family) {
+			return family == FAMILY;
+		}
+
+		@Override
+		protected IStatus run(final IProgressMonitor monitor) {
+			long start = System.currentTimeMillis();
+			try {
+				entry = ViewCache.shared().get(name, function, new ViewCache.Factory<StructureResult>() {
+					@Override
+					public StructureResult create() {
+						return analysis.analyze(monitor);
+					}
+				});
+				Log.info(getName() + " done in " + (System.currentTimeMillis() - start) / 1000.0 + " s, select it again to show the blocks");
+				return Status.OK_STATUS;
+			} catch (OperationCanceledException e) {
+				return Status.CANCEL_STATUS;
+			} finally {
+				monitor.done();
+				finished(this);
+			}
+		}
+	}
+}
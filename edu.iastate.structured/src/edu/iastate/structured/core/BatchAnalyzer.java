@@ -0,0 +1,262 @@
+package edu.iastate.structured.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.script.CommonQueries;
+
+import edu.iastate.structured.log.Log;
+
+/**
+* Runs a per-function analysis over a set of functions on a ForkJoin pool.
+* <p>
+* Functions are scheduled largest CFG first, so the biggest functions do not end up alone on one
+* worker at the end of the run. Functions in {@link Quarantine}, whose analysis ran out of its
+* {@link AnalysisBudget} before, come after all the others, so they do not hold the workers while
+* the rest of the batch waits. Results are handed to the consumer one at a time in a fixed order,
+* the order of the label reports: name, then CFG nodes and CFG edges descending, then source location.
+* Both orders come from the {@link FunctionCatalog}, no CFG is evaluated to schedule a run.
+* The consumer runs as soon as every function before it is done, so the output of a run does not
+* depend on which worker finished first and two runs over the same index write the same file.
+*
+* @author Le Zhang
+*/
+public class BatchAnalyzer {
+
+	/**
+	 * The work done for one function, called from the pool threads.
+	 */
+	public interface Analysis<R> {
+		/**
+		 * @param index the position of the function in the output, from 0
+		 * @param function the function
+		 * @param cfg the control flow graph of the function
+		 */
+		R analyze(int index, Node function, Q cfg) throws Exception;
+	}
+
+	/**
+	 * Receives the results in output order, one call at a time.
+	 */
+	public interface Consumer<R> {
+		void accept(int index, Node function, R result) throws IOException;
+	}
+
+	// marks a result slot as filled when the analysis returned null or failed
+	private static final Object NULL = new Object();
+	private static final Object FAILED = new Object();
+
+	private final int parallelism;
+
+	/**
+	 * Uses the batch_parallelism property, all processors when it is not set.
+	 */
+	public BatchAnalyzer() {
+		this(VerificationProperties.getBatchParallelism());
+	}
+
+	/**
+	 * @param parallelism number of worker threads, all processors if less than 1
+	 */
+	public BatchAnalyzer(int parallelism) {
+		this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+	}
+
+	public int parallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * A consumer writing every non null result as is, rows are expected to end with a line break.
+	 */
+	public static Consumer<String> rows(final Writer writer) {
+		return new Consumer<String>() {
+			@Override
+			public void accept(int index, Node function, String row) throws IOException {
+				if(row != null) {
+					writer.write(row);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Analyzes every function and hands the results to the consumer in output order.
+	 * A function whose analysis throws is logged and skipped, the others are still consumed.
+	 * @return the number of functions whose analysis failed
+	 * @throws IOException the first exception of the consumer, no further results are consumed after it
+	 */
+	public <R> int run(AtlasSet<Node> functions, Analysis<R> analysis, Consumer<R> consumer) throws IOException {
+		FunctionCatalog catalog = FunctionCatalog.get();
+		return run(catalog, catalog.select(functions), analysis, consumer);
+	}
+
+	/**
+	 * Analyzes the functions selected by the filter, see {@link #run(FunctionCatalog, int[], Analysis, Consumer)}.
+	 */
+	public <R> int run(FunctionCatalog.Filter filter, Analysis<R> analysis, Consumer<R> consumer) throws IOException {
+		FunctionCatalog catalog = FunctionCatalog.get();
+		return run(catalog, catalog.select(filter), analysis, consumer);
+	}
+
+	/**
+	 * Analyzes the functions of the given catalog ids and hands the results to the consumer in output order.
+	 * @param selection catalog ids in increasing order, as returned by {@link FunctionCatalog#select(FunctionCatalog.Filter)}
+	 * @return the number of functions whose analysis failed
+	 */
+	public <R> int run(FunctionCatalog catalog, int[] selection, Analysis<R> analysis, Consumer<R> consumer) throws IOException {
+		Batch<R> batch = new Batch<R>(catalog, selection, analysis, consumer);
+		ForkJoinPool pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		try {
+			long startTime = System.currentTimeMillis();
+			pool.invoke(new Schedule<R>(batch));
+			Log.info("Batch of " + selection.length + " functions on " + parallelism + " threads: " + (System.currentTimeMillis() - startTime) / 1000.0 + " s, " + batch.failed.get() + " failed");
+		}finally {
+			pool.shutdown();
+		}
+		if(batch.error != null) {
+			throw batch.error;
+		}
+		return batch.failed.get();
+	}
+
+	/**
+	 * The state of one run.
+	 */
+	private static final class Batch<R> {
+		final FunctionCatalog catalog;
+		final int[] ids; // catalog id by output position
+		final Analysis<R> analysis;
+		final Consumer<R> consumer;
+
+		// output positions by schedule, quarantined functions last, then largest CFG first
+		final Integer[] schedule;
+
+		final AtomicReferenceArray<Object> results;
+		final AtomicInteger failed = new AtomicInteger();
+		final AtomicBoolean draining = new AtomicBoolean();
+		volatile int next = 0; // first output position not consumed yet, written by the draining thread
+		volatile IOException error;
+
+		Batch(final FunctionCatalog catalog, final int[] ids, Analysis<R> analysis, Consumer<R> consumer) {
+			this.catalog = catalog;
+			this.ids = ids;
+			this.analysis = analysis;
+			this.consumer = consumer;
+			int n = ids.length;
+			this.results = new AtomicReferenceArray<Object>(n);
+			this.schedule = new Integer[n];
+			final boolean[] quarantined = new boolean[n];
+			int slow = 0;
+			for(int p = 0; p < n; p++) {
+				schedule[p] = p;
+				quarantined[p] = Quarantine.contains(catalog.qualifiedName(ids[p]));
+				if(quarantined[p]) {
+					slow++;
+				}
+			}
+			if(slow > 0) {
+				Log.info(slow + " quarantined functions scheduled last");
+			}
+			Arrays.sort(schedule, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					if(quarantined[a] != quarantined[b]) {
+						return quarantined[a] ? 1 : -1;
+					}
+					int value = Integer.compare(catalog.cfgNodes(ids[b]), catalog.cfgNodes(ids[a]));
+					return value != 0 ? value : Integer.compare(a, b);
+				}
+			});
+		}
+
+		void analyze(int p) {
+			Node function = catalog.function(ids[p]);
+			Object result;
+			try {
+				result = analysis.analyze(p, function, CommonQueries.cfg(Common.toQ(function)));
+				if(result == null) {
+					result = NULL;
+				}
+			}catch (Throwable t) {
+				Log.error("Batch analysis failed for " + catalog.name(ids[p]), t);
+				failed.incrementAndGet();
+				result = FAILED;
+			}
+			results.set(p, result);
+			drain();
+		}
+
+		/**
+		 * Consumes the finished prefix of the output. Only one thread drains at a time, the others
+		 * return at once instead of waiting on a slow consumer, the draining thread picks up their results.
+		 */
+		@SuppressWarnings("unchecked")
+		void drain() {
+			while(next < ids.length && results.get(next) != null && draining.compareAndSet(false, true)) {
+				try {
+					while(next < ids.length && results.get(next) != null) {
+						Object result = results.get(next);
+						results.set(next, FAILED); // release the result, the slot stays filled
+						if(error == null && result != FAILED) {
+							try {
+								consumer.accept(next, catalog.function(ids[next]), result == NULL ? null : (R) result);
+							}catch (IOException e) {
+								error = e;
+							}
+						}
+						next++;
+					}
+				}finally {
+					draining.set(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forks one task per function in schedule order. The pool is in FIFO mode, so workers and
+	 * thieves both take the oldest fork, the largest function not started yet.
+	 */
+	private static final class Schedule<R> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Batch<R> batch;
+
+		Schedule(Batch<R> batch) {
+			this.batch = batch;
+		}
+
+		@Override
+		protected void compute() {
+			List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(batch.schedule.length);
+			for(final int p : batch.schedule) {
+				RecursiveAction task = new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						batch.analyze(p);
+					}
+				};
+				task.fork();
+				tasks.add(task);
+			}
+			for(RecursiveAction task : tasks) {
+				task.join();
+			}
+		}
+	}
+}
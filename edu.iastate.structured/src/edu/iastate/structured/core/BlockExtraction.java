@@ -0,0 +1,204 @@
+package edu.iastate.structured.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+
+import edu.iastate.structured.graph.Block;
+import edu.iastate.structured.graph.CFGSnapshot;
+
+/**
+* Runs the first phase of an analysis, the block or module of every selectable node, in parallel for
+* large functions.
+* <p>
+* Only the work on the {@link CFGSnapshot} runs in parallel: {@link Extractor#extract(int)} gets snapshot
+* ids and returns a {@link Block} of ids, and reads nothing but the snapshot and the
+* {@link edu.iastate.structured.graph.BlockExtractor} of the context, which are built on the calling
+* thread before any task is forked. Atlas is only used on the calling thread: the node ids are looked
+* up before the fork, the blocks are converted to Atlas sets after the join, and the nodes whose block
+* needs Atlas queries ({@link QueryExtractor#query(Node)}) are extracted there too.
+* Functions with fewer CFG nodes than the parallel_extraction_min_nodes property are extracted on the
+* calling thread, the fork-join overhead is not worth it for them, and so are the functions analyzed
+* under an allocation budget, see {@link AnalysisBudget}. Inside a {@link BatchAnalyzer} the tasks run
+* on the batch pool, elsewhere on the common pool. The blocks are merged in the order of the
+* selectable nodes either way, so the parents assigned afterwards do not depend on the number of threads.
+* <p>
+* Every extraction first checks the monitor of the context, see {@link FunctionGraphContext#checkCanceled()},
+* and reports one unit of work when it is done. Once the budget of the context is exceeded the remaining
+* nodes are skipped and left out of the result, see {@link FunctionGraphContext#isExhausted()}.
+*
+* @author Le Zhang
+*/
+public final class BlockExtraction {
+
+	/**
+	 * The extraction of the block of one selectable node on the snapshot alone.
+	 */
+	public abstract static class Extractor {
+
+		/**
+		 * Extracts a block on the snapshot alone, called from several threads at once. No Atlas object
+		 * is touched here, the block is converted to Atlas sets on the calling thread.
+		 * @param id the snapshot id of a selectable node
+		 * @return the block, null for an empty [entry, body, exit] list
+		 */
+		public abstract Block extract(int id);
+	}
+
+	/**
+	 * The extraction of the block of one selectable node, with Atlas queries for the nodes that need them.
+	 */
+	public abstract static class QueryExtractor extends Extractor {
+
+		/**
+		 * @param id the snapshot id of a selectable node
+		 * @return false if the block of the node needs Atlas queries, see {@link #query(Node)}
+		 */
+		public abstract boolean isSnapshotOnly(int id);
+
+		/**
+		 * Extracts a block with Atlas queries, called on the calling thread only.
+		 * @return the [entry, body, exit] list of the node
+		 */
+		public abstract List<AtlasSet<Node>> query(Node node);
+	}
+
+	// the block of a node not extracted because the budget ran out, distinct from a null block
+	private static final Block SKIPPED = new Block(new BitSet(0), new BitSet(0), new BitSet(0));
+	private static final List<AtlasSet<Node>> SKIPPED_LIST = new ArrayList<AtlasSet<Node>>(0);
+
+	private BlockExtraction() {}
+
+	/**
+	 * @param context the graphs of the function
+	 * @param selectable the selectable nodes
+	 * @param extractor the extraction of one node
+	 * @return the block of every selectable node, in the order of selectable, without the nodes skipped once out of budget
+	 * @throws org.eclipse.core.runtime.OperationCanceledException if the monitor of the context is canceled
+	 */
+	public static Map<Node, List<AtlasSet<Node>>> extract(FunctionGraphContext context, AtlasSet<Node> selectable, Extractor extractor) {
+		return extract(context, selectable, extractor, null);
+	}
+
+	/**
+	 * @param context the graphs of the function
+	 * @param selectable the selectable nodes
+	 * @param extractor the extraction of one node, on the snapshot or with Atlas queries
+	 * @return the block of every selectable node, in the order of selectable, without the nodes skipped once out of budget
+	 * @throws org.eclipse.core.runtime.OperationCanceledException if the monitor of the context is canceled
+	 */
+	public static Map<Node, List<AtlasSet<Node>>> extract(FunctionGraphContext context, AtlasSet<Node> selectable, QueryExtractor extractor) {
+		return extract(context, selectable, extractor, extractor);
+	}
+
+	private static Map<Node, List<AtlasSet<Node>>> extract(FunctionGraphContext context, AtlasSet<Node> selectable, Extractor extractor, QueryExtractor queries) {
+		// built here, the tasks only read them
+		CFGSnapshot g = context.extractor().snapshot();
+		List<Node> nodes = new ArrayList<Node>((int) selectable.size());
+		for(Node node : selectable) {
+			nodes.add(node);
+		}
+		int[] ids = new int[nodes.size()];
+		BitSet query = new BitSet(ids.length);
+		for(int i = 0; i < ids.length; i++) {
+			ids[i] = g.id(nodes.get(i));
+			if(queries != null && !queries.isSnapshotOnly(ids[i])) {
+				query.set(i);
+			}
+		}
+
+		// the snapshot blocks, in parallel for large functions
+		Block[] blocks = new Block[ids.length];
+		if(isParallel(context, ids.length - query.cardinality())) {
+			new Extract(context, ids, query, extractor, blocks, 0, ids.length).invoke();
+		}else {
+			for(int i = query.nextClearBit(0); i < ids.length; i = query.nextClearBit(i + 1)) {
+				blocks[i] = extract(context, extractor, ids[i]);
+			}
+		}
+
+		// the conversion to Atlas sets and the blocks needing queries, on this thread
+		Map<Node, List<AtlasSet<Node>>> map = new LinkedHashMap<Node, List<AtlasSet<Node>>>();
+		for(int i = 0; i < ids.length; i++) {
+			if(query.get(i)) {
+				List<AtlasSet<Node>> block = query(context, queries, nodes.get(i));
+				if(block != SKIPPED_LIST) {
+					map.put(nodes.get(i), block);
+				}
+			}else if(blocks[i] != SKIPPED) {
+				map.put(nodes.get(i), context.toList(blocks[i]));
+			}
+		}
+		return map;
+	}
+
+	private static Block extract(FunctionGraphContext context, Extractor extractor, int id) {
+		context.checkCanceled();
+		if(context.isExhausted()) {
+			return SKIPPED;
+		}
+		Block block = extractor.extract(id);
+		context.worked(1);
+		return block;
+	}
+
+	private static List<AtlasSet<Node>> query(FunctionGraphContext context, QueryExtractor extractor, Node node) {
+		context.checkCanceled();
+		if(context.isExhausted()) {
+			return SKIPPED_LIST;
+		}
+		List<AtlasSet<Node>> block = extractor.query(node);
+		context.worked(1);
+		return block;
+	}
+
+	private static boolean isParallel(FunctionGraphContext context, int count) {
+		int minNodes = VerificationProperties.getParallelExtractionMinNodes();
+		// an allocation budget is only counted on the calling thread
+		return minNodes > 0 && count > 1 && context.snapshot().size() >= minNodes && !context.isSequential();
+	}
+
+	/**
+	 * Extracts the snapshot blocks of a range of the selectable nodes, split in halves.
+	 */
+	private static final class Extract extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final FunctionGraphContext context;
+		private final int[] ids;
+		private final BitSet query;
+		private final Extractor extractor;
+		private final Block[] blocks;
+		private final int from;
+		private final int to;
+
+		Extract(FunctionGraphContext context, int[] ids, BitSet query, Extractor extractor, Block[] blocks, int from, int to) {
+			this.context = context;
+			this.ids = ids;
+			this.query = query;
+			this.extractor = extractor;
+			this.blocks = blocks;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Extract(context, ids, query, extractor, blocks, from, middle), new Extract(context, ids, query, extractor, blocks, middle, to));
+				return;
+			}
+			for(int i = from; i < to; i++) {
+				if(!query.get(i)) {
+					blocks[i] = extract(context, extractor, ids[i]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,345 @@
+package edu.iastate.structured.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.script.CommonQueries;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+
+import edu.iastate.structured.log.Log;
+
+/**
+* Every function of the index with the numbers the batch reports select and sort by, kept in
+* primitive columns indexed by catalog id: qualified name, CFG nodes and edges, labels, gotos and exits.
+* <p>
+* The catalog is built once per index, one CFG evaluation per function, instead of evaluating CFGs
+* inside sort comparators and re-querying the label functions in every report. Ids follow the report
+* order: name, then CFG nodes and CFG edges descending, then source location, so a selection of ids
+* in increasing order is already sorted.
+*
+* Example Atlas Shell Usage:
+* edu.iastate.structured.core.FunctionCatalog.get().select(edu.iastate.structured.core.FunctionCatalog.WITH_LABELS)
+*
+* @author Le Zhang
+*/
+public final class FunctionCatalog {
+
+	/**
+	 * Selects functions by their catalog columns.
+	 */
+	public interface Filter {
+		boolean accept(FunctionCatalog catalog, int id);
+	}
+
+	public static final Filter ALL = new Filter() {
+		@Override
+		public boolean accept(FunctionCatalog catalog, int id) {
+			return true;
+		}
+	};
+
+	public static final Filter WITH_LABELS = new Filter() {
+		@Override
+		public boolean accept(FunctionCatalog catalog, int id) {
+			return catalog.labels(id) > 0;
+		}
+	};
+
+	public static final Filter WITH_GOTOS = new Filter() {
+		@Override
+		public boolean accept(FunctionCatalog catalog, int id) {
+			return catalog.hasGoto(id);
+		}
+	};
+
+	private static FunctionCatalog current;
+
+	private final Node[] functions;
+	private final String[] names;
+	private final String[] qualifiedNames;
+	private final String[] locations;
+	private final int[] cfgNodes;
+	private final int[] cfgEdges;
+	private final int[] labels;
+	private final int[] gotos;
+	private final int[] exits;
+	private final BitSet hasGoto;
+	private final Map<Node, Integer> ids;
+
+	private FunctionCatalog(Node[] functions, String[] names, String[] qualifiedNames, String[] locations, int[] cfgNodes, int[] cfgEdges, int[] labels, int[] gotos, int[] exits) {
+		this.functions = functions;
+		this.names = names;
+		this.qualifiedNames = qualifiedNames;
+		this.locations = locations;
+		this.cfgNodes = cfgNodes;
+		this.cfgEdges = cfgEdges;
+		this.labels = labels;
+		this.gotos = gotos;
+		this.exits = exits;
+		this.hasGoto = new BitSet(functions.length);
+		this.ids = new HashMap<Node, Integer>(functions.length * 2);
+		for(int id = 0; id < functions.length; id++) {
+			if(gotos[id] > 0) {
+				hasGoto.set(id);
+			}
+			ids.put(functions[id], id);
+		}
+	}
+
+	/**
+	 * @return the catalog of the current index, built on first use and again when the functions changed
+	 */
+	public static synchronized FunctionCatalog get() {
+		long count = Common.universe().nodes(XCSG.Function).eval().nodes().size();
+		if(current == null || current.size() != count) {
+			current = build();
+		}
+		return current;
+	}
+
+	/**
+	 * Drops the catalog, the next {@link #get()} builds it again.
+	 */
+	public static synchronized void invalidate() {
+		current = null;
+	}
+
+	private static FunctionCatalog build() {
+		long startTime = System.currentTimeMillis();
+		AtlasSet<Node> functionSet = Common.universe().nodes(XCSG.Function).eval().nodes();
+		final Node[] unsorted = new Node[(int) functionSet.size()];
+		int n = 0;
+		for(Node function : functionSet) {
+			unsorted[n++] = function;
+		}
+		final int[][] columns = new int[5][n];
+		final String[] names = new String[n];
+		final String[] qualifiedNames = new String[n];
+		final String[] locations = new String[n];
+		int parallelism = VerificationProperties.getBatchParallelism();
+		ForkJoinPool pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+		try {
+			pool.invoke(new Count(unsorted, columns, names, qualifiedNames, locations, 0, n));
+		}finally {
+			pool.shutdown();
+		}
+
+		// sort with name first, then number of nodes, then edges
+		Integer[] order = new Integer[n];
+		for(int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		final int[] nodes = columns[0];
+		final int[] edges = columns[1];
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int value = names[a].compareTo(names[b]);
+				if(value == 0) {
+					value = Integer.compare(nodes[b], nodes[a]);
+				}
+				if(value == 0) {
+					value = Integer.compare(edges[b], edges[a]);
+				}
+				if(value == 0) {
+					value = locations[a].compareTo(locations[b]);
+				}
+				return value;
+			}
+		});
+
+		Node[] sortedFunctions = new Node[n];
+		String[] sortedNames = new String[n];
+		String[] sortedQualifiedNames = new String[n];
+		String[] sortedLocations = new String[n];
+		int[][] sorted = new int[5][n];
+		for(int id = 0; id < n; id++) {
+			int i = order[id];
+			sortedFunctions[id] = unsorted[i];
+			sortedNames[id] = names[i];
+			sortedQualifiedNames[id] = qualifiedNames[i];
+			sortedLocations[id] = locations[i];
+			for(int c = 0; c < 5; c++) {
+				sorted[c][id] = columns[c][i];
+			}
+		}
+		Log.info("Function catalog of " + n + " functions: " + (System.currentTimeMillis() - startTime) / 1000.0 + " s");
+		return new FunctionCatalog(sortedFunctions, sortedNames, sortedQualifiedNames, sortedLocations, sorted[0], sorted[1], sorted[2], sorted[3], sorted[4]);
+	}
+
+	/**
+	 * Counts the CFGs of a range of functions, split in halves.
+	 */
+	private static final class Count extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Node[] functions;
+		private final int[][] columns;
+		private final String[] names;
+		private final String[] qualifiedNames;
+		private final String[] locations;
+		private final int from;
+		private final int to;
+
+		Count(Node[] functions, int[][] columns, String[] names, String[] qualifiedNames, String[] locations, int from, int to) {
+			this.functions = functions;
+			this.columns = columns;
+			this.names = names;
+			this.qualifiedNames = qualifiedNames;
+			this.locations = locations;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from > 16) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Count(functions, columns, names, qualifiedNames, locations, from, middle), new Count(functions, columns, names, qualifiedNames, locations, middle, to));
+				return;
+			}
+			for(int i = from; i < to; i++) {
+				Node function = functions[i];
+				Graph cfg = CommonQueries.cfg(Common.toQ(function)).eval();
+				int labels = 0;
+				int gotos = 0;
+				int exits = 0;
+				for(Node node : cfg.nodes()) {
+					if(node.taggedWith("isLabel")) {
+						labels++;
+					}
+					if(node.taggedWith(XCSG.GotoStatement)) {
+						gotos++;
+					}
+					if(node.taggedWith(XCSG.controlFlowExitPoint)) {
+						exits++;
+					}
+				}
+				columns[0][i] = (int) cfg.nodes().size();
+				columns[1][i] = (int) cfg.edges().size();
+				columns[2][i] = labels;
+				columns[3][i] = gotos;
+				columns[4][i] = exits;
+				names[i] = String.valueOf(function.getAttr(XCSG.name));
+				qualifiedNames[i] = GraphAnalyzer.getQualifiedFunctionName(function);
+				locations[i] = String.valueOf(function.getAttr(XCSG.sourceCorrespondence));
+			}
+		}
+	}
+
+	public int size() {
+		return functions.length;
+	}
+
+	/**
+	 * @return the catalog id of the function, -1 if it is not in the catalog
+	 */
+	public int id(Node function) {
+		Integer id = ids.get(function);
+		return id == null ? -1 : id;
+	}
+
+	public Node function(int id) {
+		return functions[id];
+	}
+
+	public String name(int id) {
+		return names[id];
+	}
+
+	/**
+	 * @return the package@file@function name of the graph files
+	 */
+	public String qualifiedName(int id) {
+		return qualifiedNames[id];
+	}
+
+	public String location(int id) {
+		return locations[id];
+	}
+
+	public int cfgNodes(int id) {
+		return cfgNodes[id];
+	}
+
+	public int cfgEdges(int id) {
+		return cfgEdges[id];
+	}
+
+	public int labels(int id) {
+		return labels[id];
+	}
+
+	public int gotos(int id) {
+		return gotos[id];
+	}
+
+	public int exits(int id) {
+		return exits[id];
+	}
+
+	public boolean hasGoto(int id) {
+		return hasGoto.get(id);
+	}
+
+	/**
+	 * @return the ids of the accepted functions, in report order
+	 */
+	public int[] select(Filter filter) {
+		int[] selection = new int[functions.length];
+		int size = 0;
+		for(int id = 0; id < functions.length; id++) {
+			if(filter.accept(this, id)) {
+				selection[size++] = id;
+			}
+		}
+		return Arrays.copyOf(selection, size);
+	}
+
+	/**
+	 * @return the ids of the given functions in report order, functions missing from the catalog are left out
+	 */
+	public int[] select(AtlasSet<Node> functionSet) {
+		int[] selection = new int[(int) functionSet.size()];
+		int size = 0;
+		for(Node function : functionSet) {
+			int id = id(function);
+			if(id < 0) {
+				Log.warning("Function " + function.getAttr(XCSG.name) + " is not in the catalog");
+				continue;
+			}
+			selection[size++] = id;
+		}
+		selection = Arrays.copyOf(selection, size);
+		Arrays.sort(selection);
+		return selection;
+	}
+
+	/**
+	 * @return the functions of the given ids, in the order of the ids
+	 */
+	public List<Node> functions(int[] selection) {
+		List<Node> list = new ArrayList<Node>(selection.length);
+		for(int id : selection) {
+			list.add(functions[id]);
+		}
+		return list;
+	}
+
+	/**
+	 * @return the accepted functions, in report order
+	 */
+	public List<Node> functions(Filter filter) {
+		return functions(select(filter));
+	}
+}
@@ -0,0 +1,364 @@
+package edu.iastate.structured.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+
+import edu.iastate.structured.graph.Block;
+import edu.iastate.structured.graph.BlockBoundary;
+import edu.iastate.structured.graph.BlockExtractor;
+import edu.iastate.structured.graph.CFGSnapshot;
+import edu.iastate.structured.graph.DominatorTree;
+import edu.iastate.structured.graph.ExitPropagation;
+import edu.iastate.structured.graph.NestingTree;
+import edu.iastate.structured.graph.ReachabilityIndex;
+
+/**
+* The derived graphs of one function, built once per analyze() call and shared by every extractor.
+* Each view is evaluated the first time it is asked for and cached afterwards, queries on the
+* returned Q start from the materialized graph instead of re-evaluating the whole expression.
+*
+* @author Le Zhang
+*/
+public class FunctionGraphContext {
+	private final Graph cfg;
+
+	private Node function;
+	private AtlasSet<Edge> backEdges;
+	private Graph dag;
+	private AtlasSet<Node> dagLeaves;
+	private Graph dagNoBreak;
+	private Graph dagNoGoto;
+	private Graph cfgNoGoto;
+	private CFGSnapshot snapshot;
+	private BlockExtractor extractor;
+	private volatile IProgressMonitor monitor;
+	private volatile AnalysisBudget budget;
+
+	public FunctionGraphContext(Graph cfg) {
+		this.cfg = cfg;
+	}
+
+	public FunctionGraphContext(Q cfg) {
+		this(cfg.eval());
+	}
+
+	public Graph cfg() {
+		return cfg;
+	}
+
+	public Q cfgQ() {
+		return Common.toQ(cfg);
+	}
+
+	/**
+	 * @return the function containing the CFG
+	 */
+	public synchronized Node function() {
+		if(function == null) {
+			function = cfgQ().containers().nodes(XCSG.Function).eval().nodes().one();
+		}
+		return function;
+	}
+
+	/**
+	 * Lets the analysis of the function report its progress and stop between two blocks once the
+	 * monitor is canceled, see {@link #checkCanceled()}.
+	 * @param monitor the monitor, null for none
+	 */
+	public void setMonitor(IProgressMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	/**
+	 * Lets the analysis of the function stop between two blocks once the budget is exceeded, keeping
+	 * the blocks so far, see {@link #isExhausted()}.
+	 * @param budget the budget, null for none
+	 */
+	public void setBudget(AnalysisBudget budget) {
+		this.budget = budget;
+	}
+
+	public AnalysisBudget budget() {
+		return budget;
+	}
+
+	/**
+	 * @return true if the budget of the analysis limits its allocation, which is only counted on the calling thread
+	 */
+	public boolean isSequential() {
+		AnalysisBudget b = budget;
+		return b != null && b.limitsAllocation();
+	}
+
+	/**
+	 * Called between two blocks, from any thread.
+	 * @return true if the budget of the analysis is exceeded
+	 */
+	public boolean isExhausted() {
+		AnalysisBudget b = budget;
+		return b != null && b.isExceeded();
+	}
+
+	/**
+	 * @return true if the monitor of the analysis was canceled
+	 */
+	public boolean isCanceled() {
+		IProgressMonitor m = monitor;
+		return m != null && m.isCanceled();
+	}
+
+	/**
+	 * Called between two blocks, from any thread.
+	 * @throws OperationCanceledException if the monitor of the analysis was canceled
+	 */
+	public void checkCanceled() {
+		if(isCanceled()) {
+			throw new OperationCanceledException();
+		}
+	}
+
+	/**
+	 * Starts the task of the monitor of the analysis, if there is one.
+	 */
+	public void beginTask(String name, int work) {
+		IProgressMonitor m = monitor;
+		if(m != null) {
+			m.beginTask(name, work);
+		}
+	}
+
+	/**
+	 * Reports work done to the monitor of the analysis, from any thread.
+	 */
+	public void worked(int work) {
+		IProgressMonitor m = monitor;
+		if(m != null) {
+			synchronized(m) {
+				m.worked(work);
+			}
+		}
+	}
+
+	/**
+	 * @return the control flow back edges
+	 */
+	public synchronized AtlasSet<Edge> backEdges() {
+		if(backEdges == null) {
+			backEdges = cfgQ().edges(XCSG.ControlFlowBackEdge).eval().edges();
+		}
+		return backEdges;
+	}
+
+	/**
+	 * @return the CFG with the control flow back edges removed
+	 */
+	public synchronized Q dag() {
+		if(dag == null) {
+			dag = cfgQ().differenceEdges(Common.toQ(backEdges())).retainEdges().eval();
+		}
+		return Common.toQ(dag);
+	}
+
+	public synchronized AtlasSet<Node> dagLeaves() {
+		if(dagLeaves == null) {
+			dagLeaves = dag().leaves().eval().nodes();
+		}
+		return dagLeaves;
+	}
+
+	public Q dagLeavesQ() {
+		return Common.toQ(dagLeaves());
+	}
+
+	/**
+	 * @return the DAG without the edges leaving break statements
+	 */
+	public synchronized Q dagNoBreak() {
+		if(dagNoBreak == null) {
+			Q breakEdges = cfgQ().forwardStep(cfgQ().nodes(XCSG.Break)).retainEdges();
+			dagNoBreak = dag().differenceEdges(breakEdges).retainEdges().eval();
+		}
+		return Common.toQ(dagNoBreak);
+	}
+
+	/**
+	 * @return the DAG without the edges on paths from gotos to labels with multiple DAG predecessors
+	 */
+	public synchronized Q dagNoGoto() {
+		if(dagNoGoto == null) {
+			dagNoGoto = dag().differenceEdges(Common.toQ(snapshot().edgesFlagged(CFGSnapshot.EDGE_GOTO_DAG))).eval();
+		}
+		return Common.toQ(dagNoGoto);
+	}
+
+	/**
+	 * @return the CFG without the edges on paths from gotos to labels with multiple CFG predecessors
+	 */
+	public synchronized Q cfgNoGoto() {
+		if(cfgNoGoto == null) {
+			cfgNoGoto = cfgQ().differenceEdges(Common.toQ(snapshot().edgesFlagged(CFGSnapshot.EDGE_GOTO_CFG))).eval();
+		}
+		return Common.toQ(cfgNoGoto);
+	}
+
+	/**
+	 * @return the primitive snapshot of the CFG
+	 */
+	public synchronized CFGSnapshot snapshot() {
+		if(snapshot == null) {
+			snapshot = CFGSnapshot.of(cfg);
+		}
+		return snapshot;
+	}
+
+	public synchronized BlockExtractor extractor() {
+		if(extractor == null) {
+			extractor = new BlockExtractor(snapshot(), VerificationProperties.getReachabilityIndexMaxNodes());
+		}
+		return extractor;
+	}
+
+	/**
+	 * Converts a block to the list format of map_subgraphs: entry, body, exit
+	 * @return the list, empty if block is null
+	 */
+	public List<AtlasSet<Node>> toList(Block block) {
+		List<AtlasSet<Node>> list = new ArrayList<AtlasSet<Node>>();
+		if(block == null) {
+			return list;
+		}
+		list.add(snapshot().toAtlasSet(block.entry()));
+		list.add(snapshot().toAtlasSet(block.body()));
+		list.add(snapshot().toAtlasSet(block.exit()));
+		return list;
+	}
+
+	/**
+	 * Converts a list of map_subgraphs back to a block, an empty list gives an empty block.
+	 */
+	public Block toBlock(List<AtlasSet<Node>> list) {
+		CFGSnapshot g = snapshot();
+		if(list.size() < 3) {
+			return new Block(new BitSet(g.size()), new BitSet(g.size()), new BitSet(g.size()));
+		}
+		return new Block(g.bits(list.get(0)), g.bits(list.get(1)), g.bits(list.get(2)));
+	}
+
+	/**
+	 * Cuts every nested block at the exits of its parent until nothing changes, see {@link ExitPropagation}.
+	 * Functions with at least parallel_propagation_min_blocks blocks run {@link ExitPropagation#runParallel(long)},
+	 * unless the allocation of the analysis is limited, see {@link #isSequential()}.
+	 * The changed blocks are written back into blocks, the final parents into parents. A propagation
+	 * stopped by the budget of the context keeps the blocks cut so far and is not converged.
+	 * @param blocks the [entry, body, exit] list of every selectable node, its order resolves ties between parents
+	 * @param parents filled with the child to parent map of the final {@link NestingTree}, cleared first
+	 * @param retainEdges see {@link ExitPropagation#ExitPropagation(BlockExtractor, int[], Block[], boolean)}
+	 * @return the propagation, for its step count and convergence
+	 */
+	public ExitPropagation propagateExits(Map<Node, List<AtlasSet<Node>>> blocks, Map<Node, Node> parents, boolean retainEdges) {
+		CFGSnapshot g = snapshot();
+		List<Node> nodes = new ArrayList<Node>(blocks.keySet());
+		ExitPropagation propagation = exitPropagation(blocks, retainEdges);
+		if(monitor != null || budget != null) {
+			propagation.setCancellation(new ExitPropagation.Cancellation() {
+				@Override
+				public boolean isCanceled() {
+					return FunctionGraphContext.this.isCanceled() || isExhausted();
+				}
+			});
+		}
+		int minBlocks = VerificationProperties.getParallelPropagationMinBlocks();
+		if(minBlocks > 0 && nodes.size() >= minBlocks && !isSequential()) {
+			// groups of blocks not containing each other are propagated on separate workers
+			propagation.runParallel(ExitPropagation.defaultMaxSteps(nodes.size()));
+		}else {
+			propagation.run(ExitPropagation.defaultMaxSteps(nodes.size()));
+		}
+		// out of budget the blocks so far are kept, only a canceled monitor drops them
+		if(propagation.canceled() && isCanceled()) {
+			throw new OperationCanceledException();
+		}
+
+		BitSet changed = propagation.changed();
+		for(int k = changed.nextSetBit(0); k >= 0; k = changed.nextSetBit(k + 1)) {
+			blocks.put(nodes.get(k), toList(propagation.block(k)));
+		}
+		parents.clear();
+		for(int k = 0; k < nodes.size(); k++) {
+			int parent = propagation.parent(k);
+			if(parent >= 0) {
+				parents.put(nodes.get(k), g.node(parent));
+			}
+		}
+		return propagation;
+	}
+
+	/**
+	 * Sets up the exit propagation of the blocks without running it, e.g. for a run with an
+	 * {@link ExitPropagation.Check} that stops early. Block k is the k-th key of blocks.
+	 * @param blocks the [entry, body, exit] list of every selectable node, not modified
+	 * @param retainEdges see {@link ExitPropagation#ExitPropagation(BlockExtractor, int[], Block[], boolean)}
+	 */
+	public ExitPropagation exitPropagation(Map<Node, List<AtlasSet<Node>>> blocks, boolean retainEdges) {
+		CFGSnapshot g = snapshot();
+		int[] keys = new int[blocks.size()];
+		Block[] initial = new Block[keys.length];
+		int k = 0;
+		for(Map.Entry<Node, List<AtlasSet<Node>>> block : blocks.entrySet()) {
+			keys[k] = g.id(block.getKey());
+			initial[k++] = toBlock(block.getValue());
+		}
+		return new ExitPropagation(extractor(), keys, initial, retainEdges);
+	}
+
+	/**
+	 * Entries and exits of a block on the CFG, in one pass over its edges.
+	 * @param block the block nodes, isolated nodes already removed (retainEdges)
+	 */
+	public BlockBoundary boundary(AtlasSet<Node> block) {
+		return BlockBoundary.of(snapshot(), snapshot().bits(block), CFGSnapshot.VIEW_CFG, -1);
+	}
+
+	/**
+	 * @return the nodes of the given ids as a query
+	 */
+	public Q toQ(BitSet ids) {
+		return Common.toQ(snapshot().toAtlasSet(ids));
+	}
+
+	/**
+	 * @return the forward reachability index of the DAG, built on first use
+	 */
+	public ReachabilityIndex reachability() {
+		return extractor().reachability();
+	}
+
+	/**
+	 * @param view one of the CFGSnapshot VIEW_* constants
+	 * @return the dominator tree of the view, computed once per function
+	 */
+	public DominatorTree dominators(int view) {
+		return extractor().dominators(view);
+	}
+
+	/**
+	 * @param view one of the CFGSnapshot VIEW_* constants
+	 * @return the post-dominator tree of the view, computed once per function
+	 */
+	public DominatorTree postDominators(int view) {
+		return extractor().postDominators(view);
+	}
+}
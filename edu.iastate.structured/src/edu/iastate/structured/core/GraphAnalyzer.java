@@ -9,8 +9,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 
 import com.ensoftcorp.atlas.core.db.graph.Graph;
 import com.ensoftcorp.atlas.core.db.graph.Node;
@@ -28,6 +33,11 @@ import com.ensoftcorp.atlas.ui.viewer.graph.DisplayUtil;
 import com.ensoftcorp.atlas.ui.viewer.graph.SaveUtil;
 
 import edu.iastate.structured.core.VerificationProperties;
+import edu.iastate.structured.graph.Block;
+import edu.iastate.structured.graph.BlockBoundary;
+import edu.iastate.structured.graph.BlockExtractor;
+import edu.iastate.structured.graph.CFGSnapshot;
+import edu.iastate.structured.graph.ExitPropagation;
 import edu.iastate.structured.log.Log;
 
 /**
@@ -38,9 +48,9 @@ import edu.iastate.structured.log.Log;
 * @author Le Zhang
 */
 public class GraphAnalyzer {
-	private static Map<Node, List<AtlasSet<Node>>> map_subgraphs = new HashMap<Node, List<AtlasSet<Node>>>(); // format: <Node controlFlowCondition, List<Q entry, Q body, Q exit> >
-	private static Map<Node, Node> map_parent = new HashMap<Node, Node>(); // format: <ChildNode, ParentNode>
-	private static Map<Node, Integer> map_distance = new HashMap<Node, Integer>(); // format: <controlNode, distance_to_root>
+	// per analyze() call, one analyzer per function so concurrent calls do not share state
+	private final Map<Node, List<AtlasSet<Node>>> map_subgraphs = new HashMap<Node, List<AtlasSet<Node>>>(); // format: <Node controlFlowCondition, List<Q entry, Q body, Q exit> >
+	private final Map<Node, Node> map_parent = new HashMap<Node, Node>(); // format: <ChildNode, ParentNode>
 	
 	/**
 	 * The name pattern for the directory containing the graphs for the processed goto.
@@ -152,156 +162,37 @@ public class GraphAnalyzer {
 	
 
 	public static List<AtlasSet<Node>> getModule(Q cfg, Node label){
-//		Q cfg_leaves = cfg.leaves();
-		Q cfbe=cfg.edges(XCSG.ControlFlowBackEdge).retainEdges(); //Control flow back edge
-		Q dag=cfg.differenceEdges(cfbe).retainEdges(); // Control flow back edges removed
-		Q break_nodes = cfg.nodes(XCSG.Break);
-		Q break_edges = cfg.forwardStep(break_nodes).retainEdges();
-		
-		Q dag_no_break = dag.differenceEdges(break_edges).retainEdges();
-		
-		Q subgraph = dag_no_break.forward(Common.toQ(label));
-		Q label_nodes = subgraph.nodesTaggedWithAll("isLabel");
-		Q control_nodes = subgraph.nodesTaggedWithAll(XCSG.ControlFlowCondition);
-		
-		AtlasSet<Node> body = new AtlasHashSet<Node>();
-		AtlasSet<Node> exit = new AtlasHashSet<Node>();
-		if(label_nodes.eval().nodes().size() > 1 || control_nodes.eval().nodes().size() > 0) {
-			Q sub_label_graph = dag_no_break.forward(label_nodes.difference(Common.toQ(label)));
-			Q sub_ctrl_graph = dag_no_break.forward(control_nodes);
-			Q sub_diff_graph = sub_label_graph.union(sub_ctrl_graph);
-//			Log.info(label.getAttr(XCSG.name).toString() + sub_label_graph.eval().nodes().size() + "|" + sub_ctrl_graph.eval().nodes().size() + "|" + sub_diff_graph.eval().nodes().size());
-			subgraph = subgraph.difference(sub_diff_graph).union(sub_diff_graph.roots()).induce(dag_no_break).retainEdges();	
-		}
-		exit = subgraph.leaves().eval().nodes();
-		
-		AtlasSet<Node> entry = new AtlasHashSet<Node>();
-		entry.add(label);
-		
-		for(Node b : subgraph.eval().nodes()) {
-			if(exit.contains(b)) {
-				continue;
-			}
-			AtlasSet<Node> pred = dag_no_break.predecessors(Common.toQ(b)).eval().nodes();
-			for(Node p : pred) {
-				if(!entry.contains(p)&&!subgraph.eval().nodes().contains(p)) {
-					entry.add(b);
-				}
-			}
-		}
-		
-		body = subgraph.retainNodes().difference(Common.toQ(exit)).difference(Common.toQ(entry)).eval().nodes();
-		
-		List<AtlasSet<Node>> l = new ArrayList<AtlasSet<Node>>();
-		l.add(entry);
-		l.add(body);
-		l.add(exit);
-		return l;
+		return getModule(new FunctionGraphContext(cfg), label);
+	}
+	
+	public static List<AtlasSet<Node>> getModule(FunctionGraphContext context, Node label){
+		return context.toList(context.extractor().labelModule(context.snapshot().id(label)));
 	}
 	
 	public static List<AtlasSet<Node>> getLabelLoop(Q cfg, Node label){
-		Q cfbe=cfg.edges(XCSG.ControlFlowBackEdge).retainEdges(); //Control flow back edge
-		Q dag=cfg.differenceEdges(cfbe).retainEdges(); // Control flow back edges removed
-		
-		Q loop_children_nodes = Common.universe().edges(XCSG.LoopChild).forward(Common.toQ(label)).retainNodes();
-		
-		Q otherLabels = cfg.nodesTaggedWithAny("isLabel").difference(Common.toQ(label));
-		
-		Q subgraph = dag.between(loop_children_nodes, dag.leaves()).difference(dag.between(otherLabels, dag.leaves())).union(otherLabels);
-		
-		subgraph = subgraph.induce(cfg).retainEdges();
-		
-		AtlasSet<Node> body = new AtlasHashSet<Node>();
-		AtlasSet<Node> exit = new AtlasHashSet<Node>();
-		
-		exit = subgraph.leaves().eval().nodes();
-		
-		AtlasSet<Node> entry = new AtlasHashSet<Node>();
-		entry.add(label);
-		
-		for(Node b : subgraph.eval().nodes()) {
-			if(exit.contains(b)) {
-				continue;
-			}
-			AtlasSet<Node> pred = cfg.predecessors(Common.toQ(b)).eval().nodes();
-			for(Node p : pred) {
-				if(!entry.contains(p)&&!subgraph.eval().nodes().contains(p)) {
-					entry.add(b);
-				}
-			}
-		}
-		
-		body = subgraph.retainNodes().difference(Common.toQ(exit)).difference(Common.toQ(entry)).eval().nodes();
-		
-		List<AtlasSet<Node>> l = new ArrayList<AtlasSet<Node>>();
-		l.add(entry);
-		l.add(body);
-		l.add(exit);
-		return l;
+		return getLabelLoop(new FunctionGraphContext(cfg), label);
+	}
+	
+	public static List<AtlasSet<Node>> getLabelLoop(FunctionGraphContext context, Node label){
+		return context.toList(context.extractor().labelLoop(context.snapshot().id(label)));
 	}
 	
 	public static List<AtlasSet<Node>> getDoWhile(Q cfg, Node node){
-		Q cfbe=cfg.edges(XCSG.ControlFlowBackEdge).retainEdges(); //Control flow back edge
-		Q dag=cfg.differenceEdges(cfbe).retainEdges(); // Control flow back edges removed
-		
-		Q moduleLabels = cfg.nodesTaggedWithAny("isLabel").difference(cfg.nodesTaggedWithAny(XCSG.Loop));
-		
-		Q exitNode = null; // initialize the exit node
-		
-		
-		for(Edge e : cfbe.eval().edges()) { // for all control flow back edges, find the one with current entry node
-			if(cfg.successorsOn(Common.toQ(e)).eval().nodes().contains(node)) {
-				// if the CFBE contains the current entry node, the predecessor would be the corresponding do while node
-				// the next node on DAG would be the legal exit point
-				exitNode = dag.forwardStep(cfg.predecessorsOn(Common.toQ(e)).retainNodes());
-				break;
-			}
-		}
-		
-		List<AtlasSet<Node>> l = new ArrayList<AtlasSet<Node>>();
-		
-		if(exitNode == null) { // if no exit node is found, return empty list
-			return l;
-		}
-		
-		Q subgraph = dag.between(Common.toQ(node), dag.leaves())
-				.difference(dag.between(exitNode, dag.leaves()))
-				.difference(dag.between(moduleLabels, dag.leaves()))
-				.retainNodes().union(exitNode)
-				.induce(cfg).retainEdges();
-		
-		AtlasSet<Node> body = new AtlasHashSet<Node>();
-		AtlasSet<Node> exit = new AtlasHashSet<Node>();
-		
-		exit = subgraph.leaves().eval().nodes();
-		
-		AtlasSet<Node> entry = new AtlasHashSet<Node>();
-		entry.add(node);
-		
-		for(Node b : subgraph.eval().nodes()) {
-			if(exit.contains(b)) {
-				continue;
-			}
-			AtlasSet<Node> pred = cfg.predecessors(Common.toQ(b)).eval().nodes();
-			for(Node p : pred) {
-				if(!entry.contains(p)&&!subgraph.eval().nodes().contains(p)) {
-					entry.add(b);
-				}
-			}
-		}
-		
-		body = subgraph.retainNodes().difference(Common.toQ(exit)).difference(Common.toQ(entry)).eval().nodes();
-		
-		l.add(entry);
-		l.add(body);
-		l.add(exit);
-		return l;
+		return getDoWhile(new FunctionGraphContext(cfg), node);
+	}
+	
+	public static List<AtlasSet<Node>> getDoWhile(FunctionGraphContext context, Node node){
+		return context.toList(context.extractor().doWhile(context.snapshot().id(node)));
 	}
 	
 	public static List<AtlasSet<Node>> getBlock(Q cfg, Node node){
+		return getBlock(new FunctionGraphContext(cfg), node);
+	}
+	
+	public static List<AtlasSet<Node>> getBlock(FunctionGraphContext context, Node node){
+		Q cfg = context.cfgQ();
 		Q cf_condition = Common.toQ(node);
-		Q cfbe=cfg.edges(XCSG.ControlFlowBackEdge).retainEdges(); //Control flow back edge
-		Q dag=cfg.differenceEdges(cfbe); // Control flow back edges removed
+		Q dag = context.dag(); // Control flow back edges removed
 
 		// Initialize the subgraph queries
 		Q subgraph_q = Common.empty();
@@ -326,42 +217,26 @@ public class GraphAnalyzer {
 			// get the subgraph
 			subgraph_q =
 					// get the part from loop condition to DAG leaves (to include the loop and return statements)
-					dag.between(cf_condition, dag.leaves()).
+					dag.between(cf_condition, context.dagLeavesQ()).
 					// get the part from loop condition to false node (to include possible break statements)
 					union(dag.between(cf_condition, falseNode)).
 					// exclude the part from false node to DAG leaves
-					difference(dag.between(falseNode, dag.leaves()).retainEdges()).
+					difference(dag.between(falseNode, context.dagLeavesQ()).retainEdges()).
 					// exclude the part from label node to DAG leaves
-					difference(dag.between(labelStopNode, dag.leaves()).retainEdges()).
+					difference(dag.between(labelStopNode, context.dagLeavesQ()).retainEdges()).
 					// put back false node and false edge to make the subgraph complete
 					union(falseNode).union(falseEdge).union(labelNode).retainEdges();
 
 			// use induce(cfg) to add missing edges from CFG so we have complete subgraph
 			subgraph_q = subgraph_q.induce(cfg).retainEdges();
 
-			// get exit nodes
-			subgraph_exit_q = subgraph_q.leaves();
-
-			// get legal entry nodes
-			subgraph_entry_q = cf_condition;
-
-			// pick up other illegal entry nodes
-			AtlasSet<Node> illegal_entry_set = new AtlasHashSet<Node>();
-
-			for(Node n : subgraph_q.difference(subgraph_exit_q).eval().nodes()) {
-				for(Node ent : cfg.predecessors(Common.toQ(n)).eval().nodes()) {
-					if(!subgraph_q.eval().nodes().contains(ent)) {
-						illegal_entry_set.add(n);
-					}
-				}
-			}
-			subgraph_entry_q = subgraph_entry_q.union(Common.toQ(illegal_entry_set));
+			// get exit nodes and the legal entry plus other illegal entry nodes
+			BlockBoundary boundary = context.boundary(subgraph_q.eval().nodes());
+			subgraph_exit_q = context.toQ(boundary.exit());
+			subgraph_entry_q = cf_condition.union(context.toQ(boundary.entry()));
 
 		}else{
 			// Non-loop conditions (IF and SWITCH)
-			// collect branch nodes
-			AtlasSet<Node> branchNodes = cfg.successors(cf_condition).eval().nodes();
-
 			// check if the false leave is a control flow back edge
 			Q CFBE_false_edge = cfg.forwardStep(cf_condition).selectEdge(XCSG.conditionValue, "false", false).retainEdges()
 					.edgesTaggedWithAny(XCSG.ControlFlowBackEdge);
@@ -375,37 +250,9 @@ public class GraphAnalyzer {
 				return return_list;
 			}
 
-			// collect the paths from each branch node to DAG leaves
-			List<Q> list_paths = new ArrayList<Q>();
-			for(Node branch_root : branchNodes) {
-				list_paths.add(dag.between(Common.toQ(branch_root), dag.leaves()));
-			}
-
-			// For every two branch paths, find if there is an intersection
-			// save the common intersection to this query
-			Q joint_paths = null;
-			AtlasSet<Node> joint_paths_node_set = new AtlasHashSet<Node>();
-
-			for(int i = 0; i<list_paths.size()-1; i++) {
-				for(int j = i+1; j<list_paths.size(); j++) {
-					// get intersections of two branches
-					AtlasSet<Node> tmp_joint_paths_node_set = list_paths.get(i).intersection(list_paths.get(j)).eval().nodes();
-					if(tmp_joint_paths_node_set.size()>0) {
-						joint_paths_node_set.addAll(tmp_joint_paths_node_set);
-					}
-				}
-			}
-			joint_paths = Common.toQ(joint_paths_node_set);
-
-			subgraph_q = Common.empty();
-
-			// get subgraph nodes
-			if(joint_paths == null) {
-				subgraph_q = dag.between(Common.toQ(branchNodes), dag.leaves());
-			}else {
-				subgraph_q = dag.between(Common.toQ(branchNodes), dag.leaves()).
-						difference(joint_paths).union(joint_paths.induce(dag).roots());
-			}
+			// the paths below the branches, without the part where two or more branches meet (only the merge points are kept)
+			CFGSnapshot snapshot = context.snapshot();
+			subgraph_q = Common.toQ(snapshot.toAtlasSet(context.extractor().branchRegion(snapshot.id(node))));
 
 			// complete the subgraph with edges
 			subgraph_q = subgraph_q.union(cf_condition).induce(cfg).retainEdges();
@@ -414,10 +261,10 @@ public class GraphAnalyzer {
 			subgraph_exit_q = subgraph_q.leaves();
 
 			if(subgraph_exit_q.nodesTaggedWithAny(XCSG.CaseLabel).eval().nodes().size()>0) {
-				Q case2leave = dag.between(subgraph_exit_q.nodesTaggedWithAny(XCSG.CaseLabel), dag.leaves());
-				Q nonCase2leave = dag.between(subgraph_exit_q.difference(subgraph_exit_q.nodesTaggedWithAny(XCSG.CaseLabel)), dag.leaves());
+				Q case2leave = dag.between(subgraph_exit_q.nodesTaggedWithAny(XCSG.CaseLabel), context.dagLeavesQ());
+				Q nonCase2leave = dag.between(subgraph_exit_q.difference(subgraph_exit_q.nodesTaggedWithAny(XCSG.CaseLabel)), context.dagLeavesQ());
 				Q case_noncase_intersection = case2leave.intersection(nonCase2leave);
-				subgraph_q = dag.between(cf_condition, dag.leaves()).difference(dag.between(case_noncase_intersection.roots(), dag.leaves()))
+				subgraph_q = dag.between(cf_condition, context.dagLeavesQ()).difference(dag.between(case_noncase_intersection.roots(), context.dagLeavesQ()))
 						.union(case_noncase_intersection.roots());
 			}
 			
@@ -428,7 +275,7 @@ public class GraphAnalyzer {
 			if(labelNodes.size() >0){
 				Q labelPath = Common.empty();
 				for(Node ln : labelNodes) {
-					labelPath = labelPath.union(dag.between(Common.toQ(ln), dag.leaves()));
+					labelPath = labelPath.union(dag.between(Common.toQ(ln), context.dagLeavesQ()));
 				}
 				subgraph_q = subgraph_q.difference(labelPath).union(Common.toQ(labelNodes));
 			}
@@ -436,23 +283,10 @@ public class GraphAnalyzer {
 			// complete the subgraph with edges again
 			subgraph_q = subgraph_q.union(cf_condition).induce(cfg).retainEdges();
 
-			// update subgraph exits
-			subgraph_exit_q = subgraph_q.leaves();
-
-			// get legal entry nodes
-			subgraph_entry_q = cf_condition;
-
-			// pick up other illegal entry nodes
-			AtlasSet<Node> illegal_entry_set = new AtlasHashSet<Node>();
-
-			for(Node n : subgraph_q.difference(subgraph_exit_q).eval().nodes()) {
-				for(Node ent : cfg.predecessors(Common.toQ(n)).eval().nodes()) {
-					if(!subgraph_q.eval().nodes().contains(ent)) {
-						illegal_entry_set.add(n); // add illegal entry node to the set
-					}
-				}
-			}
-			subgraph_entry_q = subgraph_entry_q.union(Common.toQ(illegal_entry_set));
+			// update subgraph exits, get the legal entry plus other illegal entry nodes
+			BlockBoundary boundary = context.boundary(subgraph_q.eval().nodes());
+			subgraph_exit_q = context.toQ(boundary.exit());
+			subgraph_entry_q = cf_condition.union(context.toQ(boundary.entry()));
 
 			// if the selected condition is not switch, it probably have a case node as entry due to case fall-through
 			if(!cf_condition.eval().nodes().one().taggedWith(XCSG.ControlFlowSwitchCondition)) {
@@ -467,23 +301,10 @@ public class GraphAnalyzer {
 							// keep the previous exits
 							union(subgraph_exit_q).induce(cfg).retainEdges();
 
-					// update subgraph exits
-					subgraph_exit_q = subgraph_q.leaves();
-
-					// update legal entry nodes
-					subgraph_entry_q = cf_condition;
-
-					// pick up other illegal entry nodes
-					illegal_entry_set.clear();
-
-					for(Node n : subgraph_q.difference(subgraph_exit_q).eval().nodes()) {
-						for(Node ent : cfg.predecessors(Common.toQ(n)).eval().nodes()) {
-							if(!subgraph_q.eval().nodes().contains(ent)) {
-								illegal_entry_set.add(n);
-							}
-						}
-					}
-					subgraph_entry_q = subgraph_entry_q.union(Common.toQ(illegal_entry_set));
+					// update subgraph exits, legal entry and other illegal entry nodes
+					boundary = context.boundary(subgraph_q.eval().nodes());
+					subgraph_exit_q = context.toQ(boundary.exit());
+					subgraph_entry_q = cf_condition.union(context.toQ(boundary.entry()));
 				}
 			}
 
@@ -502,68 +323,6 @@ public class GraphAnalyzer {
 		return return_list;
 	}
 	
-	/**
-	* Update parent map
-	 * @param Node parent, dag
-	 * @return none
-	 */
-	private static void updateParentMap(Node parent_node, Q dag) {  // input: graph root and graph list [entry, body, exit]
-
-		// get body node set of this block
-		AtlasSet<Node> subgraph_body_q = Common.toQ(map_subgraphs.get(parent_node).get(1))
-				.nodesTaggedWithAny("STRUCT_SELECTABLE").eval().nodes();
-
-		// update exits of nested nodes
-		for(Node child : subgraph_body_q) {
-			if(map_parent.containsKey(child)) {
-				Node prev_parent = map_parent.get(child);
-				// compare previous parent with current parent
-				// pick the smaller sized father to be the actual parent
-				if(map_distance.get(parent_node) > map_distance.get(prev_parent)) {
-					
-					// if smaller, update parenthood
-					map_parent.put(child, parent_node);
-				}
-			}else {
-				// no record, just update value
-				map_parent.put(child, parent_node);
-			}
-		}
-	}
-	
-	private static Map<Node, Integer> calcDistance(Q dag) {
-		
-		Map<Node, Integer> retMap = new HashMap<Node, Integer>();
-		
-		Node root = dag.roots().eval().nodes().getFirst();
-				
-		AtlasSet<Node> current = new AtlasHashSet<Node>();
-		current.add(root);
-		int steps = 0;
-				
-		while(!current.isEmpty()) {
-			steps += 1;
-			AtlasSet<Node> tmp = new AtlasHashSet<Node>();
-			for(Node node : current) {
-				AtlasSet<Node> tmp_nxt = dag.successors(Common.toQ(node)).eval().nodes();
-				
-				for(Node sel : tmp_nxt.taggedWithAny("STRUCT_SELECTABLE")) {
-					if(retMap.containsKey(sel)) {
-						continue;
-					}
-					retMap.put(sel, steps);		
-				}
-				
-				tmp.addAll(tmp_nxt);
-			}
-			current.clear();
-			current.addAll(tmp);
-		}
-
-		return retMap;
-		
-	}
-	
 //	/**
 //	* Get shortest distance from node1 to node2 using BFS
 //	 * @param node1, node2
@@ -600,310 +359,153 @@ public class GraphAnalyzer {
 //	}
 	
 	/**
-	* Update child subgraph based on the parent's exits
-	 * @param Node child, Q dag, Q cfg
-	 * @return none
-	 */
-	private static void updateChildExits(int cnt, Node child, Q dag, Q cfg) {
-//		Log.info("updateChildExits()" + child.getAttr(XCSG.name));
-		
-		//avoid deadlock
-		if(cnt == 0) {
-			Log.info("updateChildExits() exceeds max recursion at " + child.getAttr(XCSG.name));
-			return;
-		}
-
-		// cast to Q
-		Q cf_condition = Common.toQ(child);
-
-		// list [entry, subgraph, exits]
-		List<AtlasSet<Node>> subgraph = map_subgraphs.get(child);
-		
-		AtlasSet<Node> oldSelectableNodes = Common.toQ(subgraph.get(1)).nodesTaggedWithAny("STRUCT_SELECTABLE").eval().nodes();
-
-		// terminate subgraph based on exits of parent subgraph
-		// if it has a parent
-		if(map_parent.containsKey(child)) {
-
-			// get parent exits
-			AtlasSet<Node> parent_exits = map_subgraphs.get(map_parent.get(child)).get(2);
-			// get paths starting from parent's exits
-			Q extra_portion = dag.forward(Common.toQ(parent_exits)).retainNodes();
-
-			// get subgraph body nodes
-			// need to include entries because at this point some body nodes may be treated as entries
-			Q subgraph_body_q = Common.toQ(subgraph.get(1)).union(Common.toQ(subgraph.get(0)));
-
-//			AtlasSet<Node> body = subgraph_body_q.difference(extra_portion).eval().nodes();
-			
-			// if there is an intersection
-			if(extra_portion.intersection(subgraph_body_q).eval().nodes().size() > 0) {
-				
-//				Log.info("update subgraph " + map_parent.get(child).getAttr(XCSG.name));
-
-				// update the subgraph body
-				AtlasSet<Node> body = new AtlasHashSet<Node>();
-
-				body.addAll(subgraph.get(1));
-				body = Common.toQ(body).difference(extra_portion).eval().nodes();
-
-				subgraph.set(1, body);
-
-				// update exits
-				AtlasSet<Node> exit = Common.toQ(subgraph.get(1)).union(cf_condition).union(Common.toQ(parent_exits)).induce(cfg).retainEdges().leaves().eval().nodes();
-
-				subgraph.set(2, exit);
-
-				// update the entries
-				AtlasSet<Node> entry = new AtlasHashSet<Node>();
-				// pick up entry nodes
-				AtlasSet<Node> subgraph_body_set = Common.toQ(subgraph.get(1)).union(cf_condition).eval().nodes();
-				for(Node n : subgraph_body_set) {
-					for(Node ent : cfg.predecessors(Common.toQ(n)).eval().nodes()) {
-						if(!subgraph_body_set.contains(ent)) {
-							entry.add(n);
-						}
-					}
-				}
-				subgraph.set(0, entry);
-
-				// update new subgraph
-				map_subgraphs.put(child, subgraph);
-
-				AtlasSet<Node> its_children = Common.toQ(subgraph.get(1)).nodesTaggedWithAny("STRUCT_SELECTABLE").eval().nodes();
-				
-				for(Node n : oldSelectableNodes) {
-					if(its_children.contains(n)) {
-						continue;
-					}
-					updateParent(n);
-				}
-				
-//				Log.info("child size " + its_children.size());
-				if(its_children.size()>0) {
-					for(Node forward_child : its_children) {
-//						Log.info("Parent:: " + child.getAttr(XCSG.name) + " ||Child:: " + forward_child.getAttr(XCSG.name));
-						updateChildExits(cnt--, forward_child, dag, cfg);
-					}
-				}
-			}
-		}
-	}
-	
-	/**
-	* Update parent map when child need a new parent
-	 * @param Node child
-	 * @return none
+	* Analyze the given CFG and parse out the code blocks.
+	* A function analyzed before is read back from the {@link StructureStore} as long as its CFG did not change.
+	 * @param Q cfg
+	 * @return the blocks and parent map of the function
 	 */
-	private static void updateParent(Node child) {
-		// We assume that this child need a new parent
-		Node parent = map_parent.get(child);
-		if(!map_parent.containsKey(parent)) { // if no grand parents
-			map_parent.remove(child); // remove this child, it now has no parents
-			return;
-		}
-		
-		boolean flag = false;
-		int cnt = 0;
-		while(map_parent.containsKey(parent) && cnt<100) {
-			parent = map_parent.get(parent);
-			
-			if(map_subgraphs.get(parent).get(1).contains(child)) {
-				map_parent.put(child, parent);
-				flag = true;
-				return;
-			}
-			cnt++;
-		}
-		
-		if(!flag) {
-			map_parent.remove(child);
-		}
-		
+	public static StructureResult analyze(Q cfg) {
+		return analyze(cfg, null);
 	}
 	
 	/**
-	* Analyze the given CFG and parse out the code blocks
+	* Like {@link #analyze(Q)}, reporting one unit of work per selectable node and one for the exit propagation
 	 * @param Q cfg
-	 * @return none
+	 * @param monitor checked between two blocks, null for none
+	 * @return the blocks and parent map of the function, partial if the analysis ran out of its {@link AnalysisBudget}
+	 * @throws OperationCanceledException if the monitor was canceled, nothing is stored then
 	 */
-	public static void analyze(Q cfg) {
+	public static StructureResult analyze(Q cfg, IProgressMonitor monitor) {
 		// TIMER
 		long startTime=System.currentTimeMillis();
+		// the budget includes the loop recovery
+		AnalysisBudget budget = AnalysisBudget.start();
 		//1. get selectable nodes (DLI loop entry, control nodes, labels) and tag them
-		map_subgraphs.clear();
-		map_parent.clear();
 //		Log.info("Analyze-DLI");
-		// run DLI
-		com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.recoverLoops();
+		// recover the loops of this function only, once per session
+		Graph graph = cfg.eval();
+		LoopRecovery.recover(graph);
 
 		
 		// TIMER
-		Log.info("DLI runtime: " + (System.currentTimeMillis()-startTime)/1000.0 + " s");
-		startTime=System.currentTimeMillis();
+		Log.info("Loop recovery runtime: " + (System.currentTimeMillis()-startTime)/1000.0 + " s");
 		
 		
 		// initialize a set with label nodes, DLI loop entry nodes, control statement nodes
 		AtlasSet<Node> selectable = cfg.nodesTaggedWithAny("isLabel", XCSG.Loop, XCSG.ControlFlowCondition).eval().nodes();
 
-		// tag selectable nodes
-		for(Node s : selectable) {
-			s.tag("STRUCT_SELECTABLE");
+		// tag selectable nodes, also when the result is read back
+		synchronized(UniverseLock.WRITE) {
+			for(Node s : selectable) {
+				s.tag("STRUCT_SELECTABLE");
+			}
 		}
 		
-		//2. for each selectable node, get block or module, store them in map
-		Q cfbe=cfg.edges(XCSG.ControlFlowBackEdge).retainEdges(); //Control flow back edge
-		Q dag=cfg.differenceEdges(cfbe); // Control flow back edges removed
-		
-		map_distance = calcDistance(dag);
-		
-		//TIMER
-		long ParentMapTotal=0;
+		StructureStore store = StructureStore.graphAnalyzer();
+		StructureStore.Key key = store == null ? null : store.key(graph);
+		if(key != null) {
+			StructureResult cached = store.load(key);
+			if(cached != null) {
+				return cached;
+			}
+		}
+		StructureResult result = new GraphAnalyzer().analyzeFunction(cfg, selectable, budget, monitor);
+		// a partial result is analyzed again next time, e.g. with a larger budget
+		if(key != null && !result.partial()) {
+			store.save(key, result);
+		}
+		return result;
+	}
+	
+	private StructureResult analyzeFunction(Q cfg, AtlasSet<Node> selectable, AnalysisBudget budget, IProgressMonitor monitor) {
+		// TIMER
+		long startTime=System.currentTimeMillis();
 		
-		long moduleTime=0;
-		long labelTime=0;
-		long dowhileTime=0;
-		long otherTime=0;
-		long CBstart = 0;
+		//2. for each selectable node, get block or module, store them in map
+		// the derived graphs are built once and shared by every extractor
+		final FunctionGraphContext context = new FunctionGraphContext(cfg);
+		context.setMonitor(monitor);
+		context.setBudget(budget);
+		context.beginTask("Extracting blocks", (int) selectable.size() + 1);
+		
+		//TIMER, summed over the extraction threads
+		final AtomicLong moduleTime = new AtomicLong();
+		final AtomicLong labelTime = new AtomicLong();
+		final AtomicLong dowhileTime = new AtomicLong();
+		final AtomicLong otherTime = new AtomicLong();
 		
 //		Log.info("Analyze-get block");
-		for(Node node : selectable) {
-			if(node.taggedWith("isLabel")&&!node.taggedWith(XCSG.Loop)) { // straight forward label
-//				Log.info(node.getAttr(XCSG.name) + " getModule");
-				
-				//TIMER
-				CBstart=System.currentTimeMillis();
-				
-				map_subgraphs.put(node, getModule(cfg, node));
-				
-				//TIMER
-				moduleTime += System.currentTimeMillis()-CBstart;
-				
-			}else if(node.taggedWith("isLabel")&&node.taggedWith(XCSG.Loop)) { // label creates loop
-				//TIMER
-				CBstart=System.currentTimeMillis();
-				
-				map_subgraphs.put(node, getLabelLoop(cfg, node));
-				
-				//TIMER
-				labelTime += System.currentTimeMillis()-CBstart;
-			}else if(node.taggedWith("isDoWhileLoop")) {  // do while loop
-				//TIMER
-				CBstart=System.currentTimeMillis();
-				
-				map_subgraphs.put(node, getDoWhile(cfg, node));
-				
+		// large functions extract their label and do-while blocks in parallel on the snapshot, see BlockExtraction
+		final CFGSnapshot g = context.snapshot();
+		final BlockExtractor extractor = context.extractor();
+		map_subgraphs.putAll(BlockExtraction.extract(context, selectable, new BlockExtraction.QueryExtractor() {
+			@Override
+			public boolean isSnapshotOnly(int id) {
+				return g.has(id, CFGSnapshot.TAG_LABEL | CFGSnapshot.TAG_DO_WHILE);
+			}
+
+			@Override
+			public Block extract(int id) {
 				//TIMER
-				dowhileTime += System.currentTimeMillis()-CBstart;
-			}else { // normal IF/While/For/Switch
-//				Log.info(node.getAttr(XCSG.name) + " getBlock");
+				long CBstart=System.currentTimeMillis();
 				
+				if(g.has(id, CFGSnapshot.TAG_LABEL)&&!g.has(id, CFGSnapshot.TAG_LOOP)) { // straight forward label
+					Block block = extractor.labelModule(id);
+					moduleTime.addAndGet(System.currentTimeMillis()-CBstart);
+					return block;
+				}else if(g.has(id, CFGSnapshot.TAG_LABEL)&&g.has(id, CFGSnapshot.TAG_LOOP)) { // label creates loop
+					Block block = extractor.labelLoop(id);
+					labelTime.addAndGet(System.currentTimeMillis()-CBstart);
+					return block;
+				}
+				// do while loop
+				Block block = extractor.doWhile(id);
+				dowhileTime.addAndGet(System.currentTimeMillis()-CBstart);
+				return block;
+			}
+
+			@Override
+			public List<AtlasSet<Node>> query(Node node) {
 				//TIMER
-				CBstart=System.currentTimeMillis();
-				
-				map_subgraphs.put(node, getBlock(cfg, node));
+				long CBstart=System.currentTimeMillis();
 				
-				//TIMER
-				otherTime += System.currentTimeMillis()-CBstart;
+				// normal IF/While/For/Switch, on Atlas queries
+				List<AtlasSet<Node>> block = getBlock(context, node);
+				otherTime.addAndGet(System.currentTimeMillis()-CBstart);
+				return block;
 			}
-			//for each module or block, update parent relationships 
-//			Log.info("Analyze-get block " + node.getAttr(XCSG.name));
-			
-			//TIMER
-			long PMstart=System.currentTimeMillis();
-			
-			updateParentMap(node, dag);
-			
-			//TIMER
-			ParentMapTotal += System.currentTimeMillis()-PMstart;
-		}
+		}));
 		
 		// TIMER
 		Log.info("First struct map runtime: " + (System.currentTimeMillis()-startTime)/1000.0 + " s");
 		startTime=System.currentTimeMillis();
 		
-		Log.info("BLOCK module runtime: " + moduleTime/1000.0 + " s");
-		Log.info("BLOCK label runtime: " + labelTime/1000.0 + " s");
-		Log.info("BLOCK dowhile runtime: " + dowhileTime/1000.0 + " s");
-		Log.info("BLOCK other runtime: " + otherTime/1000.0 + " s");
-		
-		Log.info("Parent map total runtime: " + ParentMapTotal/1000.0 + " s");
+		Log.info("BLOCK module runtime: " + moduleTime.get()/1000.0 + " s");
+		Log.info("BLOCK label runtime: " + labelTime.get()/1000.0 + " s");
+		Log.info("BLOCK dowhile runtime: " + dowhileTime.get()/1000.0 + " s");
+		Log.info("BLOCK other runtime: " + otherTime.get()/1000.0 + " s");
 		
 		//3. for each nested module or block, update exit points based on parents' exit points
-		// start with nodes with no parents (ancestor nodes)
-		Set<Node> no_parents = new HashSet<Node>();
-		Set<Node> previous_no_parents = new HashSet<Node>();
-		
-		// initialize node set with node has no parents (find out ancestor nodes)
-		no_parents.addAll(map_subgraphs.keySet()); // add all selectable nodes
-		no_parents.removeAll(map_parent.keySet()); // remove nodes that have parents
-
-//		Log.info("Analyze-update nested");
-		
-		//TIMER
-		ParentMapTotal=0;
-		
-		// update all nested subgraphs
-		// while set of no parent subgraphs changes
-		int count = 0;
-		while(count<100 && !(previous_no_parents.size() == no_parents.size() && previous_no_parents.containsAll(no_parents))) {
-			// for each subgraph with no parent
-			for(Node node : no_parents) {
-				// get children
-				AtlasSet<Node> children = Common.toQ(map_subgraphs.get(node).get(1)).nodesTaggedWithAny("STRUCT_SELECTABLE").eval().nodes();
-
-				// if no child, skip
-				if(children.size() < 1) {
-					continue;
-				}
-
-				// update child subgraph
-				for(Node child : children) {
-					updateChildExits(100, child, dag, cfg); //update child max 100 iterations
-				}
-
-			}
-			
-			//TIMER
-			long PMstart=System.currentTimeMillis();
-
-			// update parenthood map
-			map_parent.clear();
-			for(Node node : map_subgraphs.keySet()) {
-				// map_parent is updated in function updateParent()
-				updateParentMap(node, dag);
-			}
-			
-			//TIMER
-			ParentMapTotal += System.currentTimeMillis()-PMstart;
-
-			// update the two sets for comparison
-			previous_no_parents.clear();
-			previous_no_parents.addAll(no_parents);
-			no_parents.clear();
-			no_parents.addAll(map_subgraphs.keySet());
-			no_parents.removeAll(map_parent.keySet());
-
-			count++;
-		}
+		// a block is processed again only when the exits of its parent or its parent changed
+		// among the blocks containing a node, the innermost one is its parent (see NestingTree)
+		ExitPropagation propagation = context.propagateExits(map_subgraphs, map_parent, false);
+		context.worked(1);
 		
 		// TIMER
-		Log.info("Count " + count);
+		Log.info("Propagation steps " + propagation.steps() + (propagation.converged() ? "" : ", not converged"));
 		Log.info("Update child runtime: " + (System.currentTimeMillis()-startTime)/1000.0 + " s");
-		Log.info("Parent map total runtime: " + ParentMapTotal/1000.0 + " s");
-	}
-	
-	public static Map<Node, List<AtlasSet<Node>>> getMap(){
-		return map_subgraphs;
+		
+		// out of budget, the blocks so far are kept and the function is quarantined
+		boolean partial = budget != null && budget.exceeded() != null;
+		if(partial) {
+			Quarantine.add(context.function(), budget);
+		}
+		return new StructureResult(map_subgraphs, map_parent, propagation.steps(), propagation.converged(), partial);
 	}
 
 	public static AtlasSet<Node> getSelectable(Q cfg){
 		return cfg.nodesTaggedWithAll("STRUCT_SELECTABLE").eval().nodes();
 	}
-	
-	public static Map<Node, Node> getParentMap(){
-		return map_parent;
-	}
 //	
 	// edu.iastate.structured.core.GraphAnalyzer.analyzeAll("file/path/*.txt")
 	public static void analyzeAll(String path) throws IOException {
@@ -916,45 +518,45 @@ public class GraphAnalyzer {
 		// run DLI to tag all loops
 //		com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.recoverLoops();
 		
-		//		get all functions with labels
-		AtlasSet<Node> function_w_label = Common.universe().nodesTaggedWithAll("isLabel").containers().nodes(XCSG.Function).eval().nodes();
-		
-		int num = 0;
-		FileWriter writer = new FileWriter(file);
-		for(Node function: function_w_label) {
-			Q cfg = CommonQueries.cfg(Common.toQ(function));
-			
-			
-			map_subgraphs.clear();
-			map_parent.clear();
-			analyze(cfg);
-			
-			
-			for(Node label : map_subgraphs.keySet()) {
-				List<AtlasSet<Node>> l = map_subgraphs.get(label);
-				
-				if(l.get(0).size() > 1) {
-					writer.write(function.getAttr(XCSG.name) + ", " + label.getAttr(XCSG.name) + " || " + l.get(0).size() + "\n");
-					// mark up
-					Markup markup = new Markup();
-					markup.set(Common.toQ(l.get(1)), MarkupProperty.NODE_BACKGROUND_COLOR, Color.YELLOW.darker());
-					markup.set(Common.toQ(l.get(2)), MarkupProperty.NODE_BACKGROUND_COLOR, Color.CYAN);
-					markup.set(Common.toQ(l.get(0)), MarkupProperty.NODE_BACKGROUND_COLOR, Color.MAGENTA);
-					
-					// set file name
-					String sourceFile = getQualifiedFunctionName(function);
-					String methodName =  function.getAttr(XCSG.name).toString();
-					
-					// output CFG
-					saveDisplayCFG(cfg.eval(), num, sourceFile, methodName, markup, false);
-					num++;
+		final FileWriter writer = new FileWriter(file);
+		final int[] num = new int[1];
+		try {
+			// functions with labels are analyzed in parallel, rows and graphs are written in a fixed order
+			new BatchAnalyzer().run(FunctionCatalog.WITH_LABELS, new BatchAnalyzer.Analysis<StructureResult>() {
+				@Override
+				public StructureResult analyze(int index, Node function, Q cfg) {
+					return GraphAnalyzer.analyze(cfg);
 				}
-			}
-			
+			}, new BatchAnalyzer.Consumer<StructureResult>() {
+				@Override
+				public void accept(int index, Node function, StructureResult result) throws IOException {
+					Q cfg = CommonQueries.cfg(Common.toQ(function));
+					for(Node label : result.blocks().keySet()) {
+						List<AtlasSet<Node>> l = result.block(label);
+						
+						if(l.get(0).size() > 1) {
+							writer.write(function.getAttr(XCSG.name) + ", " + label.getAttr(XCSG.name) + " || " + l.get(0).size() + "\n");
+							// mark up
+							Markup markup = new Markup();
+							markup.set(Common.toQ(l.get(1)), MarkupProperty.NODE_BACKGROUND_COLOR, Color.YELLOW.darker());
+							markup.set(Common.toQ(l.get(2)), MarkupProperty.NODE_BACKGROUND_COLOR, Color.CYAN);
+							markup.set(Common.toQ(l.get(0)), MarkupProperty.NODE_BACKGROUND_COLOR, Color.MAGENTA);
+							
+							// set file name
+							String sourceFile = getQualifiedFunctionName(function);
+							String methodName =  function.getAttr(XCSG.name).toString();
+							
+							// output CFG
+							saveDisplayCFG(cfg.eval(), num[0], sourceFile, methodName, markup, false);
+							num[0]++;
+						}
+					}
+				}
+			});
+		}finally {
+			writer.close();
 		}
 		
-		writer.close();
-		
 	}
 	
 	public static void getParentGraph() throws IOException {
@@ -963,25 +565,51 @@ public class GraphAnalyzer {
 		// run DLI to tag all loops
 //		com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.recoverLoops();
 		
-		//		get all functions with labels
-		AtlasSet<Node> functionSet = Common.universe().nodes(XCSG.Function).eval().nodes();
+		final int[] num = new int[1];
+		// functions are analyzed in parallel, the parenthood edges are written by the consumer, one function at a time
+		new BatchAnalyzer().run(FunctionCatalog.ALL, new BatchAnalyzer.Analysis<StructureResult>() {
+			@Override
+			public StructureResult analyze(int index, Node function, Q cfg) {
+				Log.info("AT function " + function.getAttr(XCSG.name));
+				return GraphAnalyzer.analyze(cfg);
+			}
+		}, new BatchAnalyzer.Consumer<StructureResult>() {
+			@Override
+			public void accept(int index, Node function, StructureResult result) {
+				Graph parenthood = parenthood(CommonQueries.cfg(Common.toQ(function)), result.parents());
+				if(parenthood == null) {
+					return;
+				}
+				Q parenthoodQ = Common.toQ(parenthood);
+				Q edgeSet = parenthoodQ.retainEdges();
+				
+				Markup markup = new Markup();
+				markup.set(parenthoodQ.difference(edgeSet.retainNodes()), MarkupProperty.NODE_BACKGROUND_COLOR, Color.YELLOW);
+				
+				
+				// set file name
+				String sourceFile = getQualifiedFunctionName(function);
+				String methodName =  function.getAttr(XCSG.name).toString();
+						
+				// output CFG
+				saveDisplayCFG(parenthood, num[0], sourceFile, methodName, markup, false);
+				num[0]++;
+			}
+		});
+				
+	}
+	
+	/**
+	 * @return the selectable nodes of the cfg with an edge from the parent to each nested one, null if none is left without parent and child
+	 */
+	private static Graph parenthood(Q cfg, Map<Node, Node> map_parent) {
+		AtlasSet<Node> allSelectable = cfg.nodesTaggedWithAny("STRUCT_SELECTABLE").eval().nodes();
 		
-		int num = 0;
-		for(Node function: functionSet) {
-			Log.info("AT function " + function.getAttr(XCSG.name));
-			Q cfg = CommonQueries.cfg(Common.toQ(function));
-			
-			
-			map_subgraphs.clear();
-			map_parent.clear();
-			analyze(cfg);
-			
-			AtlasSet<Node> allSelectable = cfg.nodesTaggedWithAny("STRUCT_SELECTABLE").eval().nodes();
-			
-			AtlasSet<Edge> edgeSet = new AtlasHashSet<Edge>();
-			
-			AtlasSet<Node> nodeSet = new AtlasHashSet<Node>();
-			
+		AtlasSet<Edge> edgeSet = new AtlasHashSet<Edge>();
+		
+		AtlasSet<Node> nodeSet = new AtlasHashSet<Node>();
+		
+		synchronized(UniverseLock.WRITE) {
 			for(Node n : allSelectable) {
 				if(map_parent.keySet().contains(n)) {
 					Edge e = Graph.U.createEdge(map_parent.get(n), n);
@@ -990,29 +618,13 @@ public class GraphAnalyzer {
 					nodeSet.add(n);
 				}
 			}
-			
-			Q parenthood = Common.toQ(edgeSet).union(Common.toQ(nodeSet));
-			
-			if(Common.toQ(edgeSet).retainNodes().eval().nodes().size() == parenthood.eval().nodes().size()) {
-				continue;
-			}
-			
-			Markup markup = new Markup();
-			markup.set(Common.toQ(nodeSet).difference(Common.toQ(edgeSet).retainNodes()), MarkupProperty.NODE_BACKGROUND_COLOR, Color.YELLOW);
-			
-			
-			// set file name
-			String sourceFile = getQualifiedFunctionName(function);
-			String methodName =  function.getAttr(XCSG.name).toString();
-					
-			// output CFG
-			saveDisplayCFG(parenthood.eval(), num, sourceFile, methodName, markup, false);
-			num++;
-			
-			
 		}
-				
+		
+		Q parenthood = Common.toQ(edgeSet).union(Common.toQ(nodeSet));
+		
+		if(Common.toQ(edgeSet).retainNodes().eval().nodes().size() == parenthood.eval().nodes().size()) {
+			return null;
+		}
+		return parenthood.eval();
 	}
-
-
 }
@@ -0,0 +1,132 @@
+package edu.iastate.structured.core;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+
+import edu.iastate.structured.graph.CFGSnapshot;
+import edu.iastate.structured.graph.LoopForest;
+import edu.iastate.structured.log.Log;
+
+/**
+* Recovers the loops of one function at a time, instead of running DLI over the whole codemap.
+* <p>
+* The loops are found with a {@link LoopForest} on the CFG snapshot and written back with the tags the
+* analyses read after DLI: {@link XCSG#Loop} on the headers, NATURAL_LOOP or IRREDUCIBLE_LOOP next to
+* it, isDoWhileLoop on do-while headers, {@link XCSG#ControlFlowBackEdge} on the edges closing a cycle
+* left in the DAG and {@link XCSG#LoopChild} edges from a header to the nodes directly in its loop.
+* Loops already tagged by the indexer are kept as they are, only the missing ones are added.
+* Each function is recovered once per index: later calls only look up the function, so a smart view
+* pays for the loops of the functions it shows and nothing else. The index listener calls
+* {@link #invalidate()} when the codemap changes. The loops are found without any lock, the tags and
+* edges are written under the {@link UniverseLock}.
+*
+* @author Le Zhang
+*/
+public class LoopRecovery {
+	public static final String NATURAL_LOOP = "NATURAL_LOOP";
+	public static final String IRREDUCIBLE_LOOP = "IRREDUCIBLE_LOOP";
+	public static final String DO_WHILE_LOOP = "isDoWhileLoop";
+
+	// keyed by the CFG root, a CFG graph is a new object on every query
+	private static final ConcurrentHashMap<Node, Boolean> recovered = new ConcurrentHashMap<Node, Boolean>();
+	private static final ConcurrentHashMap<Node, Object> locks = new ConcurrentHashMap<Node, Object>();
+	private static volatile boolean universeRecovered = false;
+
+	private LoopRecovery() {}
+
+	/**
+	 * Recovers the loops of the function of the given CFG, unless done before in this session.
+	 * Two threads asking for the same function wait for one recovery, other functions are not blocked.
+	 * @param cfg the control flow graph of one function
+	 */
+	public static void recover(Graph cfg) {
+		if(universeRecovered) {
+			return;
+		}
+		Node root = root(cfg);
+		if(root == null || recovered.containsKey(root)) {
+			return;
+		}
+		// the lock of another thread may be removed at any time, the one put here is kept in hand
+		Object lock = new Object();
+		Object other = locks.putIfAbsent(root, lock);
+		if(other != null) {
+			lock = other;
+		}
+		synchronized(lock) {
+			if(!recovered.containsKey(root)) {
+				recoverFunction(cfg);
+				recovered.put(root, Boolean.TRUE);
+			}
+		}
+		locks.remove(root, lock);
+	}
+
+	/**
+	 * Marks every function as recovered, after DLI ran over the whole codemap.
+	 */
+	static void universeRecovered() {
+		universeRecovered = true;
+	}
+
+	/**
+	 * Forgets every recovery of this session, including the whole-codemap DLI run, when the index changes:
+	 * the new codemap has new nodes and none of the loop tags.
+	 */
+	public static void invalidate() {
+		Structured.forgetLoops();
+		universeRecovered = false;
+		recovered.clear();
+		locks.clear();
+	}
+
+	private static Node root(Graph cfg) {
+		for(Node node : cfg.nodes()) {
+			if(node.taggedWith(XCSG.controlFlowRoot)) {
+				return node;
+			}
+		}
+		return null;
+	}
+
+	private static void recoverFunction(Graph cfg) {
+		long startTime = System.currentTimeMillis();
+		CFGSnapshot g = CFGSnapshot.of(cfg);
+		LoopForest forest = LoopForest.of(g, CFGSnapshot.VIEW_CFG);
+
+		// cycles the indexer did not break with a back edge
+		BitSet back = g.isTopological() ? new BitSet() : LoopForest.of(g, CFGSnapshot.VIEW_DAG).backEdges();
+		BitSet headers = forest.headers();
+
+		// the forests are computed first, the universe is only locked to write them
+		int loops = 0;
+		synchronized(UniverseLock.WRITE) {
+			for(int i = back.nextSetBit(0); i >= 0; i = back.nextSetBit(i + 1)) {
+				g.succEdge(i).tag(XCSG.ControlFlowBackEdge);
+			}
+			for(int h = headers.nextSetBit(0); h >= 0; h = headers.nextSetBit(h + 1)) {
+				if(g.has(h, CFGSnapshot.TAG_LOOP)) {
+					continue;
+				}
+				Node header = g.node(h);
+				header.tag(XCSG.Loop);
+				header.tag(forest.type(h) == LoopForest.IRREDUCIBLE ? IRREDUCIBLE_LOOP : NATURAL_LOOP);
+				if(forest.isDoWhile(h)) {
+					header.tag(DO_WHILE_LOOP);
+				}
+				BitSet members = forest.members(h);
+				for(int v = members.nextSetBit(0); v >= 0; v = members.nextSetBit(v + 1)) {
+					Edge e = Graph.U.createEdge(header, g.node(v));
+					e.tag(XCSG.LoopChild);
+				}
+				loops++;
+			}
+		}
+		Log.info("Loop recovery: " + loops + " loops, " + back.cardinality() + " back edges, " + (System.currentTimeMillis() - startTime) / 1000.0 + " s");
+	}
+}
@@ -0,0 +1,206 @@
+package edu.iastate.structured.core;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.open.pcg.common.PCGFactory;
+
+import edu.iastate.structured.log.Log;
+
+/**
+* Keeps the PCGs built for a function and a seed set, so the reports asking for the PCG of the same
+* labels, gotos and exits build it once.
+* <p>
+* Entries are keyed by the function and the seed addresses in sorted order, hashed with 64 bit FNV-1a,
+* and weighted by the nodes and edges of their PCG. The least recently used entries are evicted once
+* the total weight is over the capacity, a PCG heavier than the whole capacity is built but not kept.
+* The cache is cleared when the codemap is re-indexed, see {@link edu.iastate.structured.Activator}.
+* Two threads missing on the same key may both build the PCG, the second one is dropped.
+*
+* Example Atlas Shell Usage:
+* edu.iastate.structured.core.PCGCache.shared().stats()
+*
+* @author Le Zhang
+*/
+public final class PCGCache {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private static final PCGCache shared = new PCGCache(VerificationProperties.getPCGCacheCapacity());
+
+	private final LinkedHashMap<Key, Graph> entries = new LinkedHashMap<Key, Graph>(16, 0.75f, true);
+	private long capacity;
+	private long weight = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param capacity the total nodes and edges of the kept PCGs, 0 to keep none
+	 */
+	public PCGCache(long capacity) {
+		this.capacity = Math.max(0, capacity);
+	}
+
+	/**
+	 * @return the cache of the reports, sized by the pcg_cache_capacity property
+	 */
+	public static PCGCache shared() {
+		return shared;
+	}
+
+	/**
+	 * @param function the function of the CFG
+	 * @param cfg the control flow graph of the function
+	 * @param seeds the event nodes of the PCG
+	 * @return the PCG of the seeds, from the cache if it was built before
+	 */
+	public Q pcg(Node function, Q cfg, AtlasSet<Node> seeds) {
+		Key key = new Key(function, seeds);
+		Graph pcg;
+		synchronized(this) {
+			pcg = entries.get(key);
+		}
+		if(pcg != null) {
+			hits.incrementAndGet();
+			return Common.toQ(pcg);
+		}
+		misses.incrementAndGet();
+		pcg = PCGFactory.create(cfg, Common.toQ(seeds)).getPCG().eval();
+		put(key, pcg);
+		return Common.toQ(pcg);
+	}
+
+	private synchronized void put(Key key, Graph pcg) {
+		long size = weight(pcg);
+		if(size > capacity || entries.containsKey(key)) {
+			return;
+		}
+		entries.put(key, pcg);
+		weight += size;
+		// least recently used first
+		Iterator<Map.Entry<Key, Graph>> iterator = entries.entrySet().iterator();
+		while(weight > capacity && iterator.hasNext()) {
+			Map.Entry<Key, Graph> eldest = iterator.next();
+			weight -= weight(eldest.getValue());
+			iterator.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	private static long weight(Graph pcg) {
+		return pcg.nodes().size() + pcg.edges().size() + 1;
+	}
+
+	/**
+	 * Drops every entry, the counters are kept.
+	 */
+	public synchronized void clear() {
+		if(!entries.isEmpty()) {
+			Log.info("PCG cache cleared: " + stats());
+		}
+		entries.clear();
+		weight = 0;
+	}
+
+	/**
+	 * Changes the capacity, evicting the least recently used entries if it shrinks.
+	 */
+	public synchronized void setCapacity(long capacity) {
+		this.capacity = Math.max(0, capacity);
+		Iterator<Map.Entry<Key, Graph>> iterator = entries.entrySet().iterator();
+		while(weight > this.capacity && iterator.hasNext()) {
+			weight -= weight(iterator.next().getValue());
+			iterator.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	public synchronized long capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the total nodes and edges of the kept PCGs
+	 */
+	public synchronized long weight() {
+		return weight;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public long hits() {
+		return hits.get();
+	}
+
+	public long misses() {
+		return misses.get();
+	}
+
+	public long evictions() {
+		return evictions.get();
+	}
+
+	public String stats() {
+		long h = hits();
+		long m = misses();
+		return size() + " PCGs, weight " + weight() + "/" + capacity() + ", " + h + " hits, " + m + " misses, " + evictions() + " evictions"
+				+ (h + m > 0 ? String.format(", hit rate %.1f%%", 100.0 * h / (h + m)) : "");
+	}
+
+	/**
+	 * A function and the sorted addresses of a seed set.
+	 */
+	private static final class Key {
+		final Node function;
+		final String[] seeds;
+		final int hash;
+
+		Key(Node function, AtlasSet<Node> seedSet) {
+			this.function = function;
+			this.seeds = new String[(int) seedSet.size()];
+			int i = 0;
+			for(Node seed : seedSet) {
+				seeds[i++] = seed.address().toAddressString();
+			}
+			Arrays.sort(seeds);
+			long h = FNV_OFFSET;
+			for(String seed : seeds) {
+				for(int c = 0; c < seed.length(); c++) {
+					h ^= seed.charAt(c);
+					h *= FNV_PRIME;
+				}
+				// separator, so {ab, c} and {a, bc} do not collide
+				h ^= 0xff;
+				h *= FNV_PRIME;
+			}
+			this.hash = 31 * function.hashCode() + (int) (h ^ (h >>> 32));
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return hash == other.hash && function.equals(other.function) && Arrays.equals(seeds, other.seeds);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package edu.iastate.structured.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.ensoftcorp.open.c.commons.analysis.CommonQueries;
+
+import edu.iastate.structured.log.Log;
+
+/**
+* Analyzes the call graph neighbours of the function shown in a smart view ahead of time, so the
+* callee or caller opened next is already in the {@link ViewCache}.
+* <p>
+* The neighbours are taken by call graph distance, callees before callers at the same distance, up
+* to the prefetch_neighbours property. They are analyzed one after the other in a single
+* {@link Job#DECORATE} job, which is canceled as soon as another function is shown. Two budgets bound
+* the work: functions with more CFG nodes than prefetch_max_nodes or in {@link Quarantine} are skipped,
+* and a result is only kept if it fits in the free capacity of the cache, so prefetching never evicts a
+* function that was actually shown.
+*
+* @author Le Zhang
+*/
+public final class Prefetcher {
+
+	/**
+	 * The analysis of a neighbour, run on the prefetch job.
+	 */
+	public interface Analysis {
+		/**
+		 * @param function the function to analyze
+		 * @param monitor the monitor of the job, checked between two blocks
+		 * @throws OperationCanceledException if the monitor was canceled
+		 */
+		StructureResult analyze(Node function, IProgressMonitor monitor);
+	}
+
+	private final String name;
+	private final Analysis analysis;
+	private PrefetchJob job;
+
+	/**
+	 * @param name the analysis, the key of its results in the {@link ViewCache}
+	 * @param analysis the analysis of one function
+	 */
+	public Prefetcher(String name, Analysis analysis) {
+		this.name = name;
+		this.analysis = analysis;
+	}
+
+	/**
+	 * Starts prefetching the neighbours of a function shown, unless it is already under way.
+	 * Prefetching for another function is canceled.
+	 */
+	public synchronized void shown(Node function) {
+		if(VerificationProperties.getPrefetchNeighbours() <= 0) {
+			return;
+		}
+		if(job != null) {
+			if(job.function.equals(function)) {
+				return;
+			}
+			job.cancel();
+		}
+		job = new PrefetchJob(function);
+		job.schedule();
+	}
+
+	/**
+	 * Cancels the prefetching, e.g. when the view moves to another function.
+	 */
+	public synchronized void cancel() {
+		if(job != null) {
+			job.cancel();
+			job = null;
+		}
+	}
+
+	/**
+	 * The nearest functions on the call graph, callees before callers at the same distance.
+	 * @param function the function
+	 * @param count the number of neighbours wanted
+	 * @return at most count functions, the function itself excluded
+	 */
+	public static List<Node> neighbours(Node function, int count) {
+		Q f = Common.toQ(function);
+		Q cg = CommonQueries.cg(f);
+		Q rcg = CommonQueries.rcg(f);
+		Set<Node> found = new LinkedHashSet<Node>();
+		found.add(function);
+		Q callees = f;
+		Q callers = f;
+		while(found.size() <= count) {
+			AtlasSet<Node> nextCallees = cg.successors(callees).nodes(XCSG.Function).eval().nodes();
+			AtlasSet<Node> nextCallers = rcg.predecessors(callers).nodes(XCSG.Function).eval().nodes();
+			boolean grown = add(found, nextCallees, count);
+			grown |= add(found, nextCallers, count);
+			if(!grown) {
+				break;
+			}
+			callees = Common.toQ(nextCallees);
+			callers = Common.toQ(nextCallers);
+		}
+		found.remove(function);
+		return new ArrayList<Node>(found);
+	}
+
+	private static boolean add(Set<Node> found, AtlasSet<Node> functions, int count) {
+		boolean grown = false;
+		for(Node n : functions) {
+			if(found.size() > count) {
+				break;
+			}
+			grown |= found.add(n);
+		}
+		return grown;
+	}
+
+	private synchronized void finished(PrefetchJob finished) {
+		if(job == finished) {
+			job = null;
+		}
+	}
+
+	/**
+	 * Analyzes the neighbours of one function into the view cache.
+	 */
+	private final class PrefetchJob extends Job {
+		private final Node function;
+
+		PrefetchJob(Node function) {
+			super("Prefetching the neighbours of " + function.getAttr(XCSG.name));
+			this.function = function;
+			setPriority(Job.DECORATE);
+			setSystem(true);
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			int prefetched = 0;
+			try {
+				FunctionCatalog catalog = FunctionCatalog.get();
+				int maxNodes = VerificationProperties.getPrefetchMaxNodes();
+				List<Node> neighbours = neighbours(function, VerificationProperties.getPrefetchNeighbours());
+				for(Node neighbour : neighbours) {
+					if(monitor.isCanceled()) {
+						return Status.CANCEL_STATUS;
+					}
+					int id = catalog.id(neighbour);
+					int nodes = id < 0 ? 0 : catalog.cfgNodes(id);
+					// over the budget of one function, out of its analysis budget before, or not fitting in the cache anyway
+					boolean quarantined = id >= 0 && Quarantine.contains(catalog.qualifiedName(id));
+					if(ViewCache.shared().contains(name, neighbour) || nodes > maxNodes || quarantined || nodes > ViewCache.shared().free()) {
+						continue;
+					}
+					// the analysis reports its own blocks, the job is a system job anyway
+					StructureResult result = analysis.analyze(neighbour, monitor);
+					if(ViewCache.shared().put(name, neighbour, result)) {
+						prefetched++;
+					}
+				}
+				return Status.OK_STATUS;
+			} catch (OperationCanceledException e) {
+				return Status.CANCEL_STATUS;
+			} finally {
+				if(prefetched > 0) {
+					Log.info(getName() + ": " + prefetched + " functions");
+				}
+				monitor.done();
+				finished(this);
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package edu.iastate.structured.core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+
+import edu.iastate.structured.log.Log;
+
+/**
+* The functions whose analysis ran out of its {@link AnalysisBudget}, kept in a file under the output
+* directory so they stay known across sessions. Batch runs schedule them last, see {@link BatchAnalyzer},
+* so a few pathological functions no longer hold the workers while the rest of the index waits.
+* <p>
+* The file has one line per budget exceeded: the qualified name of the function, the limit and the
+* milliseconds spent, separated by tabs. A function is in quarantine as long as one of its lines is in
+* the file, delete the lines (or the file) to give it a full analysis again, e.g. after raising the limits.
+*
+* @author Le Zhang
+*/
+public final class Quarantine {
+	private static Set<String> names;
+
+	private Quarantine() {}
+
+	/**
+	 * @return true if the analysis of the function exceeded its budget before
+	 */
+	public static boolean contains(Node function) {
+		return contains(GraphAnalyzer.getQualifiedFunctionName(function));
+	}
+
+	/**
+	 * @param qualifiedName see {@link GraphAnalyzer#getQualifiedFunctionName(Node)}
+	 */
+	public static synchronized boolean contains(String qualifiedName) {
+		return names().contains(qualifiedName);
+	}
+
+	/**
+	 * Records a function whose analysis exceeded its budget, appending it to the file.
+	 */
+	public static void add(Node function, AnalysisBudget budget) {
+		add(GraphAnalyzer.getQualifiedFunctionName(function), budget.exceeded(), budget.elapsedMillis());
+	}
+
+	/**
+	 * @param qualifiedName see {@link GraphAnalyzer#getQualifiedFunctionName(Node)}
+	 * @param limit the limit exceeded
+	 * @param elapsedMillis the time the analysis took
+	 */
+	public static synchronized void add(String qualifiedName, String limit, long elapsedMillis) {
+		Log.warning("Quarantined " + qualifiedName + ": " + limit + " exceeded after " + elapsedMillis / 1000.0 + " s, partial result");
+		names().add(qualifiedName);
+		Path file = VerificationProperties.getQuarantineFile();
+		if(file == null) {
+			return;
+		}
+		try {
+			Files.createDirectories(file.getParent());
+			BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			try {
+				writer.write(qualifiedName + "\t" + limit + "\t" + elapsedMillis + "\n");
+			}finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			Log.error("Cannot write the quarantine file " + file, e);
+		}
+	}
+
+	/**
+	 * Forgets the functions read so far, the file is read again on the next lookup.
+	 */
+	public static synchronized void reload() {
+		names = null;
+	}
+
+	private static Set<String> names() {
+		if(names == null) {
+			names = new HashSet<String>();
+			Path file = VerificationProperties.getQuarantineFile();
+			if(file != null && Files.isRegularFile(file)) {
+				try {
+					for(String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+						int tab = line.indexOf('\t');
+						String name = (tab < 0 ? line : line.substring(0, tab)).trim();
+						if(!name.isEmpty()) {
+							names.add(name);
+						}
+					}
+				} catch (IOException e) {
+					Log.error("Cannot read the quarantine file " + file, e);
+				}
+			}
+		}
+		return names;
+	}
+}
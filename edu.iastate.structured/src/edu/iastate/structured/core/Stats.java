@@ -27,108 +27,71 @@ public class Stats {
 		Q app = Common.universe().nodes(XCSG.Project);
 		AtlasSet<Node> functionSet = app.contained().nodes(XCSG.Function).eval().nodes();
 		
-		for(Node function: functionSet) {
-			Q cfgQ = CommonQueries.cfg(Common.toQ(function));
-			long nodesCfg = cfgQ.eval().nodes().size();
-			long edgesCfg = cfgQ.eval().edges().size();
-			
-			Q cg = CommonQueries.cg(Common.toQ(function));
-			Q rcg = CommonQueries.rcg(Common.toQ(function));
-			
-			long nodesCg = cg.eval().nodes().size();
-			long nodesRcg = rcg.eval().nodes().size();
-			
-			
-			AtlasSet<Node> selectable = cfgQ.nodesTaggedWithAny("isLabel", XCSG.Loop, XCSG.ControlFlowIfCondition, XCSG.ControlFlowSwitchCondition).eval().nodes();
-			long numCB = selectable.size();
-			
-			BufferedWriter br = new BufferedWriter(writer);
-			
-			br.write(function.getAttr(XCSG.name).toString() + "," + nodesCfg + "," + edgesCfg + "," + nodesCg + "," + nodesRcg + "," + numCB + "\n");
-			
-			br.flush();
+		BufferedWriter br = new BufferedWriter(writer);
+		try {
+			new BatchAnalyzer().run(functionSet, new BatchAnalyzer.Analysis<String>() {
+				@Override
+				public String analyze(int index, Node function, Q cfgQ) {
+					long nodesCfg = cfgQ.eval().nodes().size();
+					long edgesCfg = cfgQ.eval().edges().size();
+					
+					Q cg = CommonQueries.cg(Common.toQ(function));
+					Q rcg = CommonQueries.rcg(Common.toQ(function));
+					
+					long nodesCg = cg.eval().nodes().size();
+					long nodesRcg = rcg.eval().nodes().size();
+					
+					
+					AtlasSet<Node> selectable = cfgQ.nodesTaggedWithAny("isLabel", XCSG.Loop, XCSG.ControlFlowIfCondition, XCSG.ControlFlowSwitchCondition).eval().nodes();
+					long numCB = selectable.size();
+					
+					return function.getAttr(XCSG.name).toString() + "," + nodesCfg + "," + edgesCfg + "," + nodesCg + "," + nodesRcg + "," + numCB + "\n";
+				}
+			}, BatchAnalyzer.rows(br));
+		}finally {
+			br.close();
 		}
-		writer.close();
 	}
 	
 	public static void writeParentStats(String filePath) throws IOException {	
 		FileWriter writer = new FileWriter(new File(filePath), true);
-		writer.write("Function, #_of_CB, #_of_GOTO, #_of_outerBlock\n");
+		writer.write("Function, #_of_CB, #_of_GOTO, #_of_outerBlock, partial\n");
 		
 //		com.ensoftcorp.open.jimple.commons.loops.DecompiledLoopIdentification.recoverLoops();
 		//		get all functions with labels
 		Q app = Common.universe().nodes(XCSG.Project);
 		AtlasSet<Node> functionSet = app.contained().nodes(XCSG.Function).eval().nodes();
 		
-		
-		long cnt = 0;
-		for(Node function: functionSet) {
-			cnt ++;
-			Log.info(cnt +  " | " + function.getAttr(XCSG.name).toString());
-			
-			if(cnt < 0) {
-				continue;
-			}
-			
-//			if(
-//					function.getAttr(XCSG.name).toString().contains("ip2name")
-//					||function.getAttr(XCSG.name).toString().contains("x_route")
-//					||function.getAttr(XCSG.name).toString().contains("setpath")
-//					||function.getAttr(XCSG.name).toString().contains("pcreate")
-//					||function.getAttr(XCSG.name).toString().contains("adump")
-//					||function.getAttr(XCSG.name).toString().contains("x_echo")
-//					||function.getAttr(XCSG.name).toString().contains("x_creat")
-//					||function.getAttr(XCSG.name).toString().contains("bpdump")
-//					||function.getAttr(XCSG.name).toString().contains("ibput")
-//					||function.getAttr(XCSG.name).toString().contains("dgalloc")
-//					||function.getAttr(XCSG.name).toString().contains("rfdump")
-//					||function.getAttr(XCSG.name).toString().contains("sysinit")
-//					||function.getAttr(XCSG.name).toString().contains("x_cat")
-//					||function.getAttr(XCSG.name).toString().contains("rwhod")
-//					||function.getAttr(XCSG.name).toString().contains("rwhoind")
-//					||function.getAttr(XCSG.name).toString().contains("sndrarp")
-//					||function.getAttr(XCSG.name).toString().contains("tqdump")
-//					||function.getAttr(XCSG.name).toString().contains("dgdump")
-//					||function.getAttr(XCSG.name).toString().contains("dskqopt")
-//					||function.getAttr(XCSG.name).toString().contains("ttyread")
-//					||function.getAttr(XCSG.name).toString().contains("ethstrt")
-//					) {
-////				flag = true;
-//				writer.write(function.getAttr(XCSG.name).toString() + "," + "\n");
-//				continue;
-//			}
-			
-//			if (!flag) {
-//				continue;
-//			}
-			
-			Q cfgQ = CommonQueries.cfg(Common.toQ(function));
-			
-			Structured.analyze(cfgQ.eval());
-			
-			Map<Node, Node> map_parent = Structured.getParentMap(cfgQ.eval());
-			
-			AtlasSet<Node> allSelectable = cfgQ.nodesTaggedWithAny("isLabel", XCSG.Loop, XCSG.ControlFlowIfCondition, XCSG.ControlFlowSwitchCondition).eval().nodes();
-			
-			
-			long cntOuterBlock = 0;
-			
-			for(Node n : allSelectable) {
-				if(!map_parent.keySet().contains(n)) {
-					cntOuterBlock ++;
+		BufferedWriter br = new BufferedWriter(writer);
+		try {
+			new BatchAnalyzer().run(functionSet, new BatchAnalyzer.Analysis<String>() {
+				@Override
+				public String analyze(int index, Node function, Q cfgQ) {
+					Log.info((index + 1) +  " | " + function.getAttr(XCSG.name).toString());
+					
+					StructureResult result = Structured.analyze(cfgQ.eval());
+					// out of budget, the counts are of the blocks extracted so far
+					Map<Node, Node> map_parent = result.parents();
+					
+					AtlasSet<Node> allSelectable = cfgQ.nodesTaggedWithAny("isLabel", XCSG.Loop, XCSG.ControlFlowIfCondition, XCSG.ControlFlowSwitchCondition).eval().nodes();
+					
+					
+					long cntOuterBlock = 0;
+					
+					for(Node n : allSelectable) {
+						if(!map_parent.keySet().contains(n)) {
+							cntOuterBlock ++;
+						}
+					}
+					
+					long cntGoto = cfgQ.nodes(XCSG.GotoStatement).eval().nodes().size();
+					
+					return function.getAttr(XCSG.name).toString() + "," + allSelectable.size() + "," + cntGoto + "," + cntOuterBlock + "," + result.partial() + "\n";
 				}
-			}
-			
-			long cntGoto = cfgQ.nodes(XCSG.GotoStatement).eval().nodes().size();
-			
-			BufferedWriter br = new BufferedWriter(writer);			
-			
-			br.write(function.getAttr(XCSG.name).toString() + "," + allSelectable.size() + "," + cntGoto + "," + cntOuterBlock + "\n");
-
-			br.flush();
-			
+			}, BatchAnalyzer.rows(br));
+		}finally {
+			br.close();
 		}
-		writer.close();
 	}
 
 
@@ -0,0 +1,147 @@
+package edu.iastate.structured.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+
+/**
+* The blocks of one function and how they nest, as returned by analyze().
+* The result is immutable and owns its maps, so results of several functions can be kept and read
+* from several threads at once. The node sets inside the blocks are shared with the caller and must
+* not be modified.
+*
+* @author Le Zhang
+*/
+public final class StructureResult {
+	private final Map<Node, List<AtlasSet<Node>>> blocks; // format: <Node selectable, List<entry, body, exit> >
+	private final Map<Node, Node> parents; // format: <ChildNode, ParentNode>
+	private final Map<Node, Integer> depths;
+	private final long propagationSteps;
+	private final boolean converged;
+	private final boolean partial;
+
+	/**
+	 * A result without exit propagation.
+	 * @param blocks the [entry, body, exit] list of every selectable node, copied
+	 * @param parents the child to parent map, copied
+	 */
+	public StructureResult(Map<Node, List<AtlasSet<Node>>> blocks, Map<Node, Node> parents) {
+		this(blocks, parents, 0, true);
+	}
+
+	/**
+	 * @param blocks the [entry, body, exit] list of every selectable node, copied
+	 * @param parents the child to parent map, copied
+	 * @param propagationSteps number of blocks processed while cutting nested blocks at the exits of their parents
+	 * @param converged false if the propagation stopped at its step limit
+	 */
+	public StructureResult(Map<Node, List<AtlasSet<Node>>> blocks, Map<Node, Node> parents, long propagationSteps, boolean converged) {
+		this(blocks, parents, propagationSteps, converged, false);
+	}
+
+	/**
+	 * @param blocks the [entry, body, exit] list of every selectable node, copied
+	 * @param parents the child to parent map, copied
+	 * @param propagationSteps number of blocks processed while cutting nested blocks at the exits of their parents
+	 * @param converged false if the propagation stopped at its step limit
+	 * @param partial true if the analysis ran out of its {@link AnalysisBudget} before every block was extracted
+	 */
+	public StructureResult(Map<Node, List<AtlasSet<Node>>> blocks, Map<Node, Node> parents, long propagationSteps, boolean converged, boolean partial) {
+		Map<Node, List<AtlasSet<Node>>> blockCopy = new LinkedHashMap<Node, List<AtlasSet<Node>>>();
+		for(Map.Entry<Node, List<AtlasSet<Node>>> entry : blocks.entrySet()) {
+			blockCopy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<AtlasSet<Node>>(entry.getValue())));
+		}
+		this.blocks = Collections.unmodifiableMap(blockCopy);
+		this.parents = Collections.unmodifiableMap(new HashMap<Node, Node>(parents));
+		this.depths = Collections.unmodifiableMap(depths(blockCopy.keySet(), this.parents));
+		this.propagationSteps = propagationSteps;
+		this.converged = converged;
+		this.partial = partial;
+	}
+
+	/**
+	 * Number of ancestors of every node, 0 for the outermost blocks.
+	 * A parent chain that runs into a cycle is cut where the cycle closes.
+	 */
+	private static Map<Node, Integer> depths(Set<Node> nodes, Map<Node, Node> parents) {
+		Map<Node, Integer> depths = new HashMap<Node, Integer>();
+		List<Node> chain = new ArrayList<Node>();
+		for(Node node : nodes) {
+			chain.clear();
+			Node current = node;
+			while(current != null && !depths.containsKey(current) && !chain.contains(current)) {
+				chain.add(current);
+				current = parents.get(current);
+			}
+			int depth = current != null && depths.containsKey(current) ? depths.get(current) + 1 : 0;
+			for(int i = chain.size() - 1; i >= 0; i--) {
+				depths.put(chain.get(i), depth++);
+			}
+		}
+		return depths;
+	}
+
+	/**
+	 * @return every selectable node with its [entry, body, exit] list
+	 */
+	public Map<Node, List<AtlasSet<Node>>> blocks() {
+		return blocks;
+	}
+
+	/**
+	 * @return the [entry, body, exit] list of the node, null if it is not selectable
+	 */
+	public List<AtlasSet<Node>> block(Node node) {
+		return blocks.get(node);
+	}
+
+	/**
+	 * @return the child to parent map
+	 */
+	public Map<Node, Node> parents() {
+		return parents;
+	}
+
+	/**
+	 * @return the innermost block containing the node, null for an outermost block
+	 */
+	public Node parent(Node node) {
+		return parents.get(node);
+	}
+
+	/**
+	 * @return the nesting depth of a selectable node, 0 for an outermost block, -1 if not selectable
+	 */
+	public int depth(Node node) {
+		Integer depth = depths.get(node);
+		return depth == null ? -1 : depth;
+	}
+
+	/**
+	 * @return number of blocks processed by the exit propagation, 0 if there was none
+	 */
+	public long propagationSteps() {
+		return propagationSteps;
+	}
+
+	/**
+	 * @return false if the exit propagation stopped before reaching a fixed point, the blocks may then be too large
+	 */
+	public boolean converged() {
+		return converged;
+	}
+
+	/**
+	 * @return true if the analysis stopped at its {@link AnalysisBudget}, selectable nodes may then have no block
+	 */
+	public boolean partial() {
+		return partial;
+	}
+}
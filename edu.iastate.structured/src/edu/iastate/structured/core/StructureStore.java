@@ -0,0 +1,360 @@
+package edu.iastate.structured.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+
+import edu.iastate.structured.log.Log;
+
+/**
+* Keeps the {@link StructureResult} of every analyzed function on disk, so a function analyzed in an
+* earlier session is read back instead of analyzed again.
+* <p>
+* There is one file per function, named after its name and source location. The file starts with a
+* fingerprint of the CFG: the addresses, names, indexer tags and loop tags of the nodes and the conditions
+* and back edge tags of the edges, hashed in address order. The key is computed after {@link LoopRecovery},
+* so the loops and back edges it adds are part of the fingerprint of every session, and a result stored
+* after a whole-codemap DLI run is not read back where the loops were recovered differently. A file whose fingerprint does not
+* match the current CFG is stale, it is ignored and overwritten by the next analysis. Nodes are written as
+* their position in address order, so reading an entry back is a walk over an int array, without any
+* query on the blocks. The store writes nothing to the universe, the callers tag the selectable nodes of
+* a function whether its result is read back or analyzed.
+* <p>
+* Files are read whole into a heap buffer, no mapping is left open, and written to a temporary file
+* first, then moved in place, so a reader never sees half an entry.
+*
+* @author Le Zhang
+*/
+public class StructureStore {
+	private static final int MAGIC = 0x53545243; // "STRC"
+	private static final int VERSION = 3;
+
+	// 64 bit FNV-1a
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	// node tags written by the indexer and the loop recovery that the analyses read, the loop tags
+	// decide which nodes get a block and which extractor builds it
+	private static final String[] FINGERPRINT_TAGS = { "isLabel", XCSG.ControlFlowCondition, XCSG.ControlFlowIfCondition,
+			XCSG.ControlFlowSwitchCondition, XCSG.ControlFlowLoopCondition, XCSG.CaseLabel, XCSG.Break,
+			XCSG.GotoStatement, XCSG.controlFlowExitPoint, XCSG.Loop, "isDoWhileLoop" };
+
+	private static StructureStore structured;
+	private static StructureStore graphAnalyzer;
+	private static boolean resolved = false;
+
+	private final Path directory;
+
+	/**
+	 * @param directory where the entries are kept, created on the first write
+	 */
+	public StructureStore(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the store of {@link Structured#analyze(Graph)}, null if the structure cache is turned off
+	 */
+	public static synchronized StructureStore structured() {
+		resolve();
+		return structured;
+	}
+
+	/**
+	 * @return the store of {@link GraphAnalyzer#analyze(com.ensoftcorp.atlas.core.query.Q)}, null if the structure cache is turned off
+	 */
+	public static synchronized StructureStore graphAnalyzer() {
+		resolve();
+		return graphAnalyzer;
+	}
+
+	// the two analyses propagate exits differently, their results are kept apart
+	private static void resolve() {
+		if(!resolved) {
+			Path cache = VerificationProperties.getStructureCacheDirectory();
+			structured = cache == null ? null : new StructureStore(cache.resolve("structured"));
+			graphAnalyzer = cache == null ? null : new StructureStore(cache.resolve("graph"));
+			resolved = true;
+		}
+	}
+
+	/**
+	 * Identifies one function and the current state of its CFG.
+	 */
+	public static final class Key {
+		private final String function;
+		private final long fingerprint;
+		private final Node[] nodes; // in address order
+		private final Map<Node, Integer> positions;
+
+		private Key(String function, long fingerprint, Node[] nodes, Map<Node, Integer> positions) {
+			this.function = function;
+			this.fingerprint = fingerprint;
+			this.nodes = nodes;
+			this.positions = positions;
+		}
+
+		public String function() {
+			return function;
+		}
+
+		public long fingerprint() {
+			return fingerprint;
+		}
+	}
+
+	/**
+	 * Computes the key of a control flow graph. This reads every node and edge once, the only query is
+	 * the one finding the function of the CFG. Call it after {@link LoopRecovery#recover(Graph)}.
+	 * @param cfg the control flow graph of one function
+	 * @return the key, null if the CFG is not in a function
+	 */
+	public Key key(Graph cfg) {
+		Node function = Common.toQ(cfg).containers().nodes(XCSG.Function).eval().nodes().one();
+		if(function == null) {
+			return null;
+		}
+		return key(function, cfg);
+	}
+
+	/**
+	 * @param function the function
+	 * @param cfg the control flow graph of the function
+	 * @return the key
+	 */
+	public Key key(Node function, Graph cfg) {
+		String name = function.getAttr(XCSG.name) + "@" + function.getAttr(XCSG.sourceCorrespondence);
+
+		int n = (int) cfg.nodes().size();
+		Node[] nodes = new Node[n];
+		final String[] addresses = new String[n];
+		Integer[] sorted = new Integer[n];
+		int i = 0;
+		for(Node node : cfg.nodes()) {
+			nodes[i] = node;
+			addresses[i] = node.address().toAddressString();
+			sorted[i] = i;
+			i++;
+		}
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return addresses[a].compareTo(addresses[b]);
+			}
+		});
+
+		Node[] ordered = new Node[n];
+		Map<Node, Integer> positions = new HashMap<Node, Integer>(n * 2);
+		long hash = FNV_OFFSET;
+		hash = hash(hash, n);
+		for(int p = 0; p < n; p++) {
+			Node node = nodes[sorted[p]];
+			ordered[p] = node;
+			positions.put(node, p);
+			hash = hash(hash, addresses[sorted[p]]);
+			hash = hash(hash, String.valueOf(node.getAttr(XCSG.name)));
+			int tags = 0;
+			for(int t = 0; t < FINGERPRINT_TAGS.length; t++) {
+				if(node.taggedWith(FINGERPRINT_TAGS[t])) {
+					tags |= 1 << t;
+				}
+			}
+			hash = hash(hash, tags);
+		}
+
+		// edges in a fixed order: source, target, condition value, back edge
+		List<long[]> edges = new ArrayList<long[]>();
+		for(Edge e : cfg.edges()) {
+			Integer from = positions.get(e.from());
+			Integer to = positions.get(e.to());
+			if(from != null && to != null) {
+				Object condition = e.getAttr(XCSG.conditionValue);
+				long value = condition == null ? 0 : hash(FNV_OFFSET, condition.toString());
+				edges.add(new long[] { from, to, value, e.taggedWith(XCSG.ControlFlowBackEdge) ? 1 : 0 });
+			}
+		}
+		Collections.sort(edges, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				for(int k = 0; k < 4; k++) {
+					if(a[k] != b[k]) {
+						return Long.compare(a[k], b[k]);
+					}
+				}
+				return 0;
+			}
+		});
+		hash = hash(hash, edges.size());
+		for(long[] e : edges) {
+			hash = hash(hash, e[0]);
+			hash = hash(hash, e[1]);
+			hash = hash(hash, e[2]);
+			hash = hash(hash, e[3]);
+		}
+		return new Key(name, hash, ordered, positions);
+	}
+
+	/**
+	 * @return the stored result of the key, null if there is none or it was written for another version of the CFG
+	 */
+	public StructureResult load(Key key) {
+		Path file = file(key);
+		if(!Files.isRegularFile(file)) {
+			return null;
+		}
+		try {
+			// a plain read, a mapped file could not be replaced on Windows until the mapping is collected
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+			if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != key.fingerprint) {
+				return null;
+			}
+			int length = buffer.getInt();
+			if(length < 0 || length > buffer.remaining()) {
+				return null;
+			}
+			byte[] name = new byte[length];
+			buffer.get(name);
+			if(!key.function.equals(new String(name, StandardCharsets.UTF_8)) || buffer.getInt() != key.nodes.length) {
+				return null;
+			}
+
+			int blockCount = buffer.getInt();
+			Map<Node, List<AtlasSet<Node>>> blocks = new LinkedHashMap<Node, List<AtlasSet<Node>>>(blockCount * 2);
+			for(int b = 0; b < blockCount; b++) {
+				Node node = key.nodes[buffer.getInt()];
+				int sets = buffer.getInt();
+				List<AtlasSet<Node>> list = new ArrayList<AtlasSet<Node>>(sets);
+				for(int s = 0; s < sets; s++) {
+					int size = buffer.getInt();
+					AtlasSet<Node> set = new AtlasHashSet<Node>(size);
+					for(int i = 0; i < size; i++) {
+						set.add(key.nodes[buffer.getInt()]);
+					}
+					list.add(set);
+				}
+				blocks.put(node, list);
+			}
+
+			int parentCount = buffer.getInt();
+			Map<Node, Node> parents = new HashMap<Node, Node>(parentCount * 2);
+			for(int i = 0; i < parentCount; i++) {
+				Node child = key.nodes[buffer.getInt()];
+				parents.put(child, key.nodes[buffer.getInt()]);
+			}
+			long steps = buffer.getLong();
+			boolean converged = buffer.get() != 0;
+			return new StructureResult(blocks, parents, steps, converged);
+		}catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+			Log.warning("Ignoring unreadable structure cache entry " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the result of the key, replacing any older entry of the function.
+	 * A failed write is logged, the result is then simply not cached.
+	 */
+	public void save(Key key, StructureResult result) {
+		Path file = file(key);
+		Path tmp = null;
+		try {
+			Files.createDirectories(directory);
+			tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(key.fingerprint);
+				byte[] name = key.function.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(name.length);
+				out.write(name);
+				out.writeInt(key.nodes.length);
+
+				out.writeInt(result.blocks().size());
+				for(Map.Entry<Node, List<AtlasSet<Node>>> entry : result.blocks().entrySet()) {
+					out.writeInt(position(key, entry.getKey()));
+					out.writeInt(entry.getValue().size());
+					for(AtlasSet<Node> set : entry.getValue()) {
+						out.writeInt((int) set.size());
+						for(Node node : set) {
+							out.writeInt(position(key, node));
+						}
+					}
+				}
+
+				out.writeInt(result.parents().size());
+				for(Map.Entry<Node, Node> entry : result.parents().entrySet()) {
+					out.writeInt(position(key, entry.getKey()));
+					out.writeInt(position(key, entry.getValue()));
+				}
+				out.writeLong(result.propagationSteps());
+				out.writeByte(result.converged() ? 1 : 0);
+			}
+			try {
+				Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+			tmp = null;
+		}catch (IOException | IllegalArgumentException e) {
+			Log.warning("Cannot write structure cache entry " + file, e);
+		}finally {
+			if(tmp != null) {
+				try {
+					Files.deleteIfExists(tmp);
+				}catch (IOException e) {}
+			}
+		}
+	}
+
+	private static int position(Key key, Node node) {
+		Integer position = key.positions.get(node);
+		if(position == null) {
+			throw new IllegalArgumentException("Node outside of the CFG of " + key.function);
+		}
+		return position;
+	}
+
+	private Path file(Key key) {
+		return directory.resolve(String.format("%016x.bin", hash(FNV_OFFSET, key.function)));
+	}
+
+	private static long hash(long hash, long value) {
+		for(int i = 0; i < 8; i++) {
+			hash ^= (value >>> (i * 8)) & 0xff;
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	private static long hash(long hash, String value) {
+		hash = hash(hash, value.length());
+		for(int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,22 @@
+package edu.iastate.structured.core;
+
+/**
+* The one lock behind which the analyses write tags and edges to the Atlas universe.
+* <p>
+* Functions are analyzed from several threads at once: the batch workers, the prefetch and warm-up
+* jobs and the analysis jobs of the views. Nothing in Atlas says concurrent writes to Graph.U are safe,
+* so every tag, untag and edge written by an analysis happens inside synchronized(UniverseLock.WRITE).
+* The writes are short, the analyses compute what to write first and take the lock only to write it.
+* Reads are not locked.
+*
+* @author Le Zhang
+*/
+public final class UniverseLock {
+
+	/**
+	 * Held while writing to the universe.
+	 */
+	public static final Object WRITE = new Object();
+
+	private UniverseLock() {}
+}
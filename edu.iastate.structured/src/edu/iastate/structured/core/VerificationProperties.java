@@ -6,6 +6,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Properties;
 
+import edu.iastate.structured.graph.ReachabilityIndex;
+import edu.iastate.structured.log.Log;
+
 
 public class VerificationProperties {
     
@@ -15,6 +18,32 @@ public class VerificationProperties {
 
     private static Path GOTO_GRAPHS_OUTPUT_DIRECTORY_PATH;
     
+    private static int REACHABILITY_INDEX_MAX_NODES = ReachabilityIndex.DEFAULT_MAX_NODES;
+    
+    private static int BATCH_PARALLELISM = 0;
+    
+    private static Path STRUCTURE_CACHE_DIRECTORY_PATH;
+    
+    private static long PCG_CACHE_CAPACITY = 2000000;
+    
+    private static int PARALLEL_EXTRACTION_MIN_NODES = 5000;
+    
+    private static int PARALLEL_PROPAGATION_MIN_BLOCKS = 128;
+    
+    private static long VIEW_CACHE_CAPACITY = 500000;
+    
+    private static int PREFETCH_NEIGHBOURS = 0;
+    
+    private static int PREFETCH_MAX_NODES = 2000;
+    
+    private static boolean WARM_UP = false;
+    
+    private static long ANALYSIS_DEADLINE_MILLIS = 0;
+    
+    private static long ANALYSIS_MAX_ALLOCATED_MB = 0;
+    
+    private static Path QUARANTINE_FILE_PATH;
+    
     
     static{
         Properties properties = new Properties();
@@ -28,12 +57,70 @@ public class VerificationProperties {
             GRAPH_IMAGE_FILENAME_EXTENSION = properties.getProperty("graph_image_filename_extension");
             
             GOTO_GRAPHS_OUTPUT_DIRECTORY_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), properties.getProperty("goto_graphs_output_directory_name"));
+            
+            REACHABILITY_INDEX_MAX_NODES = intProperty(properties, "reachability_index_max_nodes", REACHABILITY_INDEX_MAX_NODES);
+            
+            BATCH_PARALLELISM = intProperty(properties, "batch_parallelism", BATCH_PARALLELISM);
+            
+            String cacheDirectoryName = properties.getProperty("structure_cache_directory_name", "").trim();
+            if(!cacheDirectoryName.isEmpty()) {
+                STRUCTURE_CACHE_DIRECTORY_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), cacheDirectoryName);
+            }
+            
+            PCG_CACHE_CAPACITY = longProperty(properties, "pcg_cache_capacity", PCG_CACHE_CAPACITY);
+            
+            PARALLEL_EXTRACTION_MIN_NODES = intProperty(properties, "parallel_extraction_min_nodes", PARALLEL_EXTRACTION_MIN_NODES);
+            
+            PARALLEL_PROPAGATION_MIN_BLOCKS = intProperty(properties, "parallel_propagation_min_blocks", PARALLEL_PROPAGATION_MIN_BLOCKS);
+            
+            VIEW_CACHE_CAPACITY = longProperty(properties, "view_cache_capacity", VIEW_CACHE_CAPACITY);
+            
+            PREFETCH_NEIGHBOURS = intProperty(properties, "prefetch_neighbours", PREFETCH_NEIGHBOURS);
+            
+            PREFETCH_MAX_NODES = intProperty(properties, "prefetch_max_nodes", PREFETCH_MAX_NODES);
+            
+            WARM_UP = Boolean.parseBoolean(properties.getProperty("warm_up", String.valueOf(WARM_UP)).trim());
+            
+            ANALYSIS_DEADLINE_MILLIS = longProperty(properties, "analysis_deadline_ms", ANALYSIS_DEADLINE_MILLIS);
+            
+            ANALYSIS_MAX_ALLOCATED_MB = longProperty(properties, "analysis_max_allocated_mb", ANALYSIS_MAX_ALLOCATED_MB);
+            
+            String quarantineFileName = properties.getProperty("quarantine_file_name", "").trim();
+            if(!quarantineFileName.isEmpty()) {
+                QUARANTINE_FILE_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), quarantineFileName);
+            }
         
         } catch (IOException e) {
             System.err.println("Cannot locate the properties file.");
         }
     }
     
+    /**
+     * @return the integer value of the key, the default if the key is missing or not a number
+     */
+    private static int intProperty(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key, String.valueOf(defaultValue)).trim();
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            Log.warning("Property " + key + "=" + value + " is not a number, using " + defaultValue);
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * @return the long value of the key, the default if the key is missing or not a number
+     */
+    private static long longProperty(Properties properties, String key, long defaultValue) {
+        String value = properties.getProperty(key, String.valueOf(defaultValue)).trim();
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            Log.warning("Property " + key + "=" + value + " is not a number, using " + defaultValue);
+            return defaultValue;
+        }
+    }
+    
     
     public static Path getOutputDirectory(){
         return OUTPUT_DIRECTORY;
@@ -52,6 +139,97 @@ public class VerificationProperties {
         return GOTO_GRAPHS_OUTPUT_DIRECTORY_PATH;
     }
     
+    /**
+     * @return functions with more CFG nodes answer reachability on demand instead of precomputing it
+     */
+    public static int getReachabilityIndexMaxNodes(){
+        return REACHABILITY_INDEX_MAX_NODES;
+    }
+    
+    /**
+     * @return number of threads of the batch reports, 0 for all processors
+     */
+    public static int getBatchParallelism(){
+        return BATCH_PARALLELISM;
+    }
+    
+    /**
+     * @return the directory of the persistent structure results, null if they are not kept
+     */
+    public static Path getStructureCacheDirectory(){
+        return STRUCTURE_CACHE_DIRECTORY_PATH;
+    }
+    
+    /**
+     * @return total nodes and edges of the PCGs kept by the {@link PCGCache}, 0 to keep none
+     */
+    public static long getPCGCacheCapacity(){
+        return PCG_CACHE_CAPACITY;
+    }
+    
+    /**
+     * @return functions with at least this many CFG nodes extract their blocks in parallel, 0 for never
+     */
+    public static int getParallelExtractionMinNodes(){
+        return PARALLEL_EXTRACTION_MIN_NODES;
+    }
+    
+    /**
+     * @return functions with at least this many blocks propagate the exits of independent blocks in parallel, 0 for never
+     */
+    public static int getParallelPropagationMinBlocks(){
+        return PARALLEL_PROPAGATION_MIN_BLOCKS;
+    }
+    
+    /**
+     * @return total weight of the functions kept by the {@link ViewCache} of the smart views, 0 to keep none
+     */
+    public static long getViewCacheCapacity(){
+        return VIEW_CACHE_CAPACITY;
+    }
+    
+    /**
+     * @return number of call graph neighbours of a shown function analyzed ahead of time, 0 for none
+     */
+    public static int getPrefetchNeighbours(){
+        return PREFETCH_NEIGHBOURS;
+    }
+    
+    /**
+     * @return neighbours with more CFG nodes are not prefetched
+     */
+    public static int getPrefetchMaxNodes(){
+        return PREFETCH_MAX_NODES;
+    }
+    
+    /**
+     * @return true to analyze every function of the index in the background after indexing, see {@link WarmUp}
+     */
+    public static boolean isWarmUp(){
+        return WARM_UP;
+    }
+    
+    /**
+     * @return milliseconds one analysis of a function may run before it returns a partial result, 0 for no limit
+     */
+    public static long getAnalysisDeadlineMillis(){
+        return ANALYSIS_DEADLINE_MILLIS;
+    }
+    
+    /**
+     * @return bytes one analysis of a function may allocate before it returns a partial result, 0 for no limit; the analysis then runs on one thread
+     */
+    public static long getAnalysisMaxAllocatedBytes(){
+        return ANALYSIS_MAX_ALLOCATED_MB * 1024 * 1024;
+    }
+    
+    /**
+     * @return the file listing the functions that exceeded their budget, see {@link Quarantine}, null to keep them in memory only
+     */
+    public static Path getQuarantineFile(){
+        return QUARANTINE_FILE_PATH;
+    }
+    
 
 }
 
@@ -0,0 +1,308 @@
+package edu.iastate.structured.core;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.markup.Markup;
+
+import edu.iastate.structured.log.Log;
+
+/**
+* Keeps what the smart views computed for the functions they showed: the structure result, the
+* parenthood overlay and the markup of every selectable node clicked, so going back to a function or a
+* block does not run the analysis or rebuild the markup again.
+* <p>
+* The cache is shared by all views. Entries are keyed by the analysis that produced them and the
+* function, so views running the same analysis share the result. An entry weighs the nodes of its
+* blocks plus its parents, the overlay and every markup add the size of what they show when they are
+* built. The least recently used functions are evicted once the total weight is over the capacity.
+* The cache is cleared when the codemap is re-indexed, see {@link edu.iastate.structured.Activator}.
+*
+* Example Atlas Shell Usage:
+* edu.iastate.structured.core.ViewCache.shared().stats()
+*
+* @author Le Zhang
+*/
+public final class ViewCache {
+
+	/**
+	 * Builds a value of an entry the first time it is asked for.
+	 */
+	public interface Factory<T> {
+		T create();
+	}
+
+	private static final ViewCache shared = new ViewCache(VerificationProperties.getViewCacheCapacity());
+
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	private long capacity;
+	private long weight = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param capacity the total weight of the kept functions, 0 to keep none
+	 */
+	public ViewCache(long capacity) {
+		this.capacity = Math.max(0, capacity);
+	}
+
+	/**
+	 * @return the cache of the smart views, sized by the view_cache_capacity property
+	 */
+	public static ViewCache shared() {
+		return shared;
+	}
+
+	/**
+	 * @param analysis the name of the analysis, views running the same analysis share its entries
+	 * @param function the function
+	 * @param loader runs the analysis of the function on a miss
+	 * @return the entry of the function, loaded if it was not kept
+	 */
+	public Entry get(String analysis, Node function, Factory<StructureResult> loader) {
+		Key key = new Key(analysis, function);
+		synchronized(this) {
+			Entry entry = entries.get(key);
+			if(entry != null) {
+				hits.incrementAndGet();
+				return entry;
+			}
+		}
+		misses.incrementAndGet();
+		Entry entry = new Entry(this, key, loader.create());
+		synchronized(this) {
+			Entry other = entries.get(key);
+			if(other != null) {
+				// loaded by another view in the meantime
+				return other;
+			}
+			if(entry.weight <= capacity) {
+				entries.put(key, entry);
+				weight += entry.weight;
+				evict();
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Counted as a hit when the entry is kept, never as a miss.
+	 * @return the entry of the function if it is kept, null otherwise
+	 */
+	public synchronized Entry peek(String analysis, Node function) {
+		Entry entry = entries.get(new Key(analysis, function));
+		if(entry != null) {
+			hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * Neither a hit nor a miss, and the function does not become recently used.
+	 * @return true if the entry of the function is kept
+	 */
+	public synchronized boolean contains(String analysis, Node function) {
+		return entries.containsKey(new Key(analysis, function));
+	}
+
+	/**
+	 * Keeps a result computed ahead of any request, see {@link Prefetcher}. It is dropped rather than
+	 * evicting other entries, and it is neither a hit nor a miss.
+	 * @return true if the result is kept
+	 */
+	public boolean put(String analysis, Node function, StructureResult result) {
+		Key key = new Key(analysis, function);
+		Entry entry = new Entry(this, key, result);
+		synchronized(this) {
+			if(entries.containsKey(key) || weight + entry.weight > capacity) {
+				return false;
+			}
+			entries.put(key, entry);
+			weight += entry.weight;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the weight that can still be added without evicting any entry
+	 */
+	public synchronized long free() {
+		return Math.max(0, capacity - weight);
+	}
+
+	private synchronized void grow(Entry entry, long size) {
+		entry.weight += size;
+		if(entries.get(entry.key) == entry) {
+			weight += size;
+			evict();
+		}
+	}
+
+	// least recently used first
+	private void evict() {
+		Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+		while(weight > capacity && iterator.hasNext()) {
+			weight -= iterator.next().getValue().weight;
+			iterator.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Drops every entry, the counters are kept.
+	 */
+	public synchronized void clear() {
+		if(!entries.isEmpty()) {
+			Log.info("View cache cleared: " + stats());
+		}
+		entries.clear();
+		weight = 0;
+	}
+
+	/**
+	 * Changes the capacity, evicting the least recently used entries if it shrinks.
+	 */
+	public synchronized void setCapacity(long capacity) {
+		this.capacity = Math.max(0, capacity);
+		evict();
+	}
+
+	public synchronized long capacity() {
+		return capacity;
+	}
+
+	public synchronized long weight() {
+		return weight;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public long hits() {
+		return hits.get();
+	}
+
+	public long misses() {
+		return misses.get();
+	}
+
+	public long evictions() {
+		return evictions.get();
+	}
+
+	public String stats() {
+		long h = hits();
+		long m = misses();
+		return size() + " functions, weight " + weight() + "/" + capacity() + ", " + h + " hits, " + m + " misses, " + evictions() + " evictions"
+				+ (h + m > 0 ? String.format(", hit rate %.1f%%", 100.0 * h / (h + m)) : "");
+	}
+
+	/**
+	 * What the views keep of one function. The overlay and the markups are built on first use.
+	 */
+	public static final class Entry {
+		private final ViewCache cache;
+		private final Key key;
+		private final StructureResult result;
+		private final Map<Node, Markup> markups = new HashMap<Node, Markup>();
+		private Graph parenthood;
+		private long weight;
+
+		private Entry(ViewCache cache, Key key, StructureResult result) {
+			this.cache = cache;
+			this.key = key;
+			this.result = result;
+			long size = result.parents().size() + 1;
+			for(List<AtlasSet<Node>> block : result.blocks().values()) {
+				size += size(block);
+			}
+			this.weight = size;
+		}
+
+		private static long size(List<AtlasSet<Node>> block) {
+			long size = 1;
+			for(AtlasSet<Node> part : block) {
+				size += part.size();
+			}
+			return size;
+		}
+
+		public StructureResult result() {
+			return result;
+		}
+
+		/**
+		 * @param factory builds the overlay from {@link #result()}
+		 * @return the parenthood overlay of the function
+		 */
+		public Graph parenthood(Factory<Graph> factory) {
+			Graph graph;
+			synchronized(this) {
+				if(parenthood != null) {
+					return parenthood;
+				}
+				parenthood = graph = factory.create();
+			}
+			cache.grow(this, graph.nodes().size() + graph.edges().size());
+			return graph;
+		}
+
+		/**
+		 * @param node a selectable node of the function
+		 * @param factory builds the markup of the block of the node
+		 * @return the markup of the block of the node
+		 */
+		public Markup markup(Node node, Factory<Markup> factory) {
+			Markup markup;
+			synchronized(this) {
+				markup = markups.get(node);
+				if(markup != null) {
+					return markup;
+				}
+				markup = factory.create();
+				markups.put(node, markup);
+			}
+			List<AtlasSet<Node>> block = result.block(node);
+			cache.grow(this, block == null ? 1 : size(block));
+			return markup;
+		}
+	}
+
+	/**
+	 * An analysis and a function.
+	 */
+	private static final class Key {
+		final String analysis;
+		final Node function;
+
+		Key(String analysis, Node function) {
+			this.analysis = analysis;
+			this.function = function;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * analysis.hashCode() + function.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return analysis.equals(other.analysis) && function.equals(other.function);
+		}
+	}
+}
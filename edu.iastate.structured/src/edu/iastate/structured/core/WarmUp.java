@@ -0,0 +1,215 @@
+package edu.iastate.structured.core;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.swt.widgets.Display;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.open.c.commons.analysis.CommonQueries;
+
+import edu.iastate.structured.log.Log;
+
+/**
+* Analyzes every function of the index in the background once it is mapped, so the first look at a
+* function in the smart views does not pay for its analysis. Turned on by the warm_up property.
+* <p>
+* The functions are taken from the {@link FunctionCatalog}, those with gotos or labels first, then by
+* CFG size, largest first: the functions the analysis is slowest on are ready the soonest. Functions
+* in {@link Quarantine} come last, their analysis is known to run out of its budget. Every function is
+* analyzed by {@link Structured} and by {@link GraphAnalyzer}, the results go to their {@link StructureStore}
+* and to the {@link ViewCache} entries of the "Structured" and the "GraphAnalyzer" views as long as they
+* fit without evicting anything. The structCodeViewer2 view runs an analysis of its own and is not warmed.
+* <p>
+* The warm-up runs one function at a time and gives way to the user: it waits while a smart view
+* analyzes a selection ({@link BackgroundAnalysis#FAMILY}) and while the UI thread takes more than
+* {@value #UI_BUSY_MILLIS} ms to answer. Its progress and the estimated time left are shown in the
+* Progress view. It is started by the {@link edu.iastate.structured.Activator} when an index
+* operation completes and when the plug-in starts, and canceled when the index changes.
+*
+* Example Atlas Shell Usage:
+* edu.iastate.structured.core.WarmUp.schedule(0)
+*
+* @author Le Zhang
+*/
+public final class WarmUp {
+	private static final String STRUCTURED = "Structured";
+	private static final String GRAPH_ANALYZER = "GraphAnalyzer";
+	private static final long UI_BUSY_MILLIS = 100;
+	private static final long BACK_OFF_MILLIS = 500;
+
+	private static WarmUpJob job;
+
+	private WarmUp() {}
+
+	/**
+	 * Starts the warm-up, again from the start if it was running. Does nothing unless the warm_up
+	 * property is set.
+	 * @param delay milliseconds to wait first
+	 */
+	public static synchronized void schedule(long delay) {
+		if(!VerificationProperties.isWarmUp()) {
+			return;
+		}
+		cancel();
+		job = new WarmUpJob();
+		job.schedule(delay);
+	}
+
+	/**
+	 * Stops the warm-up at its next block, the results so far are kept.
+	 */
+	public static synchronized void cancel() {
+		if(job != null) {
+			job.cancel();
+			job = null;
+		}
+	}
+
+	private static synchronized void finished(WarmUpJob finished) {
+		if(job == finished) {
+			job = null;
+		}
+	}
+
+	/**
+	 * @return the catalog ids in warm-up order: quarantined last, with gotos or labels first, then CFG nodes descending
+	 */
+	static int[] order(final FunctionCatalog catalog) {
+		Integer[] ids = new Integer[catalog.size()];
+		final boolean[] quarantined = new boolean[ids.length];
+		for(int id = 0; id < ids.length; id++) {
+			ids[id] = id;
+			quarantined[id] = Quarantine.contains(catalog.qualifiedName(id));
+		}
+		Arrays.sort(ids, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				if(quarantined[a] != quarantined[b]) {
+					return quarantined[a] ? 1 : -1;
+				}
+				boolean gotoA = catalog.gotos(a) > 0 || catalog.labels(a) > 0;
+				boolean gotoB = catalog.gotos(b) > 0 || catalog.labels(b) > 0;
+				if(gotoA != gotoB) {
+					return gotoA ? -1 : 1;
+				}
+				if(catalog.cfgNodes(a) != catalog.cfgNodes(b)) {
+					return Integer.compare(catalog.cfgNodes(b), catalog.cfgNodes(a));
+				}
+				return Integer.compare(a, b);
+			}
+		});
+		int[] order = new int[ids.length];
+		for(int i = 0; i < ids.length; i++) {
+			order[i] = ids[i];
+		}
+		return order;
+	}
+
+	/**
+	 * Waits while a view analyzes a selection or the UI thread is slow to answer.
+	 */
+	private static void throttle(IProgressMonitor monitor) throws InterruptedException {
+		while(!monitor.isCanceled() && (Job.getJobManager().find(BackgroundAnalysis.FAMILY).length > 0 || isUIBusy())) {
+			Thread.sleep(BACK_OFF_MILLIS);
+		}
+	}
+
+	private static boolean isUIBusy() throws InterruptedException {
+		Display display = Display.getDefault();
+		if(display == null || display.isDisposed()) {
+			return false;
+		}
+		final CountDownLatch ping = new CountDownLatch(1);
+		display.asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				ping.countDown();
+			}
+		});
+		return !ping.await(UI_BUSY_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private static String eta(long millis) {
+		long seconds = millis / 1000;
+		return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+	}
+
+	/**
+	 * Analyzes the functions of the catalog, one at a time.
+	 */
+	private static final class WarmUpJob extends Job {
+
+		WarmUpJob() {
+			super("Pre-analyzing the structure of the index");
+			setPriority(Job.DECORATE);
+		}
+
+		@Override
+		protected IStatus run(final IProgressMonitor monitor) {
+			long start = System.currentTimeMillis();
+			int done = 0;
+			int analyzed = 0;
+			try {
+				FunctionCatalog catalog = FunctionCatalog.get();
+				int[] order = order(catalog);
+				monitor.beginTask(getName(), order.length);
+				// the analysis only gets the cancellation, the progress is per function
+				IProgressMonitor analysisMonitor = new NullProgressMonitor() {
+					@Override
+					public boolean isCanceled() {
+						return monitor.isCanceled();
+					}
+				};
+				for(int id : order) {
+					throttle(monitor);
+					if(monitor.isCanceled()) {
+						return Status.CANCEL_STATUS;
+					}
+					if(StructureStore.structured() == null && StructureStore.graphAnalyzer() == null && ViewCache.shared().free() == 0) {
+						Log.info("Warm-up stopped, the view cache is full and the structure cache is off");
+						break;
+					}
+					Node function = catalog.function(id);
+					boolean warmed = false;
+					if(!ViewCache.shared().contains(STRUCTURED, function)) {
+						StructureResult result = Structured.analyze(CommonQueries.cfg(Common.toQ(function)).eval(), analysisMonitor);
+						ViewCache.shared().put(STRUCTURED, function, result);
+						warmed = true;
+					}
+					if(!ViewCache.shared().contains(GRAPH_ANALYZER, function)) {
+						StructureResult result = GraphAnalyzer.analyze(CommonQueries.cfg(Common.toQ(function)), analysisMonitor);
+						ViewCache.shared().put(GRAPH_ANALYZER, function, result);
+						warmed = true;
+					}
+					if(warmed) {
+						analyzed++;
+					}
+					done++;
+					long elapsed = System.currentTimeMillis() - start;
+					monitor.subTask(catalog.name(id) + ", " + done + "/" + order.length + ", " + eta(elapsed * (order.length - done) / done) + " left");
+					monitor.worked(1);
+				}
+				return Status.OK_STATUS;
+			} catch (OperationCanceledException e) {
+				return Status.CANCEL_STATUS;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return Status.CANCEL_STATUS;
+			} finally {
+				Log.info("Warm-up: " + done + " functions, " + analyzed + " analyzed in " + (System.currentTimeMillis() - start) / 1000.0 + " s, view cache " + ViewCache.shared().stats());
+				monitor.done();
+				finished(this);
+			}
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package edu.iastate.structured.graph;
+
+import java.util.BitSet;
+
+/**
+* The entry, body and exit node ids of one block or module, see {@link BlockExtractor}.
+* The sets are owned by the block and must not be modified by callers.
+*
+* @author Le Zhang
+*/
+public final class Block {
+	private final BitSet entry;
+	private final BitSet body;
+	private final BitSet exit;
+
+	public Block(BitSet entry, BitSet body, BitSet exit) {
+		this.entry = entry;
+		this.body = body;
+		this.exit = exit;
+	}
+
+	public BitSet entry() {
+		return entry;
+	}
+
+	public BitSet body() {
+		return body;
+	}
+
+	public BitSet exit() {
+		return exit;
+	}
+}
@@ -0,0 +1,84 @@
+package edu.iastate.structured.graph;
+
+import java.util.BitSet;
+
+/**
+* The entries and exits of a block, found in one pass over the edges of its members.
+* <p>
+* The exits are the members without a successor in the block (its leaves), the entries are
+* the other members with a predecessor outside of the block. The block itself serves as the
+* membership bitmap, so the cost is linear in the number of edges touching the block.
+*
+* @author Le Zhang
+*/
+public final class BlockBoundary {
+	private final BitSet entry;
+	private final BitSet exit;
+
+	private BlockBoundary(BitSet entry, BitSet exit) {
+		this.entry = entry;
+		this.exit = exit;
+	}
+
+	/**
+	 * @param g the snapshot
+	 * @param block the member ids, without isolated nodes (retainEdges) when the leaves should match the Atlas ones
+	 * @param view the EDGE_* bits to exclude
+	 * @param legalEntry a node whose edges into the block do not make an entry, -1 for none
+	 */
+	public static BlockBoundary of(CFGSnapshot g, BitSet block, int view, int legalEntry) {
+		BitSet entry = new BitSet(g.size());
+		BitSet exit = new BitSet(g.size());
+		for(int v = block.nextSetBit(0); v >= 0; v = block.nextSetBit(v + 1)) {
+			boolean leaf = true;
+			for(int i = g.succBegin(v); i < g.succEnd(v) && leaf; i++) {
+				if((g.succFlags(i) & view) == 0 && block.get(g.succTarget(i))) {
+					leaf = false;
+				}
+			}
+			if(leaf) {
+				exit.set(v);
+			}else if(hasExternalPredecessor(g, block, v, view, legalEntry)) {
+				entry.set(v);
+			}
+		}
+		return new BlockBoundary(entry, exit);
+	}
+
+	/**
+	 * Every member of the block with a predecessor outside of it, exits included.
+	 */
+	public static BitSet entries(CFGSnapshot g, BitSet block, int view) {
+		BitSet entry = new BitSet(g.size());
+		for(int v = block.nextSetBit(0); v >= 0; v = block.nextSetBit(v + 1)) {
+			if(hasExternalPredecessor(g, block, v, view, -1)) {
+				entry.set(v);
+			}
+		}
+		return entry;
+	}
+
+	private static boolean hasExternalPredecessor(CFGSnapshot g, BitSet block, int v, int view, int legalEntry) {
+		for(int i = g.predBegin(v); i < g.predEnd(v); i++) {
+			int p = g.predSource(i);
+			if((g.predFlags(i) & view) == 0 && p != legalEntry && !block.get(p)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the members, other than exits, entered from outside of the block
+	 */
+	public BitSet entry() {
+		return entry;
+	}
+
+	/**
+	 * @return the members without a successor in the block
+	 */
+	public BitSet exit() {
+		return exit;
+	}
+}
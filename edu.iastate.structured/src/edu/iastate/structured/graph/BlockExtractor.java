@@ -0,0 +1,417 @@
+package edu.iastate.structured.graph;
+
+import static edu.iastate.structured.graph.CFGSnapshot.*;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+* Block and module extraction on a {@link CFGSnapshot}.
+* Each method mirrors one of the query based extractors of the Structured class
+* (same sets, same order of operations) but works on node ids and bit sets only.
+* Apart from the dominator trees, the merge point engine and the reachability index, computed once and cached, the extractor keeps
+* no state: one instance serves every selectable node of the function.
+*
+* @author Le Zhang
+*/
+public class BlockExtractor {
+	private final CFGSnapshot g;
+	private final Map<Integer, DominatorTree> dominators = new HashMap<Integer, DominatorTree>();
+	private final Map<Integer, DominatorTree> postDominators = new HashMap<Integer, DominatorTree>();
+	private final int reachabilityMaxNodes;
+	private MergePoints mergePoints;
+	private ReachabilityIndex reachability;
+
+	public BlockExtractor(CFGSnapshot snapshot) {
+		this(snapshot, ReachabilityIndex.DEFAULT_MAX_NODES);
+	}
+
+	/**
+	 * @param snapshot the function
+	 * @param reachabilityMaxNodes size limit of the precomputed reachability index, see {@link ReachabilityIndex}
+	 */
+	public BlockExtractor(CFGSnapshot snapshot, int reachabilityMaxNodes) {
+		this.g = snapshot;
+		this.reachabilityMaxNodes = reachabilityMaxNodes;
+	}
+
+	public CFGSnapshot snapshot() {
+		return g;
+	}
+
+	/**
+	 * Block of an if condition.
+	 * @param c id of the {@link CFGSnapshot#TAG_IF} node
+	 */
+	public Block ifBlock(int c) {
+		// a false branch that is a back edge leaves the loop: everything under the condition is the body
+		BitSet backExit = new BitSet();
+		for(int i = g.succBegin(c); i < g.succEnd(c); i++) {
+			int f = g.succFlags(i);
+			if((f & EDGE_FALSE) != 0 && (f & EDGE_BACK) != 0) {
+				backExit.set(g.succTarget(i));
+			}
+		}
+		if(!backExit.isEmpty()) {
+			BitSet body = reachability().forward(single(c));
+			body.clear(c);
+			return new Block(single(c), body, backExit);
+		}
+
+		BitSet sub = branchRegion(c);
+		BitSet s = dominanceFilter(c, sub, VIEW_DAG_NO_GOTO);
+
+		BitSet exit = leaves(s, VIEW_CFG);
+		BitSet body = (BitSet) s.clone();
+		body.clear(c);
+		body.andNot(exit);
+		return new Block(single(c), body, exit);
+	}
+
+	/**
+	 * Block of a switch condition.
+	 * @param c id of the {@link CFGSnapshot#TAG_SWITCH} node
+	 */
+	public Block switchBlock(int c) {
+		BitSet sub = branchRegion(c);
+		BitSet s = dominanceFilter(c, sub, VIEW_CFG_NO_GOTO);
+		BitSet exit = leaves(s, VIEW_CFG);
+
+		BitSet caseExit = (BitSet) exit.clone();
+		caseExit.and(g.tagged(TAG_CASE));
+		if(!caseExit.isEmpty()) {
+			// fall through into a case label: cut the block where case and non case exits meet
+			BitSet nonCaseExit = (BitSet) exit.clone();
+			nonCaseExit.andNot(caseExit);
+			BitSet joint = reachability().forward(caseExit);
+			joint.and(reachability().forward(nonCaseExit));
+			BitSet jointRoots = roots(joint, VIEW_DAG);
+
+			s = reachability().forward(single(c));
+			s.andNot(reachability().forward(jointRoots));
+			s = retainEdges(s, VIEW_DAG);
+			exit = leaves(s, VIEW_DAG);
+		}
+
+		BitSet body = (BitSet) s.clone();
+		body.clear(c);
+		body.andNot(exit);
+		return new Block(single(c), body, exit);
+	}
+
+	/**
+	 * Block of a while/for loop condition.
+	 * @param c id of the {@link CFGSnapshot#TAG_LOOP_CONDITION} node
+	 * @return the block, null if the condition lacks a true or false branch
+	 */
+	public Block loopBlock(int c) {
+		int trueNode = -1, falseNode = -1;
+		for(int i = g.succBegin(c); i < g.succEnd(c); i++) {
+			int f = g.succFlags(i);
+			if((f & EDGE_TRUE) != 0 && trueNode < 0) {
+				trueNode = g.succTarget(i);
+			}else if((f & EDGE_FALSE) != 0 && falseNode < 0) {
+				falseNode = g.succTarget(i);
+			}
+		}
+		if(trueNode < 0 || falseNode < 0) {
+			return null;
+		}
+
+		BitSet s = reachability().forward(single(trueNode));
+		s.andNot(reachability().forward(single(falseNode)));
+		s.set(c);
+		s.set(falseNode);
+
+		BlockBoundary boundary = BlockBoundary.of(g, s, VIEW_CFG, -1);
+		BitSet exit = boundary.exit();
+		BitSet entry = boundary.entry();
+		entry.set(c);
+
+		BitSet body = retainEdges(s, VIEW_CFG);
+		body.andNot(entry);
+		body.andNot(exit);
+		return new Block(entry, body, exit);
+	}
+
+	/**
+	 * Module of a label that does not create a loop.
+	 * @param label id of the {@link CFGSnapshot#TAG_LABEL} node
+	 */
+	public Block labelModule(int label) {
+		BitSet s = g.forward(single(label), VIEW_DAG_NO_BREAK);
+		if(!hasEdge(label, VIEW_DAG_NO_BREAK, true) && !hasEdge(label, VIEW_DAG_NO_BREAK, false)) {
+			// a label with break and back edges only is not in the DAG without breaks, the module is empty
+			s.clear(label);
+		}
+		BitSet labels = g.tagged(TAG_LABEL);
+		labels.and(s);
+		BitSet controls = g.tagged(TAG_CONDITION);
+		controls.and(s);
+
+		if(labels.cardinality() > 1 || !controls.isEmpty()) {
+			// stop the module at the next label or control statement
+			labels.clear(label);
+			BitSet stop = g.forward(labels, VIEW_DAG_NO_BREAK);
+			stop.or(g.forward(controls, VIEW_DAG_NO_BREAK));
+			BitSet stopRoots = roots(stop, VIEW_DAG_NO_BREAK);
+			s.andNot(stop);
+			s.or(stopRoots);
+			s = retainEdges(s, VIEW_DAG_NO_BREAK);
+		}
+		return module(label, s, VIEW_DAG_NO_BREAK);
+	}
+
+	/**
+	 * Module of a label that creates a loop.
+	 * @param label id of a node tagged with both {@link CFGSnapshot#TAG_LABEL} and {@link CFGSnapshot#TAG_LOOP}
+	 */
+	public Block labelLoop(int label) {
+		BitSet loopChildren = loopChildren(label);
+		BitSet otherLabels = g.tagged(TAG_LABEL);
+		otherLabels.clear(label);
+
+		BitSet s = reachability().forward(loopChildren);
+		s.andNot(reachability().forward(otherLabels));
+		s.or(otherLabels);
+		s = retainEdges(s, VIEW_CFG);
+		return module(label, s, VIEW_CFG);
+	}
+
+	/**
+	 * Block of a do while loop.
+	 * @param node id of the loop entry
+	 * @return the block, null if no back edge leads to the entry
+	 */
+	public Block doWhile(int node) {
+		BitSet exitNode = null;
+		for(int i = g.predBegin(node); i < g.predEnd(node); i++) {
+			if((g.predFlags(i) & EDGE_BACK) != 0) {
+				// the source of the back edge is the do while condition, the next node on the DAG is the legal exit
+				int condition = g.predSource(i);
+				exitNode = successors(condition, VIEW_DAG);
+				exitNode.set(condition);
+				break;
+			}
+		}
+		if(exitNode == null) {
+			return null;
+		}
+
+		BitSet moduleLabels = g.tagged(TAG_LABEL);
+		moduleLabels.andNot(g.tagged(TAG_LOOP));
+
+		BitSet s = reachability().forward(single(node));
+		s.andNot(reachability().forward(exitNode));
+		s.andNot(reachability().forward(moduleLabels));
+		s.or(exitNode);
+		s = retainEdges(s, VIEW_CFG);
+		return module(node, s, VIEW_CFG);
+	}
+
+	/**
+	 * Exit, entry and body of a module: the exits are the leaves of the module, the entries are
+	 * the given entry plus every non exit node with a predecessor outside of the module.
+	 */
+	private Block module(int entryNode, BitSet s, int view) {
+		BlockBoundary boundary = BlockBoundary.of(g, s, view, entryNode);
+		BitSet exit = boundary.exit();
+		BitSet entry = boundary.entry();
+		entry.set(entryNode);
+
+		BitSet body = (BitSet) s.clone();
+		body.andNot(exit);
+		body.andNot(entry);
+		return new Block(entry, body, exit);
+	}
+
+	/**
+	 * The nodes under the branches of a condition, without the part shared by two or more branches
+	 * except for the merge points, see {@link MergePoints}.
+	 */
+	public BitSet branchRegion(int c) {
+		MergePoints engine;
+		synchronized(this) {
+			if(mergePoints == null) {
+				mergePoints = new MergePoints(g, postDominators(VIEW_DAG));
+			}
+			engine = mergePoints;
+		}
+		return engine.branchRegion(c);
+	}
+
+	/**
+	 * Forward reachability on the DAG, built on first use.
+	 */
+	public synchronized ReachabilityIndex reachability() {
+		if(reachability == null) {
+			reachability = new ReachabilityIndex(g, reachabilityMaxNodes);
+		}
+		return reachability;
+	}
+
+	/**
+	 * Drops the nodes not dominated by the condition, keeps the first of the dropped nodes as exits.
+	 */
+	private BitSet dominanceFilter(int c, BitSet sub, int view) {
+		BitSet s = (BitSet) sub.clone();
+		DominatorTree dominators = dominators(view);
+		if(dominators != null) {
+			BitSet redundant = new BitSet(g.size());
+			for(int v = sub.nextSetBit(0); v >= 0; v = sub.nextSetBit(v + 1)) {
+				if(!dominators.dominates(c, v)) {
+					redundant.set(v);
+				}
+			}
+			s.andNot(redundant);
+			s.or(roots(redundant, VIEW_CFG));
+		}
+		s.set(c);
+		return retainEdges(s, VIEW_CFG);
+	}
+
+	/**
+	 * The dominator tree of the view, computed once per extractor.
+	 * @return null if the view has no root or no leaf
+	 */
+	public DominatorTree dominators(int view) {
+		synchronized(dominators) {
+			if(!dominators.containsKey(view)) {
+				dominators.put(view, hasRootAndLeaf(view) ? DominatorTree.dominators(g, view) : null);
+			}
+			return dominators.get(view);
+		}
+	}
+
+	/**
+	 * The post-dominator tree of the view, computed once per extractor.
+	 * @return null if the view has no root or no leaf
+	 */
+	public DominatorTree postDominators(int view) {
+		synchronized(postDominators) {
+			if(!postDominators.containsKey(view)) {
+				postDominators.put(view, hasRootAndLeaf(view) ? DominatorTree.postDominators(g, view) : null);
+			}
+			return postDominators.get(view);
+		}
+	}
+
+	private boolean hasRootAndLeaf(int view) {
+		boolean hasRoot = false, hasLeaf = false;
+		for(int v = 0; v < g.size() && !(hasRoot && hasLeaf); v++) {
+			hasRoot |= !hasEdge(v, view, true);
+			hasLeaf |= !hasEdge(v, view, false);
+		}
+		return hasRoot && hasLeaf;
+	}
+
+	private boolean hasEdge(int v, int view, boolean incoming) {
+		if(incoming) {
+			for(int i = g.predBegin(v); i < g.predEnd(v); i++) {
+				if((g.predFlags(i) & view) == 0) {
+					return true;
+				}
+			}
+		}else {
+			for(int i = g.succBegin(v); i < g.succEnd(v); i++) {
+				if((g.succFlags(i) & view) == 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The loop children of a loop entry, transitively, the entry included.
+	 */
+	private BitSet loopChildren(int entry) {
+		BitSet visited = single(entry);
+		int[] stack = new int[g.size()];
+		int top = 0;
+		stack[top++] = entry;
+		while(top > 0) {
+			int v = stack[--top];
+			for(int i = g.loopChildBegin(v); i < g.loopChildEnd(v); i++) {
+				int w = g.loopChild(i);
+				if(!visited.get(w)) {
+					visited.set(w);
+					stack[top++] = w;
+				}
+			}
+		}
+		return visited;
+	}
+
+	private BitSet successors(int v, int view) {
+		BitSet result = new BitSet(g.size());
+		for(int i = g.succBegin(v); i < g.succEnd(v); i++) {
+			if((g.succFlags(i) & view) == 0) {
+				result.set(g.succTarget(i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Members of s without a successor in s.
+	 */
+	BitSet leaves(BitSet s, int view) {
+		BitSet result = new BitSet(g.size());
+		for(int v = s.nextSetBit(0); v >= 0; v = s.nextSetBit(v + 1)) {
+			boolean leaf = true;
+			for(int i = g.succBegin(v); i < g.succEnd(v) && leaf; i++) {
+				if((g.succFlags(i) & view) == 0 && s.get(g.succTarget(i))) {
+					leaf = false;
+				}
+			}
+			if(leaf) {
+				result.set(v);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Members of s without a predecessor in s.
+	 */
+	BitSet roots(BitSet s, int view) {
+		BitSet result = new BitSet(g.size());
+		for(int v = s.nextSetBit(0); v >= 0; v = s.nextSetBit(v + 1)) {
+			boolean root = true;
+			for(int i = g.predBegin(v); i < g.predEnd(v) && root; i++) {
+				if((g.predFlags(i) & view) == 0 && s.get(g.predSource(i))) {
+					root = false;
+				}
+			}
+			if(root) {
+				result.set(v);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Members of s with at least one edge to or from another member, the retainEdges of the induced graph.
+	 */
+	BitSet retainEdges(BitSet s, int view) {
+		BitSet result = new BitSet(g.size());
+		for(int v = s.nextSetBit(0); v >= 0; v = s.nextSetBit(v + 1)) {
+			for(int i = g.succBegin(v); i < g.succEnd(v); i++) {
+				int w = g.succTarget(i);
+				if((g.succFlags(i) & view) == 0 && s.get(w)) {
+					result.set(v);
+					result.set(w);
+				}
+			}
+		}
+		return result;
+	}
+
+	private BitSet single(int v) {
+		BitSet result = new BitSet(g.size());
+		result.set(v);
+		return result;
+	}
+}
@@ -0,0 +1,565 @@
+package edu.iastate.structured.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+
+/**
+* An immutable, primitive snapshot of the control flow graph of one function.
+* Every CFG node is mapped to a dense int id and the successors and predecessors
+* are stored in CSR layout (offset array + target array), together with per edge
+* flags and per node tag bits. The block extraction engine works on this snapshot
+* only, Atlas objects are touched once when the snapshot is built and again when
+* results are converted back with {@link #toAtlasSet(BitSet)}.
+* <p>
+* Ids are assigned in topological order of the DAG (CFG without back edges), so a
+* plain loop over 0..size()-1 visits the DAG in topological order whenever
+* {@link #isTopological()} holds.
+*
+* @author Le Zhang
+*/
+public final class CFGSnapshot {
+
+	/** Edge tagged {@link XCSG#ControlFlowBackEdge}. */
+	public static final int EDGE_BACK = 1;
+	/** Edge with {@link XCSG#conditionValue} true. */
+	public static final int EDGE_TRUE = 1 << 1;
+	/** Edge with {@link XCSG#conditionValue} false. */
+	public static final int EDGE_FALSE = 1 << 2;
+	/** Edge leaving a {@link XCSG#Break} node. */
+	public static final int EDGE_BREAK = 1 << 3;
+	/** DAG edge on a path from a goto to a label with more than one DAG predecessor. */
+	public static final int EDGE_GOTO_DAG = 1 << 4;
+	/** DAG edge on a path from a goto to a label with more than one CFG predecessor. */
+	public static final int EDGE_GOTO_CFG = 1 << 5;
+
+	/** The complete CFG. */
+	public static final int VIEW_CFG = 0;
+	/** The CFG without back edges. */
+	public static final int VIEW_DAG = EDGE_BACK;
+	/** The DAG without the edges leaving break statements. */
+	public static final int VIEW_DAG_NO_BREAK = EDGE_BACK | EDGE_BREAK;
+	/** The DAG without the goto edges leading to multi-entry labels. */
+	public static final int VIEW_DAG_NO_GOTO = EDGE_BACK | EDGE_GOTO_DAG;
+	/** The CFG without the goto edges leading to multi-entry labels. */
+	public static final int VIEW_CFG_NO_GOTO = EDGE_GOTO_CFG;
+
+	public static final int TAG_LABEL = 1;
+	public static final int TAG_LOOP = 1 << 1;
+	public static final int TAG_DO_WHILE = 1 << 2;
+	public static final int TAG_IF = 1 << 3;
+	public static final int TAG_SWITCH = 1 << 4;
+	public static final int TAG_LOOP_CONDITION = 1 << 5;
+	public static final int TAG_CONDITION = 1 << 6;
+	public static final int TAG_CASE = 1 << 7;
+	public static final int TAG_BREAK = 1 << 8;
+	public static final int TAG_GOTO = 1 << 9;
+	public static final int TAG_EXIT = 1 << 10;
+
+	private static final String[] TAG_NAMES = { "isLabel", XCSG.Loop, "isDoWhileLoop", XCSG.ControlFlowIfCondition,
+			XCSG.ControlFlowSwitchCondition, XCSG.ControlFlowLoopCondition, XCSG.ControlFlowCondition, XCSG.CaseLabel,
+			XCSG.Break, XCSG.GotoStatement, XCSG.controlFlowExitPoint };
+
+	private final Node[] nodes;
+	private final Map<Node, Integer> ids;
+	private final int[] tags;
+
+	private final int[] succOffsets;
+	private final int[] succTargets;
+	private final int[] succFlags;
+	private final Edge[] succEdges;
+
+	private final int[] predOffsets;
+	private final int[] predSources;
+	private final int[] predFlags;
+
+	private final int[] loopChildOffsets;
+	private final int[] loopChildTargets;
+
+	private final boolean topological;
+
+	private CFGSnapshot(Node[] nodes, Map<Node, Integer> ids, int[] tags, int[] edgeFrom, int[] edgeTo, int[] edgeFlags,
+			Edge[] edges, int[] loopChildFrom, int[] loopChildTo, boolean topological) {
+		this.nodes = nodes;
+		this.ids = ids;
+		this.tags = tags;
+		this.topological = topological;
+
+		int n = nodes.length;
+		int m = edgeFrom.length;
+
+		this.succOffsets = offsets(edgeFrom, n);
+		this.predOffsets = offsets(edgeTo, n);
+		this.succTargets = new int[m];
+		this.succFlags = new int[m];
+		this.succEdges = new Edge[m];
+		this.predSources = new int[m];
+		this.predFlags = new int[m];
+
+		int[] succFill = Arrays.copyOf(succOffsets, n);
+		int[] predFill = Arrays.copyOf(predOffsets, n);
+		for(int e = 0; e < m; e++) {
+			int s = succFill[edgeFrom[e]]++;
+			succTargets[s] = edgeTo[e];
+			succFlags[s] = edgeFlags[e];
+			succEdges[s] = edges[e];
+			int p = predFill[edgeTo[e]]++;
+			predSources[p] = edgeFrom[e];
+			predFlags[p] = edgeFlags[e];
+		}
+
+		this.loopChildOffsets = offsets(loopChildFrom, n);
+		this.loopChildTargets = new int[loopChildFrom.length];
+		int[] childFill = Arrays.copyOf(loopChildOffsets, n);
+		for(int e = 0; e < loopChildFrom.length; e++) {
+			loopChildTargets[childFill[loopChildFrom[e]]++] = loopChildTo[e];
+		}
+
+		markGotoEdges(EDGE_GOTO_DAG, VIEW_DAG);
+		markGotoEdges(EDGE_GOTO_CFG, VIEW_CFG);
+	}
+
+	/**
+	 * Builds the snapshot of the given control flow graph.
+	 * This evaluates a single query to collect the {@link XCSG#LoopChild} edges of the function,
+	 * everything else is read directly from the graph.
+	 * @param cfg the control flow graph of one function
+	 * @return the snapshot
+	 */
+	public static CFGSnapshot of(Graph cfg) {
+		List<Node> nodeList = new ArrayList<Node>();
+		Map<Node, Integer> tmp = new HashMap<Node, Integer>();
+		for(Node n : cfg.nodes()) {
+			tmp.put(n, nodeList.size());
+			nodeList.add(n);
+		}
+		int n = nodeList.size();
+
+		List<Edge> edgeList = new ArrayList<Edge>();
+		for(Edge e : cfg.edges()) {
+			if(tmp.containsKey(e.from()) && tmp.containsKey(e.to())) {
+				edgeList.add(e);
+			}
+		}
+		int m = edgeList.size();
+		int[] from = new int[m];
+		int[] to = new int[m];
+		int[] flags = new int[m];
+		for(int i = 0; i < m; i++) {
+			Edge e = edgeList.get(i);
+			from[i] = tmp.get(e.from());
+			to[i] = tmp.get(e.to());
+			flags[i] = edgeFlags(e);
+			if(nodeList.get(from[i]).taggedWith(XCSG.Break)) {
+				flags[i] |= EDGE_BREAK;
+			}
+		}
+
+		int[] tags = new int[n];
+		for(int i = 0; i < n; i++) {
+			tags[i] = nodeTags(nodeList.get(i));
+		}
+
+		// loop child edges live outside of the CFG, collect the ones leaving this function in one query
+		List<int[]> loopChildren = new ArrayList<int[]>();
+		for(Edge e : Common.universe().edges(XCSG.LoopChild).forwardStep(Common.toQ(cfg)).eval().edges()) {
+			Integer f = tmp.get(e.from());
+			Integer t = tmp.get(e.to());
+			if(f != null && t != null) {
+				loopChildren.add(new int[] { f, t });
+			}
+		}
+		int[] childFrom = new int[loopChildren.size()];
+		int[] childTo = new int[loopChildren.size()];
+		for(int i = 0; i < childFrom.length; i++) {
+			childFrom[i] = loopChildren.get(i)[0];
+			childTo[i] = loopChildren.get(i)[1];
+		}
+
+		return build(nodeList.toArray(new Node[n]), tags, from, to, flags, edgeList.toArray(new Edge[m]), childFrom, childTo);
+	}
+
+	/**
+	 * Builds a snapshot from primitive arrays, without Atlas, e.g. for generated graphs.
+	 * The ids are assigned in topological order as by {@link #of(Graph)}, so they are not the indices
+	 * of the arrays; {@link #node(int)} and {@link #succEdge(int)} are null for every id.
+	 * @param tags the TAG_ bits of every node, the length is the number of nodes
+	 * @param from the source of every edge
+	 * @param to the target of every edge
+	 * @param flags the EDGE_BACK, EDGE_TRUE, EDGE_FALSE and EDGE_BREAK bits of every edge, the goto bits are computed
+	 * @param loopChildFrom the header of every {@link XCSG#LoopChild} edge
+	 * @param loopChildTo the target of every {@link XCSG#LoopChild} edge
+	 * @return the snapshot
+	 */
+	public static CFGSnapshot of(int[] tags, int[] from, int[] to, int[] flags, int[] loopChildFrom, int[] loopChildTo) {
+		return build(new Node[tags.length], tags.clone(), from.clone(), to.clone(), flags.clone(), new Edge[from.length],
+				loopChildFrom.clone(), loopChildTo.clone());
+	}
+
+	/**
+	 * Relabels the nodes in topological order of the DAG and builds the snapshot, the arrays are indexed
+	 * by the order of the input and are updated in place.
+	 */
+	private static CFGSnapshot build(Node[] input, int[] inputTags, int[] from, int[] to, int[] flags, Edge[] edges,
+			int[] childFrom, int[] childTo) {
+		int n = input.length;
+		// assign ids in topological order of the DAG (Kahn), anything left on a cycle is appended
+		int[] order = topologicalOrder(n, from, to, flags);
+		boolean topological = order[n] == 1;
+		int[] rank = new int[n];
+		Node[] nodes = new Node[n];
+		Map<Node, Integer> ids = new HashMap<Node, Integer>(n * 2);
+		int[] tags = new int[n];
+		for(int i = 0; i < n; i++) {
+			Node node = input[order[i]];
+			rank[order[i]] = i;
+			nodes[i] = node;
+			if(node != null) {
+				ids.put(node, i);
+			}
+			tags[i] = inputTags[order[i]];
+		}
+		for(int i = 0; i < from.length; i++) {
+			from[i] = rank[from[i]];
+			to[i] = rank[to[i]];
+		}
+		for(int i = 0; i < childFrom.length; i++) {
+			childFrom[i] = rank[childFrom[i]];
+			childTo[i] = rank[childTo[i]];
+		}
+		return new CFGSnapshot(nodes, ids, tags, from, to, flags, edges, childFrom, childTo, topological);
+	}
+
+	private static int edgeFlags(Edge e) {
+		int flags = 0;
+		if(e.taggedWith(XCSG.ControlFlowBackEdge)) {
+			flags |= EDGE_BACK;
+		}
+		Object value = e.getAttr(XCSG.conditionValue);
+		if(value != null) {
+			String v = value.toString();
+			if("true".equals(v)) {
+				flags |= EDGE_TRUE;
+			}else if("false".equals(v)) {
+				flags |= EDGE_FALSE;
+			}
+		}
+		return flags;
+	}
+
+	private static int nodeTags(Node node) {
+		int bits = 0;
+		for(int i = 0; i < TAG_NAMES.length; i++) {
+			if(node.taggedWith(TAG_NAMES[i])) {
+				bits |= 1 << i;
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Kahn's algorithm over the non back edges.
+	 * @return the order, with one extra trailing slot set to 1 if every node was ordered
+	 */
+	private static int[] topologicalOrder(int n, int[] from, int[] to, int[] flags) {
+		int[] indegree = new int[n];
+		int[] offsets = new int[n + 1];
+		for(int e = 0; e < from.length; e++) {
+			if((flags[e] & EDGE_BACK) == 0) {
+				indegree[to[e]]++;
+				offsets[from[e] + 1]++;
+			}
+		}
+		for(int i = 0; i < n; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		int[] targets = new int[offsets[n]];
+		int[] fill = Arrays.copyOf(offsets, n);
+		for(int e = 0; e < from.length; e++) {
+			if((flags[e] & EDGE_BACK) == 0) {
+				targets[fill[from[e]]++] = to[e];
+			}
+		}
+
+		int[] order = new int[n + 1];
+		int head = 0, tail = 0;
+		for(int i = 0; i < n; i++) {
+			if(indegree[i] == 0) {
+				order[tail++] = i;
+			}
+		}
+		while(head < tail) {
+			int v = order[head++];
+			for(int i = offsets[v]; i < offsets[v + 1]; i++) {
+				if(--indegree[targets[i]] == 0) {
+					order[tail++] = targets[i];
+				}
+			}
+		}
+		order[n] = tail == n ? 1 : 0;
+		if(tail < n) {
+			// untagged cycle, keep the remaining nodes in their original order
+			for(int i = 0; i < n; i++) {
+				if(indegree[i] > 0) {
+					order[tail++] = i;
+				}
+			}
+		}
+		return order;
+	}
+
+	private static int[] offsets(int[] sources, int n) {
+		int[] offsets = new int[n + 1];
+		for(int s : sources) {
+			offsets[s + 1]++;
+		}
+		for(int i = 0; i < n; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		return offsets;
+	}
+
+	/**
+	 * Flags the DAG edges lying on a path from a goto statement to a label with more than one
+	 * predecessor in the given view, the same edges removeGotoEdge used to drop from that view.
+	 */
+	private void markGotoEdges(int flag, int view) {
+		int n = nodes.length;
+		BitSet multiEntryLabels = new BitSet(n);
+		BitSet gotos = new BitSet(n);
+		BitSet preds = new BitSet(n);
+		for(int v = 0; v < n; v++) {
+			if(has(v, TAG_GOTO)) {
+				gotos.set(v);
+			}
+			if(!has(v, TAG_LABEL)) {
+				continue;
+			}
+			preds.clear();
+			for(int i = predOffsets[v]; i < predOffsets[v + 1]; i++) {
+				if((predFlags[i] & view) == 0) {
+					preds.set(predSources[i]);
+				}
+			}
+			if(preds.cardinality() > 1) {
+				multiEntryLabels.set(v);
+			}
+		}
+		if(multiEntryLabels.isEmpty() || gotos.isEmpty()) {
+			return;
+		}
+		BitSet fromGoto = forward(gotos, VIEW_DAG);
+		BitSet toLabel = reverse(multiEntryLabels, VIEW_DAG);
+		for(int v = fromGoto.nextSetBit(0); v >= 0; v = fromGoto.nextSetBit(v + 1)) {
+			for(int i = succOffsets[v]; i < succOffsets[v + 1]; i++) {
+				if((succFlags[i] & VIEW_DAG) == 0 && toLabel.get(succTargets[i])) {
+					succFlags[i] |= flag;
+					int w = succTargets[i];
+					for(int j = predOffsets[w]; j < predOffsets[w + 1]; j++) {
+						if(predSources[j] == v && (predFlags[j] & VIEW_DAG) == 0) {
+							predFlags[j] |= flag;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return nodes.length;
+	}
+
+	/**
+	 * @return the number of edges
+	 */
+	public int edgeCount() {
+		return succTargets.length;
+	}
+
+	/**
+	 * @return true if the ids are a topological order of the DAG
+	 */
+	public boolean isTopological() {
+		return topological;
+	}
+
+	public Node node(int id) {
+		return nodes[id];
+	}
+
+	/**
+	 * @return the id of the given node, -1 if the node is not part of this CFG
+	 */
+	public int id(Node node) {
+		Integer id = ids.get(node);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return true if the node carries any of the given TAG_* bits
+	 */
+	public boolean has(int id, int tagMask) {
+		return (tags[id] & tagMask) != 0;
+	}
+
+	public int tags(int id) {
+		return tags[id];
+	}
+
+	public int succBegin(int id) {
+		return succOffsets[id];
+	}
+
+	public int succEnd(int id) {
+		return succOffsets[id + 1];
+	}
+
+	public int succTarget(int index) {
+		return succTargets[index];
+	}
+
+	public int succFlags(int index) {
+		return succFlags[index];
+	}
+
+	public Edge succEdge(int index) {
+		return succEdges[index];
+	}
+
+	public int predBegin(int id) {
+		return predOffsets[id];
+	}
+
+	public int predEnd(int id) {
+		return predOffsets[id + 1];
+	}
+
+	public int predSource(int index) {
+		return predSources[index];
+	}
+
+	public int predFlags(int index) {
+		return predFlags[index];
+	}
+
+	public int loopChildBegin(int id) {
+		return loopChildOffsets[id];
+	}
+
+	public int loopChildEnd(int id) {
+		return loopChildOffsets[id + 1];
+	}
+
+	public int loopChild(int index) {
+		return loopChildTargets[index];
+	}
+
+	/**
+	 * @param tagMask TAG_* bits
+	 * @return the nodes carrying any of the given tags
+	 */
+	public BitSet tagged(int tagMask) {
+		BitSet result = new BitSet(nodes.length);
+		for(int v = 0; v < nodes.length; v++) {
+			if((tags[v] & tagMask) != 0) {
+				result.set(v);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Nodes reachable from the seeds (seeds included) over the edges not excluded by the view.
+	 * @param seeds the origin
+	 * @param view the EDGE_* bits to exclude, see the VIEW_* constants
+	 */
+	public BitSet forward(BitSet seeds, int view) {
+		BitSet visited = (BitSet) seeds.clone();
+		int[] stack = new int[nodes.length];
+		int top = 0;
+		for(int v = seeds.nextSetBit(0); v >= 0; v = seeds.nextSetBit(v + 1)) {
+			stack[top++] = v;
+		}
+		while(top > 0) {
+			int v = stack[--top];
+			for(int i = succOffsets[v]; i < succOffsets[v + 1]; i++) {
+				int w = succTargets[i];
+				if((succFlags[i] & view) == 0 && !visited.get(w)) {
+					visited.set(w);
+					stack[top++] = w;
+				}
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * Nodes reaching the seeds (seeds included) over the edges not excluded by the view.
+	 */
+	public BitSet reverse(BitSet seeds, int view) {
+		BitSet visited = (BitSet) seeds.clone();
+		int[] stack = new int[nodes.length];
+		int top = 0;
+		for(int v = seeds.nextSetBit(0); v >= 0; v = seeds.nextSetBit(v + 1)) {
+			stack[top++] = v;
+		}
+		while(top > 0) {
+			int v = stack[--top];
+			for(int i = predOffsets[v]; i < predOffsets[v + 1]; i++) {
+				int w = predSources[i];
+				if((predFlags[i] & view) == 0 && !visited.get(w)) {
+					visited.set(w);
+					stack[top++] = w;
+				}
+			}
+		}
+		return visited;
+	}
+
+	public BitSet bits(AtlasSet<Node> set) {
+		BitSet result = new BitSet(nodes.length);
+		for(Node n : set) {
+			int id = id(n);
+			if(id >= 0) {
+				result.set(id);
+			}
+		}
+		return result;
+	}
+
+	public AtlasSet<Node> toAtlasSet(BitSet set) {
+		AtlasSet<Node> result = new AtlasHashSet<Node>();
+		for(int v = set.nextSetBit(0); v >= 0; v = set.nextSetBit(v + 1)) {
+			result.add(nodes[v]);
+		}
+		return result;
+	}
+
+	/**
+	 * @param flag an EDGE_* bit
+	 * @return the CFG edges carrying the flag
+	 */
+	public AtlasSet<Edge> edgesFlagged(int flag) {
+		AtlasSet<Edge> result = new AtlasHashSet<Edge>();
+		for(int i = 0; i < succEdges.length; i++) {
+			if((succFlags[i] & flag) != 0) {
+				result.add(succEdges[i]);
+			}
+		}
+		return result;
+	}
+}
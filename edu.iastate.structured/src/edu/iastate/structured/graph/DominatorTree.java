@@ -0,0 +1,298 @@
+package edu.iastate.structured.graph;
+
+import java.util.Arrays;
+
+/**
+* Dominator (or post-dominator) tree of a {@link CFGSnapshot} view, computed with the
+* Lengauer-Tarjan algorithm on int arrays.
+* A virtual entry is connected to every node without a predecessor in the view (for post-dominators:
+* a virtual exit is connected from every node without a successor), the same shape the
+* UniqueEntryExitControlFlowGraph gives the Atlas dominance analysis.
+* <p>
+* The tree is numbered with pre-order / subtree-end intervals, so {@link #dominates(int, int)} is a
+* constant time interval check.
+*
+* @author Le Zhang
+*/
+public final class DominatorTree {
+	private final int n;
+	private final int[] idom;
+	private final int[] pre;
+	private final int[] last;
+
+	private DominatorTree(int n, int[] idom, int[] pre, int[] last) {
+		this.n = n;
+		this.idom = idom;
+		this.pre = pre;
+		this.last = last;
+	}
+
+	/**
+	 * @param g the snapshot
+	 * @param view the EDGE_* bits to exclude
+	 * @return the dominator tree of the view
+	 */
+	public static DominatorTree dominators(CFGSnapshot g, int view) {
+		return new Builder(g, view, false).build();
+	}
+
+	/**
+	 * @param g the snapshot
+	 * @param view the EDGE_* bits to exclude
+	 * @return the post-dominator tree of the view
+	 */
+	public static DominatorTree postDominators(CFGSnapshot g, int view) {
+		return new Builder(g, view, true).build();
+	}
+
+	/**
+	 * @return the immediate dominator of v, -1 if v hangs directly under the virtual entry (or exit) or is unreachable
+	 */
+	public int idom(int v) {
+		return idom[v] == n ? -1 : idom[v];
+	}
+
+	/**
+	 * @return true if v is reachable from the virtual entry (or reaches the virtual exit)
+	 */
+	public boolean isReachable(int v) {
+		return pre[v] >= 0;
+	}
+
+	/**
+	 * @return true if a dominates b, every node dominates itself
+	 */
+	public boolean dominates(int a, int b) {
+		return pre[a] >= 0 && pre[b] >= 0 && pre[a] <= pre[b] && last[b] <= last[a];
+	}
+
+	private static final class Builder {
+		private final CFGSnapshot g;
+		private final int view;
+		private final boolean reverse;
+		private final int n;
+		private final int root;
+
+		private final boolean[] isRoot;
+		private final int[] dfnum;
+		private final int[] vertex;
+		private final int[] parent;
+		private final int[] semi;
+		private final int[] ancestor;
+		private final int[] label;
+		private final int[] idom;
+		private final int[] bucketHead;
+		private final int[] bucketNext;
+		private final int[] stack;
+		private int count;
+
+		Builder(CFGSnapshot g, int view, boolean reverse) {
+			this.g = g;
+			this.view = view;
+			this.reverse = reverse;
+			this.n = g.size();
+			this.root = n;
+			this.isRoot = new boolean[n];
+			this.dfnum = new int[n + 1];
+			this.vertex = new int[n + 1];
+			this.parent = new int[n + 1];
+			this.semi = new int[n + 1];
+			this.ancestor = new int[n + 1];
+			this.label = new int[n + 1];
+			this.idom = new int[n + 1];
+			this.bucketHead = new int[n + 1];
+			this.bucketNext = new int[n + 1];
+			this.stack = new int[n + 1];
+		}
+
+		private int begin(int v, boolean forward) {
+			return forward != reverse ? g.succBegin(v) : g.predBegin(v);
+		}
+
+		private int end(int v, boolean forward) {
+			return forward != reverse ? g.succEnd(v) : g.predEnd(v);
+		}
+
+		private int other(int i, boolean forward) {
+			return forward != reverse ? g.succTarget(i) : g.predSource(i);
+		}
+
+		private boolean excluded(int i, boolean forward) {
+			return ((forward != reverse ? g.succFlags(i) : g.predFlags(i)) & view) != 0;
+		}
+
+		DominatorTree build() {
+			for(int v = 0; v < n; v++) {
+				boolean hasPred = false;
+				for(int i = begin(v, false); i < end(v, false) && !hasPred; i++) {
+					hasPred = !excluded(i, false);
+				}
+				isRoot[v] = !hasPred;
+			}
+			Arrays.fill(dfnum, -1);
+			Arrays.fill(ancestor, -1);
+			Arrays.fill(bucketHead, -1);
+			Arrays.fill(idom, -1);
+			depthFirst();
+
+			for(int i = count - 1; i > 0; i--) {
+				int w = vertex[i];
+				int p = parent[w];
+				// semi-dominator from the predecessors of w
+				for(int j = begin(w, false); j < end(w, false); j++) {
+					if(excluded(j, false)) {
+						continue;
+					}
+					semiFrom(w, other(j, false));
+				}
+				if(isRoot[w]) {
+					semiFrom(w, root);
+				}
+				int s = vertex[semi[w]];
+				bucketNext[w] = bucketHead[s];
+				bucketHead[s] = w;
+				ancestor[w] = p;
+
+				for(int v = bucketHead[p]; v >= 0; v = bucketNext[v]) {
+					int u = eval(v);
+					idom[v] = semi[u] < semi[v] ? u : p;
+				}
+				bucketHead[p] = -1;
+			}
+			for(int i = 1; i < count; i++) {
+				int w = vertex[i];
+				if(idom[w] != vertex[semi[w]]) {
+					idom[w] = idom[idom[w]];
+				}
+			}
+			return number();
+		}
+
+		private void semiFrom(int w, int v) {
+			if(dfnum[v] < 0) {
+				return;
+			}
+			int u = eval(v);
+			if(semi[u] < semi[w]) {
+				semi[w] = semi[u];
+			}
+		}
+
+		/**
+		 * Iterative pre-order numbering from the virtual root.
+		 */
+		private void depthFirst() {
+			int[] edge = new int[n + 1];
+			int top = 0;
+			visit(root, -1);
+			stack[top++] = root;
+			edge[root] = -1;
+			while(top > 0) {
+				int v = stack[top - 1];
+				int next = -1;
+				if(v == root) {
+					// children of the virtual root are the roots of the view
+					for(int r = edge[root] + 1; r < n; r++) {
+						edge[root] = r;
+						if(isRoot[r] && dfnum[r] < 0) {
+							next = r;
+							break;
+						}
+					}
+					if(next < 0) {
+						edge[root] = n;
+					}
+				}else {
+					int i = edge[v] < 0 ? begin(v, true) : edge[v];
+					for(; i < end(v, true); i++) {
+						if(!excluded(i, true) && dfnum[other(i, true)] < 0) {
+							next = other(i, true);
+							i++;
+							break;
+						}
+					}
+					edge[v] = i;
+				}
+				if(next < 0) {
+					top--;
+				}else {
+					visit(next, v);
+					edge[next] = -1;
+					stack[top++] = next;
+				}
+			}
+		}
+
+		private void visit(int v, int p) {
+			dfnum[v] = count;
+			vertex[count] = v;
+			semi[v] = count;
+			label[v] = v;
+			parent[v] = p;
+			count++;
+		}
+
+		private int eval(int v) {
+			if(ancestor[v] < 0) {
+				return v;
+			}
+			compress(v);
+			return label[v];
+		}
+
+		private void compress(int v) {
+			int top = 0;
+			for(int u = v; ancestor[ancestor[u]] >= 0; u = ancestor[u]) {
+				stack[top++] = u;
+			}
+			while(top > 0) {
+				int u = stack[--top];
+				int a = ancestor[u];
+				if(semi[label[a]] < semi[label[u]]) {
+					label[u] = label[a];
+				}
+				ancestor[u] = ancestor[a];
+			}
+		}
+
+		/**
+		 * Pre-order / subtree-end numbering of the dominator tree.
+		 */
+		private DominatorTree number() {
+			int[] childHead = new int[n + 1];
+			int[] childNext = new int[n + 1];
+			Arrays.fill(childHead, -1);
+			for(int i = count - 1; i > 0; i--) {
+				int w = vertex[i];
+				childNext[w] = childHead[idom[w]];
+				childHead[idom[w]] = w;
+			}
+			int[] pre = new int[n + 1];
+			int[] last = new int[n + 1];
+			Arrays.fill(pre, -1);
+			int[] cursor = new int[n + 1];
+			int top = 0, counter = 0;
+			stack[top++] = root;
+			pre[root] = counter++;
+			cursor[root] = childHead[root];
+			while(top > 0) {
+				int v = stack[top - 1];
+				int c = cursor[v];
+				if(c < 0) {
+					last[v] = counter - 1;
+					top--;
+				}else {
+					cursor[v] = childNext[c];
+					pre[c] = counter++;
+					cursor[c] = childHead[c];
+					stack[top++] = c;
+				}
+			}
+			int[] dom = new int[n];
+			for(int v = 0; v < n; v++) {
+				dom[v] = pre[v] >= 0 ? idom[v] : -1;
+			}
+			return new DominatorTree(n, dom, Arrays.copyOf(pre, n), Arrays.copyOf(last, n));
+		}
+	}
+}
@@ -0,0 +1,478 @@
+package edu.iastate.structured.graph;
+
+import static edu.iastate.structured.graph.CFGSnapshot.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+* Cuts nested blocks at the exits of their parents until nothing changes.
+* <p>
+* A block whose body reaches past an exit of its parent (on the DAG) loses that part of its body,
+* its exits become the leaves of the rest together with the parent exits and its entries are
+* recomputed. Blocks are only queued again when something they depend on changed: the exits of
+* their parent, or the parent itself when a body it was nested in lost it. Bodies only shrink, so
+* the parent of a node is kept up to date by dropping the block from the candidates of the nodes
+* it lost, instead of rebuilding the whole parent map. Parents follow the ranks of the
+* {@link NestingTree} of the initial blocks: the parent of a block is the lowest ranked block above
+* it whose body still contains its node.
+* <p>
+* Blocks are processed in rank order and only blocks ranked after the processed one are queued again,
+* so once a block is taken from the queue every block ranked before it is final. A {@link Check} given
+* to {@link #run(long, Check)} sees each block as soon as it is final and can stop the propagation at
+* the first block it rejects; a later run continues where it stopped.
+* <p>
+* Processing a block only reads and writes the blocks its body contains and the blocks containing
+* it, so the connected components of that relation never touch each other. {@link #runParallel(long)}
+* propagates every component on its own fork-join task and merges the changed blocks afterwards, the
+* blocks and parents are the same as with {@link #run(long)}.
+*
+* @author Le Zhang
+*/
+public final class ExitPropagation {
+
+	private final CFGSnapshot g;
+	private final BlockExtractor extractor;
+	private final NestingTree tree; // of the initial blocks, for the ranks
+	private final boolean retainEdges;
+
+	private final int[] keys;
+	private final int[] index; // node id to block index, -1 if the node has no block
+	private final BitSet[] entry;
+	private final BitSet[] body;
+	private final BitSet[] exit;
+	private final BitSet[] containers; // per block, the blocks whose body contains its node
+	private final int[] parent; // block index, -1 for none
+	private final BitSet changed;
+
+	private final int[] order; // block indices by rank
+	private PriorityQueue<Integer> queue;
+	private BitSet queued;
+	private int checked; // blocks of order already given to a check, they are final
+
+	private long steps;
+	private boolean converged = true;
+	private Cancellation cancellation;
+	private volatile boolean canceled;
+
+	/**
+	 * Looks at the blocks of a propagation once they are final.
+	 */
+	public interface Check {
+		/**
+		 * @param k the block index
+		 * @param block the final block, owned by the propagation
+		 * @return true to stop the propagation at this block
+		 */
+		boolean reject(int k, Block block);
+	}
+
+	/**
+	 * Asked before every block whether the propagation should stop, from several threads at once
+	 * when it runs in parallel.
+	 */
+	public interface Cancellation {
+		boolean isCanceled();
+	}
+
+	/**
+	 * @param extractor the extractor of the function, for its reachability index
+	 * @param keys the selectable node ids
+	 * @param blocks the block of every key, copied
+	 * @param retainEdges if true the part cut off a body leaves out parent exits without a DAG edge in it,
+	 *        as a retainEdges on the forward graph of the exits does
+	 */
+	public ExitPropagation(BlockExtractor extractor, int[] keys, Block[] blocks, boolean retainEdges) {
+		this.g = extractor.snapshot();
+		this.extractor = extractor;
+		this.retainEdges = retainEdges;
+		this.keys = keys.clone();
+		int n = keys.length;
+		this.index = new int[g.size()];
+		Arrays.fill(index, -1);
+		this.entry = new BitSet[n];
+		this.body = new BitSet[n];
+		this.exit = new BitSet[n];
+		this.containers = new BitSet[n];
+		this.parent = new int[n];
+		this.changed = new BitSet(n);
+		for(int k = 0; k < n; k++) {
+			index[keys[k]] = k;
+			entry[k] = (BitSet) blocks[k].entry().clone();
+			body[k] = (BitSet) blocks[k].body().clone();
+			exit[k] = (BitSet) blocks[k].exit().clone();
+			containers[k] = new BitSet(n);
+		}
+		for(int b = 0; b < n; b++) {
+			for(int v = body[b].nextSetBit(0); v >= 0; v = body[b].nextSetBit(v + 1)) {
+				int k = index[v];
+				if(k >= 0 && k != b) {
+					containers[k].set(b);
+				}
+			}
+		}
+		this.tree = new NestingTree(g.size(), keys, body);
+		for(int k = 0; k < n; k++) {
+			parent[k] = tree.parent(k);
+		}
+		this.order = tree.order();
+	}
+
+	/**
+	 * Propagates the exits until no block changes, or until maxSteps blocks have been processed.
+	 * @return true if the propagation converged
+	 */
+	public boolean run(long maxSteps) {
+		run(maxSteps, null);
+		return converged;
+	}
+
+	/**
+	 * Propagates the exits like {@link #run(long)}, giving every block to the check as soon as it is final.
+	 * When the step limit is reached the remaining blocks are checked as they are.
+	 * @param check the check, null for none
+	 * @return the index of the first block rejected by the check, -1 if the propagation ran to its end
+	 */
+	public int run(long maxSteps, Check check) {
+		int n = keys.length;
+		if(queue == null) {
+			queue = newQueue(n);
+			queued = new BitSet(n);
+			for(int k = 0; k < n; k++) {
+				if(parent[k] >= 0) {
+					queue.add(k);
+					queued.set(k);
+				}
+			}
+		}
+		while(!queue.isEmpty()) {
+			if(steps >= maxSteps || isCanceled()) {
+				converged = false;
+				break;
+			}
+			// the blocks ranked before the next one are not processed again
+			int rejected = check(check, tree.rank(queue.peek()));
+			if(rejected >= 0) {
+				return rejected;
+			}
+			int k = queue.poll();
+			queued.clear(k);
+			steps++;
+			process(k, queue, queued, changed);
+		}
+		return check(check, n);
+	}
+
+	/**
+	 * Propagates the exits like {@link #run(long)}, every independent component of blocks on its own
+	 * task. The step limit holds for each component. A propagation already started by a run continues
+	 * on the calling thread.
+	 * @return true if the propagation converged
+	 */
+	public boolean runParallel(long maxSteps) {
+		if(queue != null) {
+			return run(maxSteps);
+		}
+		int[][] components = components();
+		if(components.length < 2) {
+			return run(maxSteps);
+		}
+		List<Component> tasks = new ArrayList<Component>(components.length);
+		for(int[] blocks : components) {
+			tasks.add(new Component(blocks, maxSteps));
+		}
+		ForkJoinTask.invokeAll(tasks);
+		for(Component task : tasks) {
+			changed.or(task.changed);
+			steps += task.steps;
+			converged &= task.converged;
+		}
+		queue = newQueue(1);
+		queued = new BitSet(keys.length);
+		return converged;
+	}
+
+	/**
+	 * The blocks grouped by the containment of their nodes, each group in rank order.
+	 */
+	private int[][] components() {
+		int n = keys.length;
+		int[] set = new int[n];
+		for(int k = 0; k < n; k++) {
+			set[k] = k;
+		}
+		for(int k = 0; k < n; k++) {
+			for(int b = containers[k].nextSetBit(0); b >= 0; b = containers[k].nextSetBit(b + 1)) {
+				int x = find(set, k);
+				int y = find(set, b);
+				if(x != y) {
+					set[x] = y;
+				}
+			}
+		}
+		int[] size = new int[n];
+		for(int k = 0; k < n; k++) {
+			size[find(set, k)]++;
+		}
+		int count = 0;
+		int[][] components = new int[n][];
+		int[] component = new int[n];
+		for(int k = 0; k < n; k++) {
+			if(size[k] > 0) {
+				component[k] = count;
+				components[count++] = new int[size[k]];
+				size[k] = 0;
+			}
+		}
+		for(int r = 0; r < n; r++) {
+			int root = find(set, order[r]);
+			components[component[root]][size[root]++] = order[r];
+		}
+		return Arrays.copyOf(components, count);
+	}
+
+	private static int find(int[] set, int x) {
+		while(set[x] != x) {
+			set[x] = set[set[x]];
+			x = set[x];
+		}
+		return x;
+	}
+
+	/**
+	 * Propagates the exits of one component, with its own queue and changed blocks.
+	 */
+	private final class Component extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int[] blocks;
+		private final long maxSteps;
+		private final BitSet changed = new BitSet(keys.length);
+		private long steps;
+		private boolean converged = true;
+
+		Component(int[] blocks, long maxSteps) {
+			this.blocks = blocks;
+			this.maxSteps = maxSteps;
+		}
+
+		@Override
+		protected void compute() {
+			PriorityQueue<Integer> queue = newQueue(blocks.length);
+			BitSet queued = new BitSet(keys.length);
+			for(int k : blocks) {
+				if(parent[k] >= 0) {
+					queue.add(k);
+					queued.set(k);
+				}
+			}
+			while(!queue.isEmpty()) {
+				if(steps >= maxSteps || isCanceled()) {
+					converged = false;
+					break;
+				}
+				int k = queue.poll();
+				queued.clear(k);
+				steps++;
+				process(k, queue, queued, changed);
+			}
+		}
+	}
+
+	/**
+	 * @return an empty queue of blocks, outer blocks first: a parent is ranked before the blocks nested in it
+	 */
+	private PriorityQueue<Integer> newQueue(int capacity) {
+		return new PriorityQueue<Integer>(Math.max(1, capacity), new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Integer.compare(tree.rank(a), tree.rank(b));
+			}
+		});
+	}
+
+	/**
+	 * Gives the blocks ranked before rank to the check, once each.
+	 * @return the first rejected block, -1 if none
+	 */
+	private int check(Check check, int rank) {
+		if(check == null) {
+			return -1;
+		}
+		while(checked < rank) {
+			int k = order[checked++];
+			if(check.reject(k, block(k))) {
+				return k;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Cuts block k at the exits of its parent, queues the blocks affected by the change.
+	 */
+	private void process(int k, PriorityQueue<Integer> queue, BitSet queued, BitSet changed) {
+		int p = parent[k];
+		if(p < 0) {
+			return;
+		}
+		// paths starting from the parent's exits
+		BitSet extra = extractor.reachability().forward(exit[p]);
+		if(retainEdges) {
+			extra = extractor.retainEdges(extra, VIEW_DAG);
+		}
+		// entries are included because at this point some body nodes may be treated as entries
+		if(!extra.intersects(body[k]) && !extra.intersects(entry[k])) {
+			return;
+		}
+
+		BitSet newBody = (BitSet) body[k].clone();
+		newBody.andNot(extra);
+
+		// exits: leaves of the body with the condition and the parent exits
+		BitSet exitBlock = (BitSet) newBody.clone();
+		exitBlock.set(keys[k]);
+		exitBlock.or(exit[p]);
+		BitSet newExit = BlockBoundary.of(g, extractor.retainEdges(exitBlock, VIEW_CFG), VIEW_CFG, -1).exit();
+
+		// entries: body nodes (and the condition) with a predecessor outside of them
+		BitSet entryBlock = (BitSet) newBody.clone();
+		entryBlock.set(keys[k]);
+		BitSet newEntry = BlockBoundary.entries(g, entryBlock, VIEW_CFG);
+
+		BitSet removed = (BitSet) body[k].clone();
+		removed.andNot(newBody);
+		boolean exitChanged = !newExit.equals(exit[k]);
+		if(exitChanged || !removed.isEmpty() || !newEntry.equals(entry[k])) {
+			changed.set(k);
+		}
+		body[k] = newBody;
+		entry[k] = newEntry;
+		exit[k] = newExit;
+
+		// nodes cut off the body may need a new parent
+		for(int v = removed.nextSetBit(0); v >= 0; v = removed.nextSetBit(v + 1)) {
+			int j = index[v];
+			if(j < 0 || j == k) {
+				continue;
+			}
+			containers[j].clear(k);
+			if(parent[j] == k) {
+				parent[j] = closest(j);
+				enqueue(j, queue, queued);
+			}
+		}
+
+		// children are cut at the exits of this block
+		if(exitChanged) {
+			for(int v = newBody.nextSetBit(0); v >= 0; v = newBody.nextSetBit(v + 1)) {
+				int j = index[v];
+				if(j >= 0 && parent[j] == k) {
+					enqueue(j, queue, queued);
+				}
+			}
+		}
+	}
+
+	private void enqueue(int k, PriorityQueue<Integer> queue, BitSet queued) {
+		if(parent[k] >= 0 && !queued.get(k)) {
+			queue.add(k);
+			queued.set(k);
+		}
+	}
+
+	/**
+	 * @return the innermost block ranked before block k still containing it, -1 if none
+	 */
+	private int closest(int k) {
+		int best = -1;
+		for(int b = containers[k].nextSetBit(0); b >= 0; b = containers[k].nextSetBit(b + 1)) {
+			if(tree.rank(b) < tree.rank(k) && (best < 0 || tree.rank(b) > tree.rank(best))) {
+				best = b;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Makes the runs stop at the next block once the cancellation says so. The blocks are left as
+	 * they are and the propagation is not converged, as when the step limit is reached.
+	 * @param cancellation the cancellation, null for none
+	 */
+	public void setCancellation(Cancellation cancellation) {
+		this.cancellation = cancellation;
+	}
+
+	private boolean isCanceled() {
+		if(!canceled && cancellation != null && cancellation.isCanceled()) {
+			canceled = true;
+		}
+		return canceled;
+	}
+
+	/**
+	 * @return true if a run was stopped by the cancellation
+	 */
+	public boolean canceled() {
+		return canceled;
+	}
+
+	/**
+	 * @return number of blocks processed by {@link #run(long)}
+	 */
+	public long steps() {
+		return steps;
+	}
+
+	public boolean converged() {
+		return converged;
+	}
+
+	/**
+	 * @return the indices of the blocks changed by the propagation
+	 */
+	public BitSet changed() {
+		return changed;
+	}
+
+	/**
+	 * @return the current block of the k-th key, owned by the propagation
+	 */
+	public Block block(int k) {
+		return new Block(entry[k], body[k], exit[k]);
+	}
+
+	/**
+	 * @return the nesting of the current blocks, its parents are the ones of {@link #parent(int)}
+	 */
+	public NestingTree tree() {
+		return new NestingTree(g.size(), keys, body, order);
+	}
+
+	/**
+	 * @return the node id of the k-th key
+	 */
+	public int key(int k) {
+		return keys[k];
+	}
+
+	/**
+	 * @return the node id of the parent of the k-th key, -1 for an outermost block
+	 */
+	public int parent(int k) {
+		return parent[k] < 0 ? -1 : keys[parent[k]];
+	}
+
+	/**
+	 * A step limit generous enough for any function: every block processed once per block it can lose
+	 * or per change of its parent.
+	 */
+	public static long defaultMaxSteps(int blocks) {
+		return (long) blocks * (blocks + 1) + 1;
+	}
+}
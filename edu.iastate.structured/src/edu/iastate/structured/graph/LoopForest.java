@@ -0,0 +1,318 @@
+package edu.iastate.structured.graph;
+
+import static edu.iastate.structured.graph.CFGSnapshot.*;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+* Loop nesting forest of a {@link CFGSnapshot} view, computed with Havlak's algorithm
+* (with Ramalingam's correction for irreducible loops) on int arrays.
+* <p>
+* A depth first search numbers the nodes, an edge to an ancestor in the search tree is a back edge
+* and its target a loop header. Headers are processed innermost first and the nodes of each loop are
+* collapsed into their header with a union-find, so every node ends up with its innermost header.
+* A loop with an entry other than its header is irreducible.
+*
+* @author Le Zhang
+*/
+public final class LoopForest {
+
+	public static final int NONHEADER = 0;
+	public static final int SELF = 1;
+	public static final int REDUCIBLE = 2;
+	public static final int IRREDUCIBLE = 3;
+
+	private final CFGSnapshot g;
+	private final int view;
+	private final int[] header; // innermost header of every node, -1 outside of any loop
+	private final int[] type;
+	private final BitSet backEdges; // successor indices of the snapshot
+
+	private LoopForest(CFGSnapshot g, int view, int[] header, int[] type, BitSet backEdges) {
+		this.g = g;
+		this.view = view;
+		this.header = header;
+		this.type = type;
+		this.backEdges = backEdges;
+	}
+
+	/**
+	 * @param g the snapshot
+	 * @param view the EDGE_* bits to exclude, {@link CFGSnapshot#VIEW_CFG} to find every loop
+	 * @return the loop nesting forest of the view
+	 */
+	public static LoopForest of(CFGSnapshot g, int view) {
+		int n = g.size();
+		int[] number = new int[n]; // preorder number, -1 if not visited yet
+		int[] last = new int[n]; // highest number in the subtree, by number
+		int[] node = new int[n]; // node by number
+		Arrays.fill(number, -1);
+
+		// iterative DFS, every node without a predecessor in the view starts a tree, then whatever is left
+		int[] stack = new int[n];
+		int[] cursor = new int[n];
+		int count = 0;
+		for(int pass = 0; pass < 2; pass++) {
+			for(int r = 0; r < n; r++) {
+				if(number[r] >= 0 || (pass == 0 && hasPredecessor(g, r, view))) {
+					continue;
+				}
+				int top = 0;
+				number[r] = count;
+				node[count++] = r;
+				stack[top] = r;
+				cursor[top++] = g.succBegin(r);
+				while(top > 0) {
+					int v = stack[top - 1];
+					int i = cursor[top - 1];
+					if(i < g.succEnd(v)) {
+						cursor[top - 1]++;
+						int w = g.succTarget(i);
+						if((g.succFlags(i) & view) == 0 && number[w] < 0) {
+							number[w] = count;
+							node[count++] = w;
+							stack[top] = w;
+							cursor[top++] = g.succBegin(w);
+						}
+					}else {
+						last[number[v]] = count - 1;
+						top--;
+					}
+				}
+			}
+		}
+
+		// predecessors by number, split in back edge sources and the others
+		int[] backOffsets = new int[n + 1];
+		int[] otherOffsets = new int[n + 1];
+		BitSet backEdges = new BitSet(g.edgeCount());
+		for(int v = 0; v < n; v++) {
+			for(int i = g.succBegin(v); i < g.succEnd(v); i++) {
+				if((g.succFlags(i) & view) != 0) {
+					continue;
+				}
+				int w = number[g.succTarget(i)];
+				if(isAncestor(w, number[v], last)) {
+					backOffsets[w + 1]++;
+					backEdges.set(i);
+				}else {
+					otherOffsets[w + 1]++;
+				}
+			}
+		}
+		for(int w = 0; w < n; w++) {
+			backOffsets[w + 1] += backOffsets[w];
+			otherOffsets[w + 1] += otherOffsets[w];
+		}
+		int[] backPreds = new int[backOffsets[n]];
+		int[] otherPreds = new int[otherOffsets[n]];
+		int[] backFill = Arrays.copyOf(backOffsets, n);
+		int[] otherFill = Arrays.copyOf(otherOffsets, n);
+		for(int v = 0; v < n; v++) {
+			for(int i = g.succBegin(v); i < g.succEnd(v); i++) {
+				if((g.succFlags(i) & view) != 0) {
+					continue;
+				}
+				int w = number[g.succTarget(i)];
+				if(backEdges.get(i)) {
+					backPreds[backFill[w]++] = number[v];
+				}else {
+					otherPreds[otherFill[w]++] = number[v];
+				}
+			}
+		}
+
+		// collapse the loops, innermost (highest number) header first
+		int[] headerByNumber = new int[n];
+		int[] typeByNumber = new int[n];
+		int[] set = new int[n];
+		for(int x = 0; x < n; x++) {
+			headerByNumber[x] = -1;
+			set[x] = x;
+		}
+		int[] body = new int[n];
+		BitSet inBody = new BitSet(n);
+		// entries of collapsed loops coming from outside of their header's subtree, per representative
+		int[][] extraPreds = new int[n][];
+		int[] extraCount = new int[n];
+		for(int w = n - 1; w >= 0; w--) {
+			int size = 0;
+			for(int i = backOffsets[w]; i < backOffsets[w + 1]; i++) {
+				int v = backPreds[i];
+				if(v == w) {
+					typeByNumber[w] = SELF;
+				}else {
+					int x = find(set, v);
+					if(!inBody.get(x)) {
+						inBody.set(x);
+						body[size++] = x;
+					}
+				}
+			}
+			if(size > 0) {
+				typeByNumber[w] = REDUCIBLE;
+			}
+			for(int k = 0; k < size; k++) {
+				int x = body[k];
+				for(int pass = 0; pass < 2; pass++) {
+					int from = pass == 0 ? otherOffsets[x] : 0;
+					int to = pass == 0 ? otherOffsets[x + 1] : extraCount[x];
+					for(int i = from; i < to; i++) {
+						int y = find(set, pass == 0 ? otherPreds[i] : extraPreds[x][i]);
+						if(!isAncestor(w, y, last)) {
+							typeByNumber[w] = IRREDUCIBLE;
+							extraPreds[w] = add(extraPreds[w], extraCount[w]++, y);
+						}else if(y != w && !inBody.get(y)) {
+							inBody.set(y);
+							body[size++] = y;
+						}
+					}
+				}
+			}
+			for(int k = 0; k < size; k++) {
+				int x = body[k];
+				headerByNumber[x] = w;
+				set[x] = w;
+				inBody.clear(x);
+			}
+		}
+
+		int[] header = new int[n];
+		int[] type = new int[n];
+		for(int x = 0; x < n; x++) {
+			header[node[x]] = headerByNumber[x] < 0 ? -1 : node[headerByNumber[x]];
+			type[node[x]] = typeByNumber[x];
+		}
+		return new LoopForest(g, view, header, type, backEdges);
+	}
+
+	private static boolean hasPredecessor(CFGSnapshot g, int v, int view) {
+		for(int i = g.predBegin(v); i < g.predEnd(v); i++) {
+			if((g.predFlags(i) & view) == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isAncestor(int w, int v, int[] last) {
+		return w <= v && v <= last[w];
+	}
+
+	private static int find(int[] set, int x) {
+		int root = x;
+		while(set[root] != root) {
+			root = set[root];
+		}
+		while(set[x] != root) {
+			int next = set[x];
+			set[x] = root;
+			x = next;
+		}
+		return root;
+	}
+
+	private static int[] add(int[] array, int size, int value) {
+		if(array == null) {
+			array = new int[4];
+		}else if(size == array.length) {
+			array = Arrays.copyOf(array, size * 2);
+		}
+		array[size] = value;
+		return array;
+	}
+
+	/**
+	 * @return the innermost loop header containing v, -1 if v is not in a loop (a header is not in its own loop)
+	 */
+	public int header(int v) {
+		return header[v];
+	}
+
+	/**
+	 * @return one of {@link #NONHEADER}, {@link #SELF}, {@link #REDUCIBLE}, {@link #IRREDUCIBLE}
+	 */
+	public int type(int v) {
+		return type[v];
+	}
+
+	public boolean isHeader(int v) {
+		return type[v] != NONHEADER;
+	}
+
+	/**
+	 * @return the loop headers
+	 */
+	public BitSet headers() {
+		BitSet headers = new BitSet(header.length);
+		for(int v = 0; v < header.length; v++) {
+			if(isHeader(v)) {
+				headers.set(v);
+			}
+		}
+		return headers;
+	}
+
+	/**
+	 * @return the nodes whose innermost header is h, nested headers included
+	 */
+	public BitSet members(int h) {
+		BitSet members = new BitSet(header.length);
+		for(int v = 0; v < header.length; v++) {
+			if(header[v] == h) {
+				members.set(v);
+			}
+		}
+		return members;
+	}
+
+	/**
+	 * @return the header and every node of its loop and of the loops nested in it
+	 */
+	public BitSet loop(int h) {
+		BitSet loop = new BitSet(header.length);
+		loop.set(h);
+		for(int v = 0; v < header.length; v++) {
+			int x = header[v];
+			while(x >= 0 && x != h) {
+				x = header[x];
+			}
+			if(x == h) {
+				loop.set(v);
+			}
+		}
+		return loop;
+	}
+
+	/**
+	 * @return the successor indices of the back edges, the edges to an ancestor in the search tree
+	 */
+	public BitSet backEdges() {
+		return (BitSet) backEdges.clone();
+	}
+
+	/**
+	 * A do-while loop tests its condition at the bottom: the header is not a condition, and a back edge
+	 * leaves a condition with another successor outside of the loop.
+	 * @return true if h heads a do-while loop
+	 */
+	public boolean isDoWhile(int h) {
+		if(type[h] != REDUCIBLE || g.has(h, TAG_CONDITION)) {
+			return false;
+		}
+		BitSet loop = loop(h);
+		for(int i = g.predBegin(h); i < g.predEnd(h); i++) {
+			int latch = g.predSource(i);
+			if((g.predFlags(i) & view) != 0 || !loop.get(latch) || !g.has(latch, TAG_CONDITION)) {
+				continue;
+			}
+			for(int j = g.succBegin(latch); j < g.succEnd(latch); j++) {
+				if((g.succFlags(j) & view) == 0 && !loop.get(g.succTarget(j))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
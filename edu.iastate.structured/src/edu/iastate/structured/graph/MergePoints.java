@@ -0,0 +1,174 @@
+package edu.iastate.structured.graph;
+
+import static edu.iastate.structured.graph.CFGSnapshot.*;
+
+import java.util.BitSet;
+
+/**
+* Finds where the branches of an if or switch condition meet again.
+* <p>
+* The nodes reachable from two or more branches (the joint part) are cut away from the block and
+* only the first of them, the merge points, are kept as exits. The nearest common post-dominator of
+* the branches on the DAG (usually the immediate post-dominator of the condition) is the point where
+* all branches meet, everything after it is joint, so the search never goes past it. Before that point a goto (or a case falling through) can make some of
+* the branches meet early, or make a branch leave without meeting the others at all. These partial
+* merges are found by one sweep over the nodes in front of the post-dominator in topological order,
+* recording for every node which branch reaches it (or that several do). The cost is linear in the
+* size of the block, independent of the number of branches.
+*
+* @author Le Zhang
+*/
+public class MergePoints {
+	private static final int NONE = -1;
+	private static final int SHARED = -2;
+
+	private final CFGSnapshot g;
+	private final DominatorTree postDominators;
+
+	/**
+	 * @param snapshot the function
+	 * @param postDominators the post-dominator tree of the DAG, may be null
+	 */
+	public MergePoints(CFGSnapshot snapshot, DominatorTree postDominators) {
+		this.g = snapshot;
+		this.postDominators = postDominators;
+	}
+
+	/**
+	 * The nodes under the branches of a condition without the joint part, plus the merge points.
+	 * This is the set the extractors used to compute by intersecting the DAG paths of every pair of branches.
+	 * @param c the condition
+	 */
+	public BitSet branchRegion(int c) {
+		BitSet branches = new BitSet(g.size());
+		for(int i = g.succBegin(c); i < g.succEnd(c); i++) {
+			branches.set(g.succTarget(i));
+		}
+		if(branches.cardinality() < 2) {
+			return g.forward(branches, VIEW_DAG);
+		}
+		if(!g.isTopological()) {
+			return pairwiseRegion(branches);
+		}
+
+		// all branches meet at their nearest common post-dominator, do not look past it
+		int stop = commonPostDominator(branches);
+		BitSet region = new BitSet(g.size());
+		int[] stack = new int[g.size()];
+		int top = 0;
+		for(int b = branches.nextSetBit(0); b >= 0; b = branches.nextSetBit(b + 1)) {
+			region.set(b);
+			stack[top++] = b;
+		}
+		while(top > 0) {
+			int v = stack[--top];
+			if(v == stop) {
+				continue;
+			}
+			for(int i = g.succBegin(v); i < g.succEnd(v); i++) {
+				int w = g.succTarget(i);
+				if((g.succFlags(i) & VIEW_DAG) == 0 && !region.get(w)) {
+					region.set(w);
+					stack[top++] = w;
+				}
+			}
+		}
+
+		// ids are topological: every predecessor inside the region is labeled before the node itself
+		int[] origin = new int[g.size()];
+		BitSet joint = new BitSet(g.size());
+		int ordinal = 0;
+		for(int v = region.nextSetBit(0); v >= 0; v = region.nextSetBit(v + 1)) {
+			int label = branches.get(v) ? ordinal++ : NONE;
+			for(int i = g.predBegin(v); i < g.predEnd(v) && label != SHARED; i++) {
+				int p = g.predSource(i);
+				if((g.predFlags(i) & VIEW_DAG) == 0 && region.get(p)) {
+					label = merge(label, origin[p]);
+				}
+			}
+			origin[v] = label;
+			if(label == SHARED) {
+				joint.set(v);
+			}
+		}
+		if(joint.isEmpty()) {
+			return region;
+		}
+		BitSet sub = (BitSet) region.clone();
+		sub.andNot(joint);
+		sub.or(mergeRoots(joint));
+		return sub;
+	}
+
+	/**
+	 * The nearest node post-dominating every branch, -1 if they only meet at the virtual exit.
+	 * For a condition whose branches all leave through DAG edges this is its immediate post-dominator,
+	 * a branch taken through a back edge is not bounded by that, so the branches are used directly.
+	 */
+	private int commonPostDominator(BitSet branches) {
+		if(postDominators == null) {
+			return -1;
+		}
+		int stop = branches.nextSetBit(0);
+		for(int b = branches.nextSetBit(stop + 1); b >= 0 && stop >= 0; b = branches.nextSetBit(b + 1)) {
+			while(stop >= 0 && !postDominators.dominates(stop, b)) {
+				stop = postDominators.idom(stop);
+			}
+		}
+		return stop;
+	}
+
+	private static int merge(int a, int b) {
+		if(a == NONE) {
+			return b;
+		}
+		if(b == NONE || a == b) {
+			return a;
+		}
+		return SHARED;
+	}
+
+	/**
+	 * Members of the joint part without a DAG predecessor in the joint part.
+	 */
+	private BitSet mergeRoots(BitSet joint) {
+		BitSet roots = new BitSet(g.size());
+		for(int v = joint.nextSetBit(0); v >= 0; v = joint.nextSetBit(v + 1)) {
+			boolean root = true;
+			for(int i = g.predBegin(v); i < g.predEnd(v) && root; i++) {
+				if((g.predFlags(i) & VIEW_DAG) == 0 && joint.get(g.predSource(i))) {
+					root = false;
+				}
+			}
+			if(root) {
+				roots.set(v);
+			}
+		}
+		return roots;
+	}
+
+	/**
+	 * Fallback for graphs whose DAG still has a cycle (untagged back edges), where no topological sweep exists.
+	 */
+	private BitSet pairwiseRegion(BitSet branches) {
+		BitSet once = new BitSet(g.size());
+		BitSet twice = new BitSet(g.size());
+		BitSet single = new BitSet(g.size());
+		for(int b = branches.nextSetBit(0); b >= 0; b = branches.nextSetBit(b + 1)) {
+			single.clear();
+			single.set(b);
+			BitSet path = g.forward(single, VIEW_DAG);
+			BitSet shared = (BitSet) once.clone();
+			shared.and(path);
+			twice.or(shared);
+			once.or(path);
+		}
+		if(twice.isEmpty()) {
+			return once;
+		}
+		BitSet sub = (BitSet) once.clone();
+		sub.andNot(twice);
+		sub.or(mergeRoots(twice));
+		return sub;
+	}
+}
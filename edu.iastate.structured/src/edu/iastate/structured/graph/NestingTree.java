@@ -0,0 +1,158 @@
+package edu.iastate.structured.graph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+
+/**
+* How the blocks of a function nest: the parent of a block is the innermost other block whose body
+* contains its selectable node.
+* <p>
+* Blocks are ranked by body size, largest first, and walked once in that order while an owner array
+* remembers the last (so smallest) block seen containing each selectable node. When a block is
+* reached its owner is its parent. A parent always has a lower rank than its child, so the tree has
+* no cycles even when two bodies contain each other's node. The build is linear in the total size of
+* the bodies, no distance on the DAG is needed.
+*
+* @author Le Zhang
+*/
+public final class NestingTree {
+	private final int[] keys;
+	private final int[] order; // block indices by rank
+	private final int[] rank;
+	private final int[] parent; // block index, -1 for none
+	private final int[] depth;
+	private final int[][] children;
+
+	/**
+	 * Ranks the blocks by body size, largest first, ties by index.
+	 * @param size number of nodes of the snapshot
+	 * @param keys the selectable node id of every block
+	 * @param bodies the body of every block
+	 */
+	public NestingTree(int size, int[] keys, BitSet[] bodies) {
+		this(size, keys, bodies, sizeOrder(bodies));
+	}
+
+	/**
+	 * @param size number of nodes of the snapshot
+	 * @param keys the selectable node id of every block
+	 * @param bodies the body of every block
+	 * @param order the block indices by rank, a block can only be nested in a block before it
+	 */
+	public NestingTree(int size, int[] keys, BitSet[] bodies, int[] order) {
+		int n = keys.length;
+		this.keys = keys.clone();
+		this.order = order.clone();
+		this.rank = new int[n];
+		this.parent = new int[n];
+		this.depth = new int[n];
+
+		int[] index = new int[size];
+		Arrays.fill(index, -1);
+		for(int k = 0; k < n; k++) {
+			index[keys[k]] = k;
+		}
+		int[] owner = new int[n]; // per block, the innermost block seen so far containing its node
+		Arrays.fill(owner, -1);
+		int[] count = new int[n];
+		for(int r = 0; r < n; r++) {
+			int k = order[r];
+			rank[k] = r;
+			int p = owner[k];
+			parent[k] = p;
+			depth[k] = p < 0 ? 0 : depth[p] + 1;
+			if(p >= 0) {
+				count[p]++;
+			}
+			for(int v = bodies[k].nextSetBit(0); v >= 0; v = bodies[k].nextSetBit(v + 1)) {
+				int j = index[v];
+				if(j >= 0 && j != k) {
+					owner[j] = k;
+				}
+			}
+		}
+
+		this.children = new int[n][];
+		for(int k = 0; k < n; k++) {
+			children[k] = new int[count[k]];
+			count[k] = 0;
+		}
+		for(int r = 0; r < n; r++) {
+			int k = order[r];
+			if(parent[k] >= 0) {
+				children[parent[k]][count[parent[k]]++] = k;
+			}
+		}
+	}
+
+	private static int[] sizeOrder(BitSet[] bodies) {
+		final int n = bodies.length;
+		final int[] size = new int[n];
+		Integer[] sorted = new Integer[n];
+		for(int k = 0; k < n; k++) {
+			size[k] = bodies[k].cardinality();
+			sorted[k] = k;
+		}
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return size[a] != size[b] ? Integer.compare(size[b], size[a]) : Integer.compare(a, b);
+			}
+		});
+		int[] order = new int[n];
+		for(int r = 0; r < n; r++) {
+			order[r] = sorted[r];
+		}
+		return order;
+	}
+
+	/**
+	 * @return number of blocks
+	 */
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * @return the selectable node id of block k
+	 */
+	public int key(int k) {
+		return keys[k];
+	}
+
+	/**
+	 * @return the block indices by rank, parents before their children
+	 */
+	public int[] order() {
+		return order.clone();
+	}
+
+	/**
+	 * @return the position of block k in {@link #order()}
+	 */
+	public int rank(int k) {
+		return rank[k];
+	}
+
+	/**
+	 * @return the index of the parent block of block k, -1 for an outermost block
+	 */
+	public int parent(int k) {
+		return parent[k];
+	}
+
+	/**
+	 * @return number of ancestors of block k, 0 for an outermost block
+	 */
+	public int depth(int k) {
+		return depth[k];
+	}
+
+	/**
+	 * @return the indices of the blocks nested directly in block k, by rank
+	 */
+	public int[] children(int k) {
+		return children[k].clone();
+	}
+}
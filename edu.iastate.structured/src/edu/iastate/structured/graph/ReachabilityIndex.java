@@ -0,0 +1,211 @@
+package edu.iastate.structured.graph;
+
+import static edu.iastate.structured.graph.CFGSnapshot.*;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+* Forward reachability over the DAG (CFG without back edges) of a {@link CFGSnapshot}.
+* <p>
+* Up to {@link #maxNodes()} nodes the rows of all nodes are computed up front, in reverse topological
+* order, by or-ing the rows of the DAG successors word by word. Because the ids are topological a row
+* only holds ids from its own node on, so it is stored from the word of its node on, and as a sorted id
+* array when that is smaller (long straight-line tails). A forward query is then a copy (one seed) or an
+* or of rows (several seeds), no traversal.
+* <p>
+* Larger functions, or snapshots whose DAG still has a cycle, are answered on demand: single seed rows
+* are traversed once and memoized, the memo is evicted least recently used once it holds as many words
+* as a full index of maxNodes nodes would, so memory stays bounded.
+*
+* @author Le Zhang
+*/
+public final class ReachabilityIndex {
+	/** Default size limit for the precomputed index, 4096 nodes take at most 2 MB of rows. */
+	public static final int DEFAULT_MAX_NODES = 4096;
+
+	private final CFGSnapshot g;
+	private final int maxNodes;
+	private final int words;
+
+	// precomputed rows: one of the two is set for every node
+	private final long[][] denseRows;
+	private final int[][] sparseRows;
+
+	// on demand rows
+	private final Map<Integer, BitSet> memo;
+	private final long memoBudget;
+	private long memoWords;
+
+	public ReachabilityIndex(CFGSnapshot snapshot) {
+		this(snapshot, DEFAULT_MAX_NODES);
+	}
+
+	/**
+	 * @param snapshot the function
+	 * @param maxNodes functions with more nodes are answered on demand
+	 */
+	public ReachabilityIndex(CFGSnapshot snapshot, int maxNodes) {
+		this.g = snapshot;
+		this.maxNodes = maxNodes;
+		this.words = (snapshot.size() + 63) >>> 6;
+		if(snapshot.isTopological() && snapshot.size() <= maxNodes) {
+			this.denseRows = new long[snapshot.size()][];
+			this.sparseRows = new int[snapshot.size()][];
+			this.memo = null;
+			this.memoBudget = 0;
+			build();
+		}else {
+			this.denseRows = null;
+			this.sparseRows = null;
+			this.memo = new LinkedHashMap<Integer, BitSet>(16, 0.75f, true);
+			this.memoBudget = (long) maxNodes * ((maxNodes + 63) >>> 6);
+		}
+	}
+
+	/**
+	 * @return true if every row was computed up front
+	 */
+	public boolean isPrecomputed() {
+		return denseRows != null;
+	}
+
+	public int maxNodes() {
+		return maxNodes;
+	}
+
+	private void build() {
+		long[] scratch = new long[words];
+		for(int v = g.size() - 1; v >= 0; v--) {
+			int base = v >>> 6;
+			for(int w = base; w < words; w++) {
+				scratch[w] = 0L;
+			}
+			scratch[base] = 1L << v;
+			for(int i = g.succBegin(v); i < g.succEnd(v); i++) {
+				if((g.succFlags(i) & VIEW_DAG) == 0) {
+					or(scratch, g.succTarget(i));
+				}
+			}
+			store(v, scratch);
+		}
+	}
+
+	/**
+	 * Stores the row of v from its base word on, as ids if that takes less memory than the words.
+	 */
+	private void store(int v, long[] row) {
+		int base = v >>> 6;
+		int last = words - 1;
+		while(last > base && row[last] == 0L) {
+			last--;
+		}
+		int count = 0;
+		for(int w = base; w <= last; w++) {
+			count += Long.bitCount(row[w]);
+		}
+		int length = last - base + 1;
+		if(count < 2 * length) {
+			int[] ids = new int[count];
+			int k = 0;
+			for(int w = base; w <= last; w++) {
+				for(long bits = row[w]; bits != 0L; bits &= bits - 1) {
+					ids[k++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+				}
+			}
+			sparseRows[v] = ids;
+		}else {
+			long[] dense = new long[length];
+			System.arraycopy(row, base, dense, 0, length);
+			denseRows[v] = dense;
+		}
+	}
+
+	/**
+	 * Ors the precomputed row of v into target.
+	 */
+	private void or(long[] target, int v) {
+		long[] dense = denseRows[v];
+		if(dense != null) {
+			int base = v >>> 6;
+			for(int w = 0; w < dense.length; w++) {
+				target[base + w] |= dense[w];
+			}
+		}else {
+			for(int id : sparseRows[v]) {
+				target[id >>> 6] |= 1L << id;
+			}
+		}
+	}
+
+	/**
+	 * Nodes reachable from v on the DAG, v included.
+	 * The result is a fresh set owned by the caller.
+	 */
+	public BitSet forward(int v) {
+		if(isPrecomputed()) {
+			long[] row = new long[words];
+			or(row, v);
+			return BitSet.valueOf(row);
+		}
+		return (BitSet) memoized(v).clone();
+	}
+
+	/**
+	 * Nodes reachable from the seeds on the DAG, seeds included, same as {@link CFGSnapshot#forward(BitSet, int)} with {@link CFGSnapshot#VIEW_DAG}.
+	 * The result is a fresh set owned by the caller.
+	 */
+	public BitSet forward(BitSet seeds) {
+		if(isPrecomputed()) {
+			long[] row = new long[words];
+			for(int v = seeds.nextSetBit(0); v >= 0; v = seeds.nextSetBit(v + 1)) {
+				or(row, v);
+			}
+			return BitSet.valueOf(row);
+		}
+		int first = seeds.nextSetBit(0);
+		if(first >= 0 && seeds.nextSetBit(first + 1) < 0) {
+			return forward(first);
+		}
+		// one traversal for all seeds, rows of several seeds are not worth keeping
+		return g.forward(seeds, VIEW_DAG);
+	}
+
+	/**
+	 * @return true if b is reachable from a on the DAG
+	 */
+	public boolean reaches(int a, int b) {
+		if(isPrecomputed()) {
+			long[] dense = denseRows[a];
+			if(dense != null) {
+				int w = (b >>> 6) - (a >>> 6);
+				return w >= 0 && w < dense.length && (dense[w] & (1L << b)) != 0L;
+			}
+			return Arrays.binarySearch(sparseRows[a], b) >= 0;
+		}
+		return memoized(a).get(b);
+	}
+
+	private synchronized BitSet memoized(int v) {
+		BitSet row = memo.get(v);
+		if(row == null) {
+			BitSet seed = new BitSet(g.size());
+			seed.set(v);
+			row = g.forward(seed, VIEW_DAG);
+			memo.put(v, row);
+			memoWords += wordsOf(row);
+			while(memoWords > memoBudget && memo.size() > 1) {
+				Map.Entry<Integer, BitSet> eldest = memo.entrySet().iterator().next();
+				memoWords -= wordsOf(eldest.getValue());
+				memo.remove(eldest.getKey());
+			}
+		}
+		return row;
+	}
+
+	private static long wordsOf(BitSet row) {
+		return (row.length() + 63) >>> 6;
+	}
+}
@@ -0,0 +1,110 @@
+package edu.iastate.structured.graph;
+
+import static edu.iastate.structured.graph.CFGSnapshot.*;
+
+import java.util.BitSet;
+
+/**
+* Decides whether a function is structured from the shape of its CFG, without extracting any block.
+* <p>
+* A CFG with an irreducible loop is unstructured: the loop is also entered at a node other than its
+* header, the header is reported as offending node. A reducible CFG without goto is structured. Otherwise every
+* goto is checked on its own: it enters a block from outside when its label lies in the region of a
+* condition, between the condition and its immediate post-dominator on the DAG, while the goto does
+* not. The label is then a second entry of that block and the offending node. Gotos that only leave
+* blocks are not decided here, the full analysis has to look at them.
+* <p>
+* The loop forest, the post-dominator tree and the reachability queries are linear or close to linear in
+* the size of the CFG, the goto check adds one backward search per goto.
+*
+* @author Le Zhang
+*/
+public final class ReducibilityOracle {
+
+	public static final int STRUCTURED = 0;
+	public static final int UNSTRUCTURED = 1;
+	public static final int UNDECIDED = 2;
+
+	private final int verdict;
+	private final int offender;
+
+	private ReducibilityOracle(int verdict, int offender) {
+		this.verdict = verdict;
+		this.offender = offender;
+	}
+
+	/**
+	 * @param g the snapshot, taken after the loops of the function were recovered
+	 * @param reachability the forward reachability index of the DAG of g
+	 * @return the verdict on the function of g
+	 */
+	public static ReducibilityOracle decide(CFGSnapshot g, ReachabilityIndex reachability) {
+		if(!g.isTopological()) {
+			// a cycle left in the DAG, the back edges are not known
+			return new ReducibilityOracle(UNDECIDED, -1);
+		}
+		LoopForest loops = LoopForest.of(g, VIEW_CFG);
+		BitSet headers = loops.headers();
+		for(int h = headers.nextSetBit(0); h >= 0; h = headers.nextSetBit(h + 1)) {
+			if(loops.type(h) == LoopForest.IRREDUCIBLE) {
+				return new ReducibilityOracle(UNSTRUCTURED, h);
+			}
+		}
+		BitSet gotos = g.tagged(TAG_GOTO);
+		if(gotos.isEmpty()) {
+			return new ReducibilityOracle(STRUCTURED, -1);
+		}
+
+		DominatorTree postDominators = DominatorTree.postDominators(g, VIEW_DAG);
+		BitSet conditions = g.tagged(TAG_IF | TAG_SWITCH | TAG_LOOP_CONDITION);
+		for(int s = gotos.nextSetBit(0); s >= 0; s = gotos.nextSetBit(s + 1)) {
+			for(int i = g.succBegin(s); i < g.succEnd(s); i++) {
+				int label = g.succTarget(i);
+				BitSet candidates = g.reverse(single(label), VIEW_DAG);
+				candidates.and(conditions);
+				candidates.clear(label);
+				for(int c = candidates.nextSetBit(0); c >= 0; c = candidates.nextSetBit(c + 1)) {
+					int merge = postDominators.idom(c);
+					if(inRegion(reachability, c, merge, label) && !inRegion(reachability, c, merge, s)) {
+						return new ReducibilityOracle(UNSTRUCTURED, label);
+					}
+				}
+			}
+		}
+		return new ReducibilityOracle(UNDECIDED, -1);
+	}
+
+	/**
+	 * @return true if v is reached from c on the DAG before the merge point, -1 for the virtual exit
+	 */
+	private static boolean inRegion(ReachabilityIndex reachability, int c, int merge, int v) {
+		if(v == c || !reachability.reaches(c, v)) {
+			return false;
+		}
+		return merge < 0 || (v != merge && reachability.reaches(v, merge));
+	}
+
+	/**
+	 * @return one of {@link #STRUCTURED}, {@link #UNSTRUCTURED}, {@link #UNDECIDED}
+	 */
+	public int verdict() {
+		return verdict;
+	}
+
+	public boolean isDecided() {
+		return verdict != UNDECIDED;
+	}
+
+	/**
+	 * @return the first node found entering a block a second time, -1 unless {@link #UNSTRUCTURED}
+	 */
+	public int offender() {
+		return offender;
+	}
+
+	private static BitSet single(int v) {
+		BitSet s = new BitSet();
+		s.set(v);
+		return s;
+	}
+}
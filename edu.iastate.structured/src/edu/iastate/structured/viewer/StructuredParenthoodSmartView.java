@@ -6,6 +6,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+
 import com.ensoftcorp.atlas.core.db.graph.Node;
 import com.ensoftcorp.atlas.core.db.graph.Edge;
 import com.ensoftcorp.atlas.core.db.graph.Graph;
@@ -20,7 +22,12 @@ import com.ensoftcorp.atlas.core.xcsg.XCSG;
 import com.ensoftcorp.atlas.ui.scripts.selections.FilteringAtlasSmartViewScript;
 import com.ensoftcorp.atlas.ui.selection.event.IAtlasSelectionEvent;
 import com.ensoftcorp.open.c.commons.analysis.CommonQueries;
+import edu.iastate.structured.core.BackgroundAnalysis;
+import edu.iastate.structured.core.Prefetcher;
 import edu.iastate.structured.core.Structured;
+import edu.iastate.structured.core.StructureResult;
+import edu.iastate.structured.core.UniverseLock;
+import edu.iastate.structured.core.ViewCache;
 
 import edu.iastate.structured.log.Log;
 
@@ -30,6 +37,18 @@ import edu.iastate.structured.log.Log;
  */
 public class StructuredParenthoodSmartView extends FilteringAtlasSmartViewScript {
 	private Node prevFun = null;
+	private final BackgroundAnalysis analysis = new BackgroundAnalysis("Structured");
+
+	public StructuredParenthoodSmartView() {
+		// the callees and callers of the function shown are analyzed ahead of time
+		analysis.setPrefetcher(new Prefetcher("Structured", new Prefetcher.Analysis() {
+			@Override
+			public StructureResult analyze(Node function, IProgressMonitor monitor) {
+				return Structured.analyze(CommonQueries.cfg(Common.toQ(function)).eval(), monitor);
+			}
+		}));
+	}
+
 	@Override
 	public String[] getSupportedNodeTags() { // Event Trigger
 		return new String[]{XCSG.Function, XCSG.ControlFlow_Node};
@@ -49,69 +68,38 @@ public class StructuredParenthoodSmartView extends FilteringAtlasSmartViewScript
 			
 			if(prevFun!= null && prevFun == functions.eval().nodes().one()) {
 				Log.info("Re-Selected " + functions.eval().nodes().one().getAttr(XCSG.name));
-				
-				Q cfgQ = CommonQueries.cfg(functions);
-				
-				Map<Node, Node> map_parent = Structured.getParentMap(cfgQ.eval());
-				
-				AtlasSet<Node> allSelectable = cfgQ.nodesTaggedWithAny("STRUCT_SELECTABLE").eval().nodes();
-				
-				AtlasSet<Edge> edgeSet = new AtlasHashSet<Edge>();
-				
-				AtlasSet<Node> nodeSet = new AtlasHashSet<Node>();
-				
-				for(Node n : allSelectable) {
-					if(map_parent.keySet().contains(n)) {
-						Edge e = Graph.U.createEdge(map_parent.get(n), n);
-						edgeSet.add(e);
-					}else {
-						nodeSet.add(n);
-					}
-				}
-				
-				Q parenthood = Common.toQ(edgeSet).union(Common.toQ(nodeSet));
-				
-									
-				Markup m = new Markup();
-//				m.setEdge(Common.codemap().edges(XCSG.ControlFlowBackEdge), MarkupProperty.EDGE_COLOR, Color.BLUE);
-
-				Log.info("Function finished");
-				return new StyledResult(parenthood, m);
+			}else {
+				Log.info("Function selected");
 			}
 			
 			prevFun = functions.eval().nodes().one();
 			
-			Log.info("Function selected");
-			Q cfgQ = CommonQueries.cfg(functions);
+			final Q cfgQ = CommonQueries.cfg(functions);
 			
 //			GraphAnalyzer ga = new GraphAnalyzer();
-			Structured.analyze(cfgQ.eval());
-			
-			Map<Node, Node> map_parent = Structured.getParentMap(cfgQ.eval());
-			
-			AtlasSet<Node> allSelectable = cfgQ.nodesTaggedWithAny("STRUCT_SELECTABLE").eval().nodes();
-			
-			AtlasSet<Edge> edgeSet = new AtlasHashSet<Edge>();
-			
-			AtlasSet<Node> nodeSet = new AtlasHashSet<Node>();
-			
-			for(Node n : allSelectable) {
-				if(map_parent.keySet().contains(n)) {
-					Edge e = Graph.U.createEdge(map_parent.get(n), n);
-					edgeSet.add(e);
-				}else {
-					nodeSet.add(n);
+			// shares the blocks of the control blocks view, the overlay is built once per function
+			final ViewCache.Entry entry = analysis.request(prevFun, new BackgroundAnalysis.Analysis() {
+				@Override
+				public StructureResult analyze(IProgressMonitor monitor) {
+					return Structured.analyze(cfgQ.eval(), monitor);
 				}
+			});
+			if(entry == null) {
+				// still running, the overlay is shown on the next selection
+				return new StyledResult(cfgQ, new Markup());
 			}
-			
-			Q parenthood = Common.toQ(edgeSet).union(Common.toQ(nodeSet));
-			
+			Graph parenthood = entry.parenthood(new ViewCache.Factory<Graph>() {
+				@Override
+				public Graph create() {
+					return parenthood(cfgQ, entry.result().parents());
+				}
+			});
 								
 			Markup m = new Markup();
 //			m.setEdge(Common.codemap().edges(XCSG.ControlFlowBackEdge), MarkupProperty.EDGE_COLOR, Color.BLUE);
 
 			Log.info("Function finished");
-			return new StyledResult(parenthood, m);
+			return new StyledResult(Common.toQ(parenthood), m);
 			
 		}
 		
@@ -119,6 +107,30 @@ public class StructuredParenthoodSmartView extends FilteringAtlasSmartViewScript
 		
 	}
 
+	/**
+	 * @return the selectable nodes of the cfg, with an edge from the parent to each nested one
+	 */
+	private static Graph parenthood(Q cfgQ, Map<Node, Node> map_parent) {
+		AtlasSet<Node> allSelectable = cfgQ.nodesTaggedWithAny("STRUCT_SELECTABLE").eval().nodes();
+		
+		AtlasSet<Edge> edgeSet = new AtlasHashSet<Edge>();
+		
+		AtlasSet<Node> nodeSet = new AtlasHashSet<Node>();
+		
+		synchronized(UniverseLock.WRITE) {
+			for(Node n : allSelectable) {
+				if(map_parent.keySet().contains(n)) {
+					Edge e = Graph.U.createEdge(map_parent.get(n), n);
+					edgeSet.add(e);
+				}else {
+					nodeSet.add(n);
+				}
+			}
+		}
+		
+		return Common.toQ(edgeSet).union(Common.toQ(nodeSet)).eval();
+	}
+
 	@Override
 	public String getTitle() {
 		return "TEST-Structured Code View-Parenthood";
@@ -8,6 +8,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+
 import com.ensoftcorp.atlas.core.db.graph.Node;
 import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
 import com.ensoftcorp.atlas.core.db.set.AtlasSet;
@@ -21,7 +23,11 @@ import com.ensoftcorp.atlas.ui.scripts.selections.FilteringAtlasSmartViewScript;
 import com.ensoftcorp.atlas.ui.selection.event.IAtlasSelectionEvent;
 import com.ensoftcorp.open.c.commons.analysis.CommonQueries;
 
+import edu.iastate.structured.core.BackgroundAnalysis;
+import edu.iastate.structured.core.Prefetcher;
 import edu.iastate.structured.core.Structured;
+import edu.iastate.structured.core.StructureResult;
+import edu.iastate.structured.core.ViewCache;
 import edu.iastate.structured.log.Log;
 
 /**
@@ -29,12 +35,23 @@ import edu.iastate.structured.log.Log;
  * the start of the loop is highlighted in blue.
  */
 public class StructuredSmartView2 extends FilteringAtlasSmartViewScript {
-	private Map<Node, List<AtlasSet<Node>>> map_subgraphs = new HashMap<Node, List<AtlasSet<Node>>>(); // format: <Node controlFlowCondition, List<Q entry, Q body, Q exit> >
+	private ViewCache.Entry entry = null; // the blocks of prevFun, format: <Node controlFlowCondition, List<Q entry, Q body, Q exit> >
 //	private Map<Node, Node> map_parent = new HashMap<Node, Node>(); // format: <ChildNode, ParentNode>
 //	private Node previous_function = null;
 	private AtlasSet<Node> selectable = new AtlasHashSet<Node>();
 	private Node prevFun = null;
-	
+	private final BackgroundAnalysis analysis = new BackgroundAnalysis("Structured");
+
+	public StructuredSmartView2() {
+		// the callees and callers of the function shown are analyzed ahead of time
+		analysis.setPrefetcher(new Prefetcher("Structured", new Prefetcher.Analysis() {
+			@Override
+			public StructureResult analyze(Node function, IProgressMonitor monitor) {
+				return Structured.analyze(CommonQueries.cfg(Common.toQ(function)).eval(), monitor);
+			}
+		}));
+	}
+
 	@Override
 	public String[] getSupportedNodeTags() { // Event Trigger
 		return new String[]{XCSG.Function, XCSG.ControlFlow_Node};
@@ -55,32 +72,32 @@ public class StructuredSmartView2 extends FilteringAtlasSmartViewScript {
 		Q f = Common.empty();
 		Q cfgQ = Common.empty();
 		
+		if(function.eval().nodes().isEmpty() && !cf_node.eval().nodes().isEmpty()) {
+			// the blocks may have been analyzed or prefetched since the function was selected
+			refresh(cf_node);
+		}
+
 		if(!function.eval().nodes().isEmpty()) {
 			if(prevFun!= null && prevFun == function.eval().nodes().one()) {
 				Log.info("Re-Selected " + function.eval().nodes().one().getAttr(XCSG.name));
-				cfgQ = CommonQueries.cfg(function);
-								
-				selectable = Structured.getSelectable(cfgQ);
-				map_subgraphs = Structured.getMap();
-				Log.info("map size " + map_subgraphs.size());
-				
-				Log.info("selectable nodes: "+selectable.size());
-
-				Markup m = new Markup();
-				m.setEdge(Common.codemap().edges(XCSG.ControlFlowBackEdge), MarkupProperty.EDGE_COLOR, Color.BLUE);
-
-				return new StyledResult(cfgQ, m);
+			}else {
+				Log.info("Function " + function.eval().nodes().one().getAttr(XCSG.name) + " Selected");
 			}
 			prevFun = function.eval().nodes().one();
-			// if no function, return original graph
-			Log.info("Function " + function.eval().nodes().one().getAttr(XCSG.name) + " Selected");
 			cfgQ = CommonQueries.cfg(function);
 			
-			Structured.analyze(cfgQ.eval());
-			
-			selectable = Structured.getSelectable(cfgQ);
-			map_subgraphs = Structured.getMap();
-			Log.info("map size " + map_subgraphs.size());
+			// kept by the cache when the function was shown before
+			entry = analyze(prevFun, cfgQ);
+			if(entry == null) {
+				// still running, the blocks are shown on the next selection
+				selectable = new AtlasHashSet<Node>();
+			}else {
+				selectable = Structured.getSelectable(cfgQ);
+				Log.info("map size " + entry.result().blocks().size());
+				if(entry.result().partial()) {
+					Log.info("Partial result, the analysis ran out of its budget before every block was extracted");
+				}
+			}
 			
 			Log.info("selectable nodes: "+selectable.size());
 
@@ -91,7 +108,6 @@ public class StructuredSmartView2 extends FilteringAtlasSmartViewScript {
 
 		}else if(!selectable.isEmpty() && selectable.contains(cf_node.eval().nodes().getFirst())) {
 			Log.info("selectable node");
-			Log.info("map size " + map_subgraphs.size());
 //			Log.info("Control Flow Condition Node \" " + cf_condition.eval().nodes().one().getAttr(XCSG.name) + "\" Selected");
 
 			f = cf_node.parent().nodes(XCSG.Function); // find the parent function
@@ -102,12 +118,26 @@ public class StructuredSmartView2 extends FilteringAtlasSmartViewScript {
 //				return null;
 //			}
 			prevFun = f.eval().nodes().one();
+			entry = analyze(prevFun, cfgQ);
+			if(entry == null) {
+				Markup m = new Markup();
+				m.setEdge(Common.codemap().edges(XCSG.ControlFlowBackEdge), MarkupProperty.EDGE_COLOR, Color.BLUE);
+				return new StyledResult(cfgQ, m);
+			}
+			Log.info("map size " + entry.result().blocks().size());
 			
 			// if selected a control flow node, parse for subgraph	
 
 			// list [entry, subgraph, exits]
-			List<AtlasSet<Node>> subgraph = map_subgraphs.get(cf_node.eval().nodes().getFirst());
-			Log.info("subgraph size " + subgraph.size());
+			final Node node = cf_node.eval().nodes().getFirst();
+			final List<AtlasSet<Node>> subgraph = entry.result().block(node);
+			if(subgraph == null || subgraph.size() < 3) {
+				// left out of a partial result, or a node without a block (e.g. a loop without back edge)
+				Log.info(node.getAttr(XCSG.name) + " has no block" + (entry.result().partial() ? ", the analysis of the function ran out of its budget" : ""));
+				Markup m = new Markup();
+				m.setEdge(Common.codemap().edges(XCSG.ControlFlowBackEdge), MarkupProperty.EDGE_COLOR, Color.BLUE);
+				return new StyledResult(cfgQ, m);
+			}
 
 			// log subgraph info
 			Log.info("Subgraph size: " + (subgraph.get(1).size()+subgraph.get(0).size()+subgraph.get(2).size()));
@@ -115,20 +145,14 @@ public class StructuredSmartView2 extends FilteringAtlasSmartViewScript {
 			Log.info("Entry size: " + subgraph.get(0).size());
 			Log.info("Exit size: " + subgraph.get(2).size());
 
-			// init the markup
-			Markup m = new Markup();
-			if(subgraph.size() >= 3) {
-				// mark nodes and edges within this subgraph with yellow color
-				m.setNode(Common.toQ(subgraph.get(1)), MarkupProperty.NODE_BACKGROUND_COLOR, Color.YELLOW.darker());
-				// mark exits with Cyan color
-				m.setNode(Common.toQ(subgraph.get(2)), MarkupProperty.NODE_BACKGROUND_COLOR, Color.CYAN);
-				// mark entry nodes with Magenta
-				m.setNode(Common.toQ(subgraph.get(0)), MarkupProperty.NODE_BACKGROUND_COLOR, Color.MAGENTA);
-				// mark control flow back edge with blue
-				m.setEdge(Common.codemap().edges(XCSG.ControlFlowBackEdge), MarkupProperty.EDGE_COLOR, Color.BLUE);
-				// mark subgraph edges with red
-				m.setEdge(Common.toQ(subgraph.get(1)).union(Common.toQ(subgraph.get(0))).union(Common.toQ(subgraph.get(2))).induce(cfgQ.retainEdges()), MarkupProperty.EDGE_COLOR, Color.RED);
-			}
+			// built once per node, then kept with the blocks
+			final Q cfgFinal = cfgQ;
+			Markup m = entry.markup(node, new ViewCache.Factory<Markup>() {
+				@Override
+				public Markup create() {
+					return markup(subgraph, cfgFinal);
+				}
+			});
 			return new StyledResult(cfgQ, m);
 
 		}else if(!cf_node.eval().nodes().isEmpty()) {
@@ -148,6 +172,57 @@ public class StructuredSmartView2 extends FilteringAtlasSmartViewScript {
 	}
 	
 
+	/**
+	 * Refreshes selectable for the function of a selected node once its blocks are there.
+	 */
+	private void refresh(Q cf_node) {
+		Q f = cf_node.parent().nodes(XCSG.Function);
+		Node fun = f.eval().nodes().one();
+		if(fun == prevFun && entry != null) {
+			return;
+		}
+		Q cfg = CommonQueries.cfg(f);
+		ViewCache.Entry result = analyze(fun, cfg);
+		if(result != null) {
+			prevFun = fun;
+			entry = result;
+			selectable = Structured.getSelectable(cfg);
+		}
+	}
+
+	/**
+	 * @return the cached blocks of the function, null while they are analyzed in the background
+	 */
+	private ViewCache.Entry analyze(Node function, final Q cfg) {
+		return analysis.request(function, new BackgroundAnalysis.Analysis() {
+			@Override
+			public StructureResult analyze(IProgressMonitor monitor) {
+				return Structured.analyze(cfg.eval(), monitor);
+			}
+		});
+	}
+
+	/**
+	 * @return the markup of a block [entry, body, exits] of the cfg
+	 */
+	private static Markup markup(List<AtlasSet<Node>> subgraph, Q cfg) {
+		// init the markup
+		Markup m = new Markup();
+		if(subgraph.size() >= 3) {
+			// mark nodes and edges within this subgraph with yellow color
+			m.setNode(Common.toQ(subgraph.get(1)), MarkupProperty.NODE_BACKGROUND_COLOR, Color.YELLOW.darker());
+			// mark exits with Cyan color
+			m.setNode(Common.toQ(subgraph.get(2)), MarkupProperty.NODE_BACKGROUND_COLOR, Color.CYAN);
+			// mark entry nodes with Magenta
+			m.setNode(Common.toQ(subgraph.get(0)), MarkupProperty.NODE_BACKGROUND_COLOR, Color.MAGENTA);
+			// mark control flow back edge with blue
+			m.setEdge(Common.codemap().edges(XCSG.ControlFlowBackEdge), MarkupProperty.EDGE_COLOR, Color.BLUE);
+			// mark subgraph edges with red
+			m.setEdge(Common.toQ(subgraph.get(1)).union(Common.toQ(subgraph.get(0))).union(Common.toQ(subgraph.get(2))).induce(cfg.retainEdges()), MarkupProperty.EDGE_COLOR, Color.RED);
+		}
+		return m;
+	}
+
 	@Override
 	public String getTitle() {
 		return "TEST-Structured Code View-Control Blocks";